@@ -0,0 +1,304 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Dictionary and target pairs for benchmarks.  Each is generated from a fixed seed, so
+ * every run sees the same data without any files being checked in.
+ *
+ * RANDOM and REPETITIVE are synthetic: incompressible data with scattered edits, and
+ * low-entropy data made of short runs.  HTML, BINARY, LOGS and SHUFFLED imitate realistic
+ * workloads: two revisions of a web page, two builds of an executable whose embedded
+ * offsets shift after an insertion, a log file that's been appended to and rotated, and
+ * an archive whose members have been reordered, with a few changed, dropped or repeated.
+ */
+public enum Corpus {
+
+    RANDOM {
+        @Override
+        Pair generate(int size, Random random) {
+            byte[] dictionary = new byte[size];
+            random.nextBytes(dictionary);
+            byte[] target = dictionary.clone();
+            for (int i = 0; i < target.length; i += 16 + random.nextInt(512)) {
+                target[i] = (byte) random.nextInt();
+            }
+            return new Pair(dictionary, target);
+        }
+    },
+
+    REPETITIVE {
+        @Override
+        Pair generate(int size, Random random) {
+            return new Pair(runs(size, random), runs(size, random));
+        }
+
+        private byte[] runs(int size, Random random) {
+            byte[] data = new byte[size];
+            int i = 0;
+            while (i < size) {
+                int length = Math.min(size - i, 1 + random.nextInt(64));
+                Arrays.fill(data, i, i + length, (byte) ('a' + random.nextInt(4)));
+                i += length;
+            }
+            return data;
+        }
+    },
+
+    HTML {
+        @Override
+        Pair generate(int size, Random random) {
+            List<String> paragraphs = new ArrayList<String>();
+            int total = 0;
+            while (total < size) {
+                String paragraph = sentence(random, 20 + random.nextInt(60));
+                paragraphs.add(paragraph);
+                total += paragraph.length() + 64;
+            }
+            byte[] dictionary = page(paragraphs, "2016-03-01T10:00:00Z", random.nextInt(1 << 20));
+
+            // The next revision rewrites, inserts and deletes a few paragraphs
+            List<String> revised = new ArrayList<String>(paragraphs);
+            for (int i = 0; i < revised.size() / 20 + 1; i++) {
+                int index = random.nextInt(revised.size());
+                switch (random.nextInt(3)) {
+                    case 0:
+                        revised.set(index, sentence(random, 20 + random.nextInt(60)));
+                        break;
+                    case 1:
+                        revised.add(index, sentence(random, 20 + random.nextInt(60)));
+                        break;
+                    default:
+                        revised.remove(index);
+                        break;
+                }
+            }
+            byte[] target = page(revised, "2016-03-02T09:30:00Z", random.nextInt(1 << 20));
+            return new Pair(dictionary, target);
+        }
+
+        private byte[] page(List<String> paragraphs, String modified, int session) {
+            StringBuilder html = new StringBuilder();
+            html.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n<meta charset=\"utf-8\">\n")
+                    .append("<title>Release notes</title>\n<link rel=\"stylesheet\" href=\"/static/site.css\">\n")
+                    .append("<meta name=\"last-modified\" content=\"").append(modified).append("\">\n</head>\n")
+                    .append("<body data-session=\"").append(session).append("\">\n<div id=\"content\">\n");
+            for (int i = 0; i < paragraphs.size(); i++) {
+                html.append("  <div class=\"section\" id=\"s").append(i).append("\">\n    <p>")
+                        .append(paragraphs.get(i)).append("</p>\n  </div>\n");
+            }
+            html.append("</div>\n<script src=\"/static/site.js\"></script>\n</body>\n</html>\n");
+            return html.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    },
+
+    BINARY {
+        @Override
+        Pair generate(int size, Random random) {
+            // Functions made of a few common opcodes with 32-bit absolute addresses in
+            // them.  The new build inserts a function in the middle, so every address that
+            // points past it changes.
+            int functionCount = Math.max(2, size / 256);
+            List<byte[]> functions = new ArrayList<byte[]>();
+            for (int i = 0; i < functionCount; i++) {
+                functions.add(function(random));
+            }
+            byte[] dictionary = link(functions, 0);
+            functions.add(functionCount / 2, function(random));
+            byte[] target = link(functions, 1);
+            return new Pair(dictionary, target);
+        }
+
+        private byte[] function(Random random) {
+            byte[] code = new byte[64 + random.nextInt(384)];
+            for (int i = 0; i < code.length; i++) {
+                code[i] = OPCODES[random.nextInt(OPCODES.length)];
+            }
+            return code;
+        }
+
+        private byte[] link(List<byte[]> functions, int build) {
+            int[] offsets = new int[functions.size()];
+            int length = 0;
+            for (int i = 0; i < functions.size(); i++) {
+                offsets[i] = length;
+                length += functions.get(i).length;
+            }
+
+            // Call sites are chosen the same way in both builds
+            Random calls = new Random(0x5eed);
+            byte[] image = new byte[length];
+            for (int i = 0; i < functions.size(); i++) {
+                byte[] code = functions.get(i);
+                System.arraycopy(code, 0, image, offsets[i], code.length);
+                for (int site = 8; site + 5 <= code.length; site += 24 + calls.nextInt(40)) {
+                    int callee = offsets[calls.nextInt(functions.size())] + 0x400000;
+                    int at = offsets[i] + site;
+                    image[at] = (byte) 0xe8;
+                    image[at + 1] = (byte) callee;
+                    image[at + 2] = (byte) (callee >>> 8);
+                    image[at + 3] = (byte) (callee >>> 16);
+                    image[at + 4] = (byte) (callee >>> 24);
+                }
+            }
+            // A build stamp in the header
+            image[0] = (byte) build;
+            return image;
+        }
+    },
+
+    LOGS {
+        @Override
+        Pair generate(int size, Random random) {
+            ByteArrayOutputStream log = new ByteArrayOutputStream(2 * size);
+            long time = 1456790400000L;
+            List<Integer> lineStarts = new ArrayList<Integer>();
+            while (log.size() < size * 5 / 4) {
+                lineStarts.add(log.size());
+                time += random.nextInt(2000);
+                byte[] line = line(random, time).getBytes(StandardCharsets.UTF_8);
+                log.write(line, 0, line.length);
+            }
+            byte[] all = log.toByteArray();
+
+            // The target has a fifth of the lines rotated out, and new lines appended
+            int end = lineStarts.get(lineStarts.size() * 4 / 5);
+            int start = lineStarts.get(lineStarts.size() / 5);
+            byte[] dictionary = Arrays.copyOfRange(all, 0, end);
+            byte[] target = Arrays.copyOfRange(all, start, all.length);
+            return new Pair(dictionary, target);
+        }
+
+        private String line(Random random, long time) {
+            String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+            String[] templates = {
+                    "GET /api/v1/items/%d 200 %dms",
+                    "POST /api/v1/orders 201 %dms user=%d",
+                    "cache miss for key item:%d, loading from database (%dms)",
+                    "connection pool: %d active, %d idle",
+                    "slow query on shard %d took %dms",
+            };
+            String message = String.format(templates[random.nextInt(templates.length)],
+                    random.nextInt(100000), random.nextInt(500));
+            return String.format("%tF %<tT.%<tL [worker-%d] %-5s %s%n",
+                    time, random.nextInt(16), levels[random.nextInt(levels.length)], message);
+        }
+    },
+
+    SHUFFLED {
+        @Override
+        Pair generate(int size, Random random) {
+            // Blocks of a few kilobytes, half text and half incompressible
+            List<byte[]> blocks = new ArrayList<byte[]>();
+            int total = 0;
+            while (total < size) {
+                byte[] block;
+                if (random.nextBoolean()) {
+                    block = sentence(random, 400 + random.nextInt(800)).getBytes(StandardCharsets.UTF_8);
+                } else {
+                    block = new byte[2048 + random.nextInt(6144)];
+                    random.nextBytes(block);
+                }
+                blocks.add(block);
+                total += block.length;
+            }
+            byte[] dictionary = concatenate(blocks);
+
+            List<byte[]> shuffled = new ArrayList<byte[]>();
+            for (byte[] block : blocks) {
+                switch (random.nextInt(20)) {
+                    case 0:
+                        break;  // Dropped
+                    case 1:
+                        shuffled.add(block);
+                        shuffled.add(block);
+                        break;
+                    case 2:
+                        byte[] changed = block.clone();
+                        changed[random.nextInt(changed.length)] ^= 0x20;
+                        shuffled.add(changed);
+                        break;
+                    default:
+                        shuffled.add(block);
+                        break;
+                }
+            }
+            Collections.shuffle(shuffled, random);
+            return new Pair(dictionary, concatenate(shuffled));
+        }
+
+        private byte[] concatenate(List<byte[]> blocks) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] block : blocks) {
+                out.write(block, 0, block.length);
+            }
+            return out.toByteArray();
+        }
+    };
+
+    /**
+     * A dictionary and a target to encode against it.
+     */
+    public static final class Pair {
+        public final byte[] dictionary;
+        public final byte[] target;
+
+        Pair(byte[] dictionary, byte[] target) {
+            this.dictionary = dictionary;
+            this.target = target;
+        }
+    }
+
+    private static final byte[] OPCODES = {
+            (byte) 0x48, (byte) 0x89, (byte) 0x8b, (byte) 0x83, (byte) 0xc3, (byte) 0x55, (byte) 0x5d,
+            (byte) 0x31, (byte) 0xc0, (byte) 0x74, (byte) 0x75, (byte) 0x0f, (byte) 0x85, (byte) 0x00,
+    };
+
+    private static final String[] WORDS = {
+            "the", "release", "adds", "support", "for", "streaming", "decoders", "and", "fixes", "a",
+            "bug", "in", "window", "handling", "when", "dictionary", "is", "larger", "than", "target",
+            "performance", "improved", "by", "reusing", "buffers", "across", "requests", "with", "new",
+    };
+
+    abstract Pair generate(int size, Random random);
+
+    /**
+     * @param size approximate size of the dictionary and the target
+     * @return a dictionary and target generated from a fixed seed
+     */
+    public Pair generate(int size) {
+        return generate(size, new Random(42));
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.append('.').toString();
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.benchmarks;
+
+import com.davidehrmann.vcdiff.VCDiffDecoder;
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a multi-window delta file in a single pass against parsing each
+ * window into an instruction array first and executing it afterwards, for delta files
+ * with long and short instructions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    private static final int TARGET_SIZE = 4 << 20;
+
+    @Param({"false", "true"})
+    public boolean twoPhase;
+
+    @Param({"65536"})
+    public int windowSize;
+
+    @Param({"false", "true"})
+    public boolean interleaved;
+
+    // Dense edits make a delta file that's mostly short ADDs and COPYs, so decoding it is
+    // dominated by parsing instructions, sizes and addresses rather than copying data
+    @Param({"false", "true"})
+    public boolean denseEdits;
+
+    private byte[] dictionary;
+    private byte[] delta;
+    private VCDiffDecoder decoder;
+    private ByteArrayOutputStream target;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        dictionary = new byte[TARGET_SIZE];
+        random.nextBytes(dictionary);
+
+        // Mostly copies of the dictionary, with small edits and a few runs
+        byte[] targetData = dictionary.clone();
+        for (int i = 0; i < targetData.length; i += denseEdits ? 40 + random.nextInt(32) : 16 + random.nextInt(512)) {
+            if (random.nextInt(8) == 0) {
+                int runLength = Math.min(32 + random.nextInt(64), targetData.length - i);
+                Arrays.fill(targetData, i, i + runLength, (byte) random.nextInt());
+            } else {
+                targetData[i] = (byte) random.nextInt();
+            }
+        }
+
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary)
+                .withInterleaving(interleaved)
+                .buildStreaming();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.startEncoding(out);
+        for (int i = 0; i < targetData.length; i += windowSize) {
+            encoder.encodeChunk(targetData, i, Math.min(windowSize, targetData.length - i), out);
+        }
+        encoder.finishEncoding(out);
+        delta = out.toByteArray();
+
+        decoder = VCDiffDecoderBuilder.builder()
+                .withTwoPhaseDecoding(twoPhase)
+                .buildSimple();
+        target = new ByteArrayOutputStream(TARGET_SIZE);
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        target.reset();
+        decoder.decode(dictionary, delta, target);
+        return target.size();
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.benchmarks;
+
+import com.davidehrmann.vcdiff.VCDiffDecoder;
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the parallel decoder scales with the number of threads on a large delta
+ * file made of many independent windows.  sequential is the plain decoder, for
+ * comparison with parallel on one thread, which adds the cost of indexing the windows
+ * and handing them to the executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelDecodeBenchmark {
+
+    @Param({"RANDOM", "HTML", "LOGS"})
+    public Corpus corpus;
+
+    @Param({"16777216"})
+    public int size;
+
+    @Param({"65536"})
+    public int windowSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ByteBuffer dictionary;
+    private ByteBuffer delta;
+    private ExecutorService executor;
+    private VCDiffDecoder sequential;
+    private VCDiffDecoder parallel;
+    private ByteArrayOutputStream target;
+
+    @Setup
+    public void setUp() throws IOException {
+        Corpus.Pair pair = corpus.generate(size);
+        dictionary = ByteBuffer.wrap(pair.dictionary);
+
+        // Each chunk becomes its own window
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(pair.dictionary)
+                .buildStreaming();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.startEncoding(out);
+        for (int i = 0; i < pair.target.length; i += windowSize) {
+            encoder.encodeChunk(pair.target, i, Math.min(windowSize, pair.target.length - i), out);
+        }
+        encoder.finishEncoding(out);
+        delta = ByteBuffer.wrap(out.toByteArray());
+
+        executor = Executors.newFixedThreadPool(threads);
+        VCDiffDecoderBuilder builder = VCDiffDecoderBuilder.builder().withMaxTargetFileSize(2L * size);
+        sequential = builder.buildSimple();
+        parallel = builder.buildParallel(executor, 2 * threads);
+        target = new ByteArrayOutputStream(pair.target.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int sequential() throws IOException {
+        target.reset();
+        sequential.decode(dictionary.duplicate(), delta.duplicate(), target);
+        return target.size();
+    }
+
+    @Benchmark
+    public int parallel() throws IOException {
+        target.reset();
+        parallel.decode(dictionary.duplicate(), delta.duplicate(), target);
+        return target.size();
+    }
+}
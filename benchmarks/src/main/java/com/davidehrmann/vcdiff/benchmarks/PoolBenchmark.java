@@ -0,0 +1,136 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.benchmarks;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffFormatExtension;
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import com.davidehrmann.vcdiff.engine.HashedDictionary;
+import com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl;
+import com.davidehrmann.vcdiff.engine.VCDiffDecoderPool;
+import com.davidehrmann.vcdiff.engine.VCDiffEncoderPool;
+import com.davidehrmann.vcdiff.engine.VCDiffStreamingEncoderImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request cost of encoding and decoding small delta files with a new
+ * encoder or decoder for each request, against borrowing one from a pool.  Both share
+ * one hashed dictionary, so the difference is the cost of setting up the encoder or
+ * decoder itself.  Run with -prof gc to see the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark {
+
+    private static final int DICTIONARY_SIZE = 64 * 1024;
+
+    @Param({"1024", "16384"})
+    public int targetSize;
+
+    private byte[] dictionary;
+    private byte[] targetData;
+    private byte[] delta;
+    private HashedDictionary hashedDictionary;
+    private EnumSet<VCDiffFormatExtension> formatExtensions;
+    private VCDiffEncoderPool encoderPool;
+    private VCDiffDecoderPool decoderPool;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        dictionary = new byte[DICTIONARY_SIZE];
+        random.nextBytes(dictionary);
+
+        // A piece of the dictionary with small edits
+        targetData = new byte[targetSize];
+        System.arraycopy(dictionary, random.nextInt(DICTIONARY_SIZE - targetSize), targetData, 0, targetSize);
+        for (int i = 0; i < targetData.length; i += 16 + random.nextInt(256)) {
+            targetData[i] = (byte) random.nextInt();
+        }
+
+        hashedDictionary = new HashedDictionary(dictionary);
+        formatExtensions = EnumSet.of(VCDiffFormatExtension.GOOGLE_CHECKSUM);
+        VCDiffEncoderBuilder encoderBuilder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary)
+                .withChecksum(true);
+        encoderPool = encoderBuilder.buildPool(1);
+        decoderPool = VCDiffDecoderBuilder.builder().buildPool(1);
+
+        out = new ByteArrayOutputStream(2 * targetSize);
+        encoderPool.encode(targetData, out);
+        delta = out.toByteArray();
+    }
+
+    @Benchmark
+    public int encodeNew() throws IOException {
+        out.reset();
+        VCDiffStreamingEncoder<OutputStream> encoder = new VCDiffStreamingEncoderImpl<OutputStream>(
+                new VCDiffCodeTableWriterImpl(false), hashedDictionary, formatExtensions, true);
+        encoder.startEncoding(out);
+        encoder.encodeChunk(targetData, 0, targetData.length, out);
+        encoder.finishEncoding(out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int encodePooled() throws IOException {
+        out.reset();
+        encoderPool.encode(targetData, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int decodeNew() throws IOException {
+        out.reset();
+        VCDiffStreamingDecoder decoder = VCDiffDecoderBuilder.builder().buildStreaming();
+        decoder.startDecoding(ByteBuffer.wrap(dictionary));
+        decoder.decodeChunk(ByteBuffer.wrap(delta), out);
+        decoder.finishDecoding();
+        return out.size();
+    }
+
+    @Benchmark
+    public int decodePooled() throws IOException {
+        out.reset();
+        decoderPool.decode(dictionary, delta, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,91 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.benchmarks;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the streaming decoder when the delta file arrives in chunks, so windows are
+ * split across calls to decodeChunk() and partially parsed windows get buffered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamingDecodeBenchmark {
+
+    @Param({"RANDOM", "REPETITIVE", "HTML", "BINARY", "LOGS", "SHUFFLED"})
+    public Corpus corpus;
+
+    @Param({"1048576"})
+    public int size;
+
+    @Param({"1024", "65536"})
+    public int chunkSize;
+
+    private ByteBuffer dictionary;
+    private byte[] delta;
+    private VCDiffStreamingDecoder decoder;
+    private ByteArrayOutputStream target;
+
+    @Setup
+    public void setUp() throws IOException {
+        Corpus.Pair pair = corpus.generate(size);
+        dictionary = ByteBuffer.wrap(pair.dictionary);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VCDiffEncoderBuilder.builder()
+                .withDictionary(pair.dictionary)
+                .withTargetMatches(true)
+                .buildSimple()
+                .encode(pair.target, out);
+        delta = out.toByteArray();
+
+        decoder = VCDiffDecoderBuilder.builder().buildStreaming();
+        target = new ByteArrayOutputStream(pair.target.length);
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        target.reset();
+        decoder.startDecoding(dictionary);
+        for (int i = 0; i < delta.length; i += chunkSize) {
+            decoder.decodeChunk(ByteBuffer.wrap(delta, i, Math.min(chunkSize, delta.length - i)), target);
+        }
+        decoder.finishDecoding();
+        return target.size();
+    }
+}
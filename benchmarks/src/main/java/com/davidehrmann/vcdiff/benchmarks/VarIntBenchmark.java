@@ -0,0 +1,110 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.benchmarks;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading and writing varints.  Small values are one or two bytes, like most
+ * instruction sizes; large values are up to five bytes, like addresses in a big
+ * dictionary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VarIntBenchmark {
+
+    private static final int VALUES = 10000;
+
+    @Param({"false", "true"})
+    public boolean large;
+
+    private int[] values;
+    private ByteBuffer encoded;
+    private ByteBuffer scratch;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        values = new int[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = large ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(1 << 14);
+        }
+
+        encoded = ByteBuffer.allocate(5 * VALUES);
+        for (int value : values) {
+            VarInt.putInt(encoded, value);
+        }
+        encoded.flip();
+        scratch = ByteBuffer.allocate(5 * VALUES);
+    }
+
+    @Benchmark
+    public int getInt() throws Exception {
+        ByteBuffer buffer = encoded.duplicate();
+        int sum = 0;
+        while (buffer.hasRemaining()) {
+            sum += VarInt.getInt(buffer);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int tryGetInt() {
+        ByteBuffer buffer = encoded.duplicate();
+        int sum = 0;
+        while (buffer.hasRemaining()) {
+            sum += VarInt.tryGetInt(buffer);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int putInt() {
+        scratch.clear();
+        for (int value : values) {
+            VarInt.putInt(scratch, value);
+        }
+        return scratch.position();
+    }
+
+    @Benchmark
+    public int calculateIntLength() {
+        int sum = 0;
+        for (int value : values) {
+            sum += VarInt.calculateIntLength(value);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.benchmarks;
+
+import com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the code table writer emits a window's worth of instructions and
+ * writes the window out, without the cost of finding matches.  Run with -prof gc to see
+ * how much it allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+
+    private static final int DICTIONARY_SIZE = 1 << 20;
+    private static final int INSTRUCTIONS = 10000;
+
+    private static final byte ADD = 0;
+    private static final byte COPY = 1;
+    private static final byte RUN = 2;
+
+    @Param({"false", "true"})
+    public boolean interleaved;
+
+    private final OutputStream nullOut = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private byte[] data;
+    private byte[] types;
+    private int[] addresses;
+    private int[] sizes;
+    private VCDiffCodeTableWriterImpl writer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        data = new byte[256];
+        random.nextBytes(data);
+
+        // Mostly COPYs of recently copied data, with short ADDs and the occasional RUN
+        // in between, like an encoded file with scattered edits
+        types = new byte[INSTRUCTIONS];
+        addresses = new int[INSTRUCTIONS];
+        sizes = new int[INSTRUCTIONS];
+        int address = 0;
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            int kind = random.nextInt(16);
+            if (kind < 10) {
+                types[i] = COPY;
+                address = random.nextInt(4) == 0 ? random.nextInt(DICTIONARY_SIZE) : address + random.nextInt(1024);
+                addresses[i] = address % DICTIONARY_SIZE;
+                sizes[i] = 4 + random.nextInt(random.nextBoolean() ? 16 : 4096);
+            } else if (kind < 15) {
+                types[i] = ADD;
+                sizes[i] = 1 + random.nextInt(random.nextBoolean() ? 4 : data.length);
+            } else {
+                types[i] = RUN;
+                sizes[i] = 4 + random.nextInt(64);
+            }
+        }
+
+        writer = new VCDiffCodeTableWriterImpl(interleaved);
+        writer.init(DICTIONARY_SIZE);
+    }
+
+    @Benchmark
+    public int emitWindow() throws IOException {
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            switch (types[i]) {
+                case ADD:
+                    writer.add(data, 0, sizes[i]);
+                    break;
+                case COPY:
+                    writer.copy(addresses[i], sizes[i]);
+                    break;
+                default:
+                    writer.run(sizes[i], data[i & 0xff]);
+                    break;
+            }
+        }
+        int targetLength = writer.targetLength();
+        writer.output(nullOut);
+        return targetLength;
+    }
+}
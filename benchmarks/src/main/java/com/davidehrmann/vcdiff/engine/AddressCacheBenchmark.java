@@ -0,0 +1,112 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding COPY addresses with the default cache sizes, using the
+ * specialized default cache and the cache that supports any size.  The addresses are
+ * mostly near recent ones, with the occasional jump, like a file with scattered edits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressCacheBenchmark {
+
+    private static final int DICTIONARY_SIZE = 1 << 20;
+    private static final int ADDRESSES = 10000;
+
+    private int[] addresses;
+    private int[] heres;
+    private short[] modes;
+    private ByteBuffer addressStream;
+    private VCDiffAddressCache cache;
+
+    @Param({"default", "generic"})
+    public String implementation;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        addresses = new int[ADDRESSES];
+        heres = new int[ADDRESSES];
+        int address = 0;
+        int here = DICTIONARY_SIZE;
+        for (int i = 0; i < ADDRESSES; i++) {
+            address = random.nextInt(4) == 0 ? random.nextInt(DICTIONARY_SIZE) : address + random.nextInt(1024);
+            addresses[i] = address % DICTIONARY_SIZE;
+            heres[i] = here;
+            here += 4 + random.nextInt(256);
+        }
+
+        cache = "default".equals(implementation) ? new VCDiffDefaultAddressCache() : new VCDiffAddressCacheImpl();
+        cache.Init();
+        modes = new short[ADDRESSES];
+        ByteBuffer stream = ByteBuffer.allocate(5 * ADDRESSES);
+        for (int i = 0; i < ADDRESSES; i++) {
+            long encoded = cache.EncodeAddress(addresses[i], heres[i]);
+            modes[i] = VCDiffAddressCache.EncodedMode(encoded);
+            if (cache.WriteAddressAsVarintForMode(modes[i])) {
+                VarInt.putInt(stream, VCDiffAddressCache.EncodedAddress(encoded));
+            } else {
+                stream.put((byte) VCDiffAddressCache.EncodedAddress(encoded));
+            }
+        }
+        stream.flip();
+        addressStream = stream;
+    }
+
+    @Benchmark
+    public long encodeAddresses() {
+        cache.Init();
+        long sum = 0;
+        for (int i = 0; i < ADDRESSES; i++) {
+            sum += cache.EncodeAddress(addresses[i], heres[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int decodeAddresses() throws IOException {
+        cache.Init();
+        ByteBuffer stream = addressStream.duplicate();
+        int sum = 0;
+        for (int i = 0; i < ADDRESSES; i++) {
+            sum += cache.DecodeAddress(heres[i], modes[i], stream);
+        }
+        return sum;
+    }
+}
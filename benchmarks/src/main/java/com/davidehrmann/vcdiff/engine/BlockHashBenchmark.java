@@ -0,0 +1,88 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.benchmarks.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the block hash for a dictionary, and looking up the best match for
+ * each block of a target in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockHashBenchmark {
+
+    @Param({"RANDOM", "REPETITIVE", "HTML", "BINARY", "LOGS", "SHUFFLED"})
+    public Corpus corpus;
+
+    @Param({"1048576"})
+    public int size;
+
+    private byte[] dictionary;
+    private byte[] target;
+    private long[] targetHashes;
+    private BlockHash dictionaryHash;
+
+    @Setup
+    public void setUp() {
+        Corpus.Pair pair = corpus.generate(size);
+        dictionary = pair.dictionary;
+        target = pair.target;
+        dictionaryHash = BlockHash.CreateDictionaryHash(dictionary);
+
+        RollingHash hasher = new RollingHash(BlockHash.kBlockSize);
+        targetHashes = new long[target.length / BlockHash.kBlockSize];
+        for (int i = 0; i < targetHashes.length; i++) {
+            targetHashes[i] = hasher.Hash(target, i * BlockHash.kBlockSize, BlockHash.kBlockSize);
+        }
+    }
+
+    @Benchmark
+    public BlockHash createDictionaryHash() {
+        return BlockHash.CreateDictionaryHash(dictionary);
+    }
+
+    @Benchmark
+    public int findBestMatch() {
+        int matched = 0;
+        ByteBuffer candidate = ByteBuffer.wrap(target);
+        for (int i = 0; i < targetHashes.length; i++) {
+            BlockHash.Match match = new BlockHash.Match();
+            candidate.position(i * BlockHash.kBlockSize);
+            dictionaryHash.FindBestMatch((int) targetHashes[i], candidate, match);
+            matched += match.size();
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures turning instructions into opcodes with the default instruction map, the way
+ * the code table writer does, and reading them back with the code table reader.  The
+ * instructions alternate between ADDs and COPYs with mostly small sizes, so many of them
+ * combine into double-instruction opcodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeTableBenchmark {
+
+    private static final int INSTRUCTIONS = 10000;
+
+    private byte[] insts;
+    private byte[] sizes;
+    private byte[] modes;
+    private ByteBuffer instructionsAndSizes;
+    private VCDiffCodeTableReader reader;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        insts = new byte[INSTRUCTIONS];
+        sizes = new byte[INSTRUCTIONS];
+        modes = new byte[INSTRUCTIONS];
+        ByteBuffer stream = ByteBuffer.allocate(6 * INSTRUCTIONS);
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            if (i % 2 == 0) {
+                insts[i] = VCDiffCodeTableData.VCD_ADD;
+                sizes[i] = (byte) (1 + random.nextInt(random.nextBoolean() ? 4 : 40));
+            } else {
+                insts[i] = VCDiffCodeTableData.VCD_COPY;
+                sizes[i] = (byte) (4 + random.nextInt(random.nextBoolean() ? 3 : 100));
+                modes[i] = (byte) random.nextInt(VCDiffAddressCache.DefaultLastMode() + 1);
+            }
+
+            short opcode = VCDiffInstructionMap.DEFAULT_INSTRUCTION_MAP.LookupFirstOpcode(insts[i], sizes[i], modes[i]);
+            if (opcode == VCDiffCodeTableData.kNoOpcode) {
+                opcode = VCDiffInstructionMap.DEFAULT_INSTRUCTION_MAP.LookupFirstOpcode(insts[i], (byte) 0, modes[i]);
+                stream.put((byte) opcode);
+                VarInt.putInt(stream, sizes[i] & 0xff);
+            } else {
+                stream.put((byte) opcode);
+            }
+        }
+        stream.flip();
+        instructionsAndSizes = stream;
+        reader = new VCDiffCodeTableReader();
+    }
+
+    @Benchmark
+    public int lookupOpcodes() {
+        final VCDiffInstructionMap map = VCDiffInstructionMap.DEFAULT_INSTRUCTION_MAP;
+        int sum = 0;
+        short last = VCDiffCodeTableData.kNoOpcode;
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            if (last != VCDiffCodeTableData.kNoOpcode) {
+                short compound = map.LookupSecondOpcode((byte) last, insts[i], sizes[i], modes[i]);
+                if (compound != VCDiffCodeTableData.kNoOpcode) {
+                    sum += compound;
+                    last = VCDiffCodeTableData.kNoOpcode;
+                    continue;
+                }
+            }
+            last = map.LookupFirstOpcode(insts[i], sizes[i], modes[i]);
+            if (last == VCDiffCodeTableData.kNoOpcode) {
+                last = map.LookupFirstOpcode(insts[i], (byte) 0, modes[i]);
+            }
+            sum += last;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int readInstructions() throws IOException {
+        reader.init(instructionsAndSizes.duplicate());
+        AtomicInteger size = new AtomicInteger();
+        AtomicInteger mode = new AtomicInteger();
+        int sum = 0;
+        byte instruction;
+        while ((instruction = reader.getNextInstruction(size, mode)) != VCDiffCodeTableData.VCD_INSTRUCTION_END_OF_DATA) {
+            sum += instruction + size.get() + mode.get();
+        }
+        return sum;
+    }
+}
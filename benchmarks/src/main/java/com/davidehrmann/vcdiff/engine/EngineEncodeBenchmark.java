@@ -0,0 +1,89 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.benchmarks.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures VCDiffEngine.Encode on its own, without the header, checksum or the streaming
+ * encoder around it.  This lives in the engine package because the engine is
+ * package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineEncodeBenchmark {
+
+    @Param({"RANDOM", "REPETITIVE", "HTML", "BINARY", "LOGS", "SHUFFLED"})
+    public Corpus corpus;
+
+    @Param({"1048576"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean targetMatches;
+
+    @Param({"false", "true"})
+    public boolean interleaved;
+
+    private final OutputStream nullOut = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private byte[] target;
+    private VCDiffEngine engine;
+    private VCDiffCodeTableWriterImpl writer;
+
+    @Setup
+    public void setUp() {
+        Corpus.Pair pair = corpus.generate(size);
+        target = pair.target;
+        engine = new VCDiffEngine(pair.dictionary);
+        writer = new VCDiffCodeTableWriterImpl(interleaved);
+        writer.init(engine.dictionary_size());
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        engine.Encode(ByteBuffer.wrap(target), targetMatches, nullOut, writer);
+        return target.length;
+    }
+}
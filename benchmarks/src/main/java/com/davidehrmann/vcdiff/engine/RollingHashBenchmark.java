@@ -0,0 +1,75 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rolling a block hash across a buffer one byte at a time, the way the encoder
+ * scans a target, against hashing every block from scratch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollingHashBenchmark {
+
+    private static final int DATA_SIZE = 1 << 20;
+
+    private byte[] data;
+    private RollingHash hasher;
+
+    @Setup
+    public void setUp() {
+        data = new byte[DATA_SIZE];
+        new Random(42).nextBytes(data);
+        hasher = new RollingHash(BlockHash.kBlockSize);
+    }
+
+    @Benchmark
+    public long updateHash() {
+        long hash = hasher.Hash(data, 0, BlockHash.kBlockSize);
+        long sum = hash;
+        for (int i = BlockHash.kBlockSize; i < data.length; i++) {
+            hash = hasher.UpdateHash(hash, data[i - BlockHash.kBlockSize], data[i]);
+            sum += hash;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long hash() {
+        long sum = 0;
+        for (int i = 0; i + BlockHash.kBlockSize <= data.length; i += BlockHash.kBlockSize) {
+            sum += hasher.Hash(data, i, BlockHash.kBlockSize);
+        }
+        return sum;
+    }
+}
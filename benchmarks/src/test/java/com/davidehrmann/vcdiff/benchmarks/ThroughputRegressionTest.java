@@ -0,0 +1,246 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.benchmarks;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encodes and decodes a large instance of each corpus, and checks encode and decode
+ * throughput, the size of the delta file relative to the target, and the bytes allocated
+ * per target byte against the baselines in regression-baselines.properties.  Each encode
+ * includes hashing the dictionary, and allocation is counted for the whole thread with
+ * com.sun.management.ThreadMXBean.
+ *
+ * Delta ratios and allocation don't depend on the machine, so their tolerances are tight.
+ * Throughput does, so its tolerance is loose, and it can be overridden with
+ * -Dvcdiff.regression.throughputTolerance.  Run with -Dvcdiff.regression.record=FILE to
+ * write what was measured to FILE instead of checking it, then copy that over the
+ * baselines after an intended change.
+ *
+ * These run with -Pregression, not as part of the normal build.
+ */
+@RunWith(Parameterized.class)
+public class ThroughputRegressionTest {
+
+    private static final int kSize = 8 << 20;
+    private static final int kWarmupRounds = 3;
+    private static final int kMeasuredRounds = 5;
+
+    private static final String kRecordProperty = "vcdiff.regression.record";
+    private static final String kThroughputToleranceProperty = "vcdiff.regression.throughputTolerance";
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static Properties baselines;
+    private static final TreeMap<String, String> measured = new TreeMap<String, String>();
+
+    @Parameter
+    public Corpus corpus;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> corpora() {
+        List<Object[]> corpora = new ArrayList<Object[]>();
+        for (Corpus corpus : Corpus.values()) {
+            corpora.add(new Object[] { corpus });
+        }
+        return corpora;
+    }
+
+    @BeforeClass
+    public static void loadBaselines() throws IOException {
+        assertTrue("Thread allocation counters aren't supported", threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        baselines = new Properties();
+        InputStream in = ThroughputRegressionTest.class.getResourceAsStream("regression-baselines.properties");
+        assertNotNull("regression-baselines.properties is missing", in);
+        try {
+            baselines.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @AfterClass
+    public static void recordMeasurements() throws IOException {
+        String file = System.getProperty(kRecordProperty);
+        if (file == null) {
+            return;
+        }
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            StringBuilder properties = new StringBuilder(
+                    "# Baselines for ThroughputRegressionTest, recorded with -D" + kRecordProperty + "=FILE\n");
+            for (String name : baselines.stringPropertyNames()) {
+                if (name.startsWith("tolerance.")) {
+                    measured.put(name, baselines.getProperty(name));
+                }
+            }
+            for (Map.Entry<String, String> entry : measured.entrySet()) {
+                properties.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+            }
+            out.write(properties.toString().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * What one round of encoding or decoding took, at best, over the measured rounds.
+     */
+    private static final class Measurement {
+        long nanos = Long.MAX_VALUE;
+        long allocatedBytes = Long.MAX_VALUE;
+
+        void add(long nanos, long allocatedBytes) {
+            this.nanos = Math.min(this.nanos, nanos);
+            this.allocatedBytes = Math.min(this.allocatedBytes, allocatedBytes);
+        }
+
+        double megabytesPerSecond(int bytes) {
+            return bytes / (nanos / 1e9) / (1 << 20);
+        }
+
+        double allocatedPerByte(int bytes) {
+            return (double) allocatedBytes / bytes;
+        }
+    }
+
+    private static byte[] encode(Corpus.Pair pair) throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream(pair.target.length);
+        VCDiffEncoderBuilder.builder()
+                .withDictionary(pair.dictionary)
+                .withTargetMatches(true)
+                .buildSimple()
+                .encode(pair.target, delta);
+        return delta.toByteArray();
+    }
+
+    private static void decode(Corpus.Pair pair, byte[] delta, ByteArrayOutputStream target) throws IOException {
+        target.reset();
+        VCDiffDecoderBuilder.builder().buildSimple().decode(pair.dictionary, delta, target);
+    }
+
+    @Test
+    public void MatchesBaselines() throws IOException {
+        Corpus.Pair pair = corpus.generate(kSize);
+        ByteArrayOutputStream target = new ByteArrayOutputStream(pair.target.length);
+        final long thread = Thread.currentThread().getId();
+
+        byte[] delta = encode(pair);
+        decode(pair, delta, target);
+        assertArrayEquals(pair.target, target.toByteArray());
+        for (int i = 1; i < kWarmupRounds; i++) {
+            decode(pair, encode(pair), target);
+        }
+
+        Measurement encoding = new Measurement();
+        Measurement decoding = new Measurement();
+        for (int i = 0; i < kMeasuredRounds; i++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            byte[] encoded = encode(pair);
+            encoding.add(System.nanoTime() - start, threads.getThreadAllocatedBytes(thread) - allocatedBefore);
+
+            allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            start = System.nanoTime();
+            decode(pair, encoded, target);
+            decoding.add(System.nanoTime() - start, threads.getThreadAllocatedBytes(thread) - allocatedBefore);
+        }
+
+        int bytes = pair.target.length;
+        double deltaRatio = (double) delta.length / bytes;
+        System.out.println(String.format(Locale.ROOT,
+                "%-10s encode %8.2f MB/s %6.3f B/B   decode %8.2f MB/s %6.3f B/B   delta ratio %.4f",
+                corpus, encoding.megabytesPerSecond(bytes), encoding.allocatedPerByte(bytes),
+                decoding.megabytesPerSecond(bytes), decoding.allocatedPerByte(bytes), deltaRatio));
+
+        if (System.getProperty(kRecordProperty) != null) {
+            String prefix = corpus.name().toLowerCase(Locale.ROOT) + '.';
+            synchronized (measured) {
+                measured.put(prefix + "encodeMegabytesPerSecond", format(encoding.megabytesPerSecond(bytes)));
+                measured.put(prefix + "decodeMegabytesPerSecond", format(decoding.megabytesPerSecond(bytes)));
+                measured.put(prefix + "encodeAllocatedPerByte", format(encoding.allocatedPerByte(bytes)));
+                measured.put(prefix + "decodeAllocatedPerByte", format(decoding.allocatedPerByte(bytes)));
+                measured.put(prefix + "deltaRatio", format(deltaRatio));
+            }
+            return;
+        }
+
+        double throughputTolerance = Double.parseDouble(System.getProperty(kThroughputToleranceProperty,
+                baselines.getProperty("tolerance.throughput")));
+        assertAtLeast("encodeMegabytesPerSecond", encoding.megabytesPerSecond(bytes), throughputTolerance);
+        assertAtLeast("decodeMegabytesPerSecond", decoding.megabytesPerSecond(bytes), throughputTolerance);
+
+        double allocationTolerance = Double.parseDouble(baselines.getProperty("tolerance.allocation"));
+        assertAtMost("encodeAllocatedPerByte", encoding.allocatedPerByte(bytes), allocationTolerance);
+        assertAtMost("decodeAllocatedPerByte", decoding.allocatedPerByte(bytes), allocationTolerance);
+
+        assertAtMost("deltaRatio", deltaRatio, Double.parseDouble(baselines.getProperty("tolerance.deltaRatio")));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    private double baseline(String metric) {
+        String name = corpus.name().toLowerCase(Locale.ROOT) + '.' + metric;
+        String baseline = baselines.getProperty(name);
+        assertNotNull("No baseline for " + name, baseline);
+        return Double.parseDouble(baseline);
+    }
+
+    private void assertAtLeast(String metric, double actual, double tolerance) {
+        double minimum = baseline(metric) * (1 - tolerance);
+        assertTrue(String.format(Locale.ROOT, "%s %s regressed: %.4f, expected at least %.4f",
+                corpus, metric, actual, minimum), actual >= minimum);
+    }
+
+    private void assertAtMost(String metric, double actual, double tolerance) {
+        double maximum = baseline(metric) * (1 + tolerance);
+        assertTrue(String.format(Locale.ROOT, "%s %s regressed: %.4f, expected at most %.4f",
+                corpus, metric, actual, maximum), actual <= maximum);
+    }
+}
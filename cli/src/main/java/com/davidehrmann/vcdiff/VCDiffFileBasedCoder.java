@@ -21,26 +21,41 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
 import com.beust.jcommander.ParametersDelegate;
+import com.davidehrmann.vcdiff.engine.VCDiffDecoderStatistics;
+import com.davidehrmann.vcdiff.engine.VCDiffEncoderStatistics;
+import com.davidehrmann.vcdiff.engine.VCDiffWindowIndex;
 import com.davidehrmann.vcdiff.io.ComparingOutputStream;
-import com.davidehrmann.vcdiff.io.CountingInputStream;
-import com.davidehrmann.vcdiff.io.CountingOutputStream;
-import com.davidehrmann.vcdiff.io.IOUtils;
+import com.davidehrmann.vcdiff.io.CountingWritableByteChannel;
+import com.davidehrmann.vcdiff.io.MappedInputChannel;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FilterInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 
 /**
  * / command-line interface to the open-vcdiff library.
+ *
+ * The dictionary and input files are memory-mapped and output files are written through
+ * FileChannels.  When decoding a delta file that never copies from earlier target windows
+ * (VCD_TARGET), each window is written out as soon as it's decoded, so only one window of
+ * the target is held in memory.  Otherwise, the whole target is held in memory, and it's
+ * limited by --max_target_file_size.
  */
 public class VCDiffFileBasedCoder {
     public static final int DEFAULT_MAX_TARGET_SIZE = 1 << 26;      // 64 MB
@@ -75,6 +90,9 @@ public class VCDiffFileBasedCoder {
         @Parameter(names = {"-checksum", "--checksum"}, description = "Include an Adler32 checksum of the target data when encoding")
         protected boolean checksum = false;
 
+        @Parameter(names = {"-crc32c", "--crc32c"}, description = "With --checksum, use CRC-32C instead of Adler32")
+        protected boolean crc32c = false;
+
         @Parameter(names = {"-interleaved", "--interleaved"}, description = "Use interleaved format")
         protected boolean interleaved = false;
 
@@ -91,8 +109,8 @@ public class VCDiffFileBasedCoder {
         @Parameter(names = {"-dictionary", "--dictionary"}, description = "File containing dictionary data (required)", required = true)
         protected String dictionary;
 
-        @Parameter(names = {"-max_target_file_size", "--max_target_file_size"}, description = "Maximum target file size allowed by decoder")
-        protected long maxTargetFileSize = (long) DEFAULT_MAX_TARGET_SIZE;
+        @Parameter(names = {"-max_target_file_size", "--max_target_file_size"}, description = "Maximum target file size allowed by decoder (default 64 MB when the whole target has to be held in memory, otherwise unlimited)")
+        protected Long maxTargetFileSize = null;
 
         @Parameter(names = {"-max_target_window_size", "--max_target_window_size"}, description = "Maximum target window size allowed by decoder")
         protected int maxTargetWindowSize = DEFAULT_MAX_TARGET_SIZE;
@@ -102,7 +120,7 @@ public class VCDiffFileBasedCoder {
         @Parameter(names = {"-buffersize", "--buffersize"}, description = "Buffer size for reading input file", validateWith = PositiveInteger.class)
         protected int bufferSize = 1 << 20;
 
-        @Parameter(names = {"-stats", "--stats"}, description = "Report compression percentage")
+        @Parameter(names = {"-stats", "--stats"}, description = "Report compression percentage, what was matched or copied, and where the time went")
         protected boolean stats = false;
     }
 
@@ -127,26 +145,64 @@ public class VCDiffFileBasedCoder {
         }
     }
 
-    private static OutputStream OpenFileForWriting(String file_name, String file_type) throws FileNotFoundException{
+    private static FileChannel OpenFileChannel(String file_name, String file_type, StandardOpenOption... options) throws IOException {
         try {
-            return new OutputStreamExceptionMapper(
-                    new FileOutputStream(file_name),
-                    file_type
-            );
-        } catch (FileNotFoundException e) {
-            throw new FileNotFoundException(String.format(
+            return FileChannel.open(Paths.get(file_name), options);
+        } catch (IOException e) {
+            throw new IOException(String.format(
                     "Error opening %s file: %s",
                     file_type, e.getMessage()
             ));
         }
     }
 
-    // Opens the dictionary file and reads it into a newly allocated buffer.
-    // If successful, returns true and populates dictionary with the dictionary
-    // contents; otherwise, returns the buffer.
-    protected static byte[] OpenDictionary(String dictionary) throws IOException {
-        try (InputStream in = OpenFileForReading(dictionary, "dictionary")) {
-            return IOUtils.toByteArray(in);
+    // Opens a file for memory-mapped reading, or stdin if file_name isn't set.
+    private static ReadableByteChannel OpenChannelForReading(String file_name, String file_type) throws IOException {
+        if (file_name == null || file_name.isEmpty()) {
+            return Channels.newChannel(new InputStreamExceptionMapper(System.in, file_type));
+        }
+        return new MappedInputChannel(OpenFileChannel(file_name, file_type, StandardOpenOption.READ));
+    }
+
+    // Opens a file for writing, or stdout if file_name isn't set.
+    private static WritableByteChannel OpenChannelForWriting(String file_name, String file_type) throws IOException {
+        if (file_name == null || file_name.isEmpty()) {
+            return Channels.newChannel(new OutputStreamExceptionMapper(System.out, file_type));
+        }
+        return OpenFileChannel(file_name, file_type,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // Decides whether decoding needs to hold on to the whole target, which it does if any
+    // window copies from earlier target windows (VCD_TARGET).  Only delta files that can be
+    // indexed, which means mapped as a single buffer and without a custom code table, are
+    // known not to; anything else is assumed to.
+    private static boolean RetainsTarget(ReadableByteChannel delta, ByteBuffer dictionary, boolean allowVcdTarget) {
+        if (!allowVcdTarget) {
+            return false;
+        }
+        if (!(delta instanceof MappedInputChannel) || ((MappedInputChannel) delta).size() > Integer.MAX_VALUE) {
+            return true;
+        }
+        try {
+            return VCDiffWindowIndex.build(((MappedInputChannel) delta).map(), dictionary.remaining()).usesTargetSource();
+        } catch (IOException e) {
+            // Let the decoder report what's wrong with the delta file
+            return true;
+        }
+    }
+
+    private static long MaxTargetFileSize(GlobalOptions globalOptions, boolean retainsTarget) {
+        if (globalOptions.maxTargetFileSize != null) {
+            return globalOptions.maxTargetFileSize;
+        }
+        return retainsTarget ? DEFAULT_MAX_TARGET_SIZE : Long.MAX_VALUE;
+    }
+
+    // Memory-maps the dictionary file.  The mapping stays valid after the file is closed.
+    protected static ByteBuffer OpenDictionary(String dictionary) throws IOException {
+        try (FileChannel channel = OpenFileChannel(dictionary, "dictionary", StandardOpenOption.READ)) {
+            return MappedInputChannel.mapWhole(channel);
         }
     }
 
@@ -299,30 +355,36 @@ public class VCDiffFileBasedCoder {
         private OptionalTargetAndDeltaOptions targetAndDeltaOptions = new OptionalTargetAndDeltaOptions();
 
         public void Encode() throws IOException {
-            byte[] dictionary = OpenDictionary(globalOptions.dictionary);
-
-            boolean useStdin = (targetAndDeltaOptions.target == null || targetAndDeltaOptions.target.isEmpty());
-            boolean useStdout = (targetAndDeltaOptions.delta == null || targetAndDeltaOptions.delta.isEmpty());
+            ByteBuffer dictionary = OpenDictionary(globalOptions.dictionary);
+
+            try (ReadableByteChannel in = OpenChannelForReading(targetAndDeltaOptions.target, "target");
+                 CountingWritableByteChannel out = new CountingWritableByteChannel(
+                         OpenChannelForWriting(targetAndDeltaOptions.delta, "delta"))) {
+                // Each window is copied out of the mapped target into a buffer of its own,
+                // so there's no need for one bigger than the target
+                int windowSize = globalOptions.bufferSize;
+                if (in instanceof MappedInputChannel) {
+                    windowSize = (int) Math.max(1, Math.min(windowSize, ((MappedInputChannel) in).size()));
+                }
 
-            InputStream fileIn = useStdin ? new InputStreamExceptionMapper(System.in, "target") : OpenFileForReading(targetAndDeltaOptions.target, "target");
-            try (CountingInputStream countingIn = new CountingInputStream(fileIn)) {
-                OutputStream fileOut = useStdout ? new OutputStreamExceptionMapper(System.out, "delta") : OpenFileForWriting(targetAndDeltaOptions.delta, "delta");
-                CountingOutputStream countingOut = new CountingOutputStream(fileOut);
-                try (OutputStream vcDiffOut = VCDiffEncoderBuilder.builder()
-                        .withDictionary(dictionary)
+                VCDiffEncoderStatistics statistics = globalOptions.stats ? new VCDiffEncoderStatistics() : null;
+                long targetBytes = VCDiffEncoderBuilder.builder()
+                        .withDictionaries(Collections.singletonList(dictionary))
                         .withTargetMatches(encodeOptions.targetMatches)
                         .withChecksum(encodeOptions.checksum)
+                        .withCrc32cChecksum(encodeOptions.crc32c)
                         .withInterleaving(encodeOptions.interleaved)
-                        .buildOutputStream(countingOut)) {
-                    IOUtils.copyLarge(countingIn, vcDiffOut, new byte[globalOptions.bufferSize]);
-                }
+                        .withStatistics(statistics)
+                        .buildChannel(windowSize)
+                        .encode(in, out);
 
-                if (globalOptions.stats && (countingIn.getBytesRead() > 0)) {
+                if (globalOptions.stats && (targetBytes > 0)) {
                     System.err.printf("Original size: %d\tCompressed size: %d (%.2f%% of original)%n",
-                            countingIn.getBytesRead(),
-                            countingOut.getBytesWritten(),
-                            100.0 * countingOut.getBytesWritten() / countingIn.getBytesRead()
+                            targetBytes,
+                            out.getBytesWritten(),
+                            100.0 * out.getBytesWritten() / targetBytes
                     );
+                    System.err.println(statistics);
                 }
             }
         }
@@ -341,28 +403,29 @@ public class VCDiffFileBasedCoder {
         private OptionalTargetAndDeltaOptions targetAndDeltaFlags = new OptionalTargetAndDeltaOptions();
 
         void Decode() throws IOException {
-            byte[] dictionary = OpenDictionary(globalOptions.dictionary);
-
-            boolean useStdin = (targetAndDeltaFlags.delta == null || targetAndDeltaFlags.delta.isEmpty());
-            boolean useStdout = (targetAndDeltaFlags.target == null || targetAndDeltaFlags.target.isEmpty());
-
-            CountingInputStream countedIn = new CountingInputStream(useStdin ? new InputStreamExceptionMapper(System.in, "delta") : OpenFileForReading(targetAndDeltaFlags.delta, "delta"));
-            try (InputStream vcDiffIn = VCDiffDecoderBuilder.builder()
-                    .withMaxTargetFileSize(globalOptions.maxTargetFileSize)
-                    .withMaxTargetWindowSize(globalOptions.maxTargetWindowSize)
-                    .withAllowTargetMatches(decodeOptions.allowVcdTarget)
-                    .buildInputStream(countedIn, dictionary);
-                 CountingOutputStream out = new CountingOutputStream(useStdout ?
-                         new OutputStreamExceptionMapper(System.out, "target") :
-                         OpenFileForWriting(targetAndDeltaFlags.target, "target"))) {
-                IOUtils.copyLarge(vcDiffIn, out, new byte[globalOptions.bufferSize]);
+            ByteBuffer dictionary = OpenDictionary(globalOptions.dictionary);
+
+            VCDiffDecoderStatistics statistics = globalOptions.stats ? new VCDiffDecoderStatistics() : null;
+            try (ReadableByteChannel in = OpenChannelForReading(targetAndDeltaFlags.delta, "delta");
+                 CountingWritableByteChannel out = new CountingWritableByteChannel(
+                         OpenChannelForWriting(targetAndDeltaFlags.target, "target"))) {
+                // Without VCD_TARGET windows, the decoder writes out each window and forgets it
+                final boolean retainsTarget = RetainsTarget(in, dictionary, decodeOptions.allowVcdTarget);
+                long deltaBytes = VCDiffDecoderBuilder.builder()
+                        .withMaxTargetFileSize(MaxTargetFileSize(globalOptions, retainsTarget))
+                        .withMaxTargetWindowSize(globalOptions.maxTargetWindowSize)
+                        .withAllowTargetMatches(retainsTarget)
+                        .withListener(statistics)
+                        .buildChannel(globalOptions.bufferSize, false)
+                        .decode(dictionary, in, out);
 
                 if (globalOptions.stats && (out.getBytesWritten() > 0)) {
                     System.err.printf("Decompressed size: %d\tCompressed size: %d (%.2f%% of original)%n",
                             out.getBytesWritten(),
-                            countedIn.getBytesRead(),
-                            100.0 * countedIn.getBytesRead() / out.getBytesWritten()
+                            deltaBytes,
+                            100.0 * deltaBytes / out.getBytesWritten()
                     );
+                    System.err.println(statistics);
                 }
             }
         }
@@ -385,17 +448,22 @@ public class VCDiffFileBasedCoder {
         private RequiredTargetAndDeltaOptions targetAndDeltaOptions = new RequiredTargetAndDeltaOptions();
 
         void DecodeAndCompare() throws IOException {
-            byte[] dictionary = OpenDictionary(globalOptions.dictionary);
-
-            try (CountingInputStream countedIn = new CountingInputStream(OpenFileForReading(targetAndDeltaOptions.delta, "delta"));
-                 InputStream in = VCDiffDecoderBuilder.builder()
-                         .withMaxTargetFileSize(globalOptions.maxTargetFileSize)
-                         .withMaxTargetWindowSize(globalOptions.maxTargetWindowSize)
-                         .withAllowTargetMatches(decodeOptions.allowVcdTarget)
-                         .buildInputStream(countedIn, dictionary);
+            ByteBuffer dictionary = OpenDictionary(globalOptions.dictionary);
+
+            VCDiffDecoderStatistics statistics = globalOptions.stats ? new VCDiffDecoderStatistics() : null;
+            try (ReadableByteChannel in = OpenChannelForReading(targetAndDeltaOptions.delta, "delta");
                  InputStream expected = OpenFileForReading(targetAndDeltaOptions.target, "target");
-                 CountingOutputStream out = new CountingOutputStream(new ComparingOutputStream(expected))) {
-                IOUtils.copyLarge(in, out, new byte[globalOptions.bufferSize]);
+                 CountingWritableByteChannel out = new CountingWritableByteChannel(
+                         Channels.newChannel(new ComparingOutputStream(expected)))) {
+                // Without VCD_TARGET windows, the decoder writes out each window and forgets it
+                final boolean retainsTarget = RetainsTarget(in, dictionary, decodeOptions.allowVcdTarget);
+                long deltaBytes = VCDiffDecoderBuilder.builder()
+                        .withMaxTargetFileSize(MaxTargetFileSize(globalOptions, retainsTarget))
+                        .withMaxTargetWindowSize(globalOptions.maxTargetWindowSize)
+                        .withAllowTargetMatches(retainsTarget)
+                        .withListener(statistics)
+                        .buildChannel(globalOptions.bufferSize, false)
+                        .decode(dictionary, in, out);
 
                 // Close out here so it verifies EOF
                 out.close();
@@ -403,9 +471,10 @@ public class VCDiffFileBasedCoder {
                 if (globalOptions.stats && (out.getBytesWritten() > 0)) {
                     System.err.printf("Decompressed size: %d\tCompressed size: %d (%.2f%% of original)%n",
                             out.getBytesWritten(),
-                            countedIn.getBytesRead(),
-                            100.0 * countedIn.getBytesRead() / out.getBytesWritten()
+                            deltaBytes,
+                            100.0 * deltaBytes / out.getBytesWritten()
                     );
+                    System.err.println(statistics);
                 }
             }
         }
@@ -0,0 +1,80 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.davidehrmann.vcdiff.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * Counts the bytes written to a channel.  It's a GatheringByteChannel so writers that
+ * gather buffers still can, passing them on to the channel if it is one too.
+ */
+public class CountingWritableByteChannel implements GatheringByteChannel {
+
+    private final WritableByteChannel channel;
+    private long bytesWritten;
+
+    public CountingWritableByteChannel(WritableByteChannel channel) {
+        this.channel = Objects.requireNonNull(channel, "channel was null");
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = channel.write(src);
+        bytesWritten += written;
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written;
+        if (channel instanceof GatheringByteChannel) {
+            written = ((GatheringByteChannel) channel).write(srcs, offset, length);
+        } else {
+            written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                while (srcs[i].hasRemaining()) {
+                    written += channel.write(srcs[i]);
+                }
+            }
+        }
+        bytesWritten += written;
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,132 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.davidehrmann.vcdiff.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Objects;
+
+/**
+ * Reads a file by memory-mapping it, a segment at a time, instead of copying it through
+ * the channel's own buffers.  Files larger than a single mapping can hold are mapped in
+ * segments of at most {@link #SEGMENT_SIZE} bytes, so only the segment being read needs
+ * to be addressable, and none of the file is held on the heap.
+ *
+ * NOT threadsafe.
+ */
+public class MappedInputChannel implements ReadableByteChannel {
+
+    public static final int SEGMENT_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final long size;
+    private long segmentStart;
+    private MappedByteBuffer segment;
+    private boolean open = true;
+
+    public MappedInputChannel(FileChannel channel) throws IOException {
+        this(channel, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param channel file to read, from its start; it's closed when this is
+     * @param segmentSize largest number of bytes mapped at once
+     * @throws IOException if the size of the file can't be read
+     */
+    public MappedInputChannel(FileChannel channel, int segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize must be positive");
+        }
+        this.channel = Objects.requireNonNull(channel, "channel was null");
+        this.segmentSize = segmentSize;
+        this.size = channel.size();
+    }
+
+    /**
+     * Maps all of a file at once, for files that must be addressable as a single buffer.
+     *
+     * @param channel file to map
+     * @return read-only mapping of the whole file
+     * @throws IOException if the file can't be mapped, or is larger than a buffer can be
+     */
+    public static MappedByteBuffer mapWhole(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("File is too large to map (%d bytes)", size));
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Maps all of the file at once, without affecting what {@link #read(ByteBuffer)} returns.
+     *
+     * @return read-only mapping of the whole file
+     * @throws IOException if the file can't be mapped, or is larger than a buffer can be
+     */
+    public MappedByteBuffer map() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        return mapWhole(channel);
+    }
+
+    /**
+     * @return size of the file when this was created
+     */
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (segment == null || !segment.hasRemaining()) {
+            final long next = segment == null ? 0 : segmentStart + segment.capacity();
+            if (next >= size) {
+                return -1;
+            }
+            segmentStart = next;
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(segmentSize, size - segmentStart));
+        }
+
+        final int length = Math.min(dst.remaining(), segment.remaining());
+        final ByteBuffer slice = segment.slice();
+        slice.limit(length);
+        dst.put(slice);
+        segment.position(segment.position() + length);
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        segment = null;
+        channel.close();
+    }
+}
@@ -23,6 +23,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -32,6 +33,7 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Random;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assume.assumeTrue;
@@ -767,6 +769,67 @@ public class VCDiffFileBasedCoderTest {
         assertFileEquals(targetFile, outputTargetFile);
     }
 
+    @Test
+    public void testDecodeTargetLargerThanWindow() throws Exception {
+        // Without VCD_TARGET windows, the decoder writes out each window as it goes, so
+        // only --max_target_window_size limits it unless --max_target_file_size is given.
+        File largeTargetFile = tempFolder.newFile("large.target");
+        byte[] largeTarget = new byte[3 << 20];
+        new Random(1).nextBytes(largeTarget);
+        try (OutputStream out = new FileOutputStream(largeTargetFile)) {
+            out.write(largeTarget);
+        }
+
+        assertEquals(0, VCDiffFileBasedCoder.run(new String[] {
+                "encode",
+                "-buffersize", "65536",
+                "-dictionary", dictionaryFile.getCanonicalPath(),
+                "-target", largeTargetFile.getCanonicalPath(),
+                "-delta", deltaFile.getCanonicalPath()
+        }));
+
+        assertEquals(0, VCDiffFileBasedCoder.run(new String[] {
+                "decode",
+                "-buffersize", "65536",
+                "-max_target_window_size", "65536",
+                "-dictionary", dictionaryFile.getCanonicalPath(),
+                "-delta", deltaFile.getCanonicalPath(),
+                "-target", outputTargetFile.getCanonicalPath(),
+        }));
+        assertFileEquals(largeTargetFile, outputTargetFile);
+
+        assertNotEquals(0, VCDiffFileBasedCoder.run(new String[] {
+                "decode",
+                "-max_target_file_size", "1048576",
+                "-dictionary", dictionaryFile.getCanonicalPath(),
+                "-delta", deltaFile.getCanonicalPath(),
+                "-target", outputTargetFile.getCanonicalPath(),
+        }));
+    }
+
+    @Test
+    public void testDecodeVcdTargetWindows() throws Exception {
+        // An ADD of "wxyz", then a VCD_TARGET window that copies it
+        try (OutputStream out = new FileOutputStream(deltaFile)) {
+            out.write(new byte[] {
+                    (byte) 0xD6, (byte) 0xC3, (byte) 0xC4, 0x00, 0x00,
+                    0x00, 0x0A, 0x04, 0x00, 0x04, 0x01, 0x00, 'w', 'x', 'y', 'z', 0x05,
+                    0x02, 0x04, 0x00, 0x07, 0x04, 0x00, 0x00, 0x01, 0x01, 0x14, 0x00
+            });
+        }
+
+        assertEquals(0, VCDiffFileBasedCoder.run(new String[] {
+                "decode",
+                "-dictionary", dictionaryFile.getCanonicalPath(),
+                "-delta", deltaFile.getCanonicalPath(),
+                "-target", outputTargetFile.getCanonicalPath(),
+        }));
+        try (InputStream expected = new ByteArrayInputStream("wxyzwxyz".getBytes(US_ASCII));
+             InputStream actual = new BufferedInputStream(new FileInputStream(outputTargetFile))) {
+            assertInputStreamEquals(expected, actual);
+        }
+    }
+
     @Test
     public void testDecodeReferenceDeltas() throws Exception {
         // These deltas were generated by open-vcdiff
@@ -0,0 +1,92 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.davidehrmann.vcdiff.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MappedInputChannelTest {
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File write(byte[] contents) throws IOException {
+        File file = tempFolder.newFile();
+        Files.write(file.toPath(), contents);
+        return file;
+    }
+
+    private static byte[] readAll(MappedInputChannel channel, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        while (channel.read(buffer) >= 0) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void ReadsAcrossSegments() throws IOException {
+        byte[] contents = new byte[10000];
+        new Random(42).nextBytes(contents);
+        File file = write(contents);
+
+        for (int segmentSize : new int[] { 1, 7, 4096, 10000, 1 << 20 }) {
+            for (int bufferSize : new int[] { 1, 13, 4096, 20000 }) {
+                try (MappedInputChannel channel = new MappedInputChannel(
+                        FileChannel.open(file.toPath(), StandardOpenOption.READ), segmentSize)) {
+                    assertEquals(contents.length, channel.size());
+                    assertArrayEquals(contents, readAll(channel, bufferSize));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void EmptyFile() throws IOException {
+        File file = write(new byte[0]);
+        try (MappedInputChannel channel = new MappedInputChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+            assertEquals(-1, channel.read(ByteBuffer.allocate(16)));
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            assertEquals(0, MappedInputChannel.mapWhole(channel).remaining());
+        }
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void ReadAfterClose() throws IOException {
+        File file = write(new byte[] { 1, 2, 3 });
+        MappedInputChannel channel = new MappedInputChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        channel.close();
+        channel.read(ByteBuffer.allocate(16));
+    }
+}
@@ -1,5 +1,6 @@
 package com.davidehrmann.vcdiff;
 
+import java.util.List;
 import java.util.Objects;
 
 import java.io.IOException;
@@ -48,6 +49,21 @@ public class VCDiffDecoder {
         decoder.finishDecoding();
     }
 
+    /**
+     * decode the contents of encoding using several dictionaries, which are addressed as though they
+     * were concatenated in order, writing the decoded data to target
+     *
+     * @param dictionaries dictionaries, each from its position to its limit
+     * @param encoding data to decode
+     * @param target output writer for decoded data
+     * @throws IOException if there was an exception decoding or writing to the output target
+     */
+    public void decode(List<ByteBuffer> dictionaries, ByteBuffer encoding, OutputStream target) throws IOException {
+        decoder.startDecoding(dictionaries);
+        decoder.decodeChunk(encoding, target);
+        decoder.finishDecoding();
+    }
+
     /**
      * Convenience method equivalent to decode(ByteBuffer.wrap(dictionary), ByteBuffer.wrap(encoding), target)
      *
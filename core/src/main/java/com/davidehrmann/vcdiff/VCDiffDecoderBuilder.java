@@ -21,17 +21,31 @@
 
 package com.davidehrmann.vcdiff;
 
+import com.davidehrmann.vcdiff.engine.VCDiffDecoderListener;
+import com.davidehrmann.vcdiff.engine.VCDiffDecoderPool;
+import com.davidehrmann.vcdiff.engine.VCDiffInPlaceDecoder;
+import com.davidehrmann.vcdiff.engine.VCDiffParallelDecoderImpl;
+import com.davidehrmann.vcdiff.engine.VCDiffSeekableDecoder;
 import com.davidehrmann.vcdiff.engine.VCDiffStreamingDecoderImpl;
+import com.davidehrmann.vcdiff.engine.VCDiffWindowIndex;
+import com.davidehrmann.vcdiff.io.VCDiffChannelDecoder;
 import com.davidehrmann.vcdiff.io.VCDiffInputStream;
+import com.davidehrmann.vcdiff.io.VCDiffReadAheadInputStream;
+import com.davidehrmann.vcdiff.io.VCDiffSeekableInputStream;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 public class VCDiffDecoderBuilder {
 
     protected long maximumTargetFileSize = -1;
     protected int maximumTargetWindowSize = -1;
     protected boolean allowTargetMatches = true;
+    protected boolean twoPhaseDecoding = false;
+    protected VCDiffDecoderListener listener = null;
 
     protected VCDiffDecoderBuilder() {
 
@@ -58,6 +72,34 @@ public class VCDiffDecoderBuilder {
         return this;
     }
 
+    /**
+     * If enabled, each standard-format window is first parsed into a compact instruction
+     * array, then executed in a separate pass.  This only applies to decoders built by
+     * this library.
+     *
+     * @param twoPhaseDecoding whether to decode windows in two passes
+     * @return this builder
+     */
+    public synchronized VCDiffDecoderBuilder withTwoPhaseDecoding(boolean twoPhaseDecoding) {
+        this.twoPhaseDecoding = twoPhaseDecoding;
+        return this;
+    }
+
+    /**
+     * Tells listener about each window that decoders built by this builder decode.  This
+     * applies to decoders built by this library on the streaming decoder: streaming,
+     * simple, input stream, channel, pooled and parallel decoders.  Parallel decoders call
+     * it on the executor's threads, not necessarily in window order.  Without a listener,
+     * they don't time or count anything.
+     *
+     * @param listener listener, which must be threadsafe if decoders using it run at the same time, or null for none
+     * @return this builder
+     */
+    public synchronized VCDiffDecoderBuilder withListener(VCDiffDecoderListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
     public VCDiffStreamingDecoder buildStreaming() {
         return buildStreaming(new VCDiffStreamingDecoderImpl());
     }
@@ -70,6 +112,10 @@ public class VCDiffDecoderBuilder {
             decoder.setMaximumTargetWindowSize(maximumTargetWindowSize);
         }
         decoder.setAllowVcdTarget(allowTargetMatches);
+        if (decoder instanceof VCDiffStreamingDecoderImpl) {
+            ((VCDiffStreamingDecoderImpl) decoder).setTwoPhaseDecoding(twoPhaseDecoding);
+            ((VCDiffStreamingDecoderImpl) decoder).setListener(listener);
+        }
         return decoder;
     }
 
@@ -81,6 +127,40 @@ public class VCDiffDecoderBuilder {
         return new VCDiffInputStream(in, dictionary, buildStreaming());
     }
 
+    /**
+     * Builds an input stream that reads and decodes ahead of the reader on its own
+     * daemon thread, buffering up to {@link VCDiffReadAheadInputStream#DEFAULT_MAX_BUFFERED_CHUNKS}
+     * decoded chunks.
+     *
+     * @param in delta file
+     * @param dictionary dictionary the delta file was encoded against
+     * @return read-ahead input stream
+     */
+    public VCDiffReadAheadInputStream buildReadAheadInputStream(InputStream in, ByteBuffer dictionary) {
+        return buildReadAheadInputStream(in, dictionary, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command, "vcdiff-read-ahead");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }, VCDiffReadAheadInputStream.DEFAULT_MAX_BUFFERED_CHUNKS);
+    }
+
+    /**
+     * Builds an input stream that reads and decodes ahead of the reader.
+     *
+     * @param in delta file
+     * @param dictionary dictionary the delta file was encoded against
+     * @param executor executor to run the decoding loop on
+     * @param maxBufferedChunks maximum number of decoded chunks waiting to be read
+     * @return read-ahead input stream
+     */
+    public VCDiffReadAheadInputStream buildReadAheadInputStream(InputStream in, ByteBuffer dictionary,
+                                                                Executor executor, int maxBufferedChunks) {
+        return new VCDiffReadAheadInputStream(in, dictionary, buildStreaming(), executor, maxBufferedChunks);
+    }
+
     public VCDiffDecoder buildSimple() {
         return new VCDiffDecoder(buildStreaming());
     }
@@ -89,6 +169,141 @@ public class VCDiffDecoderBuilder {
         return new VCDiffDecoder(buildStreaming(decoder));
     }
 
+    /**
+     * Builds a decoder that reads delta files from channels or buffers and writes
+     * targets to channels.
+     *
+     * @return channel decoder
+     */
+    public VCDiffChannelDecoder buildChannel() {
+        return new VCDiffChannelDecoder(buildStreaming());
+    }
+
+    /**
+     * Builds a decoder that reads delta files from channels or buffers and writes
+     * targets to channels.
+     *
+     * @param readBufferSize size of the buffer delta files are read from channels into
+     * @param directReadBuffer whether the read buffer should be a direct buffer
+     * @return channel decoder
+     */
+    public VCDiffChannelDecoder buildChannel(int readBufferSize, boolean directReadBuffer) {
+        return new VCDiffChannelDecoder(buildStreaming(), readBufferSize, directReadBuffer);
+    }
+
+    /**
+     * Builds a decoder that decodes independent delta windows concurrently on executor.
+     * At most twice as many windows as there are available processors are buffered at once.
+     *
+     * @param executor executor to decode windows on
+     * @return parallel decoder
+     */
+    public VCDiffDecoder buildParallel(ExecutorService executor) {
+        return buildParallel(executor, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds a decoder that decodes independent delta windows concurrently on executor.
+     * Windows are decoded with this builder's two-phase setting and listener, whether
+     * they're decoded in parallel or sequentially.
+     *
+     * @param executor executor to decode windows on
+     * @param maxWindowsInFlight maximum number of decoded windows buffered while waiting to be written
+     * @return parallel decoder
+     */
+    public synchronized VCDiffDecoder buildParallel(ExecutorService executor, int maxWindowsInFlight) {
+        return new VCDiffParallelDecoderImpl(
+                buildStreaming(),
+                executor,
+                maxWindowsInFlight,
+                maximumTargetFileSize,
+                maximumTargetWindowSize,
+                twoPhaseDecoding,
+                listener
+        );
+    }
+
+    /**
+     * Builds a decoder that decodes ranges of the target of delta without decoding
+     * the windows before them.  The window index is built by scanning delta.
+     *
+     * @param dictionary dictionary the delta file was encoded against
+     * @param delta entire delta file
+     * @return seekable decoder
+     * @throws IOException if delta can't be indexed
+     */
+    public VCDiffSeekableDecoder buildSeekable(ByteBuffer dictionary, ByteBuffer delta) throws IOException {
+        return buildSeekable(dictionary, delta, VCDiffWindowIndex.build(delta, dictionary.remaining()));
+    }
+
+    /**
+     * Builds a decoder that decodes ranges of the target of delta without decoding
+     * the windows before them, using a previously built or saved window index.
+     *
+     * @param dictionary dictionary the delta file was encoded against
+     * @param delta entire delta file
+     * @param index index of delta
+     * @return seekable decoder
+     * @throws IOException if index doesn't describe delta
+     */
+    public synchronized VCDiffSeekableDecoder buildSeekable(ByteBuffer dictionary, ByteBuffer delta,
+                                                           VCDiffWindowIndex index) throws IOException {
+        return new VCDiffSeekableDecoder(dictionary, delta, index, maximumTargetWindowSize);
+    }
+
+    /**
+     * Builds an input stream over the target of delta that can seek to any offset,
+     * decoding only the windows it reads from.  The window index is built by scanning delta.
+     *
+     * @param dictionary dictionary the delta file was encoded against
+     * @param delta entire delta file
+     * @return seekable input stream
+     * @throws IOException if delta can't be indexed
+     */
+    public VCDiffSeekableInputStream buildSeekableInputStream(ByteBuffer dictionary, ByteBuffer delta) throws IOException {
+        return new VCDiffSeekableInputStream(buildSeekable(dictionary, delta));
+    }
+
+    /**
+     * Builds a decoder that patches a file in place with a delta file encoded using
+     * {@link VCDiffEncoderBuilder#withInPlacePatching(boolean)}.
+     *
+     * @return in-place decoder
+     */
+    public synchronized VCDiffInPlaceDecoder buildInPlace() {
+        return new VCDiffInPlaceDecoder(maximumTargetWindowSize);
+    }
+
+    /**
+     * Builds a pool of reusable decoders.  Released decoders keep buffers of up to
+     * {@link VCDiffDecoderPool#DEFAULT_MAX_RETAINED_CAPACITY} bytes.
+     *
+     * @param maxIdle maximum number of released decoders to keep
+     * @return decoder pool
+     */
+    public VCDiffDecoderPool buildPool(int maxIdle) {
+        return buildPool(maxIdle, VCDiffDecoderPool.DEFAULT_MAX_RETAINED_CAPACITY);
+    }
+
+    /**
+     * Builds a pool of reusable decoders.
+     *
+     * @param maxIdle maximum number of released decoders to keep
+     * @param maxRetainedCapacity largest decoded target buffer, in bytes, a released decoder keeps
+     * @return decoder pool
+     */
+    public synchronized VCDiffDecoderPool buildPool(int maxIdle, int maxRetainedCapacity) {
+        return new VCDiffDecoderPool(
+                maximumTargetFileSize,
+                maximumTargetWindowSize,
+                allowTargetMatches,
+                twoPhaseDecoding,
+                maxIdle,
+                maxRetainedCapacity,
+                listener
+        );
+    }
+
     public static VCDiffDecoderBuilder builder() {
         return new VCDiffDecoderBuilder();
     }
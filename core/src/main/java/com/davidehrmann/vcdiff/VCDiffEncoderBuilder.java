@@ -22,19 +22,42 @@
 package com.davidehrmann.vcdiff;
 
 import com.davidehrmann.vcdiff.engine.HashedDictionary;
+import com.davidehrmann.vcdiff.engine.VCDiffBatchEncoder;
+import com.davidehrmann.vcdiff.engine.VCDiffChannelCodeTableWriter;
 import com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl;
+import com.davidehrmann.vcdiff.engine.VCDiffEncoderStatistics;
+import com.davidehrmann.vcdiff.engine.VCDiffDeltaComposer;
+import com.davidehrmann.vcdiff.engine.VCDiffEncoderPool;
+import com.davidehrmann.vcdiff.engine.VCDiffInPlaceCodeTableWriter;
+import com.davidehrmann.vcdiff.engine.VCDiffSignature;
+import com.davidehrmann.vcdiff.engine.VCDiffSignatureEncoder;
 import com.davidehrmann.vcdiff.engine.VCDiffStreamingEncoderImpl;
+import com.davidehrmann.vcdiff.io.VCDiffChannelEncoder;
 import com.davidehrmann.vcdiff.io.VCDiffOutputStream;
 
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class VCDiffEncoderBuilder {
 
     protected boolean interleaved = false;
     protected boolean checksum = false;
+    protected boolean crc32c = false;
     protected boolean targetMatches = true;
     protected byte[] dictionary = null;
+    protected List<ByteBuffer> dictionaries = null;
+    protected boolean inPlace = false;
+    protected VCDiffSignature signature = null;
+    protected VCDiffEncoderStatistics statistics = null;
 
     protected VCDiffEncoderBuilder() {
 
@@ -45,6 +68,19 @@ public class VCDiffEncoderBuilder {
         return this;
     }
 
+    /**
+     * If enabled along with {@link #withChecksum(boolean)}, windows are checksummed with
+     * CRC-32C instead of Adler32.  Only decoders that support
+     * {@link VCDiffFormatExtension#CRC32C_CHECKSUM} can decode the delta files.
+     *
+     * @param crc32c whether checksums should be CRC-32C
+     * @return this builder
+     */
+    public synchronized VCDiffEncoderBuilder withCrc32cChecksum(boolean crc32c) {
+        this.crc32c = crc32c;
+        return this;
+    }
+
     public synchronized VCDiffEncoderBuilder withInterleaving(boolean interleaved) {
         this.interleaved = interleaved;
         return this;
@@ -55,31 +91,102 @@ public class VCDiffEncoderBuilder {
         return this;
     }
 
+    /**
+     * Encodes against several dictionaries, for targets that draw from more than one
+     * source, without concatenating them.  Delta files address them as though they were
+     * concatenated in order, and are decoded with the same list of dictionaries, e.g. with
+     * {@link VCDiffDecoder#decode(List, ByteBuffer, OutputStream)}.  The dictionaries
+     * aren't copied, so they must not be modified while encoders built with them are in use.
+     *
+     * @param dictionaries dictionaries, each from its position to its limit
+     * @return this builder
+     */
+    public synchronized VCDiffEncoderBuilder withDictionaries(List<ByteBuffer> dictionaries) {
+        this.dictionaries = dictionaries != null ? new ArrayList<ByteBuffer>(dictionaries) : null;
+        return this;
+    }
+
     public synchronized VCDiffEncoderBuilder withTargetMatches(boolean targetMatches) {
         this.targetMatches = targetMatches;
         return this;
     }
 
+    /**
+     * If enabled, the delta file can be applied by overwriting the dictionary file with
+     * {@link VCDiffDecoderBuilder#buildInPlace()}.  Matches in parts of the dictionary that
+     * earlier windows overwrite are encoded as literal data instead, so the delta file
+     * may be larger.  The patching decoder holds one window at a time in memory, so large
+     * targets should be encoded in chunks with a streaming encoder.
+     *
+     * @param inPlace whether to encode for in-place patching
+     * @return this builder
+     */
+    public synchronized VCDiffEncoderBuilder withInPlacePatching(boolean inPlace) {
+        this.inPlace = inPlace;
+        return this;
+    }
+
+    /**
+     * Encodes against the signature of a dictionary instead of the dictionary itself, for
+     * when only the decoding side has the dictionary.  The delta files are decoded with that
+     * dictionary as usual.  Target matches and in-place patching aren't supported, and the
+     * delta files are larger than ones encoded against the dictionary.
+     *
+     * @param signature signature of the dictionary, or null to encode against the dictionary
+     * @return this builder
+     */
+    public synchronized VCDiffEncoderBuilder withSignature(VCDiffSignature signature) {
+        this.signature = signature;
+        return this;
+    }
+
+    /**
+     * Records what encoders built by this builder do in statistics, starting over each
+     * time one starts encoding.  Because encoders don't share it safely, it should only be
+     * used for one encoder at a time, and pools and batch encoders don't support it.
+     * Without statistics, encoders don't collect any.
+     *
+     * @param statistics statistics to record encodings in, or null not to record them
+     * @return this builder
+     */
+    public synchronized VCDiffEncoderBuilder withStatistics(VCDiffEncoderStatistics statistics) {
+        this.statistics = statistics;
+        return this;
+    }
+
     public synchronized VCDiffStreamingEncoder<OutputStream> buildStreaming() {
-        if (dictionary == null) {
+        return buildStreaming(new VCDiffCodeTableWriterImpl(interleaved, statistics));
+    }
+
+    private synchronized <OUT> VCDiffStreamingEncoder<OUT> buildStreaming(VCDiffCodeTableWriter<OUT> coder) {
+        if ((dictionary != null ? 1 : 0) + (dictionaries != null ? 1 : 0) + (signature != null ? 1 : 0) > 1) {
+            throw new IllegalArgumentException("only one of dictionary, dictionaries, and signature can be set");
+        }
+        if (dictionary == null && dictionaries == null && signature == null) {
             throw new IllegalArgumentException("dictionary not set");
         }
-
-        EnumSet<VCDiffFormatExtension> formatFlags = EnumSet.noneOf(VCDiffFormatExtension.class);
-        if (interleaved) {
-            formatFlags.add(VCDiffFormatExtension.GOOGLE_INTERLEAVED);
+        if (inPlace && dictionary == null) {
+            throw new IllegalArgumentException("in-place patching requires a single dictionary");
         }
-        if (checksum) {
-            formatFlags.add(VCDiffFormatExtension.GOOGLE_CHECKSUM);
+        if (signature != null && statistics != null) {
+            throw new IllegalArgumentException("statistics aren't supported with signatures");
         }
 
-        VCDiffCodeTableWriter<OutputStream> coder = new VCDiffCodeTableWriterImpl(interleaved);
+        EnumSet<VCDiffFormatExtension> formatFlags = formatFlags();
 
-        return new VCDiffStreamingEncoderImpl<OutputStream>(
+        if (signature != null) {
+            return new VCDiffSignatureEncoder<OUT>(coder, signature, formatFlags);
+        }
+        if (inPlace) {
+            coder = new VCDiffInPlaceCodeTableWriter<OUT>(coder, dictionary);
+        }
+
+        return new VCDiffStreamingEncoderImpl<OUT>(
                 coder,
-                new HashedDictionary(dictionary),
+                dictionaries != null ? new HashedDictionary(dictionaries) : new HashedDictionary(dictionary),
                 formatFlags,
-                targetMatches
+                targetMatches,
+                statistics
         );
     }
 
@@ -91,6 +198,143 @@ public class VCDiffEncoderBuilder {
         return new VCDiffEncoder<OutputStream>(buildStreaming());
     }
 
+    /**
+     * Builds an encoder that reads targets from channels or buffers and writes delta
+     * files to channels.
+     *
+     * @return channel encoder
+     */
+    public VCDiffChannelEncoder buildChannel() {
+        return new VCDiffChannelEncoder(buildChannelStreaming());
+    }
+
+    /**
+     * Builds an encoder that reads targets from channels or buffers and writes delta
+     * files to channels.
+     *
+     * @param windowSize number of target bytes encoded into each window when reading from
+     *                   a channel or a direct buffer
+     * @return channel encoder
+     */
+    public VCDiffChannelEncoder buildChannel(int windowSize) {
+        return new VCDiffChannelEncoder(buildChannelStreaming(), windowSize);
+    }
+
+    private synchronized VCDiffStreamingEncoder<WritableByteChannel> buildChannelStreaming() {
+        return buildStreaming(new VCDiffChannelCodeTableWriter(new VCDiffCodeTableWriterImpl(interleaved, statistics)));
+    }
+
+    /**
+     * Builds a composer that merges two consecutive delta files into one.  Only the
+     * interleaving setting applies; checksums are kept from the second delta file.
+     *
+     * @return delta file composer
+     */
+    public synchronized VCDiffDeltaComposer buildComposer() {
+        return new VCDiffDeltaComposer(interleaved);
+    }
+
+    /**
+     * Builds an encoder that encodes many targets against the dictionary on its own pool
+     * of daemon threads, which are shut down when it's closed.
+     *
+     * @param threads number of encoding threads
+     * @return batch encoder
+     */
+    public VCDiffBatchEncoder buildBatch(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "vcdiff-batch-encoder-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        return buildBatch(executor, true, threads * 4);
+    }
+
+    /**
+     * Builds an encoder that encodes many targets against the dictionary using executor.
+     *
+     * @param executor executor that encodes targets; the batch encoder doesn't shut it down
+     * @param maxInFlight maximum number of targets queued or being encoded at once
+     * @return batch encoder
+     */
+    public VCDiffBatchEncoder buildBatch(Executor executor, int maxInFlight) {
+        return buildBatch(executor, false, maxInFlight);
+    }
+
+    private synchronized VCDiffBatchEncoder buildBatch(Executor executor, boolean ownsExecutor, int maxInFlight) {
+        return new VCDiffBatchEncoder(
+                hashedDictionary("batch encoding"),
+                formatFlags(),
+                targetMatches,
+                executor,
+                ownsExecutor,
+                maxInFlight
+        );
+    }
+
+    /**
+     * Builds a pool of reusable encoders that share the hashed dictionary.  Released
+     * encoders keep buffers of up to {@link VCDiffEncoderPool#DEFAULT_MAX_RETAINED_CAPACITY}
+     * bytes.
+     *
+     * @param maxIdle maximum number of released encoders to keep
+     * @return encoder pool
+     */
+    public VCDiffEncoderPool buildPool(int maxIdle) {
+        return buildPool(maxIdle, VCDiffEncoderPool.DEFAULT_MAX_RETAINED_CAPACITY);
+    }
+
+    /**
+     * Builds a pool of reusable encoders that share the hashed dictionary.
+     *
+     * @param maxIdle maximum number of released encoders to keep
+     * @param maxRetainedCapacity largest section buffer, in bytes, a released encoder keeps
+     * @return encoder pool
+     */
+    public synchronized VCDiffEncoderPool buildPool(int maxIdle, int maxRetainedCapacity) {
+        return new VCDiffEncoderPool(
+                hashedDictionary("pooled encoding"),
+                formatFlags(),
+                targetMatches,
+                maxIdle,
+                maxRetainedCapacity
+        );
+    }
+
+    private HashedDictionary hashedDictionary(String feature) {
+        if (signature != null || inPlace || statistics != null) {
+            throw new IllegalArgumentException(feature + " doesn't support signatures, in-place patching or statistics");
+        }
+        if (dictionary != null && dictionaries != null) {
+            throw new IllegalArgumentException("only one of dictionary and dictionaries can be set");
+        }
+        if (dictionary == null && dictionaries == null) {
+            throw new IllegalArgumentException("dictionary not set");
+        }
+        return dictionaries != null ? new HashedDictionary(dictionaries) : new HashedDictionary(dictionary);
+    }
+
+    private EnumSet<VCDiffFormatExtension> formatFlags() {
+        EnumSet<VCDiffFormatExtension> formatFlags = EnumSet.noneOf(VCDiffFormatExtension.class);
+        if (interleaved) {
+            formatFlags.add(VCDiffFormatExtension.GOOGLE_INTERLEAVED);
+        }
+        if (checksum) {
+            formatFlags.add(VCDiffFormatExtension.GOOGLE_CHECKSUM);
+            if (crc32c) {
+                formatFlags.add(VCDiffFormatExtension.CRC32C_CHECKSUM);
+            }
+        }
+        return formatFlags;
+    }
+
     public static VCDiffEncoderBuilder builder() {
         return new VCDiffEncoderBuilder();
     }
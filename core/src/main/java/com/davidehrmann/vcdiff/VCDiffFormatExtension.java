@@ -31,7 +31,16 @@ public enum VCDiffFormatExtension {
      * of the target window data is included in the delta window.
      */
     GOOGLE_CHECKSUM(0x02),
-    
+
+    /**
+     * If this flag is specified along with GOOGLE_CHECKSUM, the checksum is a
+     * CRC-32C of the target window data instead of an Adler32 checksum.  Windows
+     * with one set an additional Win_Indicator bit, so decoders that don't know about
+     * it reject them as checksum mismatches rather than decoding them unverified.
+     * CRC-32C is usually computed with hardware instructions, so it's cheaper.
+     */
+    CRC32C_CHECKSUM(0x04),
+
     ;
 
     public final int flag;
@@ -18,6 +18,7 @@ package com.davidehrmann.vcdiff;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 
 public interface VCDiffStreamingDecoder {
@@ -34,10 +35,31 @@ public interface VCDiffStreamingDecoder {
      * contents are not copied, and the call is responsible for ensuring that
      * dictionary is not modified until finishDecoding is called.
      *
-     * @param dictionary dictionary the decoder is initialized with
+     * @param dictionary dictionary the decoder is initialized with, from its position to its limit
      */
     void startDecoding(ByteBuffer dictionary);
 
+    /**
+     * Like {@link #startDecoding(ByteBuffer)}, but for a delta file encoded against several
+     * dictionaries, which are addressed as though they were concatenated in order.  Each
+     * dictionary runs from its position to its limit.  The default implementation copies
+     * them into one buffer.
+     *
+     * @param dictionaries dictionaries the decoder is initialized with
+     */
+    default void startDecoding(List<ByteBuffer> dictionaries) {
+        int size = 0;
+        for (ByteBuffer dictionary : dictionaries) {
+            size = Math.addExact(size, dictionary.remaining());
+        }
+        ByteBuffer concatenated = ByteBuffer.allocate(size);
+        for (ByteBuffer dictionary : dictionaries) {
+            concatenated.put(dictionary.duplicate());
+        }
+        concatenated.flip();
+        startDecoding(concatenated);
+    }
+
     /**
      * @deprecated use {@link #decodeChunk(ByteBuffer, OutputStream)}
      *
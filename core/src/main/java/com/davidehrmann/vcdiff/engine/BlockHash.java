@@ -166,6 +166,9 @@ class BlockHash {
         // data at target_start, which is an argument of FindBestMatch().
         private int target_offset = -1;
 
+        // The number of candidate blocks FindBestMatch() compared against the target
+        private int probes = 0;
+
         public Match() {
         }
 
@@ -183,6 +186,7 @@ class BlockHash {
         public int size() { return size; }
         public int source_offset() { return source_offset; }
         public int target_offset() { return target_offset; }
+        public int probes() { return probes; }
     }
 
     // A BlockHash is created using a buffer of source data.  The hash table
@@ -424,6 +428,7 @@ class BlockHash {
         for (int block_number = FirstMatchingBlock(hash_value, target.array(), target.arrayOffset() + target.position());
         (block_number >= 0) && !(++match_counter > kMaxMatchesToCheck);
         block_number = NextMatchingBlock(block_number, target.array(), target.arrayOffset() + target.position())) {
+            best_match.probes++;
             int source_match_offset = block_number * kBlockSize;
             final int source_match_end = source_match_offset + kBlockSize;
 
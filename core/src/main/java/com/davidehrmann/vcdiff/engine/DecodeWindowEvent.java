@@ -0,0 +1,48 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for decoding one target window.  It begins when the window's
+ * header has been read, so for an interleaved window that arrives in pieces, it includes
+ * the time spent waiting for them.
+ */
+@Name("com.davidehrmann.vcdiff.DecodeWindow")
+@Label("VCDIFF Decode Window")
+@Category("VCDIFF")
+@Description("Decoding a delta window into a target window")
+final class DecodeWindowEvent extends jdk.jfr.Event {
+
+    @Label("Target Length")
+    @DataAmount
+    int targetLength;
+
+    @Label("Source Segment Length")
+    @DataAmount
+    int sourceSegmentLength;
+
+    @Label("Interleaved")
+    boolean interleaved;
+
+    @Label("Checksum")
+    boolean checksum;
+}
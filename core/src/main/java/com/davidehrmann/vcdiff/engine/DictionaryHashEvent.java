@@ -0,0 +1,39 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for hashing the dictionaries an encoder matches against.
+ */
+@Name("com.davidehrmann.vcdiff.DictionaryHash")
+@Label("VCDIFF Dictionary Hash")
+@Category("VCDIFF")
+@Description("Building the block hash of the dictionaries for an encoder")
+final class DictionaryHashEvent extends jdk.jfr.Event {
+
+    @Label("Dictionary Size")
+    @DataAmount
+    int dictionarySize;
+
+    @Label("Dictionaries")
+    int dictionaries;
+}
@@ -0,0 +1,107 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An ordered list of buffers addressed as though they were concatenated, so a
+ * dictionary made of several parts doesn't need to be copied into one array.
+ */
+final class DictionarySegments {
+
+    // Each part runs from position 0 to its limit
+    private final ByteBuffer[] parts;
+
+    // Address of the start of each part, followed by the total size
+    private final int[] starts;
+
+    private DictionarySegments(ByteBuffer[] parts, int[] starts) {
+        this.parts = parts;
+        this.starts = starts;
+    }
+
+    /**
+     * @param dictionary the whole dictionary, from its position to its limit
+     * @return a single-part view of dictionary
+     */
+    static DictionarySegments of(ByteBuffer dictionary) {
+        ByteBuffer part = dictionary.slice();
+        return new DictionarySegments(new ByteBuffer[] {part}, new int[] {0, part.limit()});
+    }
+
+    /**
+     * @param dictionaries parts of the dictionary, each from its position to its limit
+     * @return a view of the parts, in order
+     */
+    static DictionarySegments of(List<ByteBuffer> dictionaries) {
+        ByteBuffer[] parts = new ByteBuffer[dictionaries.size()];
+        int[] starts = new int[parts.length + 1];
+        long size = 0;
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = dictionaries.get(i).slice();
+            starts[i] = (int) size;
+            size += parts[i].limit();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Dictionaries are larger than 2GB in total");
+            }
+        }
+        starts[parts.length] = (int) size;
+        return new DictionarySegments(parts, starts);
+    }
+
+    int size() {
+        return starts[parts.length];
+    }
+
+    /**
+     * @param address address of a byte in the dictionary, less than size()
+     * @return a view of the part that contains address, positioned at address
+     * and limited to the end of the part
+     */
+    ByteBuffer at(int address) {
+        int part = 0;
+        if (parts.length > 1) {
+            part = Arrays.binarySearch(starts, 0, parts.length, address);
+            if (part < 0) {
+                part = -part - 2;
+            }
+            // Skip empty parts that start at the same address
+            while (starts[part + 1] == address) {
+                part++;
+            }
+        }
+        ByteBuffer view = parts[part].duplicate();
+        view.position(address - starts[part]);
+        return view;
+    }
+
+    /**
+     * Copies length bytes starting at address, which may span parts.
+     */
+    void get(int address, byte[] dest, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer part = at(address);
+            int chunk = Math.min(length, part.remaining());
+            part.get(dest, offset, chunk);
+            address += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+}
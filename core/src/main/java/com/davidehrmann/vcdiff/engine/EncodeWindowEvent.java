@@ -0,0 +1,52 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for encoding one target window.
+ */
+@Name("com.davidehrmann.vcdiff.EncodeWindow")
+@Label("VCDIFF Encode Window")
+@Category("VCDIFF")
+@Description("Finding matches for a target window and writing it as a delta window")
+final class EncodeWindowEvent extends jdk.jfr.Event {
+
+    @Label("Target Length")
+    @DataAmount
+    int targetLength;
+
+    @Label("Dictionary Size")
+    @DataAmount
+    int dictionarySize;
+
+    @Label("Target Matches")
+    @Description("Whether earlier parts of the window were searched for matches")
+    boolean targetMatches;
+
+    @Label("Copies")
+    int copies;
+
+    @Label("Copied Bytes")
+    @Description("Target bytes encoded as COPY instructions")
+    @DataAmount
+    int copiedBytes;
+}
@@ -15,6 +15,9 @@
 
 package com.davidehrmann.vcdiff.engine;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 // A HashedDictionary must be constructed from the dictionary data
 // in order to use VCDiffStreamingEncoder.  If the same dictionary will
 // be used to perform several encoding operations, then the caller should
@@ -32,5 +35,14 @@ public class HashedDictionary {
         engine = new VCDiffEngine(dictionaryContents);
     }
 
+    /**
+     * @param dictionaries dictionaries, each from its position to its limit, that delta
+     *                     files address as though they were concatenated.  They aren't
+     *                     copied, so they must not be modified while the object is in use.
+     */
+    public HashedDictionary(List<ByteBuffer> dictionaries) {
+        engine = new VCDiffEngine(dictionaries);
+    }
+
     public VCDiffEngine engine() { return engine; }
 }
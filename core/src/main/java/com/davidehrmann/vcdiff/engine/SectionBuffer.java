@@ -0,0 +1,133 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An append-only byte array that the code table writer builds a section of a delta window
+ * in.  It has just the operations the writer needs, including writing varints directly,
+ * and doubles its capacity when it runs out of room.
+ *
+ * NOT threadsafe.
+ */
+final class SectionBuffer {
+
+    private final int initialCapacity;
+    private byte[] buf;
+    private int size;
+
+    SectionBuffer(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buf = new byte[initialCapacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    byte get(int index) {
+        return buf[index];
+    }
+
+    void set(int index, byte b) {
+        buf[index] = b;
+    }
+
+    void put(byte b) {
+        if (size == buf.length) {
+            grow(1);
+        }
+        buf[size++] = b;
+    }
+
+    void put(byte[] data, int offset, int length) {
+        if (length > buf.length - size) {
+            grow(length);
+        }
+        System.arraycopy(data, offset, buf, size, length);
+        size += length;
+    }
+
+    /**
+     * Appends val as a VCDIFF varint: big-endian groups of 7 bits, with the high bit set on
+     * all but the last byte.
+     */
+    void putVarInt(int val) {
+        if (val < 0) {
+            throw new IllegalArgumentException(String.format("Value (%d) was negative", val));
+        }
+        if (buf.length - size < 5) {
+            grow(5);
+        }
+
+        final byte[] buf = this.buf;
+        int pos = size;
+        if (val >= 1 << 28) {
+            buf[pos++] = (byte) ((val >>> 28) | 0x80);
+        }
+        if (val >= 1 << 21) {
+            buf[pos++] = (byte) ((val >>> 21) | 0x80);
+        }
+        if (val >= 1 << 14) {
+            buf[pos++] = (byte) ((val >>> 14) | 0x80);
+        }
+        if (val >= 1 << 7) {
+            buf[pos++] = (byte) ((val >>> 7) | 0x80);
+        }
+        buf[pos++] = (byte) (val & 0x7f);
+        size = pos;
+    }
+
+    /**
+     * @return a view of the bytes appended so far, valid until the next append or clear()
+     */
+    ByteBuffer view() {
+        return ByteBuffer.wrap(buf, 0, size);
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Clears the buffer, and goes back to the initial capacity if it's grown beyond
+     * maxRetainedCapacity.
+     */
+    void trim(int maxRetainedCapacity) {
+        size = 0;
+        if (buf.length > maxRetainedCapacity && buf.length > initialCapacity) {
+            buf = new byte[initialCapacity];
+        }
+    }
+
+    private void grow(int needed) {
+        final long wanted = (long) size + needed;
+        if (wanted > Integer.MAX_VALUE - 8) {
+            throw new OutOfMemoryError("Delta window section is too large for a byte array");
+        }
+        buf = Arrays.copyOf(buf, (int) Math.min(Math.max(wanted, 2L * buf.length), Integer.MAX_VALUE - 8));
+    }
+}
@@ -138,6 +138,19 @@ abstract class VCDiffAddressCache {
         return same_addresses_[(mode - FirstSameMode()) * 256 + encoded_address];
     }
 
+    // Checks the given decoded address for validity.  Throws an IOException
+    // if the address is invalid.
+    static void requireValidDecodedAddress(int decoded_address, int here_address) throws IOException {
+        if (decoded_address < 0) {
+            throw new IOException("Decoded address " + decoded_address + " is invalid");
+        } else if (decoded_address >= here_address) {
+            throw new IOException(String.format(
+                    "Decoded address (%d) is beyond location in target file (%d)",
+                    decoded_address, here_address
+            ));
+        }
+    }
+
     // Returns true if, when using the given mode, an encoded address
     // should be written to the delta file as a variable-length integer;
     // returns false if the encoded address should be written
@@ -163,9 +176,31 @@ abstract class VCDiffAddressCache {
     // should be written to the delta file as a variable-length integer
     // or as a byte (unsigned char).
     //
-    public abstract short EncodeAddress(int address,
+    public final short EncodeAddress(int address,
             int here_address,
-            AtomicInteger encoded_addr);
+            AtomicInteger encoded_addr) {
+        final long encoded = EncodeAddress(address, here_address);
+        encoded_addr.set(EncodedAddress(encoded));
+        return EncodedMode(encoded);
+    }
+
+    // Like EncodeAddress(int, int, AtomicInteger), but returns the mode and the
+    // encoded address packed into a long instead of setting a holder, so encoders
+    // don't allocate one per COPY.  Unpack the result with EncodedMode() and
+    // EncodedAddress().
+    public abstract long EncodeAddress(int address, int here_address);
+
+    static long PackEncodedAddress(short mode, int encoded_address) {
+        return ((long) mode << 32) | (encoded_address & 0xffffffffL);
+    }
+
+    static short EncodedMode(long encoded) {
+        return (short) (encoded >>> 32);
+    }
+
+    static int EncodedAddress(long encoded) {
+        return (int) encoded;
+    }
 
     /**
      * Interprets the next value in the address_stream using the provided mode,
@@ -34,7 +34,6 @@ import com.davidehrmann.vcdiff.util.VarInt;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
 
 
 class VCDiffAddressCacheImpl extends VCDiffAddressCache {
@@ -118,30 +117,25 @@ class VCDiffAddressCacheImpl extends VCDiffAddressCache {
     //	       between 0 and (here_address - 1).
     //   here_address: The current location in the target data (i.e., the
     //	       position just after the last encoded value.)  Must be non-negative.
-    //   encoded_addr: Points to an VCDAddress that will be replaced
-    //	       with the encoded representation of address.
-    //	       If WriteAddressAsVarintForMode returns true when passed
-    //	       the return value, then encoded_addr should be written
-    //	       into the delta file as a variable-length integer (Varint);
-    //	       otherwise, it should be written as a byte (unsigned char).
     //
-    // Return value: A mode value between 0 and 255.  The mode will tell
+    // Return value: A mode value between 0 and 255 and the encoded representation
+    //	       of address, packed by PackEncodedAddress().  The mode will tell
     //	       how to interpret the next value in the address stream.
     //	       The values 0 and 1 correspond to SELF and HERE addressing.
+    //	       If WriteAddressAsVarintForMode returns true when passed
+    //	       the mode, then the encoded address should be written
+    //	       into the delta file as a variable-length integer (Varint);
+    //	       otherwise, it should be written as a byte (unsigned char).
     //
     // The function is guaranteed to succeed unless the conditions on the arguments
-    // have not been met, in which case a VCD_DFATAL message will be produced,
-    // 0 will be returned, and *encoded_addr will be replaced with 0.
+    // have not been met, in which case an IllegalArgumentException is thrown.
     @Override
-    public short EncodeAddress(int address, int here_address,
-            AtomicInteger encoded_addr) {
+    public long EncodeAddress(int address, int here_address) {
         if (address < 0) {
-            encoded_addr.set(0);
             throw new IllegalArgumentException("EncodeAddress was passed a negative address: " + address);
         }
 
         if (address >= here_address) {
-            encoded_addr.set(0);
             throw new IllegalArgumentException(String.format("EncodeAddress was called with address (%d) < here_address (%d)", address, here_address));
         }
 
@@ -153,8 +147,8 @@ class VCDiffAddressCacheImpl extends VCDiffAddressCache {
                 // This is the only mode for which an single byte will be written
                 // to the address stream instead of a variable-length integer.
                 UpdateCache(address);
-                encoded_addr.set(same_cache_pos % 256);
-                return (short) (FirstSameMode() + (same_cache_pos / 256));  // SAME mode
+                return PackEncodedAddress((short) (FirstSameMode() + (same_cache_pos / 256)),  // SAME mode
+                        same_cache_pos % 256);
             }
         }
 
@@ -180,22 +174,7 @@ class VCDiffAddressCacheImpl extends VCDiffAddressCache {
         }
 
         UpdateCache(address);
-        encoded_addr.set(best_encoded_address);
-        return best_mode;
-    }
-
-    // Checks the given decoded address for validity.  Returns true if the
-    // address is valid; otherwise, prints an error message to the log and
-    // returns false.
-    private static void requireValidDecodedAddress(int decoded_address, int here_address) throws IOException {
-        if (decoded_address < 0) {
-            throw new IOException("Decoded address " + decoded_address + " is invalid");
-        } else if (decoded_address >= here_address) {
-            throw new IOException(String.format(
-                    "Decoded address (%d) is beyond location in target file (%d)",
-                    decoded_address, here_address
-            ));
-        }
+        return PackEncodedAddress(best_mode, best_encoded_address);
     }
 
     // Interprets the next value in the address_stream using the provided mode,
@@ -246,23 +225,26 @@ class VCDiffAddressCacheImpl extends VCDiffAddressCache {
             return RESULT_END_OF_DATA;
         }
 
-        ByteBuffer duplicateAddressStream = addressStream.duplicate();
+        // addressStream is only advanced once the address is known to be valid
+        final int position = addressStream.position();
+        final int end;
 
         int decoded_address;
         if (IsSameMode(vcDiffMode)) {
             // SAME mode expects an unsigned byte value as the encoded address
-            short encoded_address = (short)(duplicateAddressStream.get() & 0xff);
+            short encoded_address = (short)(addressStream.get(position) & 0xff);
+            end = position + 1;
             decoded_address = DecodeSameAddress(vcDiffMode, encoded_address);
         } else {
             // All modes except SAME mode expect a VarintBE as the encoded address
-            int encoded_address;
-            try {
-                encoded_address = VarInt.getInt(duplicateAddressStream);
-            } catch (VarInt.VarIntParseException e) {
-                throw new IOException("Found invalid variable-length integer as encoded address value");
-            } catch (VarInt.VarIntEndOfBufferException e) {
+            final int encoded_address = VarInt.tryGetInt(addressStream);
+            if (encoded_address == VarInt.END_OF_BUFFER) {
                 return RESULT_END_OF_DATA;
+            } else if (encoded_address < 0) {
+                throw new IOException("Found invalid variable-length integer as encoded address value");
             }
+            end = addressStream.position();
+            addressStream.position(position);
 
             if (IsSelfMode(vcDiffMode)) {
                 decoded_address = DecodeSelfAddress(encoded_address);
@@ -283,7 +265,7 @@ class VCDiffAddressCacheImpl extends VCDiffAddressCache {
         UpdateCache(decoded_address);
 
         // Update the paramater address stream's position
-        addressStream.position(duplicateAddressStream.position());
+        addressStream.position(end);
         return decoded_address;
     }
 }
@@ -0,0 +1,312 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffFormatExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes many targets against one dictionary on a pool of threads.  The dictionary is
+ * hashed once, and encoders and their code table writers are reused from one target to
+ * the next.  Idle encoders are kept by the batch encoder rather than by the threads, so
+ * a shared executor doesn't hold on to them, or the dictionary, after it's closed.
+ *
+ * Each target is encoded into a complete delta file, with the results delivered through
+ * the returned futures, to which callbacks can be attached.  At most maxInFlight targets
+ * are queued or being encoded at once; submit() blocks until there's room, so a long
+ * stream of targets can be fed in without holding all of them in memory.
+ *
+ * All methods in this class are thread-safe.
+ */
+public class VCDiffBatchEncoder implements Closeable {
+
+    /**
+     * Totals for all targets encoded so far.
+     */
+    public static final class Statistics {
+        private final long targets;
+        private final long failures;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long encodeNanos;
+        private final long elapsedNanos;
+
+        Statistics(long targets, long failures, long bytesIn, long bytesOut, long encodeNanos, long elapsedNanos) {
+            this.targets = targets;
+            this.failures = failures;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.encodeNanos = encodeNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of targets encoded successfully
+         */
+        public long targets() {
+            return targets;
+        }
+
+        /**
+         * @return number of targets whose encoding failed
+         */
+        public long failures() {
+            return failures;
+        }
+
+        /**
+         * @return total size of the targets encoded successfully
+         */
+        public long bytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * @return total size of the delta files
+         */
+        public long bytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * @return time spent encoding, summed over all threads
+         */
+        public long encodeNanos() {
+            return encodeNanos;
+        }
+
+        /**
+         * @return time from the first submitted target until now, or until the encoder was closed
+         */
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return target bytes encoded per second of elapsed time
+         */
+        public double throughput() {
+            return elapsedNanos > 0 ? bytesIn * 1e9 / elapsedNanos : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d targets (%d failed), %d bytes in, %d bytes out, %.1f MB/s",
+                    targets, failures, bytesIn, bytesOut, throughput() / (1024 * 1024));
+        }
+    }
+
+    private final HashedDictionary dictionary;
+    private final EnumSet<VCDiffFormatExtension> formatExtensions;
+    private final boolean interleaved;
+    private final boolean targetMatches;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    // At most maxInFlight workers are ever in use, so that's all that are kept
+    private final ArrayDeque<Worker> idle = new ArrayDeque<Worker>();
+
+    private final AtomicLong targets = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong startNanos = new AtomicLong();
+    private volatile long closedNanos;
+    private volatile boolean closed;
+
+    /**
+     * @param dictionary hashed dictionary that every target is encoded against
+     * @param formatExtensions format extensions to encode with
+     * @param targetMatches whether to look for matches within each target
+     * @param executor executor that encodes targets
+     * @param ownsExecutor whether close() shuts down executor, which must then be an ExecutorService
+     * @param maxInFlight maximum number of targets queued or being encoded at once
+     */
+    public VCDiffBatchEncoder(HashedDictionary dictionary, EnumSet<VCDiffFormatExtension> formatExtensions,
+                              boolean targetMatches, Executor executor, boolean ownsExecutor, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        if (ownsExecutor && !(executor instanceof ExecutorService)) {
+            throw new IllegalArgumentException("only an ExecutorService can be shut down");
+        }
+        this.dictionary = Objects.requireNonNull(dictionary, "dictionary was null");
+        this.formatExtensions = formatExtensions.clone();
+        this.interleaved = formatExtensions.contains(VCDiffFormatExtension.GOOGLE_INTERLEAVED);
+        this.targetMatches = targetMatches;
+        this.executor = Objects.requireNonNull(executor, "executor was null");
+        this.ownsExecutor = ownsExecutor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Queues a target to be encoded, blocking while maxInFlight targets are already queued
+     * or being encoded.  The target must not be modified until the future completes.
+     *
+     * @param target data to encode
+     * @return a future that completes with the delta file, or exceptionally if encoding failed
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     * @throws IllegalStateException if the encoder has been closed
+     */
+    public CompletableFuture<byte[]> submit(final byte[] target) throws InterruptedException {
+        Objects.requireNonNull(target, "target was null");
+        if (closed) {
+            throw new IllegalStateException("Batch encoder is closed");
+        }
+
+        inFlight.acquire();
+        if (closed) {
+            // close() was called while waiting; it's already drained the queue
+            inFlight.release();
+            throw new IllegalStateException("Batch encoder is closed");
+        }
+        startNanos.compareAndSet(0, System.nanoTime());
+
+        final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final long start = System.nanoTime();
+                    final byte[] delta;
+                    try {
+                        delta = encode(target);
+                    } catch (Throwable t) {
+                        failures.incrementAndGet();
+                        inFlight.release();
+                        result.completeExceptionally(t);
+                        return;
+                    }
+
+                    encodeNanos.addAndGet(System.nanoTime() - start);
+                    bytesIn.addAndGet(target.length);
+                    bytesOut.addAndGet(delta.length);
+                    targets.incrementAndGet();
+                    inFlight.release();
+                    result.complete(delta);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+        return result;
+    }
+
+    private byte[] encode(byte[] target) throws Exception {
+        Worker worker;
+        synchronized (idle) {
+            worker = idle.pollFirst();
+        }
+        if (worker == null) {
+            worker = new Worker(this);
+        }
+
+        final byte[] delta = worker.encode(target);
+        synchronized (idle) {
+            if (!closed) {
+                idle.addFirst(worker);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * @return totals for all targets encoded so far
+     */
+    public Statistics statistics() {
+        final long start = startNanos.get();
+        final long end = closed ? closedNanos : System.nanoTime();
+        return new Statistics(targets.get(), failures.get(), bytesIn.get(), bytesOut.get(), encodeNanos.get(),
+                start != 0 ? end - start : 0);
+    }
+
+    /**
+     * Waits for all queued targets to be encoded, then stops accepting new ones.  If the
+     * encoder created its own threads, they're shut down.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        inFlight.acquireUninterruptibly(maxInFlight);
+        closedNanos = System.nanoTime();
+        synchronized (idle) {
+            idle.clear();
+        }
+        inFlight.release(maxInFlight);
+
+        if (ownsExecutor) {
+            ExecutorService executorService = (ExecutorService) executor;
+            executorService.shutdown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Encoder state that's reused from one target to the next, by one thread at a time
+    private static final class Worker {
+        private final VCDiffStreamingEncoderImpl<OutputStream> encoder;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Worker(VCDiffBatchEncoder batchEncoder) {
+            encoder = new VCDiffStreamingEncoderImpl<OutputStream>(
+                    new VCDiffCodeTableWriterImpl(batchEncoder.interleaved), batchEncoder.dictionary,
+                    batchEncoder.formatExtensions, batchEncoder.targetMatches);
+        }
+
+        byte[] encode(byte[] target) throws Exception {
+            out.reset();
+            encoder.startEncoding(out);
+            encoder.encodeChunk(target, 0, target.length, out);
+            encoder.finishEncoding(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffCodeTableWriter;
+import com.davidehrmann.vcdiff.VCDiffFormatExtension;
+import com.davidehrmann.vcdiff.util.BlockingChannels;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.EnumSet;
+import java.util.Objects;
+
+/**
+ * A code table writer that writes delta windows to a channel.  Each window's header and
+ * sections are handed to the channel as they are, with a gathering write if it's a
+ * GatheringByteChannel; see {@link VCDiffCodeTableWriterImpl#output(WritableByteChannel)}.
+ *
+ * NOT threadsafe.
+ */
+public class VCDiffChannelCodeTableWriter implements VCDiffCodeTableWriter<WritableByteChannel> {
+
+    private final VCDiffCodeTableWriterImpl writer;
+
+    public VCDiffChannelCodeTableWriter(boolean interleaved) {
+        this(new VCDiffCodeTableWriterImpl(interleaved));
+    }
+
+    public VCDiffChannelCodeTableWriter(VCDiffCodeTableWriterImpl writer) {
+        this.writer = Objects.requireNonNull(writer, "writer was null");
+    }
+
+    @Override
+    public void init(int dictionarySize) {
+        writer.init(dictionarySize);
+    }
+
+    @Override
+    public void writeHeader(WritableByteChannel out, EnumSet<VCDiffFormatExtension> formatExtensions) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writer.writeHeader(header, formatExtensions);
+        BlockingChannels.writeFully(out, ByteBuffer.wrap(header.toByteArray()));
+    }
+
+    @Override
+    public void add(byte[] data, int offset, int length) {
+        writer.add(data, offset, length);
+    }
+
+    @Override
+    public void copy(int offset, int size) {
+        writer.copy(offset, size);
+    }
+
+    @Override
+    public void run(int size, byte b) {
+        writer.run(size, b);
+    }
+
+    @Override
+    public void addChecksum(int checksum) {
+        writer.addChecksum(checksum);
+    }
+
+    @Override
+    public void output(WritableByteChannel out) throws IOException {
+        writer.output(out);
+    }
+
+    @Override
+    public void finishEncoding(WritableByteChannel out) {
+
+    }
+}
@@ -2,8 +2,6 @@ package com.davidehrmann.vcdiff.engine;
 
 import java.util.Objects;
 import com.davidehrmann.vcdiff.util.VarInt;
-import com.davidehrmann.vcdiff.util.VarInt.VarIntEndOfBufferException;
-import com.davidehrmann.vcdiff.util.VarInt.VarIntParseException;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -13,9 +11,22 @@ public class VCDiffCodeTableReader {
 
     protected static final short NO_OPCODE = 0x100; // outside the opcode range 0x00 - 0xFF
 
-    // A pointer to the code table.  This is the object that will be used
-    // to interpret opcodes in getNextInstruction().
-    private final VCDiffCodeTableData codeTableData;
+    // The first and second instruction of each opcode in the code table, packed by
+    // packInstructions() so that getNextInstruction() finds an opcode's inst, size
+    // and mode with a single array read.
+    private static final int kInstructionMask = 0xff;
+    private static final int kSizeShift = 8;
+    private static final int kModeShift = 16;
+    // Set in the first instruction of opcodes that have a second instruction
+    private static final int kHasSecondInstruction = 1 << 24;
+
+    private static final int[] kDefaultFirstInstructions = packInstructions(
+            VCDiffCodeTableData.kDefaultCodeTableData, true);
+    private static final int[] kDefaultSecondInstructions = packInstructions(
+            VCDiffCodeTableData.kDefaultCodeTableData, false);
+
+    private final int[] firstInstructions;
+    private final int[] secondInstructions;
 
     private ByteBuffer instructionsAndSizes;
 
@@ -25,7 +36,8 @@ public class VCDiffCodeTableReader {
     private short lastPendingSecondInstruction;
 
     public VCDiffCodeTableReader() {
-        this.codeTableData = VCDiffCodeTableData.kDefaultCodeTableData;
+        this.firstInstructions = kDefaultFirstInstructions;
+        this.secondInstructions = kDefaultSecondInstructions;
     }
 
     // Sets up a non-standard code table.  The caller
@@ -39,7 +51,25 @@ public class VCDiffCodeTableReader {
         if (!codeTableData.Validate(maxMode)) {
             throw new IllegalArgumentException("Invalid code table data.");
         }
-        this.codeTableData = Objects.requireNonNull(codeTableData, "codeTableData was null");
+        Objects.requireNonNull(codeTableData, "codeTableData was null");
+        this.firstInstructions = packInstructions(codeTableData, true);
+        this.secondInstructions = packInstructions(codeTableData, false);
+    }
+
+    private static int[] packInstructions(VCDiffCodeTableData codeTableData, boolean first) {
+        final byte[] inst = first ? codeTableData.inst1 : codeTableData.inst2;
+        final byte[] size = first ? codeTableData.size1 : codeTableData.size2;
+        final byte[] mode = first ? codeTableData.mode1 : codeTableData.mode2;
+        final int[] packed = new int[VCDiffCodeTableData.kCodeTableSize];
+        for (int opcode = 0; opcode < packed.length; opcode++) {
+            packed[opcode] = (inst[opcode] & 0xff)
+                    | (size[opcode] & 0xff) << kSizeShift
+                    | (mode[opcode] & 0xff) << kModeShift;
+            if (first && codeTableData.inst2[opcode] != VCDiffCodeTableData.VCD_NOOP) {
+                packed[opcode] |= kHasSecondInstruction;
+            }
+        }
+        return packed;
     }
 
     // Defines the buffer containing the instructions and sizes.
@@ -76,20 +106,14 @@ public class VCDiffCodeTableReader {
 
         lastInstructionStart = instructionsAndSizes.position();
         lastPendingSecondInstruction = pendingSecondInstruction;
-        byte opcode;
-        byte instruction_type;
-        int instruction_size;
-        byte instruction_mode;
+        int instruction;
 
         do {
             if (pendingSecondInstruction != NO_OPCODE) {
                 // There is a second instruction left over
                 // from the most recently processed opcode.
-                opcode = (byte) pendingSecondInstruction;
+                instruction = secondInstructions[pendingSecondInstruction];
                 pendingSecondInstruction = NO_OPCODE;
-                instruction_type = codeTableData.inst2[opcode & 0xff];
-                instruction_size = codeTableData.size2[opcode & 0xff];
-                instruction_mode = codeTableData.mode2[opcode & 0xff];
                 break;
             }
             if (!instructionsAndSizes.hasRemaining()) {
@@ -97,37 +121,37 @@ public class VCDiffCodeTableReader {
                 return VCDiffCodeTableData.VCD_INSTRUCTION_END_OF_DATA;
             }
 
-            opcode = instructionsAndSizes.get();
-            if (codeTableData.inst2[opcode & 0xff] != VCDiffCodeTableData.VCD_NOOP) {
+            final int opcode = instructionsAndSizes.get() & 0xff;
+            instruction = firstInstructions[opcode];
+            if ((instruction & kHasSecondInstruction) != 0) {
                 // This opcode contains two instructions; process the first one now, and
                 // save a pointer to the second instruction, which should be returned
                 // by the next call to getNextInstruction
-                pendingSecondInstruction = opcode;
+                pendingSecondInstruction = (short) opcode;
             }
 
-            instruction_type = codeTableData.inst1[opcode & 0xff];
-            instruction_size = codeTableData.size1[opcode & 0xff];
-            instruction_mode = codeTableData.mode1[opcode & 0xff];
             // This do-while loop is necessary in case inst1 == VCD_NOOP for an opcode
             // that was actually used in the encoding.  That case is unusual, but it
             // is not prohibited by the standard.
-        } while (instruction_type == VCDiffCodeTableData.VCD_NOOP);
+        } while ((instruction & kInstructionMask) == VCDiffCodeTableData.VCD_NOOP);
+
+        final int instruction_size = (byte) (instruction >>> kSizeShift);
         if (instruction_size == 0) {
             // Parse the size as a Varint in the instruction stream.
-            try {
-                size.set(VarInt.getInt(instructionsAndSizes));
-            } catch (VarIntParseException e) {
-                throw new IOException("Instruction size is not a valid variable-length integer");
-            } catch (VarIntEndOfBufferException e) {
+            final int parsedSize = VarInt.tryGetInt(instructionsAndSizes);
+            if (parsedSize == VarInt.END_OF_BUFFER) {
                 unGetInstruction();  // Rewind to instruction start
                 return VCDiffCodeTableData.VCD_INSTRUCTION_END_OF_DATA;
+            } else if (parsedSize < 0) {
+                throw new IOException("Instruction size is not a valid variable-length integer");
             }
+            size.set(parsedSize);
         } else {
             size.set(instruction_size);
         }
-        mode.set(instruction_mode);
+        mode.set((byte) (instruction >>> kModeShift));
 
-        return instruction_type;
+        return (byte) instruction;
     }
 
     // Puts a single instruction back onto the front of the
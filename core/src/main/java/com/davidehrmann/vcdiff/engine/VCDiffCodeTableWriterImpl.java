@@ -1,16 +1,17 @@
 package com.davidehrmann.vcdiff.engine;
 
 import com.davidehrmann.vcdiff.VCDiffFormatExtension;
-import com.davidehrmann.vcdiff.io.CountingOutputStream;
-import com.davidehrmann.vcdiff.mina_buffer.IoBuffer;
+import com.davidehrmann.vcdiff.util.BlockingChannels;
 import com.davidehrmann.vcdiff.util.VarInt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author David Ehrmann
@@ -49,6 +50,8 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
     static final int VCD_SOURCE = 0x01;
     static final int VCD_TARGET = 0x02;
     static final int VCD_CHECKSUM = 0x04;
+    // With VCD_CHECKSUM, the checksum is a CRC-32C rather than an Adler32 checksum
+    static final int VCD_CRC32C = 0x08;
 
     /**
      * The maximum value for the mode of a COPY instruction.
@@ -58,22 +61,22 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
     // A series of instruction opcodes, each of which may be followed
     // by one or two Varint values representing the size parameters
     // of the first and second instruction in the opcode.
-    private IoBuffer instructionsAndSizes = IoBuffer.allocate(1024);
+    private final SectionBuffer instructionsAndSizes = new SectionBuffer(1024);
 
     // A series of data arguments (byte values) used for ADD and RUN
     // instructions.  Depending on whether interleaved output is used
     // for streaming or not, the pointer may point to
     // separateDataForAddAndRun or to instructionsAndSizes.
-    private IoBuffer dataForAddAndRun;
-    private final IoBuffer separateDataForAddAndRun = IoBuffer.allocate(1024);
+    private SectionBuffer dataForAddAndRun;
+    private final SectionBuffer separateDataForAddAndRun = new SectionBuffer(1024);
 
     // A series of Varint addresses used for COPY instructions.
     // For the SAME mode, a byte value is stored instead of a Varint.
     // Depending on whether interleaved output is used
     // for streaming or not, the pointer may point to
     // separateAddressesForCopy or to instructionsAndSizes.
-    private IoBuffer addressesForCopy;
-    private final IoBuffer separateAddressesForCopy = IoBuffer.allocate(1024);
+    private SectionBuffer addressesForCopy;
+    private final SectionBuffer separateAddressesForCopy = new SectionBuffer(1024);
 
     private final VCDiffAddressCache addraddressCachess_cache_;
 
@@ -117,6 +120,19 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
     // either before or after the calls to add(), run(), and copy().
     private long checksum;
 
+    // If true, checksums are CRC-32C, set by writeHeader()
+    private boolean crc32c;
+
+    // Where instructions are recorded, if anywhere
+    private final VCDiffEncoderStatistics statistics;
+
+    // The window header, from Win_Indicator through the checksum.  Each field is a
+    // varint of at most 5 bytes, except the checksum, which can take up to 10.
+    private final ByteBuffer windowHeader = ByteBuffer.allocate(64);
+
+    // The window header and the three sections, in the order they're written
+    private final ByteBuffer[] windowBuffers = new ByteBuffer[4];
+
     /**
      * This constructor uses the default code table.
      * If interleaved is true, the encoder writes each delta file window
@@ -131,6 +147,18 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
      * @param interleaved Whether or not to interleave the output data
      */
     public VCDiffCodeTableWriterImpl(boolean interleaved) {
+        this(interleaved, null);
+    }
+
+    /**
+     * Like {@link #VCDiffCodeTableWriterImpl(boolean)}, but records each instruction in
+     * statistics.
+     *
+     * @param interleaved Whether or not to interleave the output data
+     * @param statistics statistics to record instructions in, or null not to record them
+     */
+    public VCDiffCodeTableWriterImpl(boolean interleaved, VCDiffEncoderStatistics statistics) {
+        this.statistics = statistics;
         maxMode = VCDiffAddressCache.DefaultLastMode();
         dictionarySize = 0;
         targetLength = 0;
@@ -139,11 +167,7 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
         lastOpcodeIndex = -1;
         addChecksum = false;
         checksum = 0;
-        addraddressCachess_cache_ = new VCDiffAddressCacheImpl();
-
-        instructionsAndSizes.setAutoExpand(true);
-        separateDataForAddAndRun.setAutoExpand(true);
-        separateAddressesForCopy.setAutoExpand(true);
+        addraddressCachess_cache_ = new VCDiffDefaultAddressCache();
 
         initSectionPointers(interleaved);
     }
@@ -167,6 +191,7 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
      * @param maxMode maximum value for the mode of a COPY instruction.
      */
     VCDiffCodeTableWriterImpl(boolean interleaved, short nearCacheSize, short sameCacheSize, VCDiffCodeTableData codeTableData, short maxMode) {
+        statistics = null;
         addraddressCachess_cache_ = new VCDiffAddressCacheImpl(nearCacheSize, sameCacheSize);
         dictionarySize = 0;
         targetLength = 0;
@@ -214,6 +239,9 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
         encodeInstruction(VCDiffCodeTableData.VCD_ADD, length);
         dataForAddAndRun.put(data, offset, length);
         targetLength += length;
+        if (statistics != null) {
+            statistics.recordAdd(length);
+        }
     }
 
     public void addChecksum(int checksum) {
@@ -234,16 +262,18 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
         // then the string instructionsAndSizes may be the same as
         // addressesForCopy.  The address should therefore be encoded
         // *after* the instruction and its size.
-        AtomicInteger encoded_addr = new AtomicInteger(0);
-        final byte mode = (byte) addraddressCachess_cache_.EncodeAddress(offset, dictionarySize + targetLength, encoded_addr);
+        final long encoded = addraddressCachess_cache_.EncodeAddress(offset, dictionarySize + targetLength);
+        final byte mode = (byte) VCDiffAddressCache.EncodedMode(encoded);
         encodeInstruction(VCDiffCodeTableData.VCD_COPY, size, mode);
         if (addraddressCachess_cache_.WriteAddressAsVarintForMode(mode)) {
-            addressesForCopy.expand(VarInt.calculateIntLength(encoded_addr.get()));
-            VarInt.putInt(addressesForCopy.buf(), encoded_addr.get());
+            addressesForCopy.putVarInt(VCDiffAddressCache.EncodedAddress(encoded));
         } else {
-            addressesForCopy.put((byte)encoded_addr.get());
+            addressesForCopy.put((byte) VCDiffAddressCache.EncodedAddress(encoded));
         }
         targetLength += size;
+        if (statistics != null) {
+            statistics.recordCopy(size, offset < dictionarySize, mode & 0xff);
+        }
     }
 
     /**
@@ -274,64 +304,98 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
      * '\0' characters.
      */
     public void output(OutputStream out) throws IOException {
-        if (instructionsAndSizes.position() == 0) {
+        final ByteBuffer[] buffers = prepareWindow();
+        if (buffers != null) {
+            for (ByteBuffer buffer : buffers) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+        }
+        finishWindow();
+    }
+
+    /**
+     * Like {@link #output(OutputStream)}, but hands the window header and the three
+     * sections to out as they are, without copying them into one buffer first.  If out is
+     * a GatheringByteChannel, they're written with gathering writes.  out must be in
+     * blocking mode.
+     */
+    public void output(WritableByteChannel out) throws IOException {
+        final ByteBuffer[] buffers = prepareWindow();
+        if (buffers != null) {
+            BlockingChannels.writeFully(out, buffers);
+        }
+        finishWindow();
+    }
+
+    // Serializes the window header, and returns it along with views of the three sections,
+    // or null if nothing was encoded.  The views are only valid until finishWindow().
+    private ByteBuffer[] prepareWindow() {
+        if (instructionsAndSizes.size() == 0) {
             LOGGER.warn("Empty input; no delta window produced");
+            return null;
+        }
+
+        windowHeader.clear();
+
+        // add first element: Win_Indicator
+        if (addChecksum) {
+            windowHeader.put((byte) (VCD_SOURCE | VCD_CHECKSUM | (crc32c ? VCD_CRC32C : 0)));
         } else {
-            CountingOutputStream countedOut = new CountingOutputStream(out);
+            windowHeader.put((byte) VCD_SOURCE);
+        }
 
-            // add first element: Win_Indicator
-            if (addChecksum) {
-                countedOut.write(VCD_SOURCE | VCD_CHECKSUM);
-            } else {
-                countedOut.write(VCD_SOURCE);
-            }
+        // Source segment size: dictionary size
+        VarInt.putInt(windowHeader, dictionarySize);
 
-            // Source segment size: dictionary size
-            VarInt.writeInt(countedOut, dictionarySize);
+        // Source segment position: 0 (start of dictionary)
+        VarInt.putInt(windowHeader, 0);
 
-            // Source segment position: 0 (start of dictionary)
-            VarInt.writeInt(countedOut, 0);
+        // [Here is where a secondary compressor would be used
+        //  if the encoder and decoder supported that feature.]
 
-            // [Here is where a secondary compressor would be used
-            //  if the encoder and decoder supported that feature.]
+        final int length_of_the_delta_encoding = this.calculateLengthOfTheDeltaEncoding();
 
-            final int length_of_the_delta_encoding = this.calculateLengthOfTheDeltaEncoding();
+        VarInt.putInt(windowHeader, length_of_the_delta_encoding);
 
-            VarInt.writeInt(countedOut, length_of_the_delta_encoding);
+        // Start of Delta Encoding
+        final int size_before_delta_encoding = windowHeader.position();
 
-            // Start of Delta Encoding
-            final int size_before_delta_encoding = (int) countedOut.getBytesWritten();
+        VarInt.putInt(windowHeader, targetLength);
+        windowHeader.put((byte) 0x00);  // Delta_Indicator: no compression
+        VarInt.putInt(windowHeader, separateDataForAddAndRun.size());
+        VarInt.putInt(windowHeader, instructionsAndSizes.size());
+        VarInt.putInt(windowHeader, separateAddressesForCopy.size());
+        if (addChecksum) {
+            // The checksum is a 32-bit *unsigned* integer.  VarintBE requires a
+            // signed type, so use a 64-bit signed integer to store the checksum.
+            VarInt.putLong(windowHeader, checksum);
+        }
 
-            VarInt.writeInt(countedOut, targetLength);
-            countedOut.write(0x00);  // Delta_Indicator: no compression
-            VarInt.writeInt(countedOut, separateDataForAddAndRun.position());
-            VarInt.writeInt(countedOut, instructionsAndSizes.position());
-            VarInt.writeInt(countedOut, separateAddressesForCopy.position());
-            if (addChecksum) {
-                // The checksum is a 32-bit *unsigned* integer.  VarintBE requires a
-                // signed type, so use a 64-bit signed integer to store the checksum.
-                VarInt.writeLong(countedOut, checksum);
-            }
+        windowBuffers[0] = (ByteBuffer) windowHeader.flip();
+        windowBuffers[1] = separateDataForAddAndRun.view();
+        windowBuffers[2] = instructionsAndSizes.view();
+        windowBuffers[3] = separateAddressesForCopy.view();
 
-            countedOut.write(separateDataForAddAndRun.array(), separateDataForAddAndRun.arrayOffset(), separateDataForAddAndRun.position());
-            countedOut.write(instructionsAndSizes.array(), instructionsAndSizes.arrayOffset(), instructionsAndSizes.position());
-            countedOut.write(separateAddressesForCopy.array(), separateAddressesForCopy.arrayOffset(), separateAddressesForCopy.position());
-
-            // End of Delta Encoding
-            final int size_after_delta_encoding = (int) countedOut.getBytesWritten();
-            if (length_of_the_delta_encoding != (size_after_delta_encoding - size_before_delta_encoding)) {
-                throw new IllegalStateException(String.format(
-                        "Internal error: calculated length of the delta encoding (%d) does not match actual length (%d)",
-                        length_of_the_delta_encoding, size_after_delta_encoding - size_before_delta_encoding
-                ));
-            }
-            separateDataForAddAndRun.clear();
-            instructionsAndSizes.clear();
-            separateAddressesForCopy.clear();
-            if (targetLength == 0) {
-                LOGGER.warn("Empty target window");
-            }
+        // End of Delta Encoding
+        final int actual_length = windowHeader.limit() - size_before_delta_encoding
+                + windowBuffers[1].remaining() + windowBuffers[2].remaining() + windowBuffers[3].remaining();
+        if (length_of_the_delta_encoding != actual_length) {
+            throw new IllegalStateException(String.format(
+                    "Internal error: calculated length of the delta encoding (%d) does not match actual length (%d)",
+                    length_of_the_delta_encoding, actual_length
+            ));
+        }
+        if (targetLength == 0) {
+            LOGGER.warn("Empty target window");
         }
+        return windowBuffers;
+    }
+
+    private void finishWindow() {
+        separateDataForAddAndRun.clear();
+        instructionsAndSizes.clear();
+        separateAddressesForCopy.clear();
+        Arrays.fill(windowBuffers, null);
 
         // reset state for next window; assume we are using same code table
         // and dictionary.  The caller will have to invoke init() if a different
@@ -342,6 +406,28 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
         init(dictionarySize);
     }
 
+    /**
+     * Discards any partially encoded window, then shrinks section buffers that have grown
+     * beyond maxRetainedCapacity back to their initial size.  A writer that's kept for
+     * reuse can call this between delta files so that one very large window doesn't pin
+     * that much memory for as long as the writer lives.
+     *
+     * @param maxRetainedCapacity largest section buffer capacity to keep
+     */
+    void trim(int maxRetainedCapacity) {
+        instructionsAndSizes.trim(maxRetainedCapacity);
+        separateDataForAddAndRun.trim(maxRetainedCapacity);
+        separateAddressesForCopy.trim(maxRetainedCapacity);
+        init(dictionarySize);
+    }
+
+    /**
+     * @return total capacity of the section buffers
+     */
+    int retainedCapacity() {
+        return instructionsAndSizes.capacity() + separateDataForAddAndRun.capacity() + separateAddressesForCopy.capacity();
+    }
+
     /**
      *  encode a RUN opcode for "size" copies of the value "byte".
      */
@@ -349,6 +435,9 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
         encodeInstruction(VCDiffCodeTableData.VCD_RUN, size);
         dataForAddAndRun.put(b);
         targetLength += size;
+        if (statistics != null) {
+            statistics.recordRun(size);
+        }
     }
 
     /**
@@ -357,6 +446,7 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
      * before the first chunk of input is available.
      */
     public void writeHeader(OutputStream out, EnumSet<VCDiffFormatExtension> formatExtensions) throws IOException {
+        crc32c = formatExtensions.contains(VCDiffFormatExtension.CRC32C_CHECKSUM);
         if (formatExtensions.isEmpty()) {
             out.write(HEADER_STANDARD_FORMAT);
         } else {
@@ -414,7 +504,7 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
             if (size <= 255) {
                 compound_opcode = instructionMap.LookupSecondOpcode(last_opcode, inst, (byte)size, mode);
                 if (compound_opcode != VCDiffCodeTableData.kNoOpcode) {
-                    instructionsAndSizes.put(lastOpcodeIndex, (byte)compound_opcode);
+                    instructionsAndSizes.set(lastOpcodeIndex, (byte)compound_opcode);
                     lastOpcodeIndex = -1;
                     return;
                 }
@@ -423,10 +513,9 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
             // Try finding a compound opcode with size 0.
             compound_opcode = instructionMap.LookupSecondOpcode(last_opcode, inst, (byte)0, mode);
             if (compound_opcode != VCDiffCodeTableData.kNoOpcode) {
-                instructionsAndSizes.put(lastOpcodeIndex, (byte)compound_opcode);
+                instructionsAndSizes.set(lastOpcodeIndex, (byte)compound_opcode);
                 lastOpcodeIndex = -1;
-                instructionsAndSizes.expand(VarInt.calculateIntLength(size));
-                VarInt.putInt(instructionsAndSizes.buf(), size);
+                instructionsAndSizes.putVarInt(size);
                 return;
             }
         }
@@ -436,7 +525,7 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
             opcode = instructionMap.LookupFirstOpcode(inst, (byte)size, mode);
             if (opcode != VCDiffCodeTableData.kNoOpcode) {
                 instructionsAndSizes.put((byte) opcode);
-                lastOpcodeIndex = instructionsAndSizes.position() - 1;
+                lastOpcodeIndex = instructionsAndSizes.size() - 1;
                 return;
             }
         }
@@ -450,9 +539,8 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
         }
 
         instructionsAndSizes.put((byte)opcode);
-        lastOpcodeIndex = instructionsAndSizes.position() - 1;
-        instructionsAndSizes.expand(VarInt.calculateIntLength(size));
-        VarInt.putInt(instructionsAndSizes.buf(), size);
+        lastOpcodeIndex = instructionsAndSizes.size() - 1;
+        instructionsAndSizes.putVarInt(size);
     }
 
     private void encodeInstruction(byte inst, int size) {
@@ -466,12 +554,12 @@ public class VCDiffCodeTableWriterImpl implements com.davidehrmann.vcdiff.VCDiff
         int length_of_the_delta_encoding =
             VarInt.calculateIntLength(targetLength) +
             1 +  // Delta_Indicator
-                    VarInt.calculateIntLength(separateDataForAddAndRun.position()) +
-                    VarInt.calculateIntLength(instructionsAndSizes.position()) +
-                    VarInt.calculateIntLength(separateAddressesForCopy.position()) +
-            separateDataForAddAndRun.position() +
-            instructionsAndSizes.position() +
-            separateAddressesForCopy.position();
+                    VarInt.calculateIntLength(separateDataForAddAndRun.size()) +
+                    VarInt.calculateIntLength(instructionsAndSizes.size()) +
+                    VarInt.calculateIntLength(separateAddressesForCopy.size()) +
+            separateDataForAddAndRun.size() +
+            instructionsAndSizes.size() +
+            separateAddressesForCopy.size();
         if (addChecksum) {
             length_of_the_delta_encoding += VarInt.calculateLongLength(checksum);
         }
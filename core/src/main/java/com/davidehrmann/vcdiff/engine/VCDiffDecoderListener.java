@@ -0,0 +1,49 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+/**
+ * Receives what a decoder is doing as it does it, e.g. to feed a metrics library.
+ * {@link VCDiffDecoderStatistics} is an implementation that adds everything up.  Set
+ * one with {@link com.davidehrmann.vcdiff.VCDiffDecoderBuilder#withListener(VCDiffDecoderListener)};
+ * decoders without one don't collect anything.
+ *
+ * Methods are called on the decoding thread, in the middle of decoding, so they should
+ * be quick.  A listener shared by decoders that run at the same time, like the ones in a
+ * pool, must be threadsafe.
+ */
+public interface VCDiffDecoderListener {
+
+    /**
+     * Called after each target window is decoded and its checksum, if any, is verified.
+     *
+     * @param window what decoding the window took.  It's reused for the next window, so
+     *               it's only valid during the call.
+     */
+    default void windowDecoded(VCDiffWindowStatistics window) {
+    }
+
+    /**
+     * Called when the buffer that holds decoded target data has to grow, which copies
+     * everything in it.  Decoders that are reused, or that discard earlier windows because
+     * target matches aren't allowed, grow it less often.
+     *
+     * @param oldCapacity capacity before, in bytes
+     * @param newCapacity capacity after, in bytes
+     */
+    default void targetBufferGrown(int oldCapacity, int newCapacity) {
+    }
+}
@@ -0,0 +1,195 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of streaming decoders, for services that decode a delta file per request.
+ * Each decoder keeps its delta window, address cache and decoded target buffer, which
+ * keeps the capacity it grew to, so a borrowed decoder usually decodes without
+ * allocating much.
+ *
+ * Released decoders are reset, and their decoded target buffers are shrunk back to
+ * their initial size if they've grown beyond maxRetainedCapacity.  At most maxIdle
+ * decoders are kept; decoders released beyond that are dropped.
+ *
+ * All methods in this class are thread-safe, but each borrowed decoder must only be
+ * used by one thread at a time.
+ */
+public class VCDiffDecoderPool {
+
+    public static final int DEFAULT_MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private final long maximumTargetFileSize;
+    private final int maximumTargetWindowSize;
+    private final boolean allowTargetMatches;
+    private final boolean twoPhaseDecoding;
+    private final int maxIdle;
+    private final int maxRetainedCapacity;
+    private final VCDiffDecoderListener listener;
+
+    private final ArrayDeque<PooledDecoder> idle = new ArrayDeque<PooledDecoder>();
+
+    /**
+     * @param maximumTargetFileSize maximum target file size, or -1 for the default
+     * @param maximumTargetWindowSize maximum target window size, or -1 for the default
+     * @param allowTargetMatches whether delta files may use VCD_TARGET
+     * @param twoPhaseDecoding whether to decode windows in two passes
+     * @param maxIdle maximum number of released decoders to keep
+     * @param maxRetainedCapacity largest decoded target buffer a released decoder keeps
+     */
+    public VCDiffDecoderPool(long maximumTargetFileSize, int maximumTargetWindowSize, boolean allowTargetMatches,
+                             boolean twoPhaseDecoding, int maxIdle, int maxRetainedCapacity) {
+        this(maximumTargetFileSize, maximumTargetWindowSize, allowTargetMatches, twoPhaseDecoding, maxIdle,
+                maxRetainedCapacity, null);
+    }
+
+    /**
+     * Like {@link #VCDiffDecoderPool(long, int, boolean, boolean, int, int)}, but the decoders
+     * tell listener about what they decode.
+     *
+     * @param listener threadsafe listener shared by the decoders, or null for none
+     */
+    public VCDiffDecoderPool(long maximumTargetFileSize, int maximumTargetWindowSize, boolean allowTargetMatches,
+                             boolean twoPhaseDecoding, int maxIdle, int maxRetainedCapacity,
+                             VCDiffDecoderListener listener) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle can't be negative");
+        }
+        if (maxRetainedCapacity < 0) {
+            throw new IllegalArgumentException("maxRetainedCapacity can't be negative");
+        }
+        this.maximumTargetFileSize = maximumTargetFileSize;
+        this.maximumTargetWindowSize = maximumTargetWindowSize;
+        this.allowTargetMatches = allowTargetMatches;
+        this.twoPhaseDecoding = twoPhaseDecoding;
+        this.maxIdle = maxIdle;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+        this.listener = listener;
+    }
+
+    /**
+     * @return an idle decoder, or a new one if none are idle
+     */
+    public VCDiffStreamingDecoder borrow() {
+        synchronized (this) {
+            PooledDecoder decoder = idle.pollFirst();
+            if (decoder != null) {
+                decoder.released = false;
+                return decoder;
+            }
+        }
+
+        PooledDecoder decoder = new PooledDecoder(this);
+        if (maximumTargetFileSize >= 0) {
+            decoder.setMaximumTargetFileSize(maximumTargetFileSize);
+        }
+        if (maximumTargetWindowSize >= 0) {
+            decoder.setMaximumTargetWindowSize(maximumTargetWindowSize);
+        }
+        decoder.setAllowVcdTarget(allowTargetMatches);
+        decoder.setTwoPhaseDecoding(twoPhaseDecoding);
+        decoder.setListener(listener);
+        return decoder;
+    }
+
+    /**
+     * Returns a decoder to the pool.  Any delta file it was in the middle of decoding is
+     * abandoned.  The decoder must not be used after it's released.
+     *
+     * @param decoder decoder borrowed from this pool
+     * @throws IllegalArgumentException if decoder wasn't borrowed from this pool
+     * @throws IllegalStateException if decoder was already released
+     */
+    public void release(VCDiffStreamingDecoder decoder) {
+        if (!(decoder instanceof PooledDecoder) || ((PooledDecoder) decoder).pool != this) {
+            throw new IllegalArgumentException("decoder wasn't borrowed from this pool");
+        }
+
+        PooledDecoder pooled = (PooledDecoder) decoder;
+        // Checking and setting the flag together keeps two threads releasing the same
+        // decoder from both adding it
+        synchronized (this) {
+            if (pooled.released) {
+                throw new IllegalStateException("decoder was already released");
+            }
+            pooled.released = true;
+        }
+
+        pooled.reset();
+        pooled.trim(maxRetainedCapacity);
+
+        synchronized (this) {
+            if (idle.size() < maxIdle) {
+                idle.addFirst(pooled);
+            }
+        }
+    }
+
+    /**
+     * Decodes a complete delta file with a pooled decoder.
+     *
+     * @param dictionary dictionary the delta file was encoded against
+     * @param encoding delta file
+     * @param target stream to write the decoded target to
+     * @throws IOException if the delta file is invalid, or target can't be written to
+     */
+    public void decode(ByteBuffer dictionary, ByteBuffer encoding, OutputStream target) throws IOException {
+        VCDiffStreamingDecoder decoder = borrow();
+        try {
+            decoder.startDecoding(dictionary);
+            decoder.decodeChunk(encoding, target);
+            decoder.finishDecoding();
+        } finally {
+            release(decoder);
+        }
+    }
+
+    public void decode(byte[] dictionary, byte[] encoding, OutputStream target) throws IOException {
+        decode(ByteBuffer.wrap(dictionary), ByteBuffer.wrap(encoding), target);
+    }
+
+    /**
+     * @return number of decoders waiting to be borrowed
+     */
+    public synchronized int idleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Drops all idle decoders.
+     */
+    public synchronized void clear() {
+        idle.clear();
+    }
+
+    private static final class PooledDecoder extends VCDiffStreamingDecoderImpl {
+        private final VCDiffDecoderPool pool;
+
+        // Guarded by the pool
+        private boolean released = false;
+
+        PooledDecoder(VCDiffDecoderPool pool) {
+            this.pool = pool;
+        }
+    }
+}
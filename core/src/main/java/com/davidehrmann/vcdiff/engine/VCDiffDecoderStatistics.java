@@ -0,0 +1,154 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+/**
+ * A {@link VCDiffDecoderListener} that adds up what's decoded: windows, instructions by
+ * type, where target bytes came from, time spent and buffer growth.  It keeps counting
+ * across delta files until it's reset.
+ *
+ * NOT threadsafe, so it shouldn't be shared by decoders that run at the same time.
+ */
+public final class VCDiffDecoderStatistics implements VCDiffDecoderListener {
+
+    private long windows;
+    private long targetBytes;
+
+    private long addCount;
+    private long addBytes;
+    private long runCount;
+    private long runBytes;
+    private long copyCount;
+    private long sourceCopyBytes;
+    private long targetCopyBytes;
+
+    private long decodingNanos;
+    private long parsingNanos;
+    private long checksumNanos;
+    private long maxWindowDecodingNanos;
+
+    private long targetBufferGrowths;
+    private long targetBufferBytesCopied;
+
+    @Override
+    public void windowDecoded(VCDiffWindowStatistics window) {
+        windows++;
+        targetBytes += window.getTargetLength();
+        addCount += window.getAddCount();
+        addBytes += window.getAddBytes();
+        runCount += window.getRunCount();
+        runBytes += window.getRunBytes();
+        copyCount += window.getCopyCount();
+        sourceCopyBytes += window.getSourceCopyBytes();
+        targetCopyBytes += window.getTargetCopyBytes();
+        decodingNanos += window.getDecodingNanos();
+        parsingNanos += window.getParsingNanos();
+        checksumNanos += window.getChecksumNanos();
+        maxWindowDecodingNanos = Math.max(maxWindowDecodingNanos, window.getDecodingNanos());
+    }
+
+    @Override
+    public void targetBufferGrown(int oldCapacity, int newCapacity) {
+        targetBufferGrowths++;
+        targetBufferBytesCopied += oldCapacity;
+    }
+
+    /**
+     * Clears every counter.
+     */
+    public void reset() {
+        windows = targetBytes = 0;
+        addCount = addBytes = runCount = runBytes = copyCount = sourceCopyBytes = targetCopyBytes = 0;
+        decodingNanos = parsingNanos = checksumNanos = maxWindowDecodingNanos = 0;
+        targetBufferGrowths = targetBufferBytesCopied = 0;
+    }
+
+    public long getWindows() {
+        return windows;
+    }
+
+    public long getTargetBytes() {
+        return targetBytes;
+    }
+
+    public long getAddCount() {
+        return addCount;
+    }
+
+    public long getAddBytes() {
+        return addBytes;
+    }
+
+    public long getRunCount() {
+        return runCount;
+    }
+
+    public long getRunBytes() {
+        return runBytes;
+    }
+
+    public long getCopyCount() {
+        return copyCount;
+    }
+
+    public long getSourceCopyBytes() {
+        return sourceCopyBytes;
+    }
+
+    public long getTargetCopyBytes() {
+        return targetCopyBytes;
+    }
+
+    public long getDecodingNanos() {
+        return decodingNanos;
+    }
+
+    public long getParsingNanos() {
+        return parsingNanos;
+    }
+
+    public long getChecksumNanos() {
+        return checksumNanos;
+    }
+
+    /**
+     * @return longest time spent decoding a single window
+     */
+    public long getMaxWindowDecodingNanos() {
+        return maxWindowDecodingNanos;
+    }
+
+    public long getTargetBufferGrowths() {
+        return targetBufferGrowths;
+    }
+
+    /**
+     * @return number of bytes copied by growing the decoded target buffer
+     */
+    public long getTargetBufferBytesCopied() {
+        return targetBufferBytesCopied;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Windows: %d\tTarget bytes: %d%n"
+                        + "ADD: %d (%d bytes)\tRUN: %d (%d bytes)\tCOPY: %d (%d bytes from source, %d from target)%n"
+                        + "Decoding: %.3f ms (slowest window %.3f ms)\tChecksums: %.3f ms\tTarget buffer growths: %d",
+                windows, targetBytes,
+                addCount, addBytes, runCount, runBytes, copyCount, sourceCopyBytes, targetCopyBytes,
+                decodingNanos / 1e6, maxWindowDecodingNanos / 1e6, checksumNanos / 1e6, targetBufferGrowths);
+    }
+}
@@ -0,0 +1,188 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The address cache with the RFC 3284 default sizes: a NEAR cache of 4 addresses and a
+ * SAME cache of 3 blocks of 256.  Nearly every delta file uses these sizes, so unlike
+ * {@link VCDiffAddressCacheImpl}, the mode numbers and cache bounds are constants, the
+ * NEAR cache is searched without a loop, and modes are picked with a switch instead of
+ * range checks.  Delta files with other sizes use {@link VCDiffAddressCacheImpl}.
+ *
+ * NOT threadsafe.
+ */
+final class VCDiffDefaultAddressCache extends VCDiffAddressCache {
+
+    private static final int kSameCacheLength = kDefaultSameCacheSize * 256;
+    private static final short kFirstSameMode = VCD_FIRST_NEAR_MODE + kDefaultNearCacheSize;
+    private static final short kLastMode = kFirstSameMode + kDefaultSameCacheSize - 1;
+
+    VCDiffDefaultAddressCache() {
+        super(kDefaultNearCacheSize, kDefaultSameCacheSize);
+    }
+
+    @Override
+    public void Init() {
+        Arrays.fill(near_addresses_, 0);
+        Arrays.fill(same_addresses_, 0);
+        next_slot_ = 0;
+    }
+
+    @Override
+    public short FirstSameMode() {
+        return kFirstSameMode;
+    }
+
+    @Override
+    public short LastMode() {
+        return kLastMode;
+    }
+
+    @Override
+    boolean IsNearMode(short mode) {
+        return mode >= VCD_FIRST_NEAR_MODE && mode < kFirstSameMode;
+    }
+
+    @Override
+    boolean IsSameMode(short mode) {
+        return mode >= kFirstSameMode && mode <= kLastMode;
+    }
+
+    @Override
+    public void UpdateCache(int address) {
+        near_addresses_[next_slot_] = address;
+        next_slot_ = (next_slot_ + 1) & (kDefaultNearCacheSize - 1);
+        same_addresses_[address % kSameCacheLength] = address;
+    }
+
+    @Override
+    public long EncodeAddress(int address, int here_address) {
+        if (address < 0) {
+            throw new IllegalArgumentException("EncodeAddress was passed a negative address: " + address);
+        }
+        if (address >= here_address) {
+            throw new IllegalArgumentException(String.format("EncodeAddress was called with address (%d) < here_address (%d)", address, here_address));
+        }
+
+        final int[] near = near_addresses_;
+        final int[] same = same_addresses_;
+
+        // SAME always gives the smallest encoding
+        final int same_cache_pos = address % kSameCacheLength;
+        if (same[same_cache_pos] == address) {
+            UpdateCache(address);
+            return PackEncodedAddress((short) (kFirstSameMode + (same_cache_pos >>> 8)), same_cache_pos & 0xff);
+        }
+
+        // SELF, then HERE, then each NEAR slot, keeping the lowest encoded address.
+        // Unsigned comparisons skip NEAR slots above address.
+        short best_mode = VCD_SELF_MODE;
+        int best = address;
+
+        int candidate = here_address - address;
+        if (candidate < best) {
+            best_mode = VCD_HERE_MODE;
+            best = candidate;
+        }
+        candidate = address - near[0];
+        if (Integer.compareUnsigned(candidate, best) < 0) {
+            best_mode = VCD_FIRST_NEAR_MODE;
+            best = candidate;
+        }
+        candidate = address - near[1];
+        if (Integer.compareUnsigned(candidate, best) < 0) {
+            best_mode = VCD_FIRST_NEAR_MODE + 1;
+            best = candidate;
+        }
+        candidate = address - near[2];
+        if (Integer.compareUnsigned(candidate, best) < 0) {
+            best_mode = VCD_FIRST_NEAR_MODE + 2;
+            best = candidate;
+        }
+        candidate = address - near[3];
+        if (Integer.compareUnsigned(candidate, best) < 0) {
+            best_mode = VCD_FIRST_NEAR_MODE + 3;
+            best = candidate;
+        }
+
+        UpdateCache(address);
+        return PackEncodedAddress(best_mode, best);
+    }
+
+    @Override
+    public int DecodeAddress(int here_address, short vcDiffMode, ByteBuffer addressStream) throws IOException {
+        if (here_address < 0) {
+            throw new IllegalStateException("DecodeAddress was passed a negative value for here_address: " + here_address);
+        }
+
+        final int position = addressStream.position();
+        if (position == addressStream.limit()) {
+            return RESULT_END_OF_DATA;
+        }
+
+        final int decoded_address;
+        if (vcDiffMode >= kFirstSameMode) {
+            if (vcDiffMode > kLastMode) {
+                throw new IllegalArgumentException(
+                        "Invalid mode value (" + vcDiffMode +
+                        ") passed to DecodeAddress; maximum mode value = " + kLastMode);
+            }
+            // SAME mode expects an unsigned byte value as the encoded address
+            decoded_address = same_addresses_[((vcDiffMode - kFirstSameMode) << 8) | (addressStream.get(position) & 0xff)];
+            requireValidDecodedAddress(decoded_address, here_address);
+            addressStream.position(position + 1);
+        } else {
+            if (vcDiffMode < 0) {
+                throw new IllegalArgumentException(
+                        "Invalid mode value (" + vcDiffMode +
+                        ") passed to DecodeAddress; maximum mode value = " + kLastMode);
+            }
+            // tryGetInt() only advances addressStream if it reads a whole varint
+            final int encoded_address = VarInt.tryGetInt(addressStream);
+            if (encoded_address == VarInt.END_OF_BUFFER) {
+                return RESULT_END_OF_DATA;
+            } else if (encoded_address < 0) {
+                throw new IOException("Found invalid variable-length integer as encoded address value");
+            }
+
+            switch (vcDiffMode) {
+                case VCD_SELF_MODE:
+                    decoded_address = encoded_address;
+                    break;
+                case VCD_HERE_MODE:
+                    decoded_address = here_address - encoded_address;
+                    break;
+                default:
+                    decoded_address = near_addresses_[vcDiffMode - VCD_FIRST_NEAR_MODE] + encoded_address;
+                    break;
+            }
+            if (decoded_address < 0 || decoded_address >= here_address) {
+                addressStream.position(position);
+                requireValidDecodedAddress(decoded_address, here_address);
+            }
+        }
+
+        UpdateCache(decoded_address);
+        return decoded_address;
+    }
+}
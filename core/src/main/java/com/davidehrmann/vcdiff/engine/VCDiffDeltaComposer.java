@@ -0,0 +1,440 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffFormatExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableData.VCD_ADD;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableData.VCD_COPY;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableData.VCD_INSTRUCTION_END_OF_DATA;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableData.VCD_RUN;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_CHECKSUM;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_CRC32C;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_SOURCE;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_TARGET;
+
+/**
+ * Merges a delta file from A to B and a delta file from B to C into a single delta file
+ * from A to C, without decoding B or C.
+ *
+ * Both delta files are parsed into maps from ranges of their targets to where those
+ * ranges come from: the dictionary, earlier target data, ADD data in the delta file, or
+ * a RUN.  Each instruction of the second delta file is then resolved through the first
+ * delta file's map until it refers only to A or to literal data.  Memory use is
+ * proportional to the number of instructions in the two delta files, not the size of
+ * B or C.  The combined delta file has the same windows as the second delta file, and
+ * keeps its checksums.
+ *
+ * Delta files that use a custom code table can't be composed.
+ */
+public class VCDiffDeltaComposer {
+
+    private final boolean interleaved;
+
+    /**
+     * @param interleaved whether to write the combined delta file in the interleaved format
+     */
+    public VCDiffDeltaComposer(boolean interleaved) {
+        this.interleaved = interleaved;
+    }
+
+    /**
+     * @param dictionarySize size of A
+     * @param first entire delta file from A to B
+     * @param second entire delta file from B to C
+     * @param out output for the combined delta file from A to C
+     * @throws IOException if either delta file is malformed, or there was an exception writing to out
+     */
+    public void compose(int dictionarySize, ByteBuffer first, ByteBuffer second, OutputStream out)
+            throws IOException {
+        VCDiffWindowIndex firstIndex = VCDiffWindowIndex.build(first, dictionarySize);
+        if (firstIndex.targetLength() > Integer.MAX_VALUE) {
+            throw new IOException("The target of the first delta file is too large to be a dictionary");
+        }
+        VCDiffWindowIndex secondIndex = VCDiffWindowIndex.build(second, (int) firstIndex.targetLength());
+
+        SegmentMap firstMap = SegmentMap.parse(first.slice(), firstIndex, dictionarySize, null);
+        SegmentMap secondMap = SegmentMap.parse(second.slice(), secondIndex, (int) firstIndex.targetLength(), firstMap);
+
+        EnumSet<VCDiffFormatExtension> formatExtensions = EnumSet.noneOf(VCDiffFormatExtension.class);
+        if (interleaved) {
+            formatExtensions.add(VCDiffFormatExtension.GOOGLE_INTERLEAVED);
+        }
+        for (VCDiffWindowIndex.Window window : secondIndex.windows()) {
+            if ((window.winIndicator & VCD_CHECKSUM) != 0) {
+                formatExtensions.add(VCDiffFormatExtension.GOOGLE_CHECKSUM);
+                if ((window.winIndicator & VCD_CRC32C) != 0) {
+                    formatExtensions.add(VCDiffFormatExtension.CRC32C_CHECKSUM);
+                }
+            }
+        }
+
+        Emitter emitter = new Emitter(new VCDiffCodeTableWriterImpl(interleaved), dictionarySize);
+        emitter.writer.init(dictionarySize);
+        emitter.writer.writeHeader(out, formatExtensions);
+
+        int segment = 0;
+        for (int w = 0; w < secondIndex.windows().size(); w++) {
+            final VCDiffWindowIndex.Window window = secondIndex.windows().get(w);
+            final long windowStart = window.targetOffset;
+            final long windowEnd = windowStart + window.targetLength;
+            for (; segment < secondMap.count && secondMap.starts[segment] < windowEnd; segment++) {
+                final long start = secondMap.starts[segment];
+                final int length = secondMap.lengths[segment];
+                if (secondMap.kinds[segment] == SegmentMap.TARGET && secondMap.args[segment] >= windowStart) {
+                    // Copies within the window stay copies within the window, since the
+                    // combined delta file has the same windows
+                    emitter.copy(dictionarySize + (int) (secondMap.args[segment] - windowStart), length);
+                } else {
+                    emitter.emit(secondMap, start, length);
+                }
+            }
+            if (secondMap.hasChecksum[w]) {
+                emitter.flush();
+                emitter.writer.addChecksum(secondMap.checksums[w]);
+            }
+            emitter.output(out);
+        }
+        emitter.writer.finishEncoding(out);
+    }
+
+    // Maps ranges of the target of a delta file to their origins, in target order
+    private static final class SegmentMap {
+        static final byte SOURCE = 0;   // arg is an offset into the dictionary
+        static final byte TARGET = 1;   // arg is an earlier offset into this target
+        static final byte LITERAL = 2;  // arg is the offset of ADD data in the delta file
+        static final byte RUN = 3;      // arg is the byte to repeat
+
+        final ByteBuffer delta;
+        // Map for the dictionary, or null if the dictionary is A
+        final SegmentMap dictionaryMap;
+
+        int count = 0;
+        long[] starts = new long[64];
+        int[] lengths = new int[64];
+        byte[] kinds = new byte[64];
+        long[] args = new long[64];
+
+        boolean[] hasChecksum;
+        int[] checksums;
+
+        private SegmentMap(ByteBuffer delta, SegmentMap dictionaryMap) {
+            this.delta = delta;
+            this.dictionaryMap = dictionaryMap;
+        }
+
+        static SegmentMap parse(ByteBuffer delta, VCDiffWindowIndex index, int dictionarySize,
+                                SegmentMap dictionaryMap) throws IOException {
+            SegmentMap map = new SegmentMap(delta, dictionaryMap);
+            map.hasChecksum = new boolean[index.windows().size()];
+            map.checksums = new int[index.windows().size()];
+
+            final VCDiffCodeTableReader reader = new VCDiffCodeTableReader();
+            final VCDiffAddressCache addressCache = new VCDiffDefaultAddressCache();
+            final AtomicInteger decodedSize = new AtomicInteger(0);
+            final AtomicInteger mode = new AtomicInteger(0);
+
+            for (int w = 0; w < index.windows().size(); w++) {
+                final VCDiffWindowIndex.Window window = index.windows().get(w);
+                final ByteBuffer windowBytes = window.slice(delta);
+
+                VCDiffHeaderParser headerParser = new VCDiffHeaderParser(windowBytes);
+                headerParser.parseWinIndicatorAndSourceSegment(
+                        dictionarySize, (int) Math.min(window.targetOffset, Integer.MAX_VALUE), true);
+                headerParser.ParseWindowLengths();
+                headerParser.parseDeltaIndicator();
+                final boolean hasChecksum = (window.winIndicator & VCD_CHECKSUM) != 0;
+                VCDiffHeaderParser.SectionLengths sectionLengths = headerParser.parseSectionLengths(hasChecksum);
+                if (sectionLengths == null) {
+                    throw new IOException("Delta file ends in the middle of a window header");
+                }
+                map.hasChecksum[w] = hasChecksum;
+                map.checksums[w] = sectionLengths.checksum;
+
+                // Sections are read from views of the window; positions are converted
+                // back to offsets into the delta file for ADD data.
+                final ByteBuffer body = headerParser.unparsedData();
+                final int bodyOffset = window.deltaOffset + body.position();
+                final ByteBuffer data;
+                final ByteBuffer instructions;
+                final ByteBuffer addresses;
+                if (sectionLengths.add_and_run_data_length == 0 && sectionLengths.addresses_length == 0) {
+                    // Interleaved; everything comes from the instructions section
+                    instructions = body.slice();
+                    data = instructions;
+                    addresses = instructions;
+                } else {
+                    data = body.slice();
+                    data.limit(sectionLengths.add_and_run_data_length);
+                    body.position(body.position() + sectionLengths.add_and_run_data_length);
+                    instructions = body.slice();
+                    instructions.limit(sectionLengths.instructions_and_sizes_length);
+                    body.position(body.position() + sectionLengths.instructions_and_sizes_length);
+                    addresses = body.slice();
+                }
+                // The data section (or the interleaved section) starts at bodyOffset
+                final int dataOffset = bodyOffset;
+
+                reader.init(instructions);
+                addressCache.Init();
+
+                final int sourceLength = window.sourceSegmentLength;
+                final long sourceStart = window.sourceSegmentPosition;
+                final boolean sourceIsTarget = (window.winIndicator & VCD_TARGET) != 0;
+                final boolean hasSource = (window.winIndicator & (VCD_SOURCE | VCD_TARGET)) != 0;
+                final long windowStart = window.targetOffset;
+
+                int decoded = 0;
+                while (decoded < window.targetLength) {
+                    final byte instruction = reader.getNextInstruction(decodedSize, mode);
+                    if (instruction == VCD_INSTRUCTION_END_OF_DATA) {
+                        throw new IOException("Delta window ends before its target is complete");
+                    }
+                    final int size = decodedSize.get();
+                    if (size > window.targetLength - decoded) {
+                        throw new IOException(String.format(
+                                "%s with size %d plus existing %d bytes of target data exceeds length of target window (%d bytes)",
+                                VCDiffCodeTableData.VCDiffInstructionName(instruction), size, decoded, window.targetLength
+                        ));
+                    }
+                    final long position = windowStart + decoded;
+
+                    switch (instruction) {
+                        case VCD_ADD:
+                            if (size > data.remaining()) {
+                                throw new IOException("Delta window ends before its ADD data is complete");
+                            }
+                            map.add(position, size, LITERAL, dataOffset + data.position());
+                            data.position(data.position() + size);
+                            break;
+                        case VCD_RUN:
+                            if (!data.hasRemaining()) {
+                                throw new IOException("Delta window ends before its RUN data is complete");
+                            }
+                            map.add(position, size, RUN, data.get() & 0xff);
+                            break;
+                        case VCD_COPY:
+                            final int hereAddress = sourceLength + decoded;
+                            final int address = addressCache.DecodeAddress(hereAddress, (short) mode.get(), addresses);
+                            if (address == VCDiffHeaderParser.RESULT_END_OF_DATA) {
+                                throw new IOException("Delta window ends before its COPY addresses are complete");
+                            }
+                            if (address < 0 || address > hereAddress) {
+                                throw new IOException("Invalid COPY address " + address);
+                            }
+                            int copied = 0;
+                            if (address < sourceLength && hasSource) {
+                                copied = Math.min(size, sourceLength - address);
+                                map.add(position, copied, sourceIsTarget ? TARGET : SOURCE, sourceStart + address);
+                            }
+                            if (copied < size) {
+                                final long from = windowStart + address + copied - sourceLength;
+                                if (from >= position + copied) {
+                                    throw new IOException("COPY reads target data that hasn't been decoded yet");
+                                }
+                                map.add(position + copied, size - copied, TARGET, from);
+                            }
+                            break;
+                        default:
+                            throw new IOException("Unexpected instruction type " + instruction + " in opcode stream");
+                    }
+                    decoded += size;
+                }
+            }
+            return map;
+        }
+
+        void add(long start, int length, byte kind, long arg) {
+            if (length == 0) {
+                return;
+            }
+            if (count == starts.length) {
+                final int newLength = count * 2;
+                starts = Arrays.copyOf(starts, newLength);
+                lengths = Arrays.copyOf(lengths, newLength);
+                kinds = Arrays.copyOf(kinds, newLength);
+                args = Arrays.copyOf(args, newLength);
+            }
+            starts[count] = start;
+            lengths[count] = length;
+            kinds[count] = kind;
+            args[count] = arg;
+            count++;
+        }
+
+        // Index of the segment containing target offset position
+        int find(long position) {
+            int i = Arrays.binarySearch(starts, 0, count, position);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+
+    // Resolves ranges of a target to instructions against A, merging adjacent
+    // ADDs and contiguous COPYs before passing them to the writer
+    private static final class Emitter {
+        final VCDiffCodeTableWriterImpl writer;
+        final int dictionarySize;
+
+        private final Deque<Range> pending = new ArrayDeque<Range>();
+        private final ByteArrayOutputStream pendingAdd = new ByteArrayOutputStream();
+        private byte[] scratch = new byte[256];
+        private int pendingCopyAddress = -1;
+        private int pendingCopySize = 0;
+        // Bytes of the current window emitted so far, including pending ones
+        private int windowPosition = 0;
+
+        Emitter(VCDiffCodeTableWriterImpl writer, int dictionarySize) {
+            this.writer = writer;
+            this.dictionarySize = dictionarySize;
+        }
+
+        void emit(SegmentMap map, long position, int length) {
+            // Ranges are processed in order from a stack rather than recursively,
+            // since target copies can chain back through many earlier copies.
+            pending.push(new Range(map, position, length));
+            while (!pending.isEmpty()) {
+                final Range range = pending.pop();
+                final SegmentMap rangeMap = range.map;
+                if (rangeMap == null) {
+                    // Repeats of a period that was just emitted to this window
+                    copy(dictionarySize + windowPosition - (int) range.position, range.length);
+                    continue;
+                }
+
+                final int i = rangeMap.find(range.position);
+                final long offsetInSegment = range.position - rangeMap.starts[i];
+                final int piece = (int) Math.min(range.length, rangeMap.lengths[i] - offsetInSegment);
+                if (piece < range.length) {
+                    pending.push(new Range(rangeMap, range.position + piece, range.length - piece));
+                }
+
+                final long arg = rangeMap.args[i];
+                switch (rangeMap.kinds[i]) {
+                    case SegmentMap.SOURCE:
+                        if (rangeMap.dictionaryMap == null) {
+                            copy((int) (arg + offsetInSegment), piece);
+                        } else {
+                            pending.push(new Range(rangeMap.dictionaryMap, arg + offsetInSegment, piece));
+                        }
+                        break;
+                    case SegmentMap.TARGET:
+                        // A copy that overlaps itself repeats with a period of its
+                        // distance from its source.  Only the first period is resolved;
+                        // the rest copies it back out of this window, since it's
+                        // emitted just before.
+                        final long segmentStart = rangeMap.starts[i];
+                        final long period = segmentStart - arg;
+                        long from = arg + offsetInSegment;
+                        if (from >= segmentStart) {
+                            from = arg + (from - arg) % period;
+                        }
+                        final int head = (int) Math.min(piece, period);
+                        final int chunk = (int) Math.min(head, segmentStart - from);
+                        if (head < piece) {
+                            pending.push(new Range(null, period, piece - head));
+                        }
+                        if (chunk < head) {
+                            pending.push(new Range(rangeMap, range.position + chunk, head - chunk));
+                        }
+                        pending.push(new Range(rangeMap, from, chunk));
+                        break;
+                    case SegmentMap.LITERAL:
+                        literal(rangeMap.delta, (int) (arg + offsetInSegment), piece);
+                        break;
+                    default: // RUN
+                        flush();
+                        writer.run(piece, (byte) arg);
+                        windowPosition += piece;
+                        break;
+                }
+            }
+        }
+
+        void copy(int address, int size) {
+            flushAdd();
+            windowPosition += size;
+            if (pendingCopySize > 0 && pendingCopyAddress + pendingCopySize == address) {
+                pendingCopySize += size;
+                return;
+            }
+            flushCopy();
+            pendingCopyAddress = address;
+            pendingCopySize = size;
+        }
+
+        private void literal(ByteBuffer delta, int offset, int size) {
+            flushCopy();
+            if (scratch.length < size) {
+                scratch = new byte[Math.max(size, scratch.length * 2)];
+            }
+            ByteBuffer source = delta.duplicate();
+            source.position(offset);
+            source.get(scratch, 0, size);
+            pendingAdd.write(scratch, 0, size);
+            windowPosition += size;
+        }
+
+        void flush() {
+            flushAdd();
+            flushCopy();
+        }
+
+        void output(OutputStream out) throws IOException {
+            flush();
+            writer.output(out);
+            windowPosition = 0;
+        }
+
+        private void flushAdd() {
+            if (pendingAdd.size() > 0) {
+                byte[] data = pendingAdd.toByteArray();
+                pendingAdd.reset();
+                writer.add(data, 0, data.length);
+            }
+        }
+
+        private void flushCopy() {
+            if (pendingCopySize > 0) {
+                writer.copy(pendingCopyAddress, pendingCopySize);
+                pendingCopySize = 0;
+            }
+        }
+    }
+
+    // A range of a target, or with a null map, length bytes copied from position bytes
+    // back in the window being emitted
+    private static final class Range {
+        final SegmentMap map;
+        final long position;
+        final int length;
+
+        Range(SegmentMap map, long position, int length) {
+            this.map = map;
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
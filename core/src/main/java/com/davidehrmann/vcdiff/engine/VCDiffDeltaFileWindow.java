@@ -8,14 +8,17 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.Adler32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableData.VCD_ADD;
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableData.VCD_COPY;
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableData.VCD_INSTRUCTION_END_OF_DATA;
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableData.VCD_RUN;
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_CHECKSUM;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_CRC32C;
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_SOURCE;
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_TARGET;
 
@@ -47,6 +50,9 @@ class VCDiffDeltaFileWindow {
 
         hasChecksum = false;
         expectedChecksum.set(0);
+        checksummedBytes = 0;
+
+        event = null;
     }
 
     public void useCodeTable(VCDiffCodeTableData code_table_data, short max_mode) {
@@ -64,12 +70,22 @@ class VCDiffDeltaFileWindow {
     // just after the data that has been decoded.
     //
     public int DecodeWindow(ByteBuffer parseable_chunk) throws IOException {
+        final long start = parent.listener() != null ? System.nanoTime() : 0;
         if (!foundHeader) {
             if (readHeader(parseable_chunk) == VCDiffHeaderParser.RESULT_END_OF_DATA) {
                 return VCDiffHeaderParser.RESULT_END_OF_DATA;
             }
             // reset address cache between windows (RFC section 5.1)
             parent.addrCache().Init();
+            statistics = parent.windowStatistics();
+            if (statistics != null) {
+                statistics.reset(targetWindowLength, sourceSegmentLength.get());
+            }
+            DecodeWindowEvent event = new DecodeWindowEvent();
+            if (event.isEnabled()) {
+                event.begin();
+                this.event = event;
+            }
         } else {
             // We are resuming a window that was partially decoded before a
             // RESULT_END_OF_DATA was returned.  This can only happen on the first
@@ -84,6 +100,9 @@ class VCDiffDeltaFileWindow {
         switch (decodeBody(parseable_chunk)) {
             case VCDiffHeaderParser.RESULT_END_OF_DATA:
                 if (moreDataExpected()) {
+                    if (statistics != null) {
+                        statistics.decodingNanos += System.nanoTime() - start;
+                    }
                     return VCDiffHeaderParser.RESULT_END_OF_DATA;
                 } else {
                     throw new IOException("End of data reached while decoding VCDIFF delta file");
@@ -91,6 +110,17 @@ class VCDiffDeltaFileWindow {
             default:
                 break;  // decodeBody succeeded
         }
+        if (statistics != null) {
+            statistics.decodingNanos += System.nanoTime() - start;
+            parent.listener().windowDecoded(statistics);
+        }
+        if (event != null && event.shouldCommit()) {
+            event.targetLength = targetWindowLength;
+            event.sourceSegmentLength = sourceSegmentLength.get();
+            event.interleaved = isInterleaved();
+            event.checksum = hasChecksum;
+            event.commit();
+        }
         // Get ready to read a new delta window
         Reset();
         return VCDiffHeaderParser.RESULT_SUCCESS;
@@ -162,7 +192,7 @@ class VCDiffDeltaFileWindow {
         VCDiffHeaderParser header_parser = new VCDiffHeaderParser(parseableChunk.slice());
 
         VCDiffHeaderParser.DeltaWindowHeader deltaWindowHeader = header_parser.parseWinIndicatorAndSourceSegment(
-                parent.dictionary_ptr().limit(),
+                parent.dictionary_ptr().size(),
                 decoded_target.size(),
                 parent.allowVcdTarget()
         );
@@ -174,6 +204,10 @@ class VCDiffDeltaFileWindow {
         this.sourceSegmentLength.set(deltaWindowHeader.source_segment_length);
 
         hasChecksum = parent.allowChecksum() && ((deltaWindowHeader.win_indicator & VCD_CHECKSUM) != 0);
+        if (hasChecksum) {
+            checksum = (deltaWindowHeader.win_indicator & VCD_CRC32C) != 0 ? crc32c : adler32;
+            checksum.reset();
+        }
         if ((targetWindowLength = header_parser.ParseWindowLengths()) == null) {
             return header_parser.getResult();
         }
@@ -196,14 +230,14 @@ class VCDiffDeltaFileWindow {
 
         // Get a pointer to the start of the source segment.
         if ((deltaWindowHeader.win_indicator & VCD_SOURCE) != 0) {
-            sourceSegment = (ByteBuffer) parent.dictionary_ptr().duplicate().rewind();
-            sourceSegment.position(deltaWindowHeader.source_segment_position);
+            sourceSegment = parent.dictionary_ptr();
+            sourceSegmentPosition = deltaWindowHeader.source_segment_position;
         } else if ((deltaWindowHeader.win_indicator & VCD_TARGET) != 0) {
             // This assignment must happen after the reserve().
             // decodedTarget should not be resized again while processing this window,
             // so sourceSegment should remain valid.
-            sourceSegment = decoded_target.toByteBuffer();
-            sourceSegment.position(deltaWindowHeader.source_segment_position);
+            sourceSegment = DictionarySegments.of(decoded_target.toByteBuffer());
+            sourceSegmentPosition = deltaWindowHeader.source_segment_position;
         }
         // The whole window header was found and parsed successfully.
         foundHeader = true;
@@ -307,6 +341,17 @@ class VCDiffDeltaFileWindow {
         if (isInterleaved() && false) {
             throw new IllegalStateException("Internal error: interleaved format is used, but the input pointer does not point to the instructions section");
         }
+        if (parent.twoPhaseDecoding() && !isInterleaved()) {
+            // The whole window is available, so it can be parsed up front
+            final long start = statistics != null ? System.nanoTime() : 0;
+            if (parseInstructions() == VCDiffHeaderParser.RESULT_END_OF_DATA) {
+                return VCDiffHeaderParser.RESULT_END_OF_DATA;
+            }
+            if (statistics != null) {
+                statistics.parsingNanos += System.nanoTime() - start;
+            }
+            executeInstructions();
+        }
         while (targetBytesDecoded() < targetWindowLength) {
             final AtomicInteger decoded_size = new AtomicInteger(0);
             final AtomicInteger mode = new AtomicInteger(0);
@@ -314,6 +359,7 @@ class VCDiffDeltaFileWindow {
             switch (instruction) {
                 case VCD_INSTRUCTION_END_OF_DATA:
                     updateInstructionPointer(parseable_chunk);
+                    updateChecksum();
                     return VCDiffHeaderParser.RESULT_END_OF_DATA;
                 default:
                     break;
@@ -347,6 +393,7 @@ class VCDiffDeltaFileWindow {
                 case VCDiffHeaderParser.RESULT_END_OF_DATA:
                     reader.unGetInstruction();
                     updateInstructionPointer(parseable_chunk);
+                    updateChecksum();
                     return VCDiffHeaderParser.RESULT_END_OF_DATA;
                 case VCDiffHeaderParser.RESULT_SUCCESS:
                     break;
@@ -360,11 +407,8 @@ class VCDiffDeltaFileWindow {
         }
 
         if (hasChecksum) {
-            adler32.update(parent.decodedTarget().getBuffer(), targetWindowStartPos, targetWindowLength);
-            int checksum = (int)adler32.getValue();
-            adler32.reset();
-
-            if (checksum != expectedChecksum.get()) {
+            updateChecksum();
+            if ((int) checksum.getValue() != expectedChecksum.get()) {
                 throw new IOException("Target data does not match checksum; this could mean that the wrong dictionary was used");
             }
         }
@@ -395,11 +439,175 @@ class VCDiffDeltaFileWindow {
         return VCDiffHeaderParser.RESULT_SUCCESS;
     }
 
+    // The first pass of two-phase decoding.  Parses every instruction in a
+    // complete standard-format window, along with its size and its decoded
+    // COPY address, into instructionOps, instructionSizes, and
+    // instructionArgs, checking them against the window limits as it goes.
+    // For an ADD, the argument is the offset of its data in
+    // dataForAddAndRun; for a RUN, it's the byte to repeat; for a COPY, it's
+    // the address.  Returns RESULT_END_OF_DATA if any section runs out
+    // before the target window is complete.
+    private int parseInstructions() throws IOException {
+        final AtomicInteger decoded_size = new AtomicInteger(0);
+        final AtomicInteger mode = new AtomicInteger(0);
+        final VCDiffAddressCache addr_cache = parent.addrCache();
+        final int source_segment_length = sourceSegmentLength.get();
+
+        int target_bytes_decoded = 0;
+        instructionCount = 0;
+        while (target_bytes_decoded < targetWindowLength) {
+            final byte instruction = reader.getNextInstruction(decoded_size, mode);
+            if (instruction == VCD_INSTRUCTION_END_OF_DATA) {
+                return VCDiffHeaderParser.RESULT_END_OF_DATA;
+            }
+            final int size = decoded_size.get();
+            if ((size > targetWindowLength) ||
+                    ((size + target_bytes_decoded) > targetWindowLength)) {
+                throw new IOException(String.format(
+                        "%s with size %d plus existing %d bytes of target data exceeds length of target window (%d bytes)",
+                        VCDiffCodeTableData.VCDiffInstructionName(instruction), size, target_bytes_decoded, targetWindowLength
+                ));
+            }
+
+            final int arg;
+            switch (instruction) {
+                case VCD_ADD:
+                    if (size > dataForAddAndRun.remaining()) {
+                        return VCDiffHeaderParser.RESULT_END_OF_DATA;
+                    }
+                    arg = dataForAddAndRun.position();
+                    dataForAddAndRun.position(arg + size);
+                    break;
+                case VCD_RUN:
+                    if (!dataForAddAndRun.hasRemaining()) {
+                        return VCDiffHeaderParser.RESULT_END_OF_DATA;
+                    }
+                    arg = dataForAddAndRun.get();
+                    break;
+                case VCD_COPY:
+                    final int here_address = source_segment_length + target_bytes_decoded;
+                    try {
+                        arg = addr_cache.DecodeAddress(here_address, (short) mode.get(), addressesForCopy);
+                    } catch (IOException e) {
+                        IOException rethrown = new IOException("Unable to decode address for COPY");
+                        rethrown.initCause(e);
+                        throw rethrown;
+                    }
+                    if (arg == VCDiffHeaderParser.RESULT_END_OF_DATA) {
+                        return VCDiffHeaderParser.RESULT_END_OF_DATA;
+                    }
+                    if ((arg < 0) || (arg > here_address)) {
+                        throw new IllegalStateException(String.format(
+                                "Internal error: unexpected address %d returned from DecodeAddress, with here_address = %d",
+                                arg, here_address
+                        ));
+                    }
+                    break;
+                default:
+                    throw new IOException("Unexpected instruction type " + instruction + " in opcode stream");
+            }
+
+            if (instructionCount == instructionOps.length) {
+                final int new_length = instructionCount * 2;
+                instructionOps = Arrays.copyOf(instructionOps, new_length);
+                instructionSizes = Arrays.copyOf(instructionSizes, new_length);
+                instructionArgs = Arrays.copyOf(instructionArgs, new_length);
+            }
+            instructionOps[instructionCount] = instruction;
+            instructionSizes[instructionCount] = size;
+            instructionArgs[instructionCount] = arg;
+            instructionCount++;
+            target_bytes_decoded += size;
+        }
+        return VCDiffHeaderParser.RESULT_SUCCESS;
+    }
+
+    // The second pass of two-phase decoding.  Executes the instructions
+    // parsed by parseInstructions(), writing the target window directly into
+    // the backing array of parent->decodedTarget().  All sizes and addresses
+    // have already been validated.
+    private void executeInstructions() {
+        final VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded_target = parent.decodedTarget();
+        final byte[] target = decoded_target.reserve(targetWindowLength);
+        final int window_start = decoded_target.size();
+        final int source_segment_length = sourceSegmentLength.get();
+
+        // Bulk gets from heap buffers are array copies, even for the read-only
+        // views that the window sections and a VCD_TARGET source segment use.
+        final ByteBuffer data = dataForAddAndRun.duplicate();
+
+        int pos = window_start;
+        for (int i = 0; i < instructionCount; i++) {
+            int size = instructionSizes[i];
+            final int arg = instructionArgs[i];
+            switch (instructionOps[i]) {
+                case VCD_ADD:
+                    data.position(arg);
+                    data.get(target, pos, size);
+                    pos += size;
+                    if (statistics != null) {
+                        statistics.recordAdd(size);
+                    }
+                    break;
+                case VCD_RUN:
+                    Arrays.fill(target, pos, pos + size, (byte) arg);
+                    pos += size;
+                    if (statistics != null) {
+                        statistics.recordRun(size);
+                    }
+                    break;
+                default: // VCD_COPY
+                    int address = arg;
+                    if (statistics != null) {
+                        final int source_size = Math.max(0, Math.min(size, source_segment_length - address));
+                        statistics.recordCopy(source_size, size - source_size);
+                    }
+                    if (address < source_segment_length) {
+                        final int source_copy_size = Math.min(size, source_segment_length - address);
+                        sourceSegment.get(sourceSegmentPosition + address, target, pos, source_copy_size);
+                        pos += source_copy_size;
+                        address += source_copy_size;
+                        size -= source_copy_size;
+                    }
+                    // The rest comes from the target window, and may overlap the
+                    // bytes being written, in which case it repeats with a period
+                    // of (pos - from).
+                    int from = window_start + address - source_segment_length;
+                    while (size > 0) {
+                        final int chunk = Math.min(size, pos - from);
+                        System.arraycopy(target, from, target, pos, chunk);
+                        from += chunk;
+                        pos += chunk;
+                        size -= chunk;
+                    }
+                    break;
+            }
+        }
+        decoded_target.advance(pos - window_start);
+    }
+
     // Returns the number of bytes already decoded into the target window.
     private int targetBytesDecoded() {
         return parent.decodedTarget().size() - targetWindowStartPos;
     }
 
+    // Adds the target bytes decoded since the last call to the window's checksum, if it
+    // has one.  An interleaved window that arrives in pieces is checksummed piece by
+    // piece, while the bytes are still in cache, rather than all at once at the end.
+    private void updateChecksum() {
+        if (!hasChecksum) {
+            return;
+        }
+        final long start = statistics != null ? System.nanoTime() : 0;
+        final int decoded = targetBytesDecoded();
+        checksum.update(parent.decodedTarget().getBuffer(), targetWindowStartPos + checksummedBytes,
+                decoded - checksummedBytes);
+        checksummedBytes = decoded;
+        if (statistics != null) {
+            statistics.checksumNanos += System.nanoTime() - start;
+        }
+    }
+
     // Decodes a single ADD instruction, updating parent->decoded_target_.
     private int decodeAdd(int size) {
         if (size > dataForAddAndRun.remaining()) {
@@ -407,6 +615,9 @@ class VCDiffDeltaFileWindow {
         }
         // Write the next "size" data bytes
         copyBytes(dataForAddAndRun, size);
+        if (statistics != null) {
+            statistics.recordAdd(size);
+        }
         return VCDiffHeaderParser.RESULT_SUCCESS;
     }
 
@@ -417,6 +628,9 @@ class VCDiffDeltaFileWindow {
         }
         // Write "size" copies of the next data byte
         runByte(dataForAddAndRun.get(), size);
+        if (statistics != null) {
+            statistics.recordRun(size);
+        }
         return VCDiffHeaderParser.RESULT_SUCCESS;
     }
 
@@ -450,18 +664,23 @@ class VCDiffDeltaFileWindow {
             ));
         }
 
+        if (statistics != null) {
+            final int source_size = Math.max(0, Math.min(size, sourceSegmentLength.get() - decodedAddress));
+            statistics.recordCopy(source_size, size - source_size);
+        }
+
         // TODO: source_segment_length should be sourceSegment.remaining()
         int address = decodedAddress;
         if ((address + size) <= sourceSegmentLength.get()) {
             // copy all data from source segment
-            copyBytes((ByteBuffer) sourceSegment.slice().position(address), size);
+            copySourceBytes(address, size);
             return VCDiffHeaderParser.RESULT_SUCCESS;
         }
         // copy some data from target window...
         if (address < sourceSegmentLength.get()) {
             // ... plus some data from source segment
             final int partial_copy_size = sourceSegmentLength.get() - address;
-            copyBytes((ByteBuffer) sourceSegment.slice().position(address), partial_copy_size);
+            copySourceBytes(address, partial_copy_size);
             target_bytes_decoded += partial_copy_size;
             address += partial_copy_size;
             size -= partial_copy_size;
@@ -523,18 +742,29 @@ class VCDiffDeltaFileWindow {
     // Executes a single COPY or ADD instruction, appending data to
     // parent->decodedTarget().
     private void copyBytes(ByteBuffer buffer, int size) {
-        // TODO: optimize
-        while (size-- > 0) {
-            parent.decodedTarget().write(buffer.get());
+        final VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded_target = parent.decodedTarget();
+        buffer.get(decoded_target.reserve(size), decoded_target.size(), size);
+        decoded_target.advance(size);
+    }
+
+    // Copies from the source segment, which may span parts of the dictionary
+    private void copySourceBytes(int address, int size) {
+        while (size > 0) {
+            ByteBuffer part = sourceSegment.at(sourceSegmentPosition + address);
+            final int chunk = Math.min(size, part.remaining());
+            copyBytes(part, chunk);
+            address += chunk;
+            size -= chunk;
         }
     }
 
     // Executes a single RUN instruction, appending data to
     // parent->decodedTarget().
     private void runByte(byte b, int size) {
-        for (int i = 0; i < size; i++) {
-            parent.decodedTarget().write(b);
-        }
+        final VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded_target = parent.decodedTarget();
+        final int start = decoded_target.size();
+        Arrays.fill(decoded_target.reserve(size), start, start + size, b);
+        decoded_target.advance(size);
     }
 
     // Advance *parseableChunk to point to the current position in the
@@ -562,7 +792,8 @@ class VCDiffDeltaFileWindow {
     // will be non-NULL if (a) the window section header for the current window
     // has been read, but the window has not yet finished decoding; or
     // (b) the window did not specify a source segment.
-    private ByteBuffer sourceSegment;
+    private DictionarySegments sourceSegment;
+    private int sourceSegmentPosition;
     private final AtomicInteger sourceSegmentLength = new AtomicInteger(0);
 
     // The delta encoding window sections as defined in RFC section 4.3.
@@ -585,13 +816,34 @@ class VCDiffDeltaFileWindow {
     // target window was/will be written.
     private int targetWindowStartPos;
 
-    // If hasChecksum is true, then expectedChecksum contains an Adler32
+    // If hasChecksum is true, then expectedChecksum contains an Adler32 or CRC-32C
     // checksum of the target window data.  This is an extension included in the
     // VCDIFF 'S' (SDCH) format, but is not part of the RFC 3284 draft standard.
     private boolean hasChecksum;
     private final AtomicInteger expectedChecksum = new AtomicInteger(0);
 
     private final ZeroInitializedAdler32 adler32 = new ZeroInitializedAdler32();
+    private final CRC32C crc32c = new CRC32C();
+
+    // If hasChecksum is true, whichever of adler32 and crc32c the window uses, and the
+    // number of bytes of the target window that have been added to it
+    private Checksum checksum;
+    private int checksummedBytes;
+
+    // The parent's window statistics, set when a window's header is read, or null if the
+    // parent has no listener
+    private VCDiffWindowStatistics statistics;
+
+    // The flight recorder event for the current window, begun when its header is read,
+    // or null if the event isn't enabled
+    private DecodeWindowEvent event;
 
     private VCDiffCodeTableReader reader = new VCDiffCodeTableReader();
+
+    // The instructions parsed by parseInstructions() for two-phase decoding.
+    // These arrays are reused from window to window.
+    private byte[] instructionOps = new byte[64];
+    private int[] instructionSizes = new int[64];
+    private int[] instructionArgs = new int[64];
+    private int instructionCount;
 }
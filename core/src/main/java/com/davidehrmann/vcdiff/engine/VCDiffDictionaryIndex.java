@@ -0,0 +1,161 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Picks the dictionary to encode a target against from many candidates, without trial
+ * encodes.  Each registered dictionary is reduced to a {@link VCDiffSketch}, and
+ * candidates are ranked by how much of the target their sketches estimate COPYs could
+ * cover.  Only the sketches are kept, not the dictionaries.
+ *
+ * All methods in this class are thread-safe.
+ *
+ * @param <K> type of the keys that identify dictionaries
+ */
+public class VCDiffDictionaryIndex<K> {
+
+    /**
+     * A dictionary and its estimated coverage of a target.
+     */
+    public static final class Candidate<K> {
+        private final K key;
+        private final double coverage;
+
+        Candidate(K key, double coverage) {
+            this.key = key;
+            this.coverage = coverage;
+        }
+
+        public K key() {
+            return key;
+        }
+
+        /**
+         * @return estimated fraction of the target that COPYs from the dictionary could encode, from 0 to 1
+         */
+        public double coverage() {
+            return coverage;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + coverage;
+        }
+    }
+
+    private final int sampleBits;
+    private final int maxSketchSize;
+    private final Map<K, VCDiffSketch> sketches = new LinkedHashMap<K, VCDiffSketch>();
+
+    public VCDiffDictionaryIndex() {
+        this(VCDiffSketch.DEFAULT_SAMPLE_BITS, VCDiffSketch.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param sampleBits log2 of the average distance between sampled positions; see {@link VCDiffSketch}
+     * @param maxSketchSize maximum number of fingerprints kept for each dictionary
+     */
+    public VCDiffDictionaryIndex(int sampleBits, int maxSketchSize) {
+        // Fail now rather than on the first add()
+        VCDiffSketch.compute(ByteBuffer.allocate(0), sampleBits, maxSketchSize);
+        this.sampleBits = sampleBits;
+        this.maxSketchSize = maxSketchSize;
+    }
+
+    /**
+     * Registers a dictionary, replacing any dictionary already registered with the same key.
+     *
+     * @param key key that identifies the dictionary
+     * @param dictionary contents of the dictionary, from its position to its limit
+     */
+    public void add(K key, ByteBuffer dictionary) {
+        add(key, VCDiffSketch.compute(dictionary, sampleBits, maxSketchSize));
+    }
+
+    /**
+     * Registers a dictionary by a sketch computed earlier with the same sampleBits.
+     *
+     * @param key key that identifies the dictionary
+     * @param sketch sketch of the dictionary
+     */
+    public synchronized void add(K key, VCDiffSketch sketch) {
+        Objects.requireNonNull(key, "key was null");
+        if (sketch.sampleBits() != sampleBits) {
+            throw new IllegalArgumentException("sketch has a different sample rate");
+        }
+        sketches.put(key, sketch);
+    }
+
+    /**
+     * @param key key that identifies the dictionary
+     * @return whether a dictionary was registered with the key
+     */
+    public synchronized boolean remove(K key) {
+        return sketches.remove(key) != null;
+    }
+
+    public synchronized int size() {
+        return sketches.size();
+    }
+
+    /**
+     * Ranks the registered dictionaries for encoding target.  Dictionaries with the same
+     * estimated coverage stay in the order they were registered.
+     *
+     * @param target data that will be encoded, from its position to its limit
+     * @return all registered dictionaries, best first
+     */
+    public List<Candidate<K>> rank(ByteBuffer target) {
+        final VCDiffSketch targetSketch = VCDiffSketch.compute(target, sampleBits, Integer.MAX_VALUE);
+
+        final List<K> keys;
+        final List<VCDiffSketch> dictionarySketches;
+        synchronized (this) {
+            keys = new ArrayList<K>(sketches.keySet());
+            dictionarySketches = new ArrayList<VCDiffSketch>(sketches.values());
+        }
+
+        List<Candidate<K>> candidates = new ArrayList<Candidate<K>>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            candidates.add(new Candidate<K>(keys.get(i), targetSketch.coverageBy(dictionarySketches.get(i))));
+        }
+        Collections.sort(candidates, new Comparator<Candidate<K>>() {
+            @Override
+            public int compare(Candidate<K> a, Candidate<K> b) {
+                return Double.compare(b.coverage, a.coverage);
+            }
+        });
+        return candidates;
+    }
+
+    /**
+     * @param target data that will be encoded, from its position to its limit
+     * @return key of the dictionary with the best estimated coverage, or null if none are registered
+     */
+    public K best(ByteBuffer target) {
+        List<Candidate<K>> candidates = rank(target);
+        return candidates.isEmpty() ? null : candidates.get(0).key();
+    }
+}
@@ -0,0 +1,178 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffFormatExtension;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Objects;
+
+/**
+ * A pool of streaming encoders that share one hashed dictionary, for services that
+ * encode a delta file per request.  Each encoder keeps its code table writer, whose
+ * section buffers keep the capacity they grew to, so a borrowed encoder usually
+ * encodes without allocating.
+ *
+ * Released encoders are reset, and their buffers are shrunk back to their initial size
+ * if they've grown beyond maxRetainedCapacity.  At most maxIdle encoders are kept;
+ * encoders released beyond that are dropped.
+ *
+ * All methods in this class are thread-safe, but each borrowed encoder must only be
+ * used by one thread at a time.
+ */
+public class VCDiffEncoderPool {
+
+    public static final int DEFAULT_MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private final HashedDictionary dictionary;
+    private final EnumSet<VCDiffFormatExtension> formatExtensions;
+    private final boolean interleaved;
+    private final boolean targetMatches;
+    private final int maxIdle;
+    private final int maxRetainedCapacity;
+
+    private final ArrayDeque<PooledEncoder> idle = new ArrayDeque<PooledEncoder>();
+
+    /**
+     * @param dictionary hashed dictionary that every target is encoded against
+     * @param formatExtensions format extensions to encode with
+     * @param targetMatches whether to look for matches within each target
+     * @param maxIdle maximum number of released encoders to keep
+     * @param maxRetainedCapacity largest buffer capacity a released encoder keeps
+     */
+    public VCDiffEncoderPool(HashedDictionary dictionary, EnumSet<VCDiffFormatExtension> formatExtensions,
+                             boolean targetMatches, int maxIdle, int maxRetainedCapacity) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle can't be negative");
+        }
+        if (maxRetainedCapacity < 0) {
+            throw new IllegalArgumentException("maxRetainedCapacity can't be negative");
+        }
+        this.dictionary = Objects.requireNonNull(dictionary, "dictionary was null");
+        this.formatExtensions = formatExtensions.clone();
+        this.interleaved = formatExtensions.contains(VCDiffFormatExtension.GOOGLE_INTERLEAVED);
+        this.targetMatches = targetMatches;
+        this.maxIdle = maxIdle;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+
+    /**
+     * @return an idle encoder, or a new one if none are idle
+     */
+    public VCDiffStreamingEncoder<OutputStream> borrow() {
+        synchronized (this) {
+            PooledEncoder encoder = idle.pollFirst();
+            if (encoder != null) {
+                encoder.released = false;
+                return encoder;
+            }
+        }
+        return new PooledEncoder(this, new VCDiffCodeTableWriterImpl(interleaved));
+    }
+
+    /**
+     * Returns an encoder to the pool.  Any delta file it was in the middle of encoding is
+     * abandoned.  The encoder must not be used after it's released.
+     *
+     * @param encoder encoder borrowed from this pool
+     * @throws IllegalArgumentException if encoder wasn't borrowed from this pool
+     * @throws IllegalStateException if encoder was already released
+     */
+    public void release(VCDiffStreamingEncoder<OutputStream> encoder) {
+        if (!(encoder instanceof PooledEncoder) || ((PooledEncoder) encoder).pool != this) {
+            throw new IllegalArgumentException("encoder wasn't borrowed from this pool");
+        }
+
+        PooledEncoder pooled = (PooledEncoder) encoder;
+        // Checking and setting the flag together keeps two threads releasing the same
+        // encoder from both adding it
+        synchronized (this) {
+            if (pooled.released) {
+                throw new IllegalStateException("encoder was already released");
+            }
+            pooled.released = true;
+        }
+
+        pooled.reset(maxRetainedCapacity);
+
+        synchronized (this) {
+            if (idle.size() < maxIdle) {
+                idle.addFirst(pooled);
+            }
+        }
+    }
+
+    /**
+     * Encodes target into a complete delta file with a pooled encoder.
+     *
+     * @param target data to encode
+     * @param offset offset of the data in target
+     * @param length length of the data
+     * @param out stream to write the delta file to
+     * @throws IOException if out can't be written to
+     */
+    public void encode(byte[] target, int offset, int length, OutputStream out) throws IOException {
+        VCDiffStreamingEncoder<OutputStream> encoder = borrow();
+        try {
+            encoder.startEncoding(out);
+            encoder.encodeChunk(target, offset, length, out);
+            encoder.finishEncoding(out);
+        } finally {
+            release(encoder);
+        }
+    }
+
+    public void encode(byte[] target, OutputStream out) throws IOException {
+        encode(target, 0, target.length, out);
+    }
+
+    /**
+     * @return number of encoders waiting to be borrowed
+     */
+    public synchronized int idleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Drops all idle encoders.
+     */
+    public synchronized void clear() {
+        idle.clear();
+    }
+
+    private static final class PooledEncoder extends VCDiffStreamingEncoderImpl<OutputStream> {
+        private final VCDiffEncoderPool pool;
+        private final VCDiffCodeTableWriterImpl writer;
+
+        // Guarded by the pool
+        private boolean released = false;
+
+        PooledEncoder(VCDiffEncoderPool pool, VCDiffCodeTableWriterImpl writer) {
+            super(writer, pool.dictionary, pool.formatExtensions, pool.targetMatches);
+            this.pool = pool;
+            this.writer = writer;
+        }
+
+        void reset(int maxRetainedCapacity) {
+            encodeChunkAllowed = false;
+            writer.trim(maxRetainedCapacity);
+        }
+    }
+}
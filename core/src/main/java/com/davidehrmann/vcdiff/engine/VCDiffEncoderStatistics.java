@@ -0,0 +1,229 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import java.util.Arrays;
+
+/**
+ * Explains why a delta file is the size it is: what the encoder matched and how, how
+ * hard it had to look, and where the time went.  Pass one to
+ * {@link com.davidehrmann.vcdiff.VCDiffEncoderBuilder#withStatistics(VCDiffEncoderStatistics)}
+ * and the encoders it builds fill it in, starting over at each startEncoding().  Encoders
+ * built without one don't collect anything.
+ *
+ * Instruction counts are the instructions the encoder chose, before any are combined
+ * into double-instruction opcodes.  Size histograms are bucketed by powers of two:
+ * element i counts sizes that take i bits, that is, from 2<sup>i-1</sup> to
+ * 2<sup>i</sup> - 1, so element 1 counts size 1 and element 5 counts sizes 16 to 31.
+ *
+ * Times are wall-clock nanoseconds.  Matching is the scan for matches, including
+ * updating the rolling hash at each position; hashing is building and extending the
+ * hash of the target for target matches; writing is emitting instructions and writing
+ * windows.  Hashing the dictionary isn't included because it's shared between encodes.
+ *
+ * NOT threadsafe, and not meant to be shared between encoders that are used at the same time.
+ */
+public final class VCDiffEncoderStatistics {
+
+    private static final int kHistogramBuckets = 33;
+
+    private long windows;
+    private long targetBytes;
+
+    private long addCount;
+    private long addBytes;
+    private long runCount;
+    private long runBytes;
+    private long copyCount;
+    private long dictionaryCopyBytes;
+    private long targetCopyBytes;
+
+    private final long[] addSizes = new long[kHistogramBuckets];
+    private final long[] runSizes = new long[kHistogramBuckets];
+    private final long[] copySizes = new long[kHistogramBuckets];
+    private final long[] addressModes = new long[VCDiffAddressCache.VCD_MAX_MODES];
+
+    private long matchAttempts;
+    private long hashProbes;
+
+    long hashingNanos;
+    long matchingNanos;
+    long writingNanos;
+
+    /**
+     * Clears every counter.
+     */
+    public void reset() {
+        windows = targetBytes = 0;
+        addCount = addBytes = runCount = runBytes = copyCount = dictionaryCopyBytes = targetCopyBytes = 0;
+        Arrays.fill(addSizes, 0);
+        Arrays.fill(runSizes, 0);
+        Arrays.fill(copySizes, 0);
+        Arrays.fill(addressModes, 0);
+        matchAttempts = hashProbes = 0;
+        hashingNanos = matchingNanos = writingNanos = 0;
+    }
+
+    void recordWindow(int length) {
+        windows++;
+        targetBytes += length;
+    }
+
+    void recordAdd(int size) {
+        addCount++;
+        addBytes += size;
+        addSizes[bucket(size)]++;
+    }
+
+    void recordRun(int size) {
+        runCount++;
+        runBytes += size;
+        runSizes[bucket(size)]++;
+    }
+
+    void recordCopy(int size, boolean fromDictionary, int mode) {
+        copyCount++;
+        if (fromDictionary) {
+            dictionaryCopyBytes += size;
+        } else {
+            targetCopyBytes += size;
+        }
+        copySizes[bucket(size)]++;
+        addressModes[mode]++;
+    }
+
+    void recordMatchAttempt(int probes) {
+        matchAttempts++;
+        hashProbes += probes;
+    }
+
+    private static int bucket(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * @return number of windows encoded
+     */
+    public long getWindows() {
+        return windows;
+    }
+
+    /**
+     * @return number of target bytes encoded
+     */
+    public long getTargetBytes() {
+        return targetBytes;
+    }
+
+    public long getAddCount() {
+        return addCount;
+    }
+
+    /**
+     * @return number of target bytes encoded as literal data
+     */
+    public long getAddBytes() {
+        return addBytes;
+    }
+
+    public long getRunCount() {
+        return runCount;
+    }
+
+    public long getRunBytes() {
+        return runBytes;
+    }
+
+    public long getCopyCount() {
+        return copyCount;
+    }
+
+    /**
+     * @return number of target bytes encoded as copies of the dictionary
+     */
+    public long getDictionaryCopyBytes() {
+        return dictionaryCopyBytes;
+    }
+
+    /**
+     * @return number of target bytes encoded as copies of earlier target data
+     */
+    public long getTargetCopyBytes() {
+        return targetCopyBytes;
+    }
+
+    public long[] getAddSizeHistogram() {
+        return addSizes.clone();
+    }
+
+    public long[] getRunSizeHistogram() {
+        return runSizes.clone();
+    }
+
+    public long[] getCopySizeHistogram() {
+        return copySizes.clone();
+    }
+
+    /**
+     * @return number of COPY addresses encoded with each address mode, indexed by mode.
+     * The array ends at the highest mode used.
+     */
+    public long[] getAddressModeCounts() {
+        int length = addressModes.length;
+        while (length > 0 && addressModes[length - 1] == 0) {
+            length--;
+        }
+        return Arrays.copyOf(addressModes, length);
+    }
+
+    /**
+     * @return number of target positions the encoder looked up in the hash tables
+     */
+    public long getMatchAttempts() {
+        return matchAttempts;
+    }
+
+    /**
+     * @return number of candidate blocks the hash table lookups compared against the target
+     */
+    public long getHashProbes() {
+        return hashProbes;
+    }
+
+    public long getHashingNanos() {
+        return hashingNanos;
+    }
+
+    public long getMatchingNanos() {
+        return matchingNanos;
+    }
+
+    public long getWritingNanos() {
+        return writingNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Windows: %d\tTarget bytes: %d%n"
+                        + "ADD: %d (%d bytes)\tRUN: %d (%d bytes)\tCOPY: %d (%d bytes from dictionary, %d from target)%n"
+                        + "Match attempts: %d\tHash probes: %d\tAddress modes: %s%n"
+                        + "Hashing: %.3f ms\tMatching: %.3f ms\tWriting: %.3f ms",
+                windows, targetBytes,
+                addCount, addBytes, runCount, runBytes, copyCount, dictionaryCopyBytes, targetCopyBytes,
+                matchAttempts, hashProbes, Arrays.toString(getAddressModeCounts()),
+                hashingNanos / 1e6, matchingNanos / 1e6, writingNanos / 1e6);
+    }
+}
@@ -19,6 +19,7 @@ import com.davidehrmann.vcdiff.VCDiffCodeTableWriter;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * All methods in this class are thread-safe.
@@ -34,24 +35,60 @@ class VCDiffEngine {
     public static final int kMinimumMatchSize = 32;
 
     /**
-     * A copy of the dictionary contents
+     * Total size of the dictionary, or of all the dictionaries
      */
-    protected final byte[] dictionary_;
+    protected final int dictionary_size_;
 
     /**
-     * A hash that contains one element for every kBlockSize bytes of dictionary_.
-     * This can be reused to encode many different target strings using the
-     * same dictionary, without the need to compute the hash values each time.
+     * A hash for each dictionary that contains one element for every kBlockSize
+     * bytes of it, with offsets that treat the dictionaries as though they were
+     * concatenated.  This can be reused to encode many different target strings
+     * using the same dictionary, without the need to compute the hash values
+     * each time.
      */
-    protected final BlockHash hashed_dictionary_;
+    protected final BlockHash[] hashed_dictionary_;
 
     public VCDiffEngine(byte[] dictionary) {
-        dictionary_ = dictionary;
-        hashed_dictionary_ = BlockHash.CreateDictionaryHash(dictionary_);
+        DictionaryHashEvent event = new DictionaryHashEvent();
+        event.begin();
+        dictionary_size_ = dictionary.length;
+        hashed_dictionary_ = new BlockHash[] { BlockHash.CreateDictionaryHash(dictionary) };
+        commit(event);
+    }
+
+    /**
+     * Encodes against several dictionaries, addressed as though they were concatenated.
+     * The dictionaries aren't copied.  A COPY never spans two dictionaries.
+     *
+     * @param dictionaries dictionaries, each from its position to its limit
+     */
+    public VCDiffEngine(List<ByteBuffer> dictionaries) {
+        DictionaryHashEvent event = new DictionaryHashEvent();
+        event.begin();
+        hashed_dictionary_ = new BlockHash[dictionaries.size()];
+        long size = 0;
+        for (int i = 0; i < hashed_dictionary_.length; i++) {
+            ByteBuffer dictionary = dictionaries.get(i).slice();
+            hashed_dictionary_[i] = new BlockHash(dictionary, (int) size, true);
+            size += dictionary.limit();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Dictionaries are larger than 2GB in total");
+            }
+        }
+        dictionary_size_ = (int) size;
+        commit(event);
+    }
+
+    private void commit(DictionaryHashEvent event) {
+        if (event.shouldCommit()) {
+            event.dictionarySize = dictionary_size_;
+            event.dictionaries = hashed_dictionary_.length;
+            event.commit();
+        }
     }
 
     public int dictionary_size() {
-        return dictionary_.length;
+        return dictionary_size_;
     }
 
     /**
@@ -67,24 +104,61 @@ class VCDiffEngine {
      * @throws IOException if there's an encoding exception or an exception while writing to diff
      */
     public <OUT> void Encode(ByteBuffer targetData, boolean lookForTargetMatches, OUT diff, VCDiffCodeTableWriter<OUT> coder) throws IOException {
+        Encode(targetData, lookForTargetMatches, diff, coder, null);
+    }
+
+    /**
+     * Like {@link #Encode(ByteBuffer, boolean, Object, VCDiffCodeTableWriter)}, but also
+     * records the window, hash table lookups and time spent in statistics, if it isn't null.
+     * The instructions themselves are recorded by the code table writer.
+     */
+    public <OUT> void Encode(ByteBuffer targetData, boolean lookForTargetMatches, OUT diff, VCDiffCodeTableWriter<OUT> coder,
+                             VCDiffEncoderStatistics statistics) throws IOException {
         if (!targetData.hasRemaining()) {
             return;  // Do nothing for empty target
         }
+        if (statistics != null) {
+            statistics.recordWindow(targetData.remaining());
+        }
+
+        final EncodeWindowEvent event = new EncodeWindowEvent();
+        event.begin();
+        final int targetLength = targetData.remaining();
 
         // Special case for really small input
         if (targetData.remaining() < BlockHash.kBlockSize) {
-            int target_size = targetData.remaining();
+            long start = statistics != null ? System.nanoTime() : 0;
             AddUnmatchedRemainder(targetData, coder);
             coder.output(diff);
+            if (statistics != null) {
+                statistics.writingNanos += System.nanoTime() - start;
+            }
+            commit(event, targetLength, lookForTargetMatches, 0, 0);
             return;
         }
 
         final ByteBuffer local_target_data = targetData.slice();
 
+        // Hashing and writing are timed as they happen; whatever's left of the time spent
+        // in the loop below is matching.
+        final long loopStart;
+        final long hashingBefore;
+        final long writingBefore;
+        if (statistics != null) {
+            loopStart = System.nanoTime();
+            hashingBefore = statistics.hashingNanos;
+            writingBefore = statistics.writingNanos;
+        } else {
+            loopStart = hashingBefore = writingBefore = 0;
+        }
+
         RollingHash hasher = new RollingHash(BlockHash.kBlockSize);
         final BlockHash target_hash;
         if (lookForTargetMatches) {
             target_hash = BlockHash.CreateTargetHash(local_target_data.slice(), dictionary_size());
+            if (statistics != null) {
+                statistics.hashingNanos += System.nanoTime() - loopStart;
+            }
         } else {
             target_hash = null;
         }
@@ -93,9 +167,15 @@ class VCDiffEngine {
 
         final ByteBuffer candidate_pos = local_target_data.slice();
 
+        int copies = 0;
+        int copiedBytes = 0;
+
         int hash_value = (int)hasher.Hash(candidate_pos.array(), candidate_pos.arrayOffset() + candidate_pos.position(), candidate_pos.remaining());
         while (true) {
-            if (EncodeCopyForBestMatch(lookForTargetMatches, hash_value, candidate_pos, local_target_data, target_hash, coder)) {
+            final int copySize = EncodeCopyForBestMatch(lookForTargetMatches, hash_value, candidate_pos, local_target_data, target_hash, coder, statistics);
+            if (copySize > 0) {
+                copies++;
+                copiedBytes += copySize;
                 candidate_pos.position(local_target_data.position());
                 if (candidate_pos.remaining() < BlockHash.kBlockSize) {
                     break;  // Reached end of target data
@@ -107,7 +187,11 @@ class VCDiffEngine {
                         candidate_pos.remaining());
                 if (lookForTargetMatches) {
                     // Update the target hash for the ADDed and COPYed data
+                    final long start = statistics != null ? System.nanoTime() : 0;
                     target_hash.AddAllBlocksThroughIndex(candidate_pos.position());
+                    if (statistics != null) {
+                        statistics.hashingNanos += System.nanoTime() - start;
+                    }
                 }
             } else {
                 // No match, or match is too small to be worth a COPY instruction.
@@ -127,10 +211,37 @@ class VCDiffEngine {
             }
         }
 
+        final long outputStart;
+        if (statistics != null) {
+            outputStart = System.nanoTime();
+            statistics.matchingNanos += (outputStart - loopStart)
+                    - (statistics.hashingNanos - hashingBefore)
+                    - (statistics.writingNanos - writingBefore);
+        } else {
+            outputStart = 0;
+        }
+
         AddUnmatchedRemainder(local_target_data, coder);
         coder.output(diff);
 
+        if (statistics != null) {
+            statistics.writingNanos += System.nanoTime() - outputStart;
+        }
+
         targetData.position(targetData.position() + local_target_data.position());
+        commit(event, targetLength, lookForTargetMatches, copies, copiedBytes);
+    }
+
+    private void commit(EncodeWindowEvent event, int targetLength, boolean lookForTargetMatches,
+                        int copies, int copiedBytes) {
+        if (event.shouldCommit()) {
+            event.targetLength = targetLength;
+            event.dictionarySize = dictionary_size_;
+            event.targetMatches = lookForTargetMatches;
+            event.copies = copies;
+            event.copiedBytes = copiedBytes;
+            event.commit();
+        }
     }
 
     protected static boolean ShouldGenerateCopyInstructionForMatchOfSize(int size) {
@@ -164,17 +275,16 @@ class VCDiffEngine {
      * If a match is found, this function will generate an ADD instruction
      * for all unencoded data that precedes the match,
      * and a COPY instruction for the match itself; then it returns
-     * the number of bytes processed by both instructions,
-     * which is guaranteed to be &gt; 0.
+     * the size of the COPY, which is guaranteed to be &gt; 0.
      * If no appropriate match is found, the function returns 0.
      *
      * The first four parameters are input parameters which are passed
      * directly to BlockHash::FindBestMatch; please see that function
      * for a description of their allowable values.
      */
-    protected boolean EncodeCopyForBestMatch(boolean look_for_target_matches, int hash_value,
+    protected int EncodeCopyForBestMatch(boolean look_for_target_matches, int hash_value,
             ByteBuffer target_candidate, ByteBuffer unencoded_target,
-            BlockHash target_hash, VCDiffCodeTableWriter<?> coder) {
+            BlockHash target_hash, VCDiffCodeTableWriter<?> coder, VCDiffEncoderStatistics statistics) {
 
         // When FindBestMatch() comes up with a match for a candidate block,
         // it will populate best_match with the size, source offset,
@@ -186,7 +296,9 @@ class VCDiffEngine {
                 (unencoded_target.arrayOffset() + unencoded_target.position()));
 
         // First look for a match in the dictionary.
-        hashed_dictionary_.FindBestMatch(hash_value, target, best_match);
+        for (BlockHash hashed_dictionary : hashed_dictionary_) {
+            hashed_dictionary.FindBestMatch(hash_value, target, best_match);
+        }
 
         // If target matching is enabled, then see if there is a better match
         // within the target data that has been encoded so far.
@@ -194,10 +306,16 @@ class VCDiffEngine {
             target_hash.FindBestMatch(hash_value, target, best_match);
         }
 
+        if (statistics != null) {
+            statistics.recordMatchAttempt(best_match.probes());
+        }
+
         if (!ShouldGenerateCopyInstructionForMatchOfSize(best_match.size())) {
-            return false;
+            return 0;
         }
 
+        final long start = statistics != null ? System.nanoTime() : 0;
+
         if (best_match.target_offset() > 0) {
             // Create an ADD instruction to encode all target bytes
             // from the end of the last COPY match, if any, up to
@@ -208,7 +326,10 @@ class VCDiffEngine {
         }
 
         coder.copy(best_match.source_offset(), best_match.size());
+        if (statistics != null) {
+            statistics.writingNanos += System.nanoTime() - start;
+        }
         unencoded_target.position(unencoded_target.position() + best_match.target_offset() + best_match.size());
-        return best_match.target_offset() + best_match.size() > 0;
+        return best_match.size();
     }
 }
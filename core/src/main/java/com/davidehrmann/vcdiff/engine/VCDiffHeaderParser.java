@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_CHECKSUM;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_CRC32C;
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_SOURCE;
 import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_TARGET;
 
@@ -98,18 +99,15 @@ class VCDiffHeaderParser {
             throw exception;
         }
 
-        buffer.mark();
-        try {
-            return VarInt.getInt(buffer);
-        } catch (VarInt.VarIntParseException e) {
-            buffer.reset();
-            exception = new IOException("Expected " + variable_description + "; found invalid variable-length integer");
-            throw exception;
-        } catch (VarInt.VarIntEndOfBufferException e) {
-            buffer.reset();
+        final int value = VarInt.tryGetInt(buffer);
+        if (value == VarInt.END_OF_BUFFER) {
             returnCode = RESULT_END_OF_DATA;
             return null;
+        } else if (value < 0) {
+            exception = new IOException("Expected " + variable_description + "; found invalid variable-length integer");
+            throw exception;
         }
+        return value;
     }
 
     // When an unsigned 32-bit integer is expected, parse a signed 64-bit value
@@ -198,8 +196,8 @@ class VCDiffHeaderParser {
             return null;
         }
 
-        // VCD_CHECKSUM is a Google open-vcdiff extension
-        int unrecognized_flags = win_indicator & 0xff & ~(VCD_SOURCE | VCD_TARGET | VCD_CHECKSUM);
+        // VCD_CHECKSUM is a Google open-vcdiff extension, and VCD_CRC32C is this library's
+        int unrecognized_flags = win_indicator & 0xff & ~(VCD_SOURCE | VCD_TARGET | VCD_CHECKSUM | VCD_CRC32C);
         if (unrecognized_flags != 0) {
             LOGGER.warn(String.format("Unrecognized win_indicator flags: 0x%02x", unrecognized_flags));
         }
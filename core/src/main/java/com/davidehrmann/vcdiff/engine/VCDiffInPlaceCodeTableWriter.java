@@ -0,0 +1,133 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffCodeTableWriter;
+import com.davidehrmann.vcdiff.VCDiffFormatExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Objects;
+
+/**
+ * A {@link VCDiffCodeTableWriter} that makes delta files safe to apply in place with
+ * {@link VCDiffInPlaceDecoder}, where the dictionary is the file being patched and each
+ * decoded window overwrites it.
+ *
+ * A window is decoded completely before it's written, so it can read any part of the
+ * dictionary that earlier windows haven't overwritten: everything at or after the
+ * window's own offset in the target.  COPY instructions that read from before that
+ * offset are replaced with ADDs of the same bytes, split when only part of the copied
+ * range has been overwritten.  Adjacent ADDs are merged.
+ *
+ * NOT threadsafe.
+ */
+public class VCDiffInPlaceCodeTableWriter<OUT> implements VCDiffCodeTableWriter<OUT> {
+
+    private final VCDiffCodeTableWriter<OUT> writer;
+    private final byte[] dictionary;
+
+    // Offset in the target of the start of the current window
+    private long windowStart;
+    private int windowLength;
+
+    // ADD data that hasn't been passed to the underlying writer yet
+    private final ByteArrayOutputStream pendingAdd = new ByteArrayOutputStream();
+
+    /**
+     * @param writer writer that the rewritten instructions are passed to
+     * @param dictionary dictionary being encoded against, which is also the file that will be patched
+     */
+    public VCDiffInPlaceCodeTableWriter(VCDiffCodeTableWriter<OUT> writer, byte[] dictionary) {
+        this.writer = Objects.requireNonNull(writer, "writer was null");
+        this.dictionary = Objects.requireNonNull(dictionary, "dictionary was null");
+    }
+
+    @Override
+    public void init(int dictionarySize) throws IOException {
+        if (dictionarySize != dictionary.length) {
+            throw new IllegalArgumentException("dictionarySize doesn't match the dictionary");
+        }
+        writer.init(dictionarySize);
+        windowStart = 0;
+        windowLength = 0;
+        pendingAdd.reset();
+    }
+
+    @Override
+    public void writeHeader(OUT out, EnumSet<VCDiffFormatExtension> formatExtensions) throws IOException {
+        writer.writeHeader(out, formatExtensions);
+    }
+
+    @Override
+    public void add(byte[] data, int offset, int length) {
+        pendingAdd.write(data, offset, length);
+        windowLength += length;
+    }
+
+    @Override
+    public void copy(int offset, int size) {
+        if (offset < dictionary.length && offset < windowStart) {
+            // Some of the copied bytes will already have been overwritten
+            int overwritten = (int) Math.min(size, Math.min(windowStart, dictionary.length) - offset);
+            pendingAdd.write(dictionary, offset, overwritten);
+            windowLength += overwritten;
+            offset += overwritten;
+            size -= overwritten;
+            if (size == 0) {
+                return;
+            }
+        }
+
+        flushAdd();
+        writer.copy(offset, size);
+        windowLength += size;
+    }
+
+    @Override
+    public void run(int size, byte b) {
+        flushAdd();
+        writer.run(size, b);
+        windowLength += size;
+    }
+
+    @Override
+    public void addChecksum(int checksum) {
+        writer.addChecksum(checksum);
+    }
+
+    @Override
+    public void output(OUT out) throws IOException {
+        flushAdd();
+        writer.output(out);
+        windowStart += windowLength;
+        windowLength = 0;
+    }
+
+    @Override
+    public void finishEncoding(OUT out) throws IOException {
+        writer.finishEncoding(out);
+    }
+
+    private void flushAdd() {
+        if (pendingAdd.size() > 0) {
+            byte[] data = pendingAdd.toByteArray();
+            pendingAdd.reset();
+            writer.add(data, 0, data.length);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Applies a delta file to the file it was encoded against, overwriting that file with
+ * the target.  Only one decoded window is held in memory at a time, and no copy of
+ * either file is made, so the disk space needed is the size of the larger of the two.
+ *
+ * The delta file must have been encoded with in-place patching enabled (see
+ * {@link VCDiffInPlaceCodeTableWriter}); applying any other delta file with more than
+ * one window may silently produce the wrong target.  If patching is interrupted, the
+ * file is left partially patched.
+ */
+public class VCDiffInPlaceDecoder {
+
+    private final int maximumTargetWindowSize;
+
+    /**
+     * @param maximumTargetWindowSize maximum size of a single window, or a negative value for the default
+     */
+    public VCDiffInPlaceDecoder(int maximumTargetWindowSize) {
+        this.maximumTargetWindowSize = maximumTargetWindowSize >= 0
+                ? maximumTargetWindowSize : VCDiffStreamingDecoderImpl.DEFAULT_MAXIMUM_TARGET_FILE_SIZE;
+    }
+
+    /**
+     * Patches file in place.
+     *
+     * @param file file to patch
+     * @param delta entire delta file
+     * @throws IOException if there was an exception decoding, or reading or writing file
+     */
+    public void decode(Path file, ByteBuffer delta) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            decode(channel, delta);
+        }
+    }
+
+    /**
+     * Patches the contents of file in place.  The file is memory mapped as the dictionary,
+     * and patched through positional writes, so the channel's position isn't changed.
+     *
+     * @param file channel open for both reading and writing
+     * @param delta entire delta file
+     * @throws IOException if there was an exception decoding, or reading or writing file
+     */
+    public void decode(FileChannel file, ByteBuffer delta) throws IOException {
+        final long dictionarySize = file.size();
+        if (dictionarySize > Integer.MAX_VALUE) {
+            throw new IOException(String.format(
+                    "File size (%d) exceeds the maximum dictionary size", dictionarySize
+            ));
+        }
+
+        ByteBuffer dictionary = dictionarySize > 0
+                ? file.map(FileChannel.MapMode.READ_ONLY, 0, dictionarySize)
+                : ByteBuffer.allocate(0);
+
+        VCDiffWindowIndex index = VCDiffWindowIndex.build(delta, (int) dictionarySize);
+        if (index.usesTargetSource()) {
+            throw new IOException("Delta files with windows that use the target as source can't be applied in place");
+        }
+
+        ByteBuffer deltaBytes = delta.slice();
+        for (VCDiffWindowIndex.Window window : index.windows()) {
+            VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded =
+                    VCDiffSeekableDecoder.decodeIndependentWindow(
+                            dictionary, index.fileHeader(), window.slice(deltaBytes), window.targetLength,
+                            maximumTargetWindowSize
+                    );
+
+            // Only now, after the whole window has been decoded, is it safe to overwrite its range
+            ByteBuffer src = ByteBuffer.wrap(decoded.getBuffer(), 0, decoded.size());
+            long position = window.targetOffset;
+            while (src.hasRemaining()) {
+                position += file.write(src, position);
+            }
+        }
+
+        if (index.targetLength() < dictionarySize) {
+            file.truncate(index.targetLength());
+        }
+    }
+}
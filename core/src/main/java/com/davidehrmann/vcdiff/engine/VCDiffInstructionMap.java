@@ -141,49 +141,38 @@ class VCDiffInstructionMap {
         // The maximum value of a size1 element in code_table_data
         private final int max_size_1_;
 
-
         /**
-         *
-         * There are two levels to first_opcodes_:
-         * 1) A dynamically-allocated pointer array of size
-         *    num_instruction_type_modes_ (one element for each combination of inst
-         *    and mode.)  Every element of this array is non-NULL and contains
-         *    a pointer to:
-         * 2) A dynamically-allocated array of OpcodeOrNone values, with one element
-         *    for each possible first instruction size (size1) in the code table.
-         *    (In the default code table, for example, the maximum size used is 18,
-         *    so these arrays would have 19 elements representing values 0
-         *    through 18.)
+         * One opcode or kNoOpcode for each combination of inst and mode and each
+         * possible first instruction size (size1) in the code table, in a single
+         * array: the opcode for inst+mode i and size s is at i * (max_size_1_ + 1) + s.
+         * (In the default code table, for example, the maximum size used is 18,
+         * so each inst+mode has 19 elements representing values 0 through 18.)
          */
-        private final short[][] first_opcodes_;
+        private final short[] first_opcodes_;
 
         public FirstInstructionMap(int num_insts_and_modes, int max_size_1) {
             this.num_instruction_type_modes_ = num_insts_and_modes;
             this.max_size_1_ = max_size_1;
 
-            // There must be at least (max_size_1_ + 1) elements in first_opcodes_
-            // because the element first_opcodes[max_size_1_] will be referenced.
-            first_opcodes_ = new short[num_instruction_type_modes_][max_size_1 + 1];
-
-            for (short[] array : first_opcodes_) {
-                Arrays.fill(array, VCDiffCodeTableData.kNoOpcode);
-            }
+            first_opcodes_ = new short[num_instruction_type_modes_ * (max_size_1 + 1)];
+            Arrays.fill(first_opcodes_, VCDiffCodeTableData.kNoOpcode);
         }
 
         public void Add(final byte inst, final byte size, final byte mode, final byte opcode) {
-            if (first_opcodes_[(inst & 0xff) + (mode & 0xff)][size & 0xff] == VCDiffCodeTableData.kNoOpcode) {
-                first_opcodes_[(inst & 0xff) + (mode & 0xff)][size & 0xff] = (short)(opcode & 0xff);
+            final int index = ((inst & 0xff) + (mode & 0xff)) * (max_size_1_ + 1) + (size & 0xff);
+            if (first_opcodes_[index] == VCDiffCodeTableData.kNoOpcode) {
+                first_opcodes_[index] = (short)(opcode & 0xff);
             }
         }
 
         // See comments for LookupFirstOpcode, above.
         public short Lookup(final byte inst, final byte size, final byte mode) {
-            int inst_mode = (inst == VCDiffCodeTableData.VCD_COPY) ? ((inst & 0xff) + (mode & 0xff)) : (inst & 0xff);
             if ((size & 0xff) > max_size_1_) {
                 return VCDiffCodeTableData.kNoOpcode;
             }
+            int inst_mode = (inst == VCDiffCodeTableData.VCD_COPY) ? ((inst & 0xff) + (mode & 0xff)) : (inst & 0xff);
             // Lookup specific-sized opcode
-            return first_opcodes_[inst_mode][size & 0xff];
+            return first_opcodes_[inst_mode * (max_size_1_ + 1) + (size & 0xff)];
         }
     }
 
@@ -197,35 +186,39 @@ class VCDiffInstructionMap {
         // The maximum value of a size2 element in code_table_data
         private final int max_size_2_;
 
-        // There are three levels to second_opcodes_:
-        // 1) A statically-allocated pointer array with one element
-        //    for each possible opcode.  Each element can be NULL, or can point to:
-        // 2) A dynamically-allocated pointer array of size
-        //    num_instruction_type_modes_ (one element for each combination of inst
-        //    and mode.)  Each element can be NULL, or can point to:
-        // 3) A dynamically-allocated array with one element for each possible
-        //    second instruction size in the code table.  (In the default code
-        //    table, for example, the maximum size used is 6, so these arrays would
-        //    have 7 elements representing values 0 through 6.)
-        private final short[][][] second_opcodes_ = new short[VCDiffCodeTableData.kCodeTableSize][][];
+        // The number of elements in a block of second_opcodes_: one for each
+        // combination of inst and mode and each possible second instruction size.
+        // (In the default code table, for example, the maximum size used is 6, so
+        // each inst+mode has 7 elements representing values 0 through 6.)
+        private final int block_size_;
+
+        // For each possible first opcode, the offset of its block in second_opcodes_,
+        // or -1 if no double-instruction opcode starts with it.
+        private final int[] block_offsets_ = new int[VCDiffCodeTableData.kCodeTableSize];
+
+        // Blocks of opcodes or kNoOpcode, one block for each first opcode that has
+        // any, laid out like FirstInstructionMap.first_opcodes_.
+        private short[] second_opcodes_ = new short[0];
 
         public SecondInstructionMap(int num_insts_and_modes, int max_size_2) {
             num_instruction_type_modes_ = num_insts_and_modes;
             max_size_2_ = max_size_2;
+            block_size_ = num_instruction_type_modes_ * (max_size_2_ + 1);
+            Arrays.fill(block_offsets_, -1);
         }
 
         public void Add(final byte first_opcode, final byte inst, final byte size, final byte mode, final byte second_opcode) {
-            if (second_opcodes_[first_opcode & 0xff] == null) {
-                second_opcodes_[first_opcode & 0xff] = new short[num_instruction_type_modes_][];
-            }
-
-            if (second_opcodes_[first_opcode & 0xff][(inst & 0xff) + (mode & 0xff)] == null) {
-                second_opcodes_[first_opcode & 0xff][(inst & 0xff) + (mode & 0xff)] = new short[max_size_2_ + 1];
-                Arrays.fill(second_opcodes_[first_opcode & 0xff][(inst & 0xff) + (mode & 0xff)], VCDiffCodeTableData.kNoOpcode);
+            int offset = block_offsets_[first_opcode & 0xff];
+            if (offset < 0) {
+                offset = second_opcodes_.length;
+                second_opcodes_ = Arrays.copyOf(second_opcodes_, offset + block_size_);
+                Arrays.fill(second_opcodes_, offset, offset + block_size_, VCDiffCodeTableData.kNoOpcode);
+                block_offsets_[first_opcode & 0xff] = offset;
             }
 
-            if (second_opcodes_[first_opcode & 0xff][(inst & 0xff) + (mode & 0xff)][size & 0xff] == VCDiffCodeTableData.kNoOpcode) {
-                second_opcodes_[first_opcode & 0xff][(inst & 0xff) + (mode & 0xff)][size & 0xff] = (short)(second_opcode & 0xff);
+            final int index = offset + ((inst & 0xff) + (mode & 0xff)) * (max_size_2_ + 1) + (size & 0xff);
+            if (second_opcodes_[index] == VCDiffCodeTableData.kNoOpcode) {
+                second_opcodes_[index] = (short)(second_opcode & 0xff);
             }
         }
 
@@ -235,16 +228,13 @@ class VCDiffInstructionMap {
                 return VCDiffCodeTableData.kNoOpcode;
             }
 
-            if (second_opcodes_[first_opcode & 0xff] == null) {
+            final int offset = block_offsets_[first_opcode & 0xff];
+            if (offset < 0) {
                 return VCDiffCodeTableData.kNoOpcode;
             }
 
             int inst_mode = (inst == VCDiffCodeTableData.VCD_COPY) ? ((inst & 0xff) + (mode & 0xff)) : (inst & 0xff);
-            if (second_opcodes_[first_opcode & 0xff][inst_mode] == null) {
-                return VCDiffCodeTableData.kNoOpcode;
-            }
-
-            return second_opcodes_[first_opcode & 0xff][inst_mode][size & 0xff];
+            return second_opcodes_[offset + inst_mode * (max_size_2_ + 1) + (size & 0xff)];
         }
     }
 }
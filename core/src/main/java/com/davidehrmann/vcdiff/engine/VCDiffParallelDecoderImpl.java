@@ -0,0 +1,180 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoder;
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link VCDiffDecoder} that decodes the windows of a delta file concurrently.
+ *
+ * Windows that take their source segment from the dictionary (or that have no
+ * source segment) don't depend on any other window, so once the window headers
+ * have been scanned, each window can be decoded on its own by a worker thread
+ * into a buffer sized from its header.  The decoded windows are written to the
+ * target in order.  Delta files that can't be split this way, because a window
+ * uses VCD_TARGET or the file defines a custom code table, are decoded
+ * sequentially, as are delta files with a single window.
+ *
+ * Windows decoded in parallel are decoded with the same two-phase setting and listener
+ * as the sequential decoder, but the listener is called on the executor's threads, and
+ * not necessarily in window order.
+ */
+public class VCDiffParallelDecoderImpl extends VCDiffDecoder {
+
+    private final ExecutorService executor;
+    private final int maxWindowsInFlight;
+    private final long maximumTargetFileSize;
+    private final int maximumTargetWindowSize;
+    private final boolean twoPhaseDecoding;
+    private final VCDiffDecoderListener listener;
+
+    /**
+     * @param decoder decoder used for delta files that can't be decoded in parallel
+     * @param executor executor that windows are decoded on
+     * @param maxWindowsInFlight maximum number of windows that can be decoding or
+     *                           waiting to be written at the same time
+     * @param maximumTargetFileSize maximum size of the decoded target, or a negative value for the default
+     * @param maximumTargetWindowSize maximum size of a single window, or a negative value for the default
+     */
+    public VCDiffParallelDecoderImpl(VCDiffStreamingDecoder decoder, ExecutorService executor, int maxWindowsInFlight,
+                                     long maximumTargetFileSize, int maximumTargetWindowSize) {
+        this(decoder, executor, maxWindowsInFlight, maximumTargetFileSize, maximumTargetWindowSize, false, null);
+    }
+
+    /**
+     * Like {@link #VCDiffParallelDecoderImpl(VCDiffStreamingDecoder, ExecutorService, int, long, int)},
+     * but windows decoded in parallel are decoded with the given settings.
+     *
+     * @param twoPhaseDecoding whether to decode windows in two passes
+     * @param listener threadsafe listener told about each window, or null for none
+     */
+    public VCDiffParallelDecoderImpl(VCDiffStreamingDecoder decoder, ExecutorService executor, int maxWindowsInFlight,
+                                     long maximumTargetFileSize, int maximumTargetWindowSize,
+                                     boolean twoPhaseDecoding, VCDiffDecoderListener listener) {
+        super(decoder);
+        if (maxWindowsInFlight <= 0) {
+            throw new IllegalArgumentException("maxWindowsInFlight must be positive");
+        }
+        this.executor = Objects.requireNonNull(executor, "executor was null");
+        this.maxWindowsInFlight = maxWindowsInFlight;
+        this.maximumTargetFileSize = maximumTargetFileSize >= 0
+                ? maximumTargetFileSize : VCDiffStreamingDecoderImpl.DEFAULT_MAXIMUM_TARGET_FILE_SIZE;
+        this.maximumTargetWindowSize = maximumTargetWindowSize >= 0
+                ? maximumTargetWindowSize : VCDiffStreamingDecoderImpl.DEFAULT_MAXIMUM_TARGET_FILE_SIZE;
+        this.twoPhaseDecoding = twoPhaseDecoding;
+        this.listener = listener;
+    }
+
+    @Override
+    public void decode(ByteBuffer dictionary, ByteBuffer encoding, OutputStream target) throws IOException {
+        VCDiffWindowIndex index;
+        try {
+            index = VCDiffWindowIndex.build(encoding, dictionary.remaining());
+        } catch (IOException e) {
+            // The sequential decoder handles custom code tables, and it
+            // produces the most precise errors for malformed delta files.
+            index = null;
+        }
+
+        if (index == null || index.windows().size() < 2 || index.usesTargetSource()
+                || index.targetLength() > maximumTargetFileSize) {
+            super.decode(dictionary, encoding, target);
+            return;
+        }
+
+        final ByteBuffer fileHeader = index.fileHeader();
+        final Deque<Future<VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream>> pending =
+                new ArrayDeque<Future<VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream>>(maxWindowsInFlight);
+        Iterator<VCDiffWindowIndex.Window> windows = index.windows().iterator();
+
+        try {
+            while (windows.hasNext() || !pending.isEmpty()) {
+                while (windows.hasNext() && pending.size() < maxWindowsInFlight) {
+                    VCDiffWindowIndex.Window window = windows.next();
+                    pending.addLast(executor.submit(new WindowDecoder(
+                            dictionary, fileHeader.duplicate(), window.slice(encoding), window.targetLength
+                    )));
+                }
+
+                VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded = awaitWindow(pending.removeFirst());
+                target.write(decoded.getBuffer(), 0, decoded.size());
+            }
+        } finally {
+            for (Future<?> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T awaitWindow(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException rethrown = new InterruptedIOException("Interrupted while waiting for a window to decode");
+            rethrown.initCause(e);
+            throw rethrown;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to decode window", cause);
+        }
+    }
+
+    private final class WindowDecoder implements Callable<VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream> {
+        private final ByteBuffer dictionary;
+        private final ByteBuffer fileHeader;
+        private final ByteBuffer window;
+        private final int targetLength;
+
+        WindowDecoder(ByteBuffer dictionary, ByteBuffer fileHeader, ByteBuffer window, int targetLength) {
+            this.dictionary = dictionary;
+            this.fileHeader = fileHeader;
+            this.window = window;
+            this.targetLength = targetLength;
+        }
+
+        @Override
+        public VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream call() throws IOException {
+            // VCD_TARGET was ruled out by the index, so every window can be
+            // decoded as though it were a delta file of its own.
+            return VCDiffSeekableDecoder.decodeIndependentWindow(
+                    dictionary, fileHeader, window, targetLength, maximumTargetWindowSize,
+                    twoPhaseDecoding, listener
+            );
+        }
+    }
+}
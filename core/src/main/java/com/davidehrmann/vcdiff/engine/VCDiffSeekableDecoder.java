@@ -0,0 +1,300 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_SOURCE;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_TARGET;
+
+/**
+ * Decodes arbitrary ranges of the target of a complete delta file.  Only the windows
+ * covering the requested range are decoded, using a {@link VCDiffWindowIndex} to find
+ * them.  A window that takes its source segment from the target is decoded after the
+ * windows its source segment comes from, and so on back; each of those is decoded only
+ * once per call, without recursion.
+ *
+ * Instances don't hold any decoding state, so they can be used by multiple threads
+ * as long as the dictionary and delta buffers aren't modified.
+ */
+public class VCDiffSeekableDecoder {
+
+    private final ByteBuffer dictionary;
+    private final ByteBuffer delta;
+    private final VCDiffWindowIndex index;
+    private final int maximumTargetWindowSize;
+
+    /**
+     * @param dictionary dictionary the delta file was encoded against
+     * @param delta entire delta file
+     * @param index index of delta
+     * @param maximumTargetWindowSize maximum size of a single window, or a negative value for the default
+     * @throws IOException if index does not describe delta
+     */
+    public VCDiffSeekableDecoder(ByteBuffer dictionary, ByteBuffer delta, VCDiffWindowIndex index,
+                                 int maximumTargetWindowSize) throws IOException {
+        this.dictionary = Objects.requireNonNull(dictionary, "dictionary was null");
+        this.delta = Objects.requireNonNull(delta, "delta was null").slice();
+        this.index = Objects.requireNonNull(index, "index was null");
+        this.maximumTargetWindowSize = maximumTargetWindowSize >= 0
+                ? maximumTargetWindowSize : VCDiffStreamingDecoderImpl.DEFAULT_MAXIMUM_TARGET_FILE_SIZE;
+
+        if (!index.describes(this.delta)) {
+            throw new IOException("Window index does not match the delta file");
+        }
+    }
+
+    public VCDiffWindowIndex index() {
+        return index;
+    }
+
+    /**
+     * @return total size of the decoded target
+     */
+    public long targetLength() {
+        return index.targetLength();
+    }
+
+    /**
+     * Decodes length bytes of the target, starting at offset, writing them to out.
+     *
+     * @param offset offset into the target of the first byte to decode
+     * @param length number of bytes to decode
+     * @param out output for decoded data
+     * @throws IOException if there was an exception decoding or writing to out
+     */
+    public void decode(long offset, long length, final OutputStream out) throws IOException {
+        if (offset < 0 || length < 0 || offset > index.targetLength() - length) {
+            throw new IllegalArgumentException(String.format(
+                    "Range [%d, %d) is outside of the target (%d bytes)", offset, offset + length, index.targetLength()
+            ));
+        }
+
+        if (length == 0) {
+            return;
+        }
+
+        final long end = offset + length;
+        decodeWindows(index.findWindow(offset), index.findWindow(end - 1), new WindowSink() {
+            @Override
+            public void accept(VCDiffWindowIndex.Window window,
+                               VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded) throws IOException {
+                final long from = Math.max(offset, window.targetOffset);
+                final long to = Math.min(end, window.targetOffset + window.targetLength);
+                if (from < to) {
+                    out.write(decoded.getBuffer(), (int) (from - window.targetOffset), (int) (to - from));
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes a single window.
+     *
+     * @param windowIndex index into {@link VCDiffWindowIndex#windows()}
+     * @return the decoded window
+     * @throws IOException if there was an exception decoding the window
+     */
+    public ByteBuffer decodeWindow(int windowIndex) throws IOException {
+        if (windowIndex < 0 || windowIndex >= index.windows().size()) {
+            throw new IndexOutOfBoundsException("Window " + windowIndex + " is outside of the index");
+        }
+        final ByteBuffer[] result = new ByteBuffer[1];
+        decodeWindows(windowIndex, windowIndex, new WindowSink() {
+            @Override
+            public void accept(VCDiffWindowIndex.Window window,
+                               VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded) {
+                result[0] = ByteBuffer.wrap(decoded.getBuffer(), 0, decoded.size());
+            }
+        });
+        return result[0];
+    }
+
+    private interface WindowSink {
+        void accept(VCDiffWindowIndex.Window window, VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded)
+                throws IOException;
+    }
+
+    /**
+     * Decodes windows first through last, in order, passing each to sink.  Windows that
+     * take their source segment from the target need earlier windows decoded first, and
+     * those may need earlier windows still.  Rather than decoding them recursively, every
+     * window that's needed is found up front, working backwards, then each is decoded once,
+     * working forwards, keeping it only until the last window that copies from it.
+     */
+    private void decodeWindows(int first, int last, WindowSink sink) throws IOException {
+        // lastUse[i] is the last window that copies from window i, or -1 if window i
+        // isn't needed; windows first through last are needed by the sink itself
+        final int[] lastUse = new int[last + 1];
+        Arrays.fill(lastUse, 0, first, -1);
+        Arrays.fill(lastUse, first, last + 1, last);
+        int earliest = first;
+        for (int i = last; i >= 0; i--) {
+            VCDiffWindowIndex.Window window = index.windows().get(i);
+            if (lastUse[i] < 0 || !window.usesTargetSource() || window.sourceSegmentLength == 0) {
+                continue;
+            }
+            final int from = sourceWindow(window, window.sourceSegmentPosition);
+            final int to = sourceWindow(window, window.sourceSegmentPosition + window.sourceSegmentLength - 1);
+            for (int j = from; j <= to; j++) {
+                lastUse[j] = Math.max(lastUse[j], i);
+            }
+            earliest = Math.min(earliest, from);
+        }
+
+        final Map<Integer, VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream> decodedWindows =
+                new HashMap<Integer, VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream>();
+        for (int i = earliest; i <= last; i++) {
+            if (lastUse[i] < 0) {
+                continue;
+            }
+            VCDiffWindowIndex.Window window = index.windows().get(i);
+            VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded = decodeWindow(window, decodedWindows);
+            if (i >= first) {
+                sink.accept(window, decoded);
+            }
+            if (lastUse[i] > i) {
+                decodedWindows.put(i, decoded);
+            }
+
+            // Drop the windows that nothing after this one copies from
+            if (window.usesTargetSource() && window.sourceSegmentLength > 0) {
+                final int from = sourceWindow(window, window.sourceSegmentPosition);
+                final int to = sourceWindow(window, window.sourceSegmentPosition + window.sourceSegmentLength - 1);
+                for (int j = from; j <= to; j++) {
+                    if (lastUse[j] == i) {
+                        decodedWindows.remove(j);
+                    }
+                }
+            }
+        }
+    }
+
+    // Finds the window containing targetOffset in window's source segment, which must be
+    // target that precedes window
+    private int sourceWindow(VCDiffWindowIndex.Window window, long targetOffset) throws IOException {
+        if ((long) window.sourceSegmentPosition + window.sourceSegmentLength > window.targetOffset) {
+            throw new IOException(String.format(
+                    "Source segment [%d, %d) of window at target offset %d isn't in the preceding target",
+                    window.sourceSegmentPosition, (long) window.sourceSegmentPosition + window.sourceSegmentLength,
+                    window.targetOffset
+            ));
+        }
+        return index.findWindow(targetOffset);
+    }
+
+    private VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decodeWindow(
+            VCDiffWindowIndex.Window window,
+            Map<Integer, VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream> decodedWindows)
+            throws IOException {
+        ByteBuffer windowBytes = window.slice(delta);
+        if (!window.usesTargetSource()) {
+            return decodeIndependentWindow(dictionary, index.fileHeader(), windowBytes, window.targetLength,
+                    maximumTargetWindowSize);
+        }
+
+        // Gather just the part of the target the window copies from, from the windows
+        // decoded before it, then treat it as the dictionary of a rewritten window that
+        // uses VCD_SOURCE instead.  The addresses in the window body are relative to the
+        // source segment, so only the header needs to change.
+        VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream sourceSegment =
+                new VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream(window.sourceSegmentLength);
+        final long sourceEnd = (long) window.sourceSegmentPosition + window.sourceSegmentLength;
+        if (window.sourceSegmentLength > 0) {
+            final int from = sourceWindow(window, window.sourceSegmentPosition);
+            final int to = sourceWindow(window, sourceEnd - 1);
+            for (int j = from; j <= to; j++) {
+                VCDiffWindowIndex.Window source = index.windows().get(j);
+                VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decoded = decodedWindows.get(j);
+                final long start = Math.max(window.sourceSegmentPosition, source.targetOffset);
+                final long end = Math.min(sourceEnd, source.targetOffset + source.targetLength);
+                if (start < end) {
+                    sourceSegment.write(decoded.getBuffer(), (int) (start - source.targetOffset), (int) (end - start));
+                }
+            }
+        }
+
+        VCDiffHeaderParser headerParser = new VCDiffHeaderParser(windowBytes);
+        if (headerParser.parseWinIndicatorAndSourceSegment(0, (int) Math.min(sourceEnd, Integer.MAX_VALUE), true) == null) {
+            throw new IOException("Delta file ends in the middle of a window header");
+        }
+        ByteBuffer windowBody = headerParser.unparsedData();
+
+        ByteBuffer rewritten = ByteBuffer.allocate(1
+                + VarInt.calculateIntLength(window.sourceSegmentLength)
+                + VarInt.calculateIntLength(0)
+                + windowBody.remaining());
+        rewritten.put((byte) ((window.winIndicator & ~VCD_TARGET) | VCD_SOURCE));
+        VarInt.putInt(rewritten, window.sourceSegmentLength);
+        VarInt.putInt(rewritten, 0);
+        rewritten.put(windowBody);
+        rewritten.flip();
+
+        return decodeIndependentWindow(
+                ByteBuffer.wrap(sourceSegment.getBuffer(), 0, sourceSegment.size()).slice(),
+                index.fileHeader(),
+                rewritten,
+                window.targetLength,
+                maximumTargetWindowSize
+        );
+    }
+
+    // Decodes a window that doesn't depend on any other window by treating it
+    // as a delta file of its own.  The decoded window is written into a buffer
+    // sized from the window header.
+    static VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decodeIndependentWindow(
+            ByteBuffer dictionary, ByteBuffer fileHeader, ByteBuffer window, int targetLength,
+            int maximumTargetWindowSize) throws IOException {
+        return decodeIndependentWindow(dictionary, fileHeader, window, targetLength, maximumTargetWindowSize,
+                false, null);
+    }
+
+    static VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream decodeIndependentWindow(
+            ByteBuffer dictionary, ByteBuffer fileHeader, ByteBuffer window, int targetLength,
+            int maximumTargetWindowSize, boolean twoPhaseDecoding, VCDiffDecoderListener listener)
+            throws IOException {
+        if (targetLength > maximumTargetWindowSize) {
+            throw new IOException(String.format(
+                    "Length of target window (%d) exceeds limit of %d bytes",
+                    targetLength, maximumTargetWindowSize
+            ));
+        }
+
+        VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream out =
+                new VCDiffStreamingDecoderImpl.DecoratedByteArrayOutputStream(targetLength);
+
+        VCDiffStreamingDecoderImpl decoder = new VCDiffStreamingDecoderImpl();
+        decoder.setMaximumTargetWindowSize(maximumTargetWindowSize);
+        decoder.setMaximumTargetFileSize(maximumTargetWindowSize);
+        decoder.setAllowVcdTarget(false);
+        decoder.setTwoPhaseDecoding(twoPhaseDecoding);
+        decoder.setListener(listener);
+        decoder.startDecoding(dictionary);
+        decoder.decodeChunk(fileHeader, out);
+        decoder.decodeChunk(window, out);
+        decoder.finishDecoding();
+
+        return out;
+    }
+}
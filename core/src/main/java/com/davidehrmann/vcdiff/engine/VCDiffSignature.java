@@ -0,0 +1,327 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Per-block hashes of a file, which are enough for {@link VCDiffSignatureEncoder} to encode
+ * a new version of the file against it without having the file itself, as in rsync.
+ *
+ * The file is split into blocks of blockSize bytes, the last of which may be shorter.
+ * Each block has a weak hash, the same {@link RollingHash} the encoder uses to find
+ * matches, and a strong hash, the first strongHashLength bytes of its MD5 digest, that
+ * confirms a match.  The party that has the file computes its signature and sends it
+ * with {@link #writeTo(OutputStream)}; that's about (3 + strongHashLength) / blockSize
+ * of the file's size.  The resulting delta file is decoded with the file as the
+ * dictionary.
+ *
+ * Instances are immutable.
+ */
+public final class VCDiffSignature {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    public static final int DEFAULT_STRONG_HASH_LENGTH = 8;
+
+    static final int MIN_BLOCK_SIZE = BlockHash.kBlockSize;
+    static final int MAX_STRONG_HASH_LENGTH = 16;
+
+    private static final byte[] MAGIC = {'V', 'C', 'S', 0x01};
+
+    // Weak hashes are below RollingHash's modulus, so they always fit in three bytes
+    private static final int WEAK_HASH_LENGTH = 3;
+
+    private final int blockSize;
+    private final int strongHashLength;
+    private final int sourceLength;
+    private final int[] weakHashes;
+    private final byte[] strongHashes;
+
+    private VCDiffSignature(int blockSize, int strongHashLength, int sourceLength,
+                            int[] weakHashes, byte[] strongHashes) {
+        this.blockSize = blockSize;
+        this.strongHashLength = strongHashLength;
+        this.sourceLength = sourceLength;
+        this.weakHashes = weakHashes;
+        this.strongHashes = strongHashes;
+    }
+
+    /**
+     * Computes the signature of a file with the default block size and strong hash length.
+     *
+     * @param source contents of the file, from its position to its limit; the position isn't changed
+     * @return the signature
+     */
+    public static VCDiffSignature compute(ByteBuffer source) {
+        return compute(source, DEFAULT_BLOCK_SIZE, DEFAULT_STRONG_HASH_LENGTH);
+    }
+
+    /**
+     * Computes the signature of a file.  Smaller blocks find more matches, but make the
+     * signature larger.  Shorter strong hashes make the signature smaller, but make it
+     * more likely that a block is mistaken for another with the same weak hash.
+     *
+     * @param source contents of the file, from its position to its limit; the position isn't changed
+     * @param blockSize size of blocks, at least 16 bytes
+     * @param strongHashLength number of bytes of each block's MD5 digest to keep, from 1 to 16
+     * @return the signature
+     */
+    public static VCDiffSignature compute(ByteBuffer source, int blockSize, int strongHashLength) {
+        checkParameters(blockSize, strongHashLength);
+        source = source.slice();
+
+        final int blockCount = blockCount(source.remaining(), blockSize);
+        final int[] weakHashes = new int[blockCount];
+        final byte[] strongHashes = new byte[blockCount * strongHashLength];
+        final MessageDigest md5 = md5();
+
+        byte[] block = new byte[blockSize];
+        for (int i = 0; i < blockCount; i++) {
+            int length = Math.min(blockSize, source.remaining());
+            source.get(block, 0, length);
+            weakHashes[i] = weakHash(block, 0, length);
+            strongHash(md5, block, 0, length, strongHashes, i * strongHashLength, strongHashLength);
+        }
+
+        return new VCDiffSignature(blockSize, strongHashLength, source.limit(), weakHashes, strongHashes);
+    }
+
+    /**
+     * Computes the signature of a file with the default block size and strong hash length,
+     * reading it from a stream.
+     *
+     * @param in contents of the file, which is read to the end but not closed
+     * @return the signature
+     * @throws IOException if there's an exception reading from the stream, or the file is too large
+     */
+    public static VCDiffSignature compute(InputStream in) throws IOException {
+        return compute(in, DEFAULT_BLOCK_SIZE, DEFAULT_STRONG_HASH_LENGTH);
+    }
+
+    /**
+     * Computes the signature of a file, reading it from a stream.
+     *
+     * @param in contents of the file, which is read to the end but not closed
+     * @param blockSize size of blocks, at least 16 bytes
+     * @param strongHashLength number of bytes of each block's MD5 digest to keep, from 1 to 16
+     * @return the signature
+     * @throws IOException if there's an exception reading from the stream, or the file is too large
+     */
+    public static VCDiffSignature compute(InputStream in, int blockSize, int strongHashLength) throws IOException {
+        checkParameters(blockSize, strongHashLength);
+        Objects.requireNonNull(in, "in was null");
+
+        final MessageDigest md5 = md5();
+        int[] weakHashes = new int[16];
+        byte[] strongHashes = new byte[16 * strongHashLength];
+        int blockCount = 0;
+        long sourceLength = 0;
+
+        byte[] block = new byte[blockSize];
+        while (true) {
+            int length = 0;
+            int read;
+            while (length < blockSize && (read = in.read(block, length, blockSize - length)) >= 0) {
+                length += read;
+            }
+            if (length == 0) {
+                break;
+            }
+
+            sourceLength += length;
+            if (sourceLength > Integer.MAX_VALUE) {
+                throw new IOException("Source is too large");
+            }
+            if (blockCount == weakHashes.length) {
+                weakHashes = Arrays.copyOf(weakHashes, blockCount * 2);
+                strongHashes = Arrays.copyOf(strongHashes, blockCount * 2 * strongHashLength);
+            }
+            weakHashes[blockCount] = weakHash(block, 0, length);
+            strongHash(md5, block, 0, length, strongHashes, blockCount * strongHashLength, strongHashLength);
+            blockCount++;
+
+            if (length < blockSize) {
+                break;
+            }
+        }
+
+        return new VCDiffSignature(blockSize, strongHashLength, (int) sourceLength,
+                Arrays.copyOf(weakHashes, blockCount),
+                Arrays.copyOf(strongHashes, blockCount * strongHashLength));
+    }
+
+    /**
+     * Reads a signature written by {@link #writeTo(OutputStream)}.
+     *
+     * @param in stream to read from; only the signature is read from it
+     * @return the signature
+     * @throws IOException if there's an exception reading from the stream, or it isn't a valid signature
+     */
+    public static VCDiffSignature readFrom(InputStream in) throws IOException {
+        DataInputStream dataIn = new DataInputStream(Objects.requireNonNull(in, "in was null"));
+
+        byte[] magic = new byte[MAGIC.length];
+        dataIn.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Did not find signature header bytes");
+        }
+
+        final int blockSize = VarInt.readInt(dataIn);
+        final int strongHashLength = VarInt.readInt(dataIn);
+        final int sourceLength = VarInt.readInt(dataIn);
+        if (blockSize < MIN_BLOCK_SIZE || strongHashLength < 1 || strongHashLength > MAX_STRONG_HASH_LENGTH) {
+            throw new IOException("Invalid signature parameters");
+        }
+
+        // sourceLength hasn't been checked against anything, so the arrays grow as blocks
+        // are read, rather than being sized from it
+        final int blockCount = blockCount(sourceLength, blockSize);
+        if ((long) blockCount * strongHashLength > Integer.MAX_VALUE) {
+            throw new IOException("Invalid signature parameters");
+        }
+        int[] weakHashes = new int[Math.min(blockCount, 16)];
+        byte[] strongHashes = new byte[weakHashes.length * strongHashLength];
+        for (int i = 0; i < blockCount; i++) {
+            if (i == weakHashes.length) {
+                final int capacity = (int) Math.min(blockCount, 2L * i);
+                weakHashes = Arrays.copyOf(weakHashes, capacity);
+                strongHashes = Arrays.copyOf(strongHashes, capacity * strongHashLength);
+            }
+            weakHashes[i] = (dataIn.readUnsignedByte() << 16) | (dataIn.readUnsignedByte() << 8) | dataIn.readUnsignedByte();
+            dataIn.readFully(strongHashes, i * strongHashLength, strongHashLength);
+        }
+
+        return new VCDiffSignature(blockSize, strongHashLength, sourceLength, weakHashes, strongHashes);
+    }
+
+    /**
+     * Writes the signature in a compact form that {@link #readFrom(InputStream)} reads.
+     *
+     * @param out stream to write to
+     * @throws IOException if there's an exception writing to the stream
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        VarInt.writeInt(out, blockSize);
+        VarInt.writeInt(out, strongHashLength);
+        VarInt.writeInt(out, sourceLength);
+
+        byte[] record = new byte[WEAK_HASH_LENGTH + strongHashLength];
+        for (int i = 0; i < weakHashes.length; i++) {
+            record[0] = (byte) (weakHashes[i] >>> 16);
+            record[1] = (byte) (weakHashes[i] >>> 8);
+            record[2] = (byte) weakHashes[i];
+            System.arraycopy(strongHashes, i * strongHashLength, record, WEAK_HASH_LENGTH, strongHashLength);
+            out.write(record);
+        }
+    }
+
+    /**
+     * @return size of the signature as written by {@link #writeTo(OutputStream)}
+     */
+    public int serializedLength() {
+        return MAGIC.length + VarInt.calculateIntLength(blockSize) + VarInt.calculateIntLength(strongHashLength)
+                + VarInt.calculateIntLength(sourceLength) + weakHashes.length * (WEAK_HASH_LENGTH + strongHashLength);
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public int strongHashLength() {
+        return strongHashLength;
+    }
+
+    /**
+     * @return size of the file the signature was computed from, which is the dictionary size of the delta files
+     */
+    public int sourceLength() {
+        return sourceLength;
+    }
+
+    public int blockCount() {
+        return weakHashes.length;
+    }
+
+    int blockLength(int block) {
+        return block < weakHashes.length - 1 ? blockSize : sourceLength - block * blockSize;
+    }
+
+    int weakHash(int block) {
+        return weakHashes[block];
+    }
+
+    // Whether the first strongHashLength bytes of digest match block's strong hash
+    boolean strongHashEquals(int block, byte[] digest) {
+        final int offset = block * strongHashLength;
+        for (int i = 0; i < strongHashLength; i++) {
+            if (strongHashes[offset + i] != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The same hash RollingHash computes, generalized to the shorter last block
+    static int weakHash(byte[] data, int offset, int length) {
+        if (length < 2) {
+            return length == 0 ? 0 : data[offset] & 0xff;
+        }
+        long h = RollingHash.RollingHashUtil.HashFirstTwoBytes(data, offset);
+        for (int i = 2; i < length; i++) {
+            h = RollingHash.RollingHashUtil.HashStep(h, data[offset + i]);
+        }
+        return (int) h;
+    }
+
+    static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void strongHash(MessageDigest md5, byte[] data, int offset, int length,
+                                   byte[] dest, int destOffset, int strongHashLength) {
+        md5.update(data, offset, length);
+        System.arraycopy(md5.digest(), 0, dest, destOffset, strongHashLength);
+    }
+
+    private static int blockCount(int sourceLength, int blockSize) {
+        return (int) (((long) sourceLength + blockSize - 1) / blockSize);
+    }
+
+    private static void checkParameters(int blockSize, int strongHashLength) {
+        if (blockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize must be at least " + MIN_BLOCK_SIZE);
+        }
+        if (strongHashLength < 1 || strongHashLength > MAX_STRONG_HASH_LENGTH) {
+            throw new IllegalArgumentException("strongHashLength must be between 1 and " + MAX_STRONG_HASH_LENGTH);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffCodeTableWriter;
+import com.davidehrmann.vcdiff.VCDiffFormatExtension;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.zip.Checksum;
+
+/**
+ * Encodes against a {@link VCDiffSignature} rather than the dictionary itself.  The output
+ * is an ordinary delta file with the signed file as its dictionary, so it's decoded the
+ * same way as any other.
+ *
+ * Matches are found the way rsync finds them: the rolling hash of each block-sized run of
+ * the target is looked up among the blocks' weak hashes, and a candidate is confirmed with
+ * its strong hash.  Only whole blocks (and the last, shorter block at the very end of a
+ * chunk) can be matched, so this finds less than {@link VCDiffEngine}.  Consecutive
+ * matching blocks are merged into one COPY.  As with the engine, each chunk is a window.
+ *
+ * NOT threadsafe.
+ */
+public class VCDiffSignatureEncoder<OUT> implements VCDiffStreamingEncoder<OUT> {
+
+    private final VCDiffCodeTableWriter<OUT> coder;
+    private final VCDiffSignature signature;
+    private final EnumSet<VCDiffFormatExtension> formatExtensions;
+    private final Checksum checksum;
+
+    private final RollingHash hasher;
+    private final MessageDigest md5 = VCDiffSignature.md5();
+
+    // Chained hash table of blocks by weak hash.  Each chain is in block order,
+    // so the first block with the content is preferred.
+    private final int[] buckets;
+    private final int[] nextBlock;
+    private final int hashMask;
+
+    private boolean encodeChunkAllowed;
+
+    public VCDiffSignatureEncoder(VCDiffCodeTableWriter<OUT> coder, VCDiffSignature signature,
+                                  EnumSet<VCDiffFormatExtension> formatExtensions) {
+        this.coder = Objects.requireNonNull(coder, "coder was null");
+        this.signature = Objects.requireNonNull(signature, "signature was null");
+        this.formatExtensions = formatExtensions.clone();
+        this.checksum = WindowChecksums.forEncoding(this.formatExtensions);
+        this.hasher = new RollingHash(signature.blockSize());
+
+        int tableSize = Integer.highestOneBit(Math.max(1, signature.blockCount()) * 2 - 1);
+        this.buckets = new int[tableSize];
+        this.nextBlock = new int[signature.blockCount()];
+        this.hashMask = tableSize - 1;
+        Arrays.fill(buckets, -1);
+        for (int block = signature.blockCount() - 1; block >= 0; block--) {
+            int bucket = signature.weakHash(block) & hashMask;
+            nextBlock[block] = buckets[bucket];
+            buckets[bucket] = block;
+        }
+    }
+
+    public void startEncoding(OUT out) throws IOException {
+        coder.init(signature.sourceLength());
+        coder.writeHeader(out, formatExtensions);
+        encodeChunkAllowed = true;
+    }
+
+    public void encodeChunk(byte[] data, int offset, int length, OUT out) throws IOException {
+        if (!encodeChunkAllowed) {
+            throw new IllegalStateException("encodeChunk called before startEncoding");
+        }
+        if (length == 0) {
+            return;  // Do nothing for empty target
+        }
+        if (checksum != null) {
+            coder.addChecksum(WindowChecksums.checksum(checksum, data, offset, length));
+        }
+
+        final int blockSize = signature.blockSize();
+        final int end = offset + length;
+        int unencoded = offset;
+        int position = offset;
+
+        if (length >= blockSize) {
+            int hash = (int) hasher.Hash(data, position, blockSize);
+            while (true) {
+                int block = findBlock(hash, data, position, blockSize);
+                if (block >= 0) {
+                    if (position > unencoded) {
+                        coder.add(data, unencoded, position - unencoded);
+                    }
+
+                    // Extend the match through the blocks that follow it
+                    final int copyAddress = block * blockSize;
+                    int copySize = blockSize;
+                    position += blockSize;
+                    while (block + 1 < signature.blockCount()) {
+                        int nextLength = signature.blockLength(block + 1);
+                        if (nextLength > end - position
+                                || (nextLength < blockSize && nextLength != end - position)
+                                || !blockMatches(block + 1, data, position, nextLength)) {
+                            break;
+                        }
+                        block++;
+                        copySize += nextLength;
+                        position += nextLength;
+                    }
+                    coder.copy(copyAddress, copySize);
+                    unencoded = position;
+
+                    if (end - position < blockSize) {
+                        break;
+                    }
+                    hash = (int) hasher.Hash(data, position, blockSize);
+                } else {
+                    if (end - position - 1 < blockSize) {
+                        break;
+                    }
+                    hash = (int) hasher.UpdateHash(hash, data[position], data[position + blockSize]);
+                    position++;
+                }
+            }
+        }
+
+        // A shorter last block can only match the end of the chunk
+        final int lastBlock = signature.blockCount() - 1;
+        if (lastBlock >= 0) {
+            final int lastLength = signature.blockLength(lastBlock);
+            if (lastLength < blockSize && end - unencoded >= lastLength
+                    && blockMatches(lastBlock, data, end - lastLength, lastLength)) {
+                if (end - lastLength > unencoded) {
+                    coder.add(data, unencoded, end - lastLength - unencoded);
+                }
+                coder.copy(lastBlock * blockSize, lastLength);
+                unencoded = end;
+            }
+        }
+
+        if (end > unencoded) {
+            coder.add(data, unencoded, end - unencoded);
+        }
+        coder.output(out);
+    }
+
+    public void encodeChunk(byte[] data, OUT out) throws IOException {
+        encodeChunk(data, 0, data.length, out);
+    }
+
+    public void finishEncoding(OUT out) throws IOException {
+        if (!encodeChunkAllowed) {
+            throw new IllegalStateException("finishEncoding called before startEncoding");
+        }
+        encodeChunkAllowed = false;
+        coder.finishEncoding(out);
+    }
+
+    // Returns the first block with the same content as data[offset, offset + length), or -1
+    private int findBlock(int hash, byte[] data, int offset, int length) {
+        byte[] digest = null;
+        for (int block = buckets[hash & hashMask]; block >= 0; block = nextBlock[block]) {
+            if (signature.weakHash(block) == hash && signature.blockLength(block) == length) {
+                if (digest == null) {
+                    md5.update(data, offset, length);
+                    digest = md5.digest();
+                }
+                if (signature.strongHashEquals(block, digest)) {
+                    return block;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean blockMatches(int block, byte[] data, int offset, int length) {
+        if (VCDiffSignature.weakHash(data, offset, length) != signature.weakHash(block)) {
+            return false;
+        }
+        md5.update(data, offset, length);
+        return signature.strongHashEquals(block, md5.digest());
+    }
+}
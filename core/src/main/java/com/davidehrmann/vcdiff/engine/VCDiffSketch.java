@@ -0,0 +1,183 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A small summary of a buffer's content that estimates how much of one buffer could be
+ * encoded as COPYs from another without encoding it.
+ *
+ * The sketch holds fingerprints of a sample of the buffer's kMinimumMatchSize-byte
+ * substrings.  A substring is sampled when the top sampleBits bits of its mixed
+ * {@link RollingHash} are zero, so the same content is sampled wherever it appears, and
+ * about one in 2^sampleBits positions is sampled.  Each sampled substring is fingerprinted
+ * with a 64-bit hash.  A sketch with more than maxSize fingerprints keeps only the
+ * smallest maxSize of them (a bottom-k MinHash sketch), which bounds its size for large
+ * dictionaries at the cost of a noisier estimate.
+ *
+ * Instances are immutable.
+ */
+public final class VCDiffSketch {
+
+    public static final int DEFAULT_SAMPLE_BITS = 5;
+    public static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+    static final int kWindowSize = VCDiffEngine.kMinimumMatchSize;
+
+    private static final RollingHash rollingHash = new RollingHash(kWindowSize);
+
+    private final int sampleBits;
+
+    // Sorted and distinct
+    private final long[] fingerprints;
+
+    // Fingerprints above this were dropped to keep the sketch at its maximum size
+    private final long threshold;
+
+    private VCDiffSketch(int sampleBits, long[] fingerprints, long threshold) {
+        this.sampleBits = sampleBits;
+        this.fingerprints = fingerprints;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Computes a sketch with the default sample rate and maximum size.
+     *
+     * @param data buffer to sketch, from its position to its limit; the position isn't changed
+     * @return the sketch
+     */
+    public static VCDiffSketch compute(ByteBuffer data) {
+        return compute(data, DEFAULT_SAMPLE_BITS, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Computes a sketch.  Sketches are only comparable if they have the same sampleBits.
+     *
+     * @param data buffer to sketch, from its position to its limit; the position isn't changed
+     * @param sampleBits log2 of the average distance between sampled positions
+     * @param maxSize maximum number of fingerprints to keep
+     * @return the sketch
+     */
+    public static VCDiffSketch compute(ByteBuffer data, int sampleBits, int maxSize) {
+        if (sampleBits < 0 || sampleBits > 16) {
+            throw new IllegalArgumentException("sampleBits must be between 0 and 16");
+        }
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+
+        data = data.slice();
+        final int length = data.limit();
+
+        long[] fingerprints = new long[16];
+        int count = 0;
+        if (length >= kWindowSize) {
+            long hash = rollingHash.Hash(data.duplicate());
+            for (int pos = 0; ; pos++) {
+                if (sampled(hash, sampleBits)) {
+                    if (count == fingerprints.length) {
+                        fingerprints = Arrays.copyOf(fingerprints, count * 2);
+                    }
+                    fingerprints[count++] = fingerprint(data, pos);
+                }
+                if (pos + kWindowSize >= length) {
+                    break;
+                }
+                hash = rollingHash.UpdateHash(hash, data.get(pos), data.get(pos + kWindowSize));
+            }
+        }
+
+        Arrays.sort(fingerprints, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || fingerprints[i] != fingerprints[distinct - 1]) {
+                fingerprints[distinct++] = fingerprints[i];
+            }
+        }
+
+        long threshold = Long.MAX_VALUE;
+        if (distinct > maxSize) {
+            distinct = maxSize;
+            threshold = fingerprints[maxSize - 1];
+        }
+        return new VCDiffSketch(sampleBits, Arrays.copyOf(fingerprints, distinct), threshold);
+    }
+
+    /**
+     * Estimates the fraction of the buffer this sketch was computed from that's covered by
+     * matches of at least kMinimumMatchSize bytes in the buffer dictionary was computed from.
+     *
+     * @param dictionary sketch of a dictionary, with the same sampleBits
+     * @return estimated coverage, from 0 to 1
+     */
+    public double coverageBy(VCDiffSketch dictionary) {
+        if (dictionary.sampleBits != sampleBits) {
+            throw new IllegalArgumentException("Sketches have different sample rates");
+        }
+
+        // Only fingerprints that both sketches would have kept can be compared
+        final long limit = Math.min(threshold, dictionary.threshold);
+        int compared = 0;
+        int found = 0;
+        for (long fingerprint : fingerprints) {
+            if (fingerprint > limit) {
+                break;
+            }
+            compared++;
+            if (Arrays.binarySearch(dictionary.fingerprints, fingerprint) >= 0) {
+                found++;
+            }
+        }
+        return compared > 0 ? (double) found / compared : 0.0;
+    }
+
+    public int sampleBits() {
+        return sampleBits;
+    }
+
+    /**
+     * @return number of fingerprints in the sketch
+     */
+    public int size() {
+        return fingerprints.length;
+    }
+
+    // RollingHash's multiplier is 1 mod 2^k, so its low bits are just the sum of the
+    // window's bytes.  Mix it with the MurmurHash3 finalizer and sample on the top bits.
+    private static boolean sampled(long hash, int sampleBits) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return sampleBits == 0 || hash >>> (64 - sampleBits) == 0;
+    }
+
+    // A 64-bit FNV-1a hash of the window, with a final mix so all bits depend on all bytes
+    private static long fingerprint(ByteBuffer data, int offset) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + kWindowSize; i++) {
+            h ^= data.get(i) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -36,6 +36,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 import static com.davidehrmann.vcdiff.engine.VCDiffHeaderParser.RESULT_END_OF_DATA;
 import static com.davidehrmann.vcdiff.engine.VCDiffHeaderParser.RESULT_SUCCESS;
@@ -65,8 +67,10 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
      */
     public static final int UNLIMITED_BYTES = -3;
 
+    private static final int kInitialDecodedTargetCapacity = 512;
+
     // Contents and length of the source (dictionary) data.
-    private ByteBuffer dictionary;
+    private DictionarySegments dictionary;
 
     // This string will be used to store any unparsed bytes left over when
     // decodeChunk() reaches the end of its input and returns RESULT_END_OF_DATA.
@@ -81,7 +85,7 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
     // window can come from a range of addresses in the previously decoded target
     // data, the entire target file needs to be available to the decoder, not just
     // the current target window.
-    private final DecoratedByteArrayOutputStream decodedTarget = new DecoratedByteArrayOutputStream(512); //IoBuffer.allocate(512);
+    private final DecoratedByteArrayOutputStream decodedTarget = new DecoratedByteArrayOutputStream(kInitialDecodedTargetCapacity); //IoBuffer.allocate(512);
 
     // The VCDIFF version byte (also known as "header4") from the
     // delta file header.
@@ -91,6 +95,10 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
 
     private VCDiffAddressCache addrCache;
 
+    // The address cache for delta files with the default cache sizes, which is kept
+    // from one delta file to the next.  addrCache points here once the header is read.
+    private final VCDiffAddressCache defaultAddrCache = new VCDiffDefaultAddressCache();
+
     // Will be NULL unless a custom code table has been defined.
     private VCDiffCodeTableData custom_code_table_;
 
@@ -141,6 +149,17 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
     // keep in memory any decoded target data prior to the current window.
     private boolean allowVcdTarget = true;
 
+    // If this value is true, each standard-format window is decoded in two
+    // passes: the first parses the instructions, sizes, and addresses into a
+    // compact array, and the second executes that array.  Interleaved windows,
+    // which may arrive in pieces, are always decoded in a single pass.
+    private boolean twoPhaseDecoding = false;
+
+    // Told about each decoded window and buffer growth, if set.  windowStatistics is
+    // filled in for each window, and is null when there's no listener.
+    private VCDiffDecoderListener listener;
+    private VCDiffWindowStatistics windowStatistics;
+
     public VCDiffStreamingDecoderImpl() {
         deltaWindow = new VCDiffDeltaFileWindow(this);
         reset();
@@ -165,6 +184,15 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
     }
 
     public void startDecoding(ByteBuffer dictionary) {
+        startDecoding(DictionarySegments.of(dictionary));
+    }
+
+    @Override
+    public void startDecoding(List<ByteBuffer> dictionaries) {
+        startDecoding(DictionarySegments.of(dictionaries));
+    }
+
+    private void startDecoding(DictionarySegments dictionary) {
         if (startDecodingWasCalled) {
             throw new IllegalStateException("startDecoding() called twice without finishDecoding()");
         }
@@ -380,7 +408,32 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
         }
     }
 
-    public ByteBuffer dictionary_ptr() { return dictionary; }
+    /**
+     * Shrinks the buffer that holds decoded target data back to its initial size if it
+     * has grown beyond maxRetainedCapacity.  A decoder that's kept for reuse can call
+     * this between delta files so that one very large target doesn't pin that much
+     * memory for as long as the decoder lives.
+     *
+     * @param maxRetainedCapacity largest buffer capacity to keep
+     * @throws IllegalStateException if called between startDecoding() and finishDecoding()
+     */
+    public void trim(int maxRetainedCapacity) {
+        if (startDecodingWasCalled) {
+            throw new IllegalStateException("trim() called during decoding");
+        }
+        unparsedBytes = ByteBuffer.allocate(0);
+        decodedTarget.reset();
+        decodedTarget.trim(maxRetainedCapacity, kInitialDecodedTargetCapacity);
+    }
+
+    /**
+     * @return capacity of the buffer that holds decoded target data
+     */
+    int retainedCapacity() {
+        return decodedTarget.getBuffer().length;
+    }
+
+    DictionarySegments dictionary_ptr() { return dictionary; }
 
     VCDiffAddressCache addrCache() { return addrCache; }
 
@@ -395,6 +448,38 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
         this.allowVcdTarget = allowVcdTarget;
     }
 
+    /**
+     * @return listener told about each decoded window, or null
+     */
+    public VCDiffDecoderListener listener() { return listener; }
+
+    /**
+     * Sets a listener to tell about each decoded window and buffer growth.  Without one,
+     * the decoder doesn't time or count anything.
+     *
+     * @param listener listener, or null for none
+     * @throws IllegalStateException if called between startDecoding() and finishDecoding()
+     */
+    public void setListener(VCDiffDecoderListener listener) {
+        if (startDecodingWasCalled) {
+            throw new IllegalStateException("setListener() called after startDecoding()");
+        }
+        this.listener = listener;
+        this.windowStatistics = listener != null ? new VCDiffWindowStatistics() : null;
+        decodedTarget.setListener(listener);
+    }
+
+    VCDiffWindowStatistics windowStatistics() { return windowStatistics; }
+
+    public boolean twoPhaseDecoding() { return twoPhaseDecoding; }
+
+    public void setTwoPhaseDecoding(boolean twoPhaseDecoding) {
+        if (startDecodingWasCalled) {
+            throw new IllegalStateException("setTwoPhaseDecoding() called after startDecoding()");
+        }
+        this.twoPhaseDecoding = twoPhaseDecoding;
+    }
+
     // Reads the VCDiff delta file header section as described in RFC section 4.1,
     // except the custom code table data.  Returns RESULT_ERROR if an error
     // occurred, or RESULT_END_OF_DATA if the end of available data was reached
@@ -488,7 +573,7 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
             data.position(data.position() + DeltaFileHeader.SERIALIZED_SIZE + bytes_parsed);
             // TODO unknown flags on hdr_indicator
         } else {
-            addrCache = new VCDiffAddressCacheImpl();
+            addrCache = defaultAddrCache;
             // addrCache->init() will be called
             // from VCDiffStreamingDecoderImpl::decodeChunk()
             data.position(data.position() + DeltaFileHeader.SERIALIZED_SIZE);
@@ -602,15 +687,12 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
     // has not yet been output.  It sets decodedTargetOutputPosition
     // to mark the start of the next data that needs to be output.
     private void appendNewOutputText(OutputStream out) throws IOException {
-        ByteBuffer decodedTargetBuffer = decodedTarget.toByteBuffer();
-        decodedTargetBuffer.position(decodedTargetOutputPosition);
-
-        // TODO: optimize
-        while (decodedTargetBuffer.hasRemaining()) {
-            out.write(decodedTargetBuffer.get());
+        final int size = decodedTarget.size();
+        if (size > decodedTargetOutputPosition) {
+            out.write(decodedTarget.getBuffer(), decodedTargetOutputPosition, size - decodedTargetOutputPosition);
         }
 
-        decodedTargetOutputPosition = decodedTargetBuffer.limit();
+        decodedTargetOutputPosition = size;
     }
 
     // Appends to out the portion of decodedTarget that has
@@ -631,6 +713,8 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
     }
 
     protected static class DecoratedByteArrayOutputStream extends ByteArrayOutputStream {
+        private VCDiffDecoderListener listener;
+
         public DecoratedByteArrayOutputStream() {
             super();
         }
@@ -646,5 +730,44 @@ public class VCDiffStreamingDecoderImpl implements VCDiffStreamingDecoder {
         public byte[] getBuffer() {
             return buf;
         }
+
+        // Makes room for length more bytes and returns the backing array.  The
+        // caller fills it in starting at size(), then calls advance(length).
+        public byte[] reserve(int length) {
+            final long wanted_capacity = (long) count + length;
+            if (wanted_capacity > Integer.MAX_VALUE) {
+                throw new OutOfMemoryError("Decoded target is too large for a byte array");
+            }
+            if (wanted_capacity > buf.length) {
+                final int old_capacity = buf.length;
+                buf = Arrays.copyOf(buf, (int) Math.max(wanted_capacity, Math.min(2L * buf.length, Integer.MAX_VALUE)));
+                if (listener != null) {
+                    listener.targetBufferGrown(old_capacity, buf.length);
+                }
+            }
+            return buf;
+        }
+
+        void setListener(VCDiffDecoderListener listener) {
+            this.listener = listener;
+        }
+
+        // Replaces the backing array with a smaller one if it's grown beyond
+        // maxCapacity.  The stream must be empty.
+        public void trim(int maxCapacity, int initialCapacity) {
+            if (count != 0) {
+                throw new IllegalStateException("trim() called on a non-empty buffer");
+            }
+            if (buf.length > maxCapacity) {
+                buf = new byte[initialCapacity];
+            }
+        }
+
+        public void advance(int length) {
+            if (length < 0 || (long) count + length > buf.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            count += length;
+        }
     }
 }
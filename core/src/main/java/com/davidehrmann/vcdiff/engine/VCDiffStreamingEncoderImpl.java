@@ -32,16 +32,13 @@ package com.davidehrmann.vcdiff.engine;
 import com.davidehrmann.vcdiff.VCDiffCodeTableWriter;
 import com.davidehrmann.vcdiff.VCDiffFormatExtension;
 import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
-import com.davidehrmann.vcdiff.util.ZeroInitializedAdler32;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
-import java.util.zip.Adler32;
-
-import static com.davidehrmann.vcdiff.VCDiffFormatExtension.GOOGLE_CHECKSUM;
+import java.util.zip.Checksum;
 
 public class VCDiffStreamingEncoderImpl<OUT> implements VCDiffStreamingEncoder<OUT> {
     private static final Logger LOGGER = LoggerFactory.getLogger(VCDiffStreamingEncoderImpl.class);
@@ -56,6 +53,13 @@ public class VCDiffStreamingEncoderImpl<OUT> implements VCDiffStreamingEncoder<O
 
     protected final VCDiffCodeTableWriter<OUT> coder;
 
+    // Where the engine records what it did, if anywhere.  The coder records instructions
+    // into the same object.
+    protected final VCDiffEncoderStatistics statistics;
+
+    // Reused for each chunk, or null if chunks aren't checksummed
+    private final Checksum checksum;
+
     // This state variable is used to ensure that startEncoding(), encodeChunk(),
     // and finishEncoding() are called in the correct order.  It will be true
     // if startEncoding() has been called, followed by zero or more calls to
@@ -67,15 +71,32 @@ public class VCDiffStreamingEncoderImpl<OUT> implements VCDiffStreamingEncoder<O
                                       HashedDictionary dictionary,
                                       EnumSet<VCDiffFormatExtension> format_extensions,
                                       boolean look_for_target_matches) {
+        this(coder, dictionary, format_extensions, look_for_target_matches, null);
+    }
+
+    /**
+     * @param statistics statistics to record each encoding in, or null not to record
+     *                   them.  If it's not null, coder should record instructions in it, too.
+     */
+    public VCDiffStreamingEncoderImpl(VCDiffCodeTableWriter<OUT> coder,
+                                      HashedDictionary dictionary,
+                                      EnumSet<VCDiffFormatExtension> format_extensions,
+                                      boolean look_for_target_matches,
+                                      VCDiffEncoderStatistics statistics) {
         this.engine = dictionary.engine();
         this.formatExtensions = format_extensions.clone();
         this.lookForTargetMatches = look_for_target_matches;
         this.coder = coder;
+        this.statistics = statistics;
+        this.checksum = WindowChecksums.forEncoding(this.formatExtensions);
     }
 
     // These functions are identical to their counterparts
     // in VCDiffStreamingEncoder.
     public void startEncoding(OUT out) throws IOException {
+        if (statistics != null) {
+            statistics.reset();
+        }
         coder.init(engine.dictionary_size());
         coder.writeHeader(out, formatExtensions);
         encodeChunkAllowed = true;
@@ -85,12 +106,10 @@ public class VCDiffStreamingEncoderImpl<OUT> implements VCDiffStreamingEncoder<O
         if (!encodeChunkAllowed) {
             throw new IllegalStateException("encodeChunk called before startEncoding");
         }
-        if ((formatExtensions.contains(GOOGLE_CHECKSUM))) {
-            ZeroInitializedAdler32 adler32 = new ZeroInitializedAdler32();
-            adler32.update(data, offset, length);
-            coder.addChecksum((int) adler32.getValue());
+        if (checksum != null) {
+            coder.addChecksum(WindowChecksums.checksum(checksum, data, offset, length));
         }
-        engine.Encode(ByteBuffer.wrap(data, offset, length).slice(), lookForTargetMatches, out, coder);
+        engine.Encode(ByteBuffer.wrap(data, offset, length).slice(), lookForTargetMatches, out, coder, statistics);
     }
 
     public void encodeChunk(byte[] data, OUT out) throws IOException {
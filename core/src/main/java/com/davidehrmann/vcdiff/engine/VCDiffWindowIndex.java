@@ -0,0 +1,383 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_SOURCE;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_TARGET;
+import static com.davidehrmann.vcdiff.engine.VCDiffHeaderParser.VCD_CODETABLE;
+import static com.davidehrmann.vcdiff.engine.VCDiffHeaderParser.VCD_DECOMPRESS;
+
+/**
+ * Locates every delta window of a VCDIFF delta file, both in the delta file itself
+ * and in the decoded target.  The index is built by parsing only the window headers;
+ * none of the window bodies are decoded, so building an index is cheap compared to
+ * decoding the delta file.  An index can be saved next to a delta file with
+ * {@link #write(OutputStream)} and loaded again with {@link #read(ByteBuffer)}.  A saved
+ * index records the length and CRC-32 of its delta file, so an index that's loaded
+ * alongside the wrong delta file can be detected.
+ */
+public final class VCDiffWindowIndex {
+
+    private static final byte[] MAGIC = {'V', 'C', 'I', 'X'};
+    private static final byte FORMAT_VERSION = 2;
+
+    // Four varints and the window indicator
+    private static final int MIN_SERIALIZED_WINDOW_SIZE = 5;
+
+    private final byte[] fileHeader;
+    private final List<Window> windows;
+    private final long targetLength;
+    private final int deltaLength;
+    private final int deltaChecksum;
+
+    private VCDiffWindowIndex(byte[] fileHeader, List<Window> windows, long targetLength,
+                              int deltaLength, int deltaChecksum) {
+        this.fileHeader = fileHeader;
+        this.windows = Collections.unmodifiableList(windows);
+        this.targetLength = targetLength;
+        this.deltaLength = deltaLength;
+        this.deltaChecksum = deltaChecksum;
+    }
+
+    /**
+     * Builds an index of a complete delta file.  Delta files that define a custom code
+     * table can't be indexed, since the length of the embedded code table is only known
+     * after it has been decoded.
+     *
+     * @param delta entire delta file, from its position to its limit
+     * @param dictionarySize size of the dictionary the delta file was encoded against
+     * @return window index
+     * @throws IOException if the delta file is malformed, truncated, or uses a custom code table
+     */
+    public static VCDiffWindowIndex build(ByteBuffer delta, int dictionarySize) throws IOException {
+        ByteBuffer data = delta.slice();
+        if (data.remaining() < DeltaFileHeader.SERIALIZED_SIZE) {
+            throw new IOException("Delta file is too short to contain a VCDIFF header");
+        }
+
+        byte[] fileHeader = new byte[DeltaFileHeader.SERIALIZED_SIZE];
+        data.get(fileHeader);
+        checkFileHeader(fileHeader);
+
+        List<Window> windows = new ArrayList<Window>();
+        long targetOffset = 0;
+        while (data.hasRemaining()) {
+            final int deltaOffset = data.position();
+            VCDiffHeaderParser headerParser = new VCDiffHeaderParser(data.slice());
+            VCDiffHeaderParser.DeltaWindowHeader windowHeader = headerParser.parseWinIndicatorAndSourceSegment(
+                    dictionarySize,
+                    (int) Math.min(targetOffset, Integer.MAX_VALUE),
+                    true
+            );
+            Integer windowTargetLength = null;
+            if (windowHeader != null) {
+                windowTargetLength = headerParser.ParseWindowLengths();
+            }
+            if (windowTargetLength == null) {
+                throw new IOException("Delta file ends in the middle of a window header");
+            }
+
+            final int windowEnd = headerParser.endOfDeltaWindow();
+            if (windowEnd < 0 || windowEnd > data.remaining()) {
+                throw new IOException("Delta file ends in the middle of a delta window");
+            }
+
+            windows.add(new Window(
+                    deltaOffset,
+                    windowEnd,
+                    targetOffset,
+                    windowTargetLength,
+                    windowHeader.win_indicator,
+                    windowHeader.source_segment_length,
+                    windowHeader.source_segment_position
+            ));
+
+            targetOffset += windowTargetLength;
+            data.position(deltaOffset + windowEnd);
+        }
+
+        return new VCDiffWindowIndex(fileHeader, windows, targetOffset, data.limit(), checksum(delta));
+    }
+
+    /**
+     * Reads an index previously saved with {@link #write(OutputStream)}.
+     *
+     * @param in serialized index, from its position to its limit
+     * @return window index
+     * @throws IOException if in does not contain a valid serialized index, or the windows
+     * it describes aren't consistent
+     */
+    public static VCDiffWindowIndex read(ByteBuffer in) throws IOException {
+        ByteBuffer data = in.duplicate();
+        if (data.remaining() < MAGIC.length + 1 + DeltaFileHeader.SERIALIZED_SIZE) {
+            throw new IOException("Window index is truncated");
+        }
+        for (byte b : MAGIC) {
+            if (data.get() != b) {
+                throw new IOException("Did not find window index header bytes");
+            }
+        }
+        if (data.get() != FORMAT_VERSION) {
+            throw new IOException("Unrecognized window index format version");
+        }
+
+        byte[] fileHeader = new byte[DeltaFileHeader.SERIALIZED_SIZE];
+        data.get(fileHeader);
+        checkFileHeader(fileHeader);
+
+        final int deltaLength = readInt(data, "delta file length");
+        if (deltaLength < DeltaFileHeader.SERIALIZED_SIZE) {
+            throw new IOException("Window index describes a delta file too short to contain a VCDIFF header");
+        }
+        if (data.remaining() < 4) {
+            throw new IOException("Window index is truncated");
+        }
+        final int deltaChecksum = data.getInt();
+
+        final int windowCount = readInt(data, "window count");
+        if (windowCount > data.remaining() / MIN_SERIALIZED_WINDOW_SIZE) {
+            throw new IOException("Window index is truncated");
+        }
+        List<Window> windows = new ArrayList<Window>(windowCount);
+        long deltaOffset = DeltaFileHeader.SERIALIZED_SIZE;
+        long targetOffset = 0;
+        for (int i = 0; i < windowCount; i++) {
+            final int windowDeltaLength = readInt(data, "window length");
+            final int windowTargetLength = readInt(data, "target window length");
+            if (!data.hasRemaining()) {
+                throw new IOException("Window index is truncated");
+            }
+            final byte winIndicator = data.get();
+            final int sourceSegmentLength = readInt(data, "source segment length");
+            final int sourceSegmentPosition = readInt(data, "source segment position");
+
+            if (windowDeltaLength == 0) {
+                throw new IOException(String.format("Window %d of the window index is empty", i));
+            }
+            if (deltaOffset + windowDeltaLength > deltaLength) {
+                throw new IOException(String.format("Window %d of the window index ends past the delta file", i));
+            }
+            if ((winIndicator & (VCD_SOURCE | VCD_TARGET)) == (VCD_SOURCE | VCD_TARGET)) {
+                throw new IOException(String.format(
+                        "Window %d of the window index has both VCD_SOURCE and VCD_TARGET", i));
+            }
+            if ((winIndicator & VCD_TARGET) != 0
+                    && (long) sourceSegmentPosition + sourceSegmentLength > targetOffset) {
+                throw new IOException(String.format(
+                        "Window %d of the window index has a source segment past the target decoded before it", i));
+            }
+
+            windows.add(new Window((int) deltaOffset, windowDeltaLength, targetOffset, windowTargetLength,
+                    winIndicator, sourceSegmentLength, sourceSegmentPosition));
+
+            deltaOffset += windowDeltaLength;
+            targetOffset += windowTargetLength;
+        }
+
+        if (deltaOffset != deltaLength) {
+            throw new IOException("Window index doesn't cover the whole delta file");
+        }
+        if (data.hasRemaining()) {
+            throw new IOException("Window index has trailing data");
+        }
+
+        return new VCDiffWindowIndex(fileHeader, windows, targetOffset, deltaLength, deltaChecksum);
+    }
+
+    /**
+     * Saves this index so that it can be stored alongside its delta file.
+     *
+     * @param out stream to write the serialized index to
+     * @throws IOException if there was an exception writing to out
+     */
+    public void write(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+        out.write(fileHeader);
+        VarInt.writeInt(out, deltaLength);
+        out.write(deltaChecksum >>> 24);
+        out.write(deltaChecksum >>> 16);
+        out.write(deltaChecksum >>> 8);
+        out.write(deltaChecksum);
+        VarInt.writeInt(out, windows.size());
+        for (Window window : windows) {
+            VarInt.writeInt(out, window.deltaLength);
+            VarInt.writeInt(out, window.targetLength);
+            out.write(window.winIndicator);
+            VarInt.writeInt(out, window.sourceSegmentLength);
+            VarInt.writeInt(out, window.sourceSegmentPosition);
+        }
+    }
+
+    /**
+     * @return a copy of the delta file header.  Prepending it to the bytes of any single
+     * window yields a delta file that can be decoded on its own, as long as that window
+     * doesn't take its source segment from the target.
+     */
+    public ByteBuffer fileHeader() {
+        return ByteBuffer.wrap(fileHeader).asReadOnlyBuffer();
+    }
+
+    public List<Window> windows() {
+        return windows;
+    }
+
+    /**
+     * @return total size of the decoded target
+     */
+    public long targetLength() {
+        return targetLength;
+    }
+
+    /**
+     * Checks that this index was built from delta, by comparing its length and CRC-32.
+     *
+     * @param delta entire delta file, from its position to its limit
+     * @return true if delta is the delta file this index was built from
+     */
+    public boolean describes(ByteBuffer delta) {
+        return delta.remaining() == deltaLength && checksum(delta) == deltaChecksum;
+    }
+
+    /**
+     * @return true if any window takes its source segment from previously decoded target
+     * data, in which case the windows can't all be decoded independently
+     */
+    public boolean usesTargetSource() {
+        for (Window window : windows) {
+            if (window.usesTargetSource()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the window that decodes to the target byte at targetOffset.
+     *
+     * @param targetOffset offset into the decoded target
+     * @return index into {@link #windows()}, or -1 if targetOffset is outside of the target
+     */
+    public int findWindow(long targetOffset) {
+        if (targetOffset < 0 || targetOffset >= targetLength) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = windows.size() - 1;
+        while (low < high) {
+            // Find the last window that starts at or before targetOffset.
+            // Empty windows share a start offset with the next non-empty
+            // window, which always sorts after them.
+            int mid = (low + high + 1) >>> 1;
+            if (windows.get(mid).targetOffset <= targetOffset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static int checksum(ByteBuffer delta) {
+        CRC32 crc = new CRC32();
+        crc.update(delta.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static void checkFileHeader(byte[] fileHeader) throws IOException {
+        DeltaFileHeader header = new DeltaFileHeader(ByteBuffer.wrap(fileHeader));
+        if (header.header1 != (byte) 0xD6 || header.header2 != (byte) 0xC3 || header.header3 != (byte) 0xC4) {
+            throw new IOException("Did not find VCDIFF header bytes; input is not a VCDIFF delta file");
+        }
+        if (header.header4 != 0x00 && header.header4 != 'S') {
+            throw new IOException("Unrecognized VCDIFF format version");
+        }
+        if ((header.hdr_indicator & VCD_DECOMPRESS) != 0) {
+            throw new IOException("Secondary compression is not supported");
+        }
+        if ((header.hdr_indicator & VCD_CODETABLE) != 0) {
+            throw new IOException("Delta files with a custom code table can't be indexed");
+        }
+    }
+
+    private static int readInt(ByteBuffer data, String description) throws IOException {
+        try {
+            return VarInt.getInt(data);
+        } catch (VarInt.VarIntParseException e) {
+            throw new IOException("Expected " + description + "; found invalid variable-length integer", e);
+        } catch (VarInt.VarIntEndOfBufferException e) {
+            throw new IOException("Window index is truncated", e);
+        }
+    }
+
+    /**
+     * The location of a single delta window.
+     */
+    public static final class Window {
+        /** Offset of the window, including its header, relative to the start of the delta file. */
+        public final int deltaOffset;
+        /** Length of the window, including its header. */
+        public final int deltaLength;
+        /** Offset of the decoded window in the target. */
+        public final long targetOffset;
+        /** Length of the decoded window. */
+        public final int targetLength;
+
+        public final byte winIndicator;
+        public final int sourceSegmentLength;
+        public final int sourceSegmentPosition;
+
+        Window(int deltaOffset, int deltaLength, long targetOffset, int targetLength,
+               byte winIndicator, int sourceSegmentLength, int sourceSegmentPosition) {
+            this.deltaOffset = deltaOffset;
+            this.deltaLength = deltaLength;
+            this.targetOffset = targetOffset;
+            this.targetLength = targetLength;
+            this.winIndicator = winIndicator;
+            this.sourceSegmentLength = sourceSegmentLength;
+            this.sourceSegmentPosition = sourceSegmentPosition;
+        }
+
+        /**
+         * @return true if this window takes its source segment from previously decoded target data
+         */
+        public boolean usesTargetSource() {
+            return (winIndicator & VCD_TARGET) != 0;
+        }
+
+        /**
+         * @param delta delta file that the index was built from
+         * @return the bytes of this window within delta
+         */
+        public ByteBuffer slice(ByteBuffer delta) {
+            ByteBuffer window = delta.slice();
+            window.position(deltaOffset);
+            window.limit(deltaOffset + deltaLength);
+            return window.slice();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+/**
+ * What decoding one target window took, passed to
+ * {@link VCDiffDecoderListener#windowDecoded(VCDiffWindowStatistics)}.
+ *
+ * Times are wall-clock nanoseconds spent in the decoder.  For an interleaved window
+ * that arrives over several calls to decodeChunk(), that's the sum over those calls, not
+ * counting the time in between.
+ */
+public final class VCDiffWindowStatistics {
+
+    int targetLength;
+    int sourceSegmentLength;
+
+    int addCount;
+    long addBytes;
+    int runCount;
+    long runBytes;
+    int copyCount;
+    long sourceCopyBytes;
+    long targetCopyBytes;
+
+    long decodingNanos;
+    long parsingNanos;
+    long checksumNanos;
+
+    VCDiffWindowStatistics() {
+    }
+
+    void reset(int targetLength, int sourceSegmentLength) {
+        this.targetLength = targetLength;
+        this.sourceSegmentLength = sourceSegmentLength;
+        addCount = runCount = copyCount = 0;
+        addBytes = runBytes = sourceCopyBytes = targetCopyBytes = 0;
+        decodingNanos = parsingNanos = checksumNanos = 0;
+    }
+
+    void recordAdd(int size) {
+        addCount++;
+        addBytes += size;
+    }
+
+    void recordRun(int size) {
+        runCount++;
+        runBytes += size;
+    }
+
+    void recordCopy(int sourceSize, int targetSize) {
+        copyCount++;
+        sourceCopyBytes += sourceSize;
+        targetCopyBytes += targetSize;
+    }
+
+    /**
+     * @return length of the decoded window, in bytes
+     */
+    public int getTargetLength() {
+        return targetLength;
+    }
+
+    /**
+     * @return length of the window's source segment in the dictionary or earlier target data
+     */
+    public int getSourceSegmentLength() {
+        return sourceSegmentLength;
+    }
+
+    public int getAddCount() {
+        return addCount;
+    }
+
+    /**
+     * @return number of target bytes that came from ADD data in the delta file
+     */
+    public long getAddBytes() {
+        return addBytes;
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    public long getRunBytes() {
+        return runBytes;
+    }
+
+    public int getCopyCount() {
+        return copyCount;
+    }
+
+    /**
+     * @return number of target bytes copied from the source segment
+     */
+    public long getSourceCopyBytes() {
+        return sourceCopyBytes;
+    }
+
+    /**
+     * @return number of target bytes copied from earlier in the same window
+     */
+    public long getTargetCopyBytes() {
+        return targetCopyBytes;
+    }
+
+    /**
+     * @return time spent decoding the window, including parsing and verifying its checksum
+     */
+    public long getDecodingNanos() {
+        return decodingNanos;
+    }
+
+    /**
+     * @return time spent parsing instructions before executing them, with two-phase
+     * decoding; otherwise they're parsed as they're executed, and this is 0
+     */
+    public long getParsingNanos() {
+        return parsingNanos;
+    }
+
+    /**
+     * @return time spent verifying the window's checksum, or 0 if it doesn't have one
+     */
+    public long getChecksumNanos() {
+        return checksumNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("target: %d bytes, ADD: %d (%d bytes), RUN: %d (%d bytes), "
+                        + "COPY: %d (%d bytes from source, %d from target), decoding: %d ns, checksum: %d ns",
+                targetLength, addCount, addBytes, runCount, runBytes,
+                copyCount, sourceCopyBytes, targetCopyBytes, decodingNanos, checksumNanos);
+    }
+}
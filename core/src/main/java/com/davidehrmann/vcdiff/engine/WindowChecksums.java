@@ -0,0 +1,53 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffFormatExtension;
+import com.davidehrmann.vcdiff.util.ZeroInitializedAdler32;
+
+import java.util.EnumSet;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Creates the checksums that windows are checksummed with.  Encoders and decoders keep
+ * the ones they create and reset them for each window.
+ */
+final class WindowChecksums {
+
+    private WindowChecksums() {
+    }
+
+    /**
+     * @return the checksum windows are encoded with, or null if they aren't checksummed
+     */
+    static Checksum forEncoding(EnumSet<VCDiffFormatExtension> formatExtensions) {
+        if (!formatExtensions.contains(VCDiffFormatExtension.GOOGLE_CHECKSUM)) {
+            return null;
+        }
+        return formatExtensions.contains(VCDiffFormatExtension.CRC32C_CHECKSUM)
+                ? new CRC32C() : new ZeroInitializedAdler32();
+    }
+
+    /**
+     * @return checksum of data[offset, offset + length), as written in a window header
+     */
+    static int checksum(Checksum checksum, byte[] data, int offset, int length) {
+        checksum.reset();
+        checksum.update(data, offset, length);
+        return (int) checksum.getValue();
+    }
+}
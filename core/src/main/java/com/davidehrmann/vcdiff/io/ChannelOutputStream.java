@@ -0,0 +1,49 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.io;
+
+import com.davidehrmann.vcdiff.util.BlockingChannels;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * An unbuffered OutputStream that writes arrays to a blocking channel without copying
+ * them.  Unlike Channels.newOutputStream(), it doesn't close the channel.
+ */
+class ChannelOutputStream extends OutputStream {
+
+    private final WritableByteChannel channel;
+    private final byte[] single = new byte[1];
+
+    ChannelOutputStream(WritableByteChannel channel) {
+        this.channel = Objects.requireNonNull(channel, "channel was null");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        BlockingChannels.writeFully(channel, ByteBuffer.wrap(b, off, len));
+    }
+}
@@ -0,0 +1,111 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.io;
+
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * Decodes delta files read from channels or held in buffers, including direct buffers,
+ * into channels.  Dictionaries may also be direct buffers, such as mapped files.
+ *
+ * Decoded data is written to the channel straight from the decoder's target buffer,
+ * without an intermediate copy.  Channels must be in blocking mode.  Instances aren't
+ * thread-safe.
+ */
+public class VCDiffChannelDecoder {
+
+    public static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+
+    private final VCDiffStreamingDecoder decoder;
+    private final int readBufferSize;
+    private final boolean directReadBuffer;
+    private ByteBuffer readBuffer;
+
+    public VCDiffChannelDecoder(VCDiffStreamingDecoder decoder) {
+        this(decoder, DEFAULT_READ_BUFFER_SIZE, false);
+    }
+
+    /**
+     * @param decoder decoder to decode with
+     * @param readBufferSize size of the buffer delta files are read from channels into
+     * @param directReadBuffer whether the read buffer should be a direct buffer
+     */
+    public VCDiffChannelDecoder(VCDiffStreamingDecoder decoder, int readBufferSize, boolean directReadBuffer) {
+        if (readBufferSize <= 0) {
+            throw new IllegalArgumentException("readBufferSize must be positive");
+        }
+        this.decoder = Objects.requireNonNull(decoder, "decoder was null");
+        this.readBufferSize = readBufferSize;
+        this.directReadBuffer = directReadBuffer;
+    }
+
+    /**
+     * Decodes a delta file read from in.
+     *
+     * @param dictionary dictionary the delta file was encoded against, from its position to its limit
+     * @param in channel to read the delta file from, until end of stream
+     * @param out channel to write the decoded target to
+     * @return number of delta file bytes read
+     * @throws IOException if the delta file is invalid, in can't be read from or out can't be written to
+     */
+    public long decode(ByteBuffer dictionary, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        Objects.requireNonNull(in, "in was null");
+        final OutputStream stream = new ChannelOutputStream(out);
+        if (readBuffer == null) {
+            readBuffer = directReadBuffer ? ByteBuffer.allocateDirect(readBufferSize) : ByteBuffer.allocate(readBufferSize);
+        }
+
+        long total = 0;
+        decoder.startDecoding(dictionary);
+        try {
+            int read;
+            while ((read = in.read(readBuffer)) >= 0) {
+                if (read > 0) {
+                    readBuffer.flip();
+                    decoder.decodeChunk(readBuffer, stream);
+                    readBuffer.clear();
+                    total += read;
+                }
+            }
+        } finally {
+            readBuffer.clear();
+        }
+        decoder.finishDecoding();
+        return total;
+    }
+
+    /**
+     * Decodes a delta file.
+     *
+     * @param dictionary dictionary the delta file was encoded against, from its position to its limit
+     * @param delta delta file, from its position to its limit; the position isn't changed
+     * @param out channel to write the decoded target to
+     * @throws IOException if the delta file is invalid, or out can't be written to
+     */
+    public void decode(ByteBuffer dictionary, ByteBuffer delta, WritableByteChannel out) throws IOException {
+        final OutputStream stream = new ChannelOutputStream(out);
+        decoder.startDecoding(dictionary);
+        decoder.decodeChunk(delta.duplicate(), stream);
+        decoder.finishDecoding();
+    }
+}
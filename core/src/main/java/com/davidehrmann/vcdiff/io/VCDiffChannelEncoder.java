@@ -0,0 +1,127 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.io;
+
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * Encodes targets read from channels or held in buffers, including direct buffers, into
+ * delta files written to channels.
+ *
+ * The encoder needs random access to the whole of each target window, so a target read
+ * from a channel or held in a direct buffer is encoded windowSize bytes at a time, each
+ * read or copied into a reused heap buffer and encoded as one delta window.  A target in
+ * a heap buffer is encoded in place, as a single window.
+ *
+ * Each window's header and sections are handed to the output channel as they are, with
+ * a gathering write if it's a GatheringByteChannel, so section data isn't copied into an
+ * output buffer.  Channels must be in blocking mode.  Instances aren't thread-safe.
+ */
+public class VCDiffChannelEncoder {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 20;
+
+    private final VCDiffStreamingEncoder<WritableByteChannel> encoder;
+    private final int windowSize;
+    private byte[] window;
+
+    public VCDiffChannelEncoder(VCDiffStreamingEncoder<WritableByteChannel> encoder) {
+        this(encoder, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param encoder encoder to encode with
+     * @param windowSize number of target bytes encoded into each window when reading from
+     *                   a channel or a direct buffer
+     */
+    public VCDiffChannelEncoder(VCDiffStreamingEncoder<WritableByteChannel> encoder, int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        this.encoder = Objects.requireNonNull(encoder, "encoder was null");
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Encodes everything that can be read from in into a delta file.
+     *
+     * @param in channel to read the target from, until end of stream
+     * @param out channel to write the delta file to
+     * @return number of target bytes encoded
+     * @throws IOException if in can't be read from or out can't be written to
+     */
+    public long encode(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        Objects.requireNonNull(in, "in was null");
+        Objects.requireNonNull(out, "out was null");
+        final ByteBuffer window = ByteBuffer.wrap(window());
+
+        long total = 0;
+        encoder.startEncoding(out);
+        boolean eof = false;
+        while (!eof) {
+            window.clear();
+            while (window.hasRemaining()) {
+                if (in.read(window) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            if (window.position() > 0) {
+                encoder.encodeChunk(window.array(), 0, window.position(), out);
+                total += window.position();
+            }
+        }
+        encoder.finishEncoding(out);
+        return total;
+    }
+
+    /**
+     * Encodes target into a delta file.
+     *
+     * @param target target, from its position to its limit; the position isn't changed
+     * @param out channel to write the delta file to
+     * @throws IOException if out can't be written to
+     */
+    public void encode(ByteBuffer target, WritableByteChannel out) throws IOException {
+        Objects.requireNonNull(out, "out was null");
+        encoder.startEncoding(out);
+        if (target.hasArray()) {
+            encoder.encodeChunk(target.array(), target.arrayOffset() + target.position(), target.remaining(), out);
+        } else {
+            final ByteBuffer source = target.duplicate();
+            final byte[] window = window();
+            while (source.hasRemaining()) {
+                final int length = Math.min(window.length, source.remaining());
+                source.get(window, 0, length);
+                encoder.encodeChunk(window, 0, length, out);
+            }
+        }
+        encoder.finishEncoding(out);
+    }
+
+    private byte[] window() {
+        if (window == null) {
+            window = new byte[windowSize];
+        }
+        return window;
+    }
+}
@@ -151,6 +151,33 @@ public class VCDiffInputStream extends InputStream {
             throw new IOException("InputStream is closed");
         }
         while (!decodedBuffer.hasRemaining()) {
+            ByteBuffer next = nextDecodedBuffer();
+            if (next == null) {
+                break;
+            }
+            decodedBuffer = next;
+        }
+    }
+
+    /**
+     * Supplies the next chunk of decoded data once everything previously supplied
+     * has been read.  By default, this reads and decodes on the calling thread.
+     *
+     * @return decoded data, or null at the end of the delta file
+     * @throws IOException if there was an exception reading or decoding
+     */
+    protected ByteBuffer nextDecodedBuffer() throws IOException {
+        return decodeNextBuffer();
+    }
+
+    /**
+     * Reads from the underlying stream until at least one byte has been decoded.
+     *
+     * @return decoded data, or null at the end of the delta file
+     * @throws IOException if there was an exception reading or decoding
+     */
+    protected final ByteBuffer decodeNextBuffer() throws IOException {
+        while (true) {
             int read = in.read(inBuffer);
             if (read >= 0) {
                 totalBytesRead += read;
@@ -170,12 +197,13 @@ public class VCDiffInputStream extends InputStream {
                 }
 
                 if (tempDecoded.size() > 0) {
-                    decodedBuffer = ByteBuffer.wrap(tempDecoded.toByteArray());
+                    ByteBuffer decoded = ByteBuffer.wrap(tempDecoded.toByteArray());
                     tempDecoded.reset();
+                    return decoded;
                 }
             } else {
                 decoder.finishDecoding();
-                break;
+                return null;
             }
         }
     }
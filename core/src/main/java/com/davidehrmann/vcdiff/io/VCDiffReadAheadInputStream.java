@@ -0,0 +1,191 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.io;
+
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link VCDiffInputStream} that reads and decodes the delta file on another thread,
+ * so that reading the delta file, decoding it, and consuming the decoded data overlap.
+ *
+ * Decoded data is handed over through a bounded queue; when the queue is full, the
+ * decoding thread blocks until the reader catches up.  Exceptions thrown while reading
+ * or decoding are rethrown to the reader once it has consumed everything decoded before
+ * the failure, as the same exception type.  Closing the stream stops the decoding thread
+ * and closes the underlying stream, which also fails a read the decoding thread is
+ * blocked in; failures after the stream is closed are ignored.
+ *
+ * Decoding starts with the first call to read, skip, or available.
+ */
+public class VCDiffReadAheadInputStream extends VCDiffInputStream {
+
+    public static final int DEFAULT_MAX_BUFFERED_CHUNKS = 4;
+
+    // Marks the end of the decoded data, whether or not decoding succeeded
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+
+    private final Executor executor;
+    private final BlockingQueue<ByteBuffer> decodedChunks;
+
+    private boolean started = false;
+    private boolean endOfData = false;
+    private volatile boolean stopped = false;
+    private volatile Throwable failure = null;
+    private final Object threadLock = new Object();
+    private Thread decodingThread = null;
+
+    /**
+     * @param in delta file
+     * @param dictionary dictionary the delta file was encoded against
+     * @param decoder decoder to decode the delta file with
+     * @param executor executor that runs the decoding loop.  The loop occupies a thread
+     *                 until the delta file has been decoded or the stream is closed.
+     * @param maxBufferedChunks maximum number of decoded chunks waiting to be read
+     */
+    public VCDiffReadAheadInputStream(InputStream in, ByteBuffer dictionary, VCDiffStreamingDecoder decoder,
+                                      Executor executor, int maxBufferedChunks) {
+        super(in, dictionary, decoder);
+        if (maxBufferedChunks <= 0) {
+            throw new IllegalArgumentException("maxBufferedChunks must be positive");
+        }
+        this.executor = Objects.requireNonNull(executor, "executor was null");
+        this.decodedChunks = new ArrayBlockingQueue<ByteBuffer>(maxBufferedChunks);
+    }
+
+    @Override
+    public int available() throws IOException {
+        int available = super.available();
+        if (available == 0 && started) {
+            ByteBuffer next = decodedChunks.peek();
+            if (next != null) {
+                available = next.remaining();
+            }
+        }
+        return available;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopped = true;
+        synchronized (threadLock) {
+            if (decodingThread != null) {
+                decodingThread.interrupt();
+            }
+        }
+        // Unblock the decoding thread if it's waiting on a full queue
+        decodedChunks.clear();
+
+        // Reads from sockets and pipes ignore interrupts, so closing the stream is what
+        // unblocks a decoding thread that's waiting on one
+        super.close();
+    }
+
+    @Override
+    protected ByteBuffer nextDecodedBuffer() throws IOException {
+        if (endOfData) {
+            return finish();
+        }
+        if (!started) {
+            started = true;
+            executor.execute(new DecodingLoop());
+        }
+
+        ByteBuffer next;
+        try {
+            next = decodedChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException rethrown = new InterruptedIOException("Interrupted while waiting for decoded data");
+            rethrown.initCause(e);
+            throw rethrown;
+        }
+
+        if (next == END_OF_DATA) {
+            endOfData = true;
+            Throwable cause = failure;
+            if (cause != null) {
+                // The failure's own stack trace is from the decoding thread
+                cause.addSuppressed(new Exception("Rethrown to the reading thread"));
+            }
+            return finish();
+        }
+        return next;
+    }
+
+    private ByteBuffer finish() throws IOException {
+        Throwable cause = failure;
+        if (cause == null) {
+            return null;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IOException("Failed to decode delta file", cause);
+    }
+
+    private final class DecodingLoop implements Runnable {
+        @Override
+        public void run() {
+            synchronized (threadLock) {
+                if (stopped) {
+                    return;
+                }
+                decodingThread = Thread.currentThread();
+            }
+            try {
+                try {
+                    while (!stopped) {
+                        ByteBuffer decoded = decodeNextBuffer();
+                        if (decoded == null) {
+                            break;
+                        }
+                        decodedChunks.put(decoded);
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Throwable t) {
+                    // Once the stream is closed, failures are from closing it under the loop
+                    if (!stopped) {
+                        failure = t;
+                    }
+                }
+                if (!stopped) {
+                    decodedChunks.put(END_OF_DATA);
+                }
+            } catch (InterruptedException e) {
+                // Only close() interrupts this thread, and nothing is left to read the result
+            } finally {
+                synchronized (threadLock) {
+                    decodingThread = null;
+                    // Don't leak an interrupt from close() to the executor's next task
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.io;
+
+import com.davidehrmann.vcdiff.engine.VCDiffSeekableDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * An InputStream over the decoded target of a delta file that is entirely available
+ * up front.  Unlike {@link VCDiffInputStream}, skipping and seeking don't decode the
+ * bytes being skipped; only the windows that are actually read from are decoded.
+ */
+public class VCDiffSeekableInputStream extends InputStream {
+
+    private final VCDiffSeekableDecoder decoder;
+
+    private long position = 0;
+    private long mark = 0;
+
+    // The most recently decoded window, positioned at this.position
+    private int decodedWindowIndex = -1;
+    private ByteBuffer decodedWindow = ByteBuffer.allocate(0);
+
+    private boolean closed = false;
+
+    public VCDiffSeekableInputStream(VCDiffSeekableDecoder decoder) {
+        this.decoder = Objects.requireNonNull(decoder, "decoder was null");
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillDecodedWindow()) {
+            return -1;
+        }
+        position++;
+        return decodedWindow.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillDecodedWindow()) {
+            return -1;
+        }
+        int lenToCopy = Math.min(len, decodedWindow.remaining());
+        decodedWindow.get(b, off, lenToCopy);
+        position += lenToCopy;
+        return lenToCopy;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, decoder.targetLength() - position);
+        seek(position + skipped);
+        return skipped;
+    }
+
+    /**
+     * Moves to an arbitrary offset in the decoded target.  Nothing is decoded
+     * until the next read.
+     *
+     * @param newPosition offset into the decoded target
+     * @throws IOException if the stream is closed
+     */
+    public void seek(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0 || newPosition > decoder.targetLength()) {
+            throw new IllegalArgumentException(String.format(
+                    "Position %d is outside of the target (%d bytes)", newPosition, decoder.targetLength()
+            ));
+        }
+
+        position = newPosition;
+        if (decodedWindowIndex >= 0) {
+            long windowStart = decoder.index().windows().get(decodedWindowIndex).targetOffset;
+            long offsetInWindow = position - windowStart;
+            if (offsetInWindow >= 0 && offsetInWindow < decodedWindow.limit()) {
+                decodedWindow.position((int) offsetInWindow);
+                return;
+            }
+        }
+        decodedWindow.position(decodedWindow.limit());
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long length() {
+        return decoder.targetLength();
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return decodedWindow.remaining();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        seek(mark);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("InputStream is closed");
+        }
+    }
+
+    // Decodes the window containing position if it isn't already decoded.
+    // Returns false at the end of the target.
+    private boolean fillDecodedWindow() throws IOException {
+        ensureOpen();
+        if (decodedWindow.hasRemaining()) {
+            return true;
+        }
+
+        int windowIndex = decoder.index().findWindow(position);
+        if (windowIndex < 0) {
+            return false;
+        }
+
+        decodedWindow = decoder.decodeWindow(windowIndex);
+        decodedWindowIndex = windowIndex;
+        decodedWindow.position((int) (position - decoder.index().windows().get(windowIndex).targetOffset));
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes to channels that must be in blocking mode, where a write that makes no progress
+ * can only mean the channel is non-blocking.
+ */
+public final class BlockingChannels {
+
+    private BlockingChannels() { }
+
+    /**
+     * Writes all of buffer to channel.
+     *
+     * @param channel channel in blocking mode
+     * @param buffer data to write, from its position to its limit
+     * @throws IOException if there was an exception writing, or channel didn't accept any bytes
+     */
+    public static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                throw nonBlocking();
+            }
+        }
+    }
+
+    /**
+     * Writes all of buffers to channel, in order.  If channel is a GatheringByteChannel,
+     * they're written with gathering writes.
+     *
+     * @param channel channel in blocking mode
+     * @param buffers data to write, each from its position to its limit
+     * @throws IOException if there was an exception writing, or channel didn't accept any bytes
+     */
+    public static void writeFully(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        if (channel instanceof GatheringByteChannel) {
+            final GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            while (hasRemaining(buffers)) {
+                if (gathering.write(buffers) == 0) {
+                    throw nonBlocking();
+                }
+            }
+        } else {
+            for (ByteBuffer buffer : buffers) {
+                writeFully(channel, buffer);
+            }
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static IOException nonBlocking() {
+        // Only a non-blocking channel can make no progress
+        return new IOException("channel didn't accept any bytes; it must be in blocking mode");
+    }
+}
@@ -3,7 +3,9 @@ package com.davidehrmann.vcdiff.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Objects;
@@ -14,28 +16,81 @@ public final class VarInt {
 
     private VarInt() { }
 
+    /**
+     * Returned by {@link #tryGetInt(ByteBuffer)} when the buffer ends in the middle of a varint.
+     */
+    public static final int END_OF_BUFFER = -1;
+
+    /**
+     * Returned by {@link #tryGetInt(ByteBuffer)} when the varint is too long or too large
+     * for a non-negative int.
+     */
+    public static final int INVALID = -2;
+
     public static int getInt(ByteBuffer buffer) throws VarIntParseException, VarIntEndOfBufferException {
-        final int startPosition = buffer.position();
-        int result = 0;
+        final int result = tryGetInt(buffer);
+        if (result >= 0) {
+            return result;
+        } else if (result == END_OF_BUFFER) {
+            throw new VarIntEndOfBufferException();
+        } else {
+            throw new VarIntParseException("Data too long or value too large for an int");
+        }
+    }
 
-        while (true) {
-            if (!buffer.hasRemaining()) {
-                throw new VarIntEndOfBufferException();
+    /**
+     * Reads a varint like {@link #getInt(ByteBuffer)}, but returns {@link #END_OF_BUFFER}
+     * or {@link #INVALID} instead of throwing, so running out of data, which is normal
+     * for a streaming decoder, is cheap.  The buffer's position only moves on success.
+     * One and two byte varints, which most sizes and addresses are, are read without
+     * looping.
+     *
+     * @param buffer buffer to read from
+     * @return the value, or a negative value if it couldn't be read
+     */
+    public static int tryGetInt(ByteBuffer buffer) {
+        final int position = buffer.position();
+        final int remaining = buffer.limit() - position;
+        if (remaining == 0) {
+            return END_OF_BUFFER;
+        }
+        final byte b0 = buffer.get(position);
+        if (b0 >= 0) {
+            buffer.position(position + 1);
+            return b0;
+        }
+        if (remaining == 1) {
+            return END_OF_BUFFER;
+        }
+        final byte b1 = buffer.get(position + 1);
+        if (b1 >= 0) {
+            buffer.position(position + 2);
+            return ((b0 & 0x7f) << 7) | b1;
+        }
+        return tryGetLongerInt(buffer, position, remaining);
+    }
+
+    private static int tryGetLongerInt(ByteBuffer buffer, int position, int remaining) {
+        int result = 0;
+        for (int i = 0; ; i++) {
+            if (i == remaining) {
+                return END_OF_BUFFER;
             }
-            if (buffer.position() - startPosition >= 5) {
-                throw new VarIntParseException("Data too long for a 32-bit int");
+            if (i >= 5) {
+                return INVALID;  // Data too long for a 32-bit int
             }
 
-            byte b = buffer.get();
+            byte b = buffer.get(position + i);
             result += b & 0x7F;
 
             if ((b & 0x80) == 0) {
+                buffer.position(position + i + 1);
                 return result;
             }
             if (result > (Integer.MAX_VALUE >> 7)) {
                 // Shifting result by 7 bits would produce a number too large
                 // to be stored in a non-negative int (an overflow)
-                throw new VarIntParseException("Value too large to fit in an int");
+                return INVALID;
             }
 
             result <<= 7;
@@ -75,27 +130,55 @@ public final class VarInt {
             throw new IllegalArgumentException(String.format("Value (%d) was negative", val));
         }
 
-        for (int shift = 28; shift >= 0; shift -= 7) {
-            int v2 = val >> shift;
-            if (v2 != 0 || shift == 0) {
-                byte b = (byte)((v2 & 0x7f) | (shift == 0 ? 0 : 0x80));
-                dest.put(b);
+        if (val < 1 << 7) {
+            dest.put((byte) val);
+        } else if (val < 1 << 14) {
+            dest.put((byte) ((val >>> 7) | 0x80));
+            dest.put((byte) (val & 0x7f));
+        } else {
+            for (int shift = 7 * (calculateIntLength(val) - 1); shift > 0; shift -= 7) {
+                dest.put((byte) ((val >>> shift) | 0x80));
             }
+            dest.put((byte) (val & 0x7f));
         }
     }
 
+    /**
+     * Reads a varint from a stream, one byte at a time.
+     *
+     * @param in stream to read from
+     * @return the value
+     * @throws EOFException if the stream ends in the middle of the varint
+     * @throws IOException if the varint is too long or too large for an int, or there's an
+     * exception reading from the stream
+     */
+    public static int readInt(InputStream in) throws IOException {
+        int result = 0;
+        for (int i = 0; i < 5; i++) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Stream ended in the middle of a varint");
+            }
+            if (result > (Integer.MAX_VALUE >> 7)) {
+                break;
+            }
+            result = (result << 7) | (b & 0x7f);
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Data too long or value too large for an int");
+    }
+
     public static void writeInt(OutputStream out, int val) throws IOException {
         if (val < 0) {
             throw new IllegalArgumentException(String.format("Value (%d) was negative", val));
         }
 
-        for (int shift = 28; shift >= 0; shift -= 7) {
-            int v2 = val >> shift;
-            if (v2 != 0 || shift == 0) {
-                byte b = (byte)((v2 & 0x7f) | (shift == 0 ? 0 : 0x80));
-                out.write(b);
-            }
+        for (int shift = 7 * (calculateIntLength(val) - 1); shift > 0; shift -= 7) {
+            out.write((val >>> shift) | 0x80);
         }
+        out.write(val & 0x7f);
     }
 
     public static void putLong(ByteBuffer dest, long val) {
@@ -126,30 +209,16 @@ public final class VarInt {
         }
     }
 
+    /**
+     * @return number of bytes val takes as a varint, computed from its bit length rather
+     * than by encoding it
+     */
     public static int calculateIntLength(int val) {
-        int size = 0;
-
-        for (int shift = 28; shift >= 0; shift -= 7) {
-            int v2 = val >> shift;
-            if (v2 != 0 || shift == 0) {
-                size++;
-            }
-        }
-
-        return size;
+        return (32 - Integer.numberOfLeadingZeros(val | 1) + 6) / 7;
     }
 
     public static int calculateLongLength(long val) {
-        int size = 0;
-
-        for (int shift = 63; shift >= 0; shift -= 7) {
-            long v2 = val >> shift;
-            if (v2 != 0 || shift == 0) {
-                size++;
-            }
-        }
-
-        return size;
+        return (64 - Long.numberOfLeadingZeros(val | 1) + 6) / 7;
     }
 
     public static class VarIntParseException extends Exception {
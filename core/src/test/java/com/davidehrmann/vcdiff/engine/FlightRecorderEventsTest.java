@@ -0,0 +1,157 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecorderEventsTest {
+
+    private static final String kDictionaryHash = "com.davidehrmann.vcdiff.DictionaryHash";
+    private static final String kEncodeWindow = "com.davidehrmann.vcdiff.EncodeWindow";
+    private static final String kDecodeWindow = "com.davidehrmann.vcdiff.DecodeWindow";
+
+    private static final int kWindowSize = 8000;
+    private static final int kWindows = 3;
+
+    private final byte[] dictionary_ = new byte[16 * 1024];
+    private final byte[] target_ = new byte[kWindows * kWindowSize];
+
+    private Recording recording_;
+    private Path file_;
+
+    public FlightRecorderEventsTest() {
+        Random random = new Random(44);
+        random.nextBytes(dictionary_);
+        random.nextBytes(target_);
+        for (int i = 0; i < target_.length; i += kWindowSize) {
+            System.arraycopy(dictionary_, random.nextInt(dictionary_.length - 4000), target_, i, 4000);
+        }
+    }
+
+    @Before
+    public void startRecording() throws Exception {
+        file_ = Files.createTempFile("vcdiff", ".jfr");
+        recording_ = new Recording();
+        recording_.enable(kDictionaryHash).withoutThreshold();
+        recording_.enable(kEncodeWindow).withoutThreshold();
+        recording_.enable(kDecodeWindow).withoutThreshold();
+        recording_.start();
+    }
+
+    @After
+    public void closeRecording() throws Exception {
+        recording_.close();
+        Files.deleteIfExists(file_);
+    }
+
+    private List<RecordedEvent> stopRecording(String name) throws Exception {
+        recording_.stop();
+        recording_.dump(file_);
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file_)) {
+            if (event.getEventType().getName().equals(name)) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private byte[] encode(boolean interleaved) throws Exception {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withChecksum(true)
+                .withInterleaving(interleaved)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target_.length; i += kWindowSize) {
+            encoder.encodeChunk(target_, i, kWindowSize, delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    @Test
+    public void DictionaryHashEvent() throws Exception {
+        new VCDiffEngine(dictionary_);
+
+        List<RecordedEvent> events = stopRecording(kDictionaryHash);
+        assertEquals(1, events.size());
+        assertEquals(dictionary_.length, events.get(0).getInt("dictionarySize"));
+        assertEquals(1, events.get(0).getInt("dictionaries"));
+    }
+
+    @Test
+    public void EncodeWindowEvents() throws Exception {
+        encode(false);
+
+        List<RecordedEvent> events = stopRecording(kEncodeWindow);
+        assertEquals(kWindows, events.size());
+        for (RecordedEvent event : events) {
+            assertEquals(kWindowSize, event.getInt("targetLength"));
+            assertEquals(dictionary_.length, event.getInt("dictionarySize"));
+            assertTrue(event.getBoolean("targetMatches"));
+            assertTrue(event.getInt("copies") > 0);
+            assertTrue(event.getInt("copiedBytes") >= 4000);
+            assertTrue(event.getInt("copiedBytes") <= kWindowSize);
+        }
+    }
+
+    @Test
+    public void DecodeWindowEvents() throws Exception {
+        byte[] delta = encode(true);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().buildSimple().decode(dictionary_, delta, decoded);
+        assertArrayEquals(target_, decoded.toByteArray());
+
+        List<RecordedEvent> events = stopRecording(kDecodeWindow);
+        assertEquals(kWindows, events.size());
+        for (RecordedEvent event : events) {
+            assertEquals(kWindowSize, event.getInt("targetLength"));
+            assertEquals(dictionary_.length, event.getInt("sourceSegmentLength"));
+            assertTrue(event.getBoolean("interleaved"));
+            assertTrue(event.getBoolean("checksum"));
+        }
+    }
+
+    @Test
+    public void NoEventsWhenDisabled() throws Exception {
+        recording_.disable(kEncodeWindow);
+        encode(false);
+
+        assertTrue(stopRecording(kEncodeWindow).isEmpty());
+    }
+}
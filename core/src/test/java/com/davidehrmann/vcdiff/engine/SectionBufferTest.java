@@ -0,0 +1,95 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SectionBufferTest {
+
+    private static byte[] contents(SectionBuffer buffer) {
+        ByteBuffer view = buffer.view();
+        byte[] contents = new byte[view.remaining()];
+        view.get(contents);
+        return contents;
+    }
+
+    @Test
+    public void VarIntsMatchVarInt() {
+        int[] values = {0, 1, 0x7f, 0x80, 0x3fff, 0x4000, 0x1fffff, 0x200000, 0xfffffff, 0x10000000,
+                Integer.MAX_VALUE};
+        for (int value : values) {
+            SectionBuffer buffer = new SectionBuffer(1);
+            buffer.putVarInt(value);
+
+            ByteBuffer expected = ByteBuffer.allocate(5);
+            VarInt.putInt(expected, value);
+            assertArrayEquals(Arrays.copyOf(expected.array(), expected.position()), contents(buffer));
+            assertEquals(VarInt.calculateIntLength(value), buffer.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void NegativeVarInt() {
+        new SectionBuffer(16).putVarInt(-1);
+    }
+
+    @Test
+    public void Grows() {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        SectionBuffer buffer = new SectionBuffer(4);
+        byte[] expected = new byte[3 * data.length + 2];
+        int size = 0;
+        for (int i = 0; i < 3; i++) {
+            buffer.put(data, 0, data.length);
+            System.arraycopy(data, 0, expected, size, data.length);
+            size += data.length;
+        }
+        buffer.put((byte) 7);
+        expected[size++] = 7;
+        buffer.put((byte) 8);
+        expected[size++] = 8;
+        buffer.set(0, (byte) 9);
+        expected[0] = 9;
+
+        assertArrayEquals(expected, contents(buffer));
+        assertEquals(9, buffer.get(0));
+    }
+
+    @Test
+    public void Trim() {
+        SectionBuffer buffer = new SectionBuffer(16);
+        buffer.put(new byte[1000], 0, 1000);
+        int grown = buffer.capacity();
+
+        buffer.trim(grown);
+        assertEquals(0, buffer.size());
+        assertEquals(grown, buffer.capacity());
+
+        buffer.trim(grown - 1);
+        assertEquals(16, buffer.capacity());
+    }
+}
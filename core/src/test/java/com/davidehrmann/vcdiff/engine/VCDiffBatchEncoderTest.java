@@ -0,0 +1,205 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VCDiffBatchEncoderTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VCDiffBatchEncoderTest.class);
+
+    private static final int kTargetCount = 200;
+
+    private final Random random = new Random(29);
+    private final byte[] dictionary_ = new byte[64 * 1024];
+
+    public VCDiffBatchEncoderTest() {
+        random.nextBytes(dictionary_);
+    }
+
+    private byte[] target() {
+        byte[] target = dictionary_.clone();
+        for (int i = 0; i < 20; i++) {
+            target[random.nextInt(target.length)] = (byte) random.nextInt();
+        }
+        return target;
+    }
+
+    private VCDiffEncoderBuilder encoderBuilder() {
+        return VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withChecksum(true);
+    }
+
+    @Test
+    public void EncodeMany() throws Exception {
+        List<byte[]> targets = new ArrayList<byte[]>();
+        List<CompletableFuture<byte[]>> deltas = new ArrayList<CompletableFuture<byte[]>>();
+        long totalSize = 0;
+
+        VCDiffBatchEncoder encoder = encoderBuilder().buildBatch(4);
+        try {
+            for (int i = 0; i < kTargetCount; i++) {
+                byte[] target = target();
+                targets.add(target);
+                totalSize += target.length;
+                deltas.add(encoder.submit(target));
+            }
+            CompletableFuture.allOf(deltas.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        } finally {
+            encoder.close();
+        }
+
+        long deltaSize = 0;
+        for (int i = 0; i < kTargetCount; i++) {
+            byte[] delta = deltas.get(i).get();
+            deltaSize += delta.length;
+
+            // The same output as a single encoder
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            encoderBuilder().buildSimple().encode(targets.get(i), expected);
+            assertArrayEquals(expected.toByteArray(), delta);
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            VCDiffDecoderBuilder.builder().buildSimple().decode(dictionary_, delta, decoded);
+            assertArrayEquals(targets.get(i), decoded.toByteArray());
+        }
+
+        VCDiffBatchEncoder.Statistics statistics = encoder.statistics();
+        LOGGER.info("Batch encoder: {}", statistics);
+        assertEquals(kTargetCount, statistics.targets());
+        assertEquals(0, statistics.failures());
+        assertEquals(totalSize, statistics.bytesIn());
+        assertEquals(deltaSize, statistics.bytesOut());
+        assertTrue(statistics.throughput() > 0);
+        assertTrue(statistics.encodeNanos() > 0);
+    }
+
+    @Test
+    public void SubmitBlocksWhenFull() throws Exception {
+        final LinkedBlockingQueue<Runnable> queued = new LinkedBlockingQueue<Runnable>();
+        final VCDiffBatchEncoder encoder = encoderBuilder().buildBatch(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        }, 2);
+
+        encoder.submit(target());
+        encoder.submit(target());
+        final CompletableFuture<CompletableFuture<byte[]>> third = new CompletableFuture<CompletableFuture<byte[]>>();
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    third.complete(encoder.submit(target()));
+                } catch (Throwable t) {
+                    third.completeExceptionally(t);
+                }
+            }
+        });
+        submitter.start();
+
+        submitter.join(200);
+        assertFalse(third.isDone());
+
+        queued.take().run();
+        third.get(10, TimeUnit.SECONDS);
+        assertEquals(2, queued.size());
+        while (!queued.isEmpty()) {
+            queued.take().run();
+        }
+        encoder.close();
+        assertEquals(3, encoder.statistics().targets());
+    }
+
+    @Test
+    public void SubmitBlockedDuringClose() throws Exception {
+        final LinkedBlockingQueue<Runnable> queued = new LinkedBlockingQueue<Runnable>();
+        final VCDiffBatchEncoder encoder = encoderBuilder().buildBatch(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        }, 1);
+
+        encoder.submit(target());
+        final CompletableFuture<CompletableFuture<byte[]>> second = new CompletableFuture<CompletableFuture<byte[]>>();
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    second.complete(encoder.submit(target()));
+                } catch (Throwable t) {
+                    second.completeExceptionally(t);
+                }
+            }
+        });
+        submitter.start();
+        submitter.join(200);
+
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                encoder.close();
+            }
+        });
+        closer.start();
+        closer.join(200);
+        assertTrue(closer.isAlive());
+        assertFalse(second.isDone());
+
+        // Whichever of them gets the permit, the blocked submit fails as if it came after close()
+        queued.take().run();
+        closer.join(10000);
+        assertFalse(closer.isAlive());
+        try {
+            second.get(10, TimeUnit.SECONDS);
+            fail("Expected submit() to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(queued.isEmpty());
+        assertEquals(1, encoder.statistics().targets());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void SubmitAfterClose() throws Exception {
+        VCDiffBatchEncoder encoder = encoderBuilder().buildBatch(1);
+        encoder.close();
+        encoder.submit(target());
+    }
+}
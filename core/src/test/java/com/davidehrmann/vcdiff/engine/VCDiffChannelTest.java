@@ -0,0 +1,205 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.io.VCDiffChannelDecoder;
+import com.davidehrmann.vcdiff.io.VCDiffChannelEncoder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffChannelTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(37);
+    private final byte[] dictionary_ = new byte[64 * 1024];
+    private final byte[] target_;
+
+    public VCDiffChannelTest() {
+        random.nextBytes(dictionary_);
+        target_ = new byte[3 * dictionary_.length + 1234];
+        for (int i = 0; i < target_.length; i += dictionary_.length) {
+            System.arraycopy(dictionary_, 0, target_, i, Math.min(dictionary_.length, target_.length - i));
+        }
+        for (int i = 0; i < 100; i++) {
+            target_[random.nextInt(target_.length)] = (byte) random.nextInt();
+        }
+    }
+
+    private VCDiffEncoderBuilder encoderBuilder() {
+        return VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withChecksum(true);
+    }
+
+    private static ByteBuffer direct(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        return buffer;
+    }
+
+    private byte[] decode(byte[] delta) throws Exception {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().buildSimple().decode(dictionary_, delta, decoded);
+        return decoded.toByteArray();
+    }
+
+    @Test
+    public void FileChannels() throws Exception {
+        File targetFile = folder.newFile();
+        File deltaFile = folder.newFile();
+        File decodedFile = folder.newFile();
+        Files.write(targetFile.toPath(), target_);
+
+        VCDiffChannelEncoder encoder = encoderBuilder().buildChannel(10000);
+        try (FileChannel in = FileChannel.open(targetFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(deltaFile.toPath(), StandardOpenOption.WRITE)) {
+            assertEquals(target_.length, encoder.encode(in, out));
+        }
+        byte[] delta = Files.readAllBytes(deltaFile.toPath());
+        assertArrayEquals(target_, decode(delta));
+
+        VCDiffChannelDecoder decoder = VCDiffDecoderBuilder.builder().buildChannel(1000, true);
+        try (FileChannel in = FileChannel.open(deltaFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(decodedFile.toPath(), StandardOpenOption.WRITE)) {
+            assertEquals(delta.length, decoder.decode(direct(dictionary_), in, out));
+        }
+        assertArrayEquals(target_, Files.readAllBytes(decodedFile.toPath()));
+    }
+
+    @Test
+    public void HeapBufferMatchesSimpleEncoder() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        encoderBuilder().buildSimple().encode(target_, expected);
+
+        ByteBuffer target = ByteBuffer.wrap(target_);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoderBuilder().buildChannel().encode(target, Channels.newChannel(delta));
+        assertArrayEquals(expected.toByteArray(), delta.toByteArray());
+        assertEquals(0, target.position());
+    }
+
+    @Test
+    public void DirectBuffers() throws Exception {
+        ByteBuffer target = direct(target_);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        VCDiffEncoderBuilder.builder()
+                .withDictionaries(Collections.singletonList(direct(dictionary_)))
+                .buildChannel(20000)
+                .encode(target, Channels.newChannel(delta));
+        assertEquals(0, target.position());
+        assertArrayEquals(target_, decode(delta.toByteArray()));
+
+        ByteBuffer deltaBuffer = direct(delta.toByteArray());
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        VCDiffChannelDecoder decoder = VCDiffDecoderBuilder.builder().buildChannel();
+        decoder.decode(direct(dictionary_), deltaBuffer, Channels.newChannel(decoded));
+        assertEquals(0, deltaBuffer.position());
+        assertArrayEquals(target_, decoded.toByteArray());
+
+        // Decoders can be reused
+        decoded.reset();
+        decoder.decode(direct(dictionary_), Channels.newChannel(new ByteArrayInputStream(delta.toByteArray())),
+                Channels.newChannel(decoded));
+        assertArrayEquals(target_, decoded.toByteArray());
+    }
+
+    // Accepts at most kMaxWrite bytes per call, and counts gathering writes
+    private static class RecordingChannel implements GatheringByteChannel {
+        private static final int kMaxWrite = 1000;
+
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        int gatheringWrites = 0;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            gatheringWrites++;
+            long total = 0;
+            for (int i = offset; i < offset + length && total < kMaxWrite; i++) {
+                total += write(srcs[i], (int) (kMaxWrite - total));
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return write(src, kMaxWrite);
+        }
+
+        private int write(ByteBuffer src, int max) {
+            int length = Math.min(max, src.remaining());
+            for (int i = 0; i < length; i++) {
+                written.write(src.get());
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void GatheringWrites() throws Exception {
+        for (boolean interleaved : new boolean[] {false, true}) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            encoderBuilder().withInterleaving(interleaved).buildSimple().encode(target_, expected);
+
+            RecordingChannel channel = new RecordingChannel();
+            encoderBuilder().withInterleaving(interleaved).buildChannel().encode(ByteBuffer.wrap(target_), channel);
+            assertArrayEquals(expected.toByteArray(), channel.written.toByteArray());
+            assertTrue(channel.gatheringWrites > 0);
+        }
+    }
+
+    @Test
+    public void EmptyTarget() throws Exception {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        assertEquals(0, encoderBuilder().buildChannel().encode(
+                Channels.newChannel(new ByteArrayInputStream(new byte[0])), Channels.newChannel(delta)));
+        assertArrayEquals(new byte[0], decode(delta.toByteArray()));
+    }
+}
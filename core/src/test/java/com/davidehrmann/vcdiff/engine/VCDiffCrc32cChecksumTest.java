@@ -0,0 +1,141 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_CHECKSUM;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_CRC32C;
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_SOURCE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class VCDiffCrc32cChecksumTest {
+
+    private static final int kWindowSize = 5000;
+
+    // The first window's Win_Indicator follows the 5-byte file header
+    private static final int kFirstWinIndicator = 5;
+
+    private final byte[] dictionary_ = new byte[8 * 1024];
+    private final byte[] target_ = new byte[3 * kWindowSize];
+
+    public VCDiffCrc32cChecksumTest() {
+        Random random = new Random(45);
+        random.nextBytes(dictionary_);
+        random.nextBytes(target_);
+        for (int i = 0; i < target_.length; i += kWindowSize) {
+            System.arraycopy(dictionary_, random.nextInt(dictionary_.length - 2000), target_, i + 1000, 2000);
+        }
+    }
+
+    private byte[] encode(byte[] dictionary, byte[] target, boolean crc32c, boolean interleaved) throws IOException {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary)
+                .withChecksum(true)
+                .withCrc32cChecksum(crc32c)
+                .withInterleaving(interleaved)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target.length; i += kWindowSize) {
+            encoder.encodeChunk(target, i, Math.min(kWindowSize, target.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    private static byte[] decode(byte[] dictionary, byte[] delta, int chunkSize) throws IOException {
+        VCDiffStreamingDecoder decoder = VCDiffDecoderBuilder.builder().buildStreaming();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        decoder.startDecoding(ByteBuffer.wrap(dictionary));
+        for (int i = 0; i < delta.length; i += chunkSize) {
+            decoder.decodeChunk(ByteBuffer.wrap(delta, i, Math.min(chunkSize, delta.length - i)), decoded);
+        }
+        decoder.finishDecoding();
+        return decoded.toByteArray();
+    }
+
+    @Test
+    public void RoundTrip() throws Exception {
+        byte[] delta = encode(dictionary_, target_, true, false);
+        assertEquals(VCD_SOURCE | VCD_CHECKSUM | VCD_CRC32C, delta[kFirstWinIndicator]);
+        assertArrayEquals(target_, decode(dictionary_, delta, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void Adler32ByDefault() throws Exception {
+        byte[] delta = encode(dictionary_, target_, false, false);
+        assertEquals(VCD_SOURCE | VCD_CHECKSUM, delta[kFirstWinIndicator]);
+        assertArrayEquals(target_, decode(dictionary_, delta, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void InterleavedInPieces() throws Exception {
+        byte[] delta = encode(dictionary_, target_, true, true);
+        assertArrayEquals(target_, decode(dictionary_, delta, 1));
+        assertArrayEquals(target_, decode(dictionary_, delta, 37));
+
+        byte[] adler32Delta = encode(dictionary_, target_, false, true);
+        assertArrayEquals(target_, decode(dictionary_, adler32Delta, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void WrongDictionary() throws Exception {
+        byte[] delta = encode(dictionary_, target_, true, false);
+        byte[] wrongDictionary = dictionary_.clone();
+        for (int i = 0; i < wrongDictionary.length; i += 64) {
+            wrongDictionary[i]++;
+        }
+        decode(wrongDictionary, delta, Integer.MAX_VALUE);
+    }
+
+    @Test(expected = IOException.class)
+    public void WrongDictionaryInPieces() throws Exception {
+        byte[] delta = encode(dictionary_, target_, true, true);
+        byte[] wrongDictionary = dictionary_.clone();
+        for (int i = 0; i < wrongDictionary.length; i += 64) {
+            wrongDictionary[i]++;
+        }
+        decode(wrongDictionary, delta, 13);
+    }
+
+    @Test
+    public void ComposedKeepsCrc32c() throws Exception {
+        byte[] middle = target_.clone();
+        for (int i = 0; i < middle.length; i += 97) {
+            middle[i] ^= 1;
+        }
+        byte[] first = encode(dictionary_, middle, true, false);
+        byte[] second = encode(middle, target_, true, false);
+
+        ByteArrayOutputStream composed = new ByteArrayOutputStream();
+        new VCDiffDeltaComposer(false).compose(dictionary_.length, ByteBuffer.wrap(first), ByteBuffer.wrap(second), composed);
+        byte[] delta = composed.toByteArray();
+        assertEquals(VCD_SOURCE | VCD_CHECKSUM | VCD_CRC32C, delta[kFirstWinIndicator]);
+        assertArrayEquals(target_, decode(dictionary_, delta, Integer.MAX_VALUE));
+    }
+}
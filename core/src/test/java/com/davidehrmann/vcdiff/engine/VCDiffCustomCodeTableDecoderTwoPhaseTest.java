@@ -0,0 +1,11 @@
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+
+// Runs the VCDiffCustomCodeTableDecoderTest cases against a decoder that decodes each
+// standard-format window in two passes.
+public class VCDiffCustomCodeTableDecoderTwoPhaseTest extends VCDiffCustomCodeTableDecoderTest {
+    public VCDiffCustomCodeTableDecoderTwoPhaseTest() {
+        decoder_ = VCDiffDecoderBuilder.builder().withTwoPhaseDecoding(true).buildStreaming();
+    }
+}
@@ -0,0 +1,185 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffDecoderStatisticsTest {
+
+    private static final int kWindowSize = 10000;
+
+    private final Random random = new Random(43);
+    private final byte[] dictionary_ = new byte[16 * 1024];
+    private final byte[] target_ = new byte[5 * kWindowSize];
+
+    // Windows that copy from the dictionary, repeat themselves, and have runs
+    public VCDiffDecoderStatisticsTest() {
+        random.nextBytes(dictionary_);
+        for (int i = 0; i < target_.length; i += kWindowSize) {
+            System.arraycopy(dictionary_, random.nextInt(dictionary_.length - 4000), target_, i, 4000);
+            byte[] extra = new byte[2000];
+            random.nextBytes(extra);
+            System.arraycopy(extra, 0, target_, i + 4000, 2000);
+            System.arraycopy(extra, 0, target_, i + 6000, 2000);
+            Arrays.fill(target_, i + 8000, i + kWindowSize, (byte) i);
+        }
+    }
+
+    private byte[] encode(boolean interleaved) throws Exception {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withChecksum(true)
+                .withInterleaving(interleaved)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target_.length; i += kWindowSize) {
+            encoder.encodeChunk(target_, i, kWindowSize, delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    private VCDiffDecoderStatistics decode(byte[] delta, boolean twoPhase, int chunkSize) throws Exception {
+        VCDiffDecoderStatistics statistics = new VCDiffDecoderStatistics();
+        VCDiffStreamingDecoder decoder = VCDiffDecoderBuilder.builder()
+                .withTwoPhaseDecoding(twoPhase)
+                .withListener(statistics)
+                .buildStreaming();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        decoder.startDecoding(ByteBuffer.wrap(dictionary_));
+        for (int i = 0; i < delta.length; i += chunkSize) {
+            decoder.decodeChunk(ByteBuffer.wrap(delta, i, Math.min(chunkSize, delta.length - i)), decoded);
+        }
+        decoder.finishDecoding();
+        assertArrayEquals(target_, decoded.toByteArray());
+        return statistics;
+    }
+
+    private static void assertSameCounts(VCDiffDecoderStatistics expected, VCDiffDecoderStatistics actual) {
+        assertEquals(expected.getWindows(), actual.getWindows());
+        assertEquals(expected.getTargetBytes(), actual.getTargetBytes());
+        assertEquals(expected.getAddCount(), actual.getAddCount());
+        assertEquals(expected.getAddBytes(), actual.getAddBytes());
+        assertEquals(expected.getRunCount(), actual.getRunCount());
+        assertEquals(expected.getRunBytes(), actual.getRunBytes());
+        assertEquals(expected.getCopyCount(), actual.getCopyCount());
+        assertEquals(expected.getSourceCopyBytes(), actual.getSourceCopyBytes());
+        assertEquals(expected.getTargetCopyBytes(), actual.getTargetCopyBytes());
+    }
+
+    @Test
+    public void CountsAddUpToTarget() throws Exception {
+        VCDiffDecoderStatistics statistics = decode(encode(false), false, Integer.MAX_VALUE);
+
+        assertEquals(target_.length / kWindowSize, statistics.getWindows());
+        assertEquals(target_.length, statistics.getTargetBytes());
+        assertEquals(target_.length, statistics.getAddBytes() + statistics.getRunBytes()
+                + statistics.getSourceCopyBytes() + statistics.getTargetCopyBytes());
+        assertTrue(statistics.getSourceCopyBytes() > 0);
+        assertTrue(statistics.getTargetCopyBytes() > 0);
+        assertTrue(statistics.getAddCount() > 0);
+
+        assertTrue(statistics.getDecodingNanos() > 0);
+        assertTrue(statistics.getChecksumNanos() > 0);
+        assertTrue(statistics.getMaxWindowDecodingNanos() <= statistics.getDecodingNanos());
+        assertEquals(0, statistics.getParsingNanos());
+        assertTrue(statistics.getTargetBufferGrowths() > 0);
+    }
+
+    @Test
+    public void TwoPhaseCountsMatch() throws Exception {
+        byte[] delta = encode(false);
+        VCDiffDecoderStatistics twoPhase = decode(delta, true, Integer.MAX_VALUE);
+        assertSameCounts(decode(delta, false, Integer.MAX_VALUE), twoPhase);
+        assertTrue(twoPhase.getParsingNanos() > 0);
+    }
+
+    @Test
+    public void InterleavedChunksCountOnce() throws Exception {
+        byte[] delta = encode(true);
+        assertSameCounts(decode(delta, false, Integer.MAX_VALUE), decode(delta, false, 7));
+    }
+
+    @Test
+    public void ListenerSeesEachWindow() throws Exception {
+        final List<Integer> windowLengths = new ArrayList<Integer>();
+        final List<Integer> capacities = new ArrayList<Integer>();
+        VCDiffDecoderListener listener = new VCDiffDecoderListener() {
+            @Override
+            public void windowDecoded(VCDiffWindowStatistics window) {
+                windowLengths.add(window.getTargetLength());
+                assertEquals(window.getTargetLength(), window.getAddBytes() + window.getRunBytes()
+                        + window.getSourceCopyBytes() + window.getTargetCopyBytes());
+            }
+
+            @Override
+            public void targetBufferGrown(int oldCapacity, int newCapacity) {
+                assertTrue(newCapacity > oldCapacity);
+                capacities.add(newCapacity);
+            }
+        };
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().withListener(listener).buildSimple().decode(dictionary_, encode(false), decoded);
+        assertArrayEquals(target_, decoded.toByteArray());
+        assertEquals(target_.length / kWindowSize, windowLengths.size());
+        for (int length : windowLengths) {
+            assertEquals(kWindowSize, length);
+        }
+        assertFalse(capacities.isEmpty());
+    }
+
+    @Test
+    public void PooledDecodersShareListener() throws Exception {
+        VCDiffDecoderStatistics statistics = new VCDiffDecoderStatistics();
+        VCDiffDecoderPool pool = VCDiffDecoderBuilder.builder().withListener(statistics).buildPool(1);
+        byte[] delta = encode(false);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            pool.decode(dictionary_, delta, decoded);
+            assertArrayEquals(target_, decoded.toByteArray());
+        }
+        assertEquals(2 * target_.length, statistics.getTargetBytes());
+
+        statistics.reset();
+        assertEquals(0, statistics.getWindows());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void SetListenerWhileDecoding() {
+        VCDiffStreamingDecoderImpl decoder = new VCDiffStreamingDecoderImpl();
+        decoder.startDecoding(ByteBuffer.wrap(dictionary_));
+        decoder.setListener(new VCDiffDecoderStatistics());
+    }
+}
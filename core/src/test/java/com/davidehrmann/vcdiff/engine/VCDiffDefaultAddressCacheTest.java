@@ -0,0 +1,177 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.util.VarInt;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class VCDiffDefaultAddressCacheTest {
+
+    private static final int kAddresses = 20000;
+
+    private final VCDiffDefaultAddressCache cache_ = new VCDiffDefaultAddressCache();
+    private final VCDiffAddressCacheImpl generic_cache_ = new VCDiffAddressCacheImpl();
+
+    private final int[] addresses_ = new int[kAddresses];
+    private final int[] heres_ = new int[kAddresses];
+
+    @Before
+    public void setUp() {
+        cache_.Init();
+        generic_cache_.Init();
+
+        // Mostly addresses near recent ones, with some repeats and jumps, so every mode is used
+        Random random = new Random(42);
+        int address = 0;
+        int here = 1 << 16;
+        for (int i = 0; i < kAddresses; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    address = random.nextInt(here);
+                    break;
+                case 1:
+                    address = i > 0 ? addresses_[random.nextInt(i)] : 0;
+                    break;
+                default:
+                    address = Math.min(here - 1, address + random.nextInt(300));
+                    break;
+            }
+            addresses_[i] = address;
+            heres_[i] = here;
+            here += 1 + random.nextInt(64);
+        }
+    }
+
+    @Test
+    public void SameModesAsGenericCache() {
+        assertEquals(generic_cache_.FirstSameMode(), cache_.FirstSameMode());
+        assertEquals(generic_cache_.LastMode(), cache_.LastMode());
+        assertEquals(VCDiffAddressCache.DefaultLastMode(), cache_.LastMode());
+        for (short mode = 0; mode < VCDiffAddressCache.VCD_MAX_MODES; mode++) {
+            assertEquals(generic_cache_.IsNearMode(mode), cache_.IsNearMode(mode));
+            assertEquals(generic_cache_.IsSameMode(mode), cache_.IsSameMode(mode));
+        }
+    }
+
+    @Test
+    public void EncodesLikeGenericCache() {
+        int[] modeCounts = new int[VCDiffAddressCache.DefaultLastMode() + 1];
+        for (int i = 0; i < kAddresses; i++) {
+            long expected = generic_cache_.EncodeAddress(addresses_[i], heres_[i]);
+            assertEquals("address " + i, expected, cache_.EncodeAddress(addresses_[i], heres_[i]));
+            modeCounts[VCDiffAddressCache.EncodedMode(expected)]++;
+        }
+        for (int mode = 0; mode < modeCounts.length; mode++) {
+            if (modeCounts[mode] == 0) {
+                fail("Mode " + mode + " wasn't used");
+            }
+        }
+        assertArrayEquals(generic_cache_.near_addresses_, cache_.near_addresses_);
+        assertArrayEquals(generic_cache_.same_addresses_, cache_.same_addresses_);
+    }
+
+    @Test
+    public void DecodesWhatItEncodes() throws IOException {
+        short[] modes = new short[kAddresses];
+        ByteBuffer stream = ByteBuffer.allocate(5 * kAddresses);
+        for (int i = 0; i < kAddresses; i++) {
+            long encoded = cache_.EncodeAddress(addresses_[i], heres_[i]);
+            modes[i] = VCDiffAddressCache.EncodedMode(encoded);
+            if (cache_.WriteAddressAsVarintForMode(modes[i])) {
+                VarInt.putInt(stream, VCDiffAddressCache.EncodedAddress(encoded));
+            } else {
+                stream.put((byte) VCDiffAddressCache.EncodedAddress(encoded));
+            }
+        }
+        stream.flip();
+
+        cache_.Init();
+        ByteBuffer genericStream = stream.duplicate();
+        for (int i = 0; i < kAddresses; i++) {
+            assertEquals(addresses_[i], cache_.DecodeAddress(heres_[i], modes[i], stream));
+            assertEquals(addresses_[i], generic_cache_.DecodeAddress(heres_[i], modes[i], genericStream));
+            assertEquals(genericStream.position(), stream.position());
+        }
+        assertEquals(0, stream.remaining());
+    }
+
+    @Test
+    public void EncodeAddressAtomicInteger() {
+        AtomicInteger encoded_addr = new AtomicInteger();
+        assertEquals(VCDiffAddressCache.VCD_SELF_MODE, cache_.EncodeAddress(0x10, 0x1000, encoded_addr));
+        assertEquals(0x10, encoded_addr.get());
+        assertEquals((short) (cache_.FirstSameMode() + 0), cache_.EncodeAddress(0x10, 0x1000, encoded_addr));
+        assertEquals(0x10, encoded_addr.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void EncodeAddressPastHereAddress() {
+        cache_.EncodeAddress(0x100, 0x100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void DecodeInvalidMode() throws IOException {
+        cache_.DecodeAddress(0x1000, (short) (cache_.LastMode() + 1), ByteBuffer.wrap(new byte[] { 0 }));
+    }
+
+    @Test
+    public void DecodePartialVarint() throws IOException {
+        ByteBuffer stream = ByteBuffer.wrap(new byte[] { (byte) 0x81, (byte) 0x80 });
+        assertEquals(VCDiffAddressCache.RESULT_END_OF_DATA,
+                cache_.DecodeAddress(0x10000, VCDiffAddressCache.VCD_SELF_MODE, stream));
+        assertEquals(0, stream.position());
+
+        stream = ByteBuffer.allocate(0);
+        assertEquals(VCDiffAddressCache.RESULT_END_OF_DATA,
+                cache_.DecodeAddress(0x10000, cache_.FirstSameMode(), stream));
+    }
+
+    @Test
+    public void DecodeAddressPastHereAddressLeavesStream() {
+        ByteBuffer stream = ByteBuffer.allocate(8);
+        VarInt.putInt(stream, 0x2000);
+        stream.flip();
+        try {
+            cache_.DecodeAddress(0x1000, VCDiffAddressCache.VCD_SELF_MODE, stream);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertEquals(0, stream.position());
+        }
+
+        // A NEAR address that overflows
+        cache_.UpdateCache(0x7fffff00);
+        stream = ByteBuffer.allocate(8);
+        VarInt.putInt(stream, 0x1000);
+        stream.flip();
+        try {
+            cache_.DecodeAddress(Integer.MAX_VALUE, VCDiffAddressCache.VCD_FIRST_NEAR_MODE, stream);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertEquals(0, stream.position());
+        }
+    }
+}
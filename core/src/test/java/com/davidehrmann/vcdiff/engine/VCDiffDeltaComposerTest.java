@@ -0,0 +1,203 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_TARGET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffDeltaComposerTest {
+
+    private static final int kChunkSize = 3000;
+
+    // Two windows: an ADD of "wxyz", then a VCD_TARGET window that copies it
+    private static final byte[] kVcdTargetDelta = {
+            (byte) 0xD6, (byte) 0xC3, (byte) 0xC4, 0x00, 0x00,
+            0x00, 0x0A, 0x04, 0x00, 0x04, 0x01, 0x00, 'w', 'x', 'y', 'z', 0x05,
+            VCD_TARGET, 0x04, 0x00, 0x07, 0x04, 0x00, 0x00, 0x01, 0x01, 0x14, 0x00
+    };
+
+    private final Random random = new Random(17);
+    private final byte[] a_;
+    private final byte[] b_;
+    private final byte[] c_;
+
+    public VCDiffDeltaComposerTest() {
+        a_ = new byte[20000];
+        random.nextBytes(a_);
+        b_ = edit(a_);
+        c_ = edit(b_);
+    }
+
+    // Moves blocks around, changes some bytes, and inserts new data,
+    // repeated patterns, and runs
+    private byte[] edit(byte[] original) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < original.length) {
+            switch (random.nextInt(5)) {
+                case 0: {
+                    byte[] inserted = new byte[1 + random.nextInt(100)];
+                    random.nextBytes(inserted);
+                    out.write(inserted, 0, inserted.length);
+                    break;
+                }
+                case 1: {
+                    byte[] pattern = new byte[1 + random.nextInt(5)];
+                    random.nextBytes(pattern);
+                    for (int i = random.nextInt(50); i >= 0; i--) {
+                        out.write(pattern, 0, pattern.length);
+                    }
+                    break;
+                }
+                default: {
+                    int length = 100 + random.nextInt(1000);
+                    int start = random.nextInt(original.length - length);
+                    byte[] block = Arrays.copyOfRange(original, start, start + length);
+                    block[random.nextInt(length)] ^= 0x55;
+                    out.write(block, 0, block.length);
+                    break;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encode(byte[] dictionary, byte[] target, boolean interleaved, boolean targetMatches)
+            throws IOException {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary)
+                .withInterleaving(interleaved)
+                .withTargetMatches(targetMatches)
+                .withChecksum(true)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target.length; i += kChunkSize) {
+            encoder.encodeChunk(target, i, Math.min(kChunkSize, target.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    private static byte[] decode(byte[] dictionary, byte[] delta) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().buildSimple().decode(dictionary, delta, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] compose(int dictionarySize, byte[] first, byte[] second, boolean interleaved)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VCDiffEncoderBuilder.builder()
+                .withInterleaving(interleaved)
+                .buildComposer()
+                .compose(dictionarySize, ByteBuffer.wrap(first), ByteBuffer.wrap(second), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void ComposeEncoderOutput() throws Exception {
+        for (boolean interleaved : new boolean[] {false, true}) {
+            for (boolean targetMatches : new boolean[] {false, true}) {
+                byte[] first = encode(a_, b_, interleaved, targetMatches);
+                byte[] second = encode(b_, c_, !interleaved, targetMatches);
+                byte[] composed = compose(a_.length, first, second, interleaved);
+                assertArrayEquals(c_, decode(a_, composed));
+                // Copies survive composition rather than being expanded into literal data
+                assertTrue(composed.length < c_.length / 2);
+            }
+        }
+    }
+
+    @Test
+    public void ComposeThreeDeltas() throws Exception {
+        byte[] d = edit(c_);
+        byte[] ab = encode(a_, b_, false, true);
+        byte[] bc = encode(b_, c_, false, true);
+        byte[] cd = encode(c_, d, false, true);
+
+        byte[] ac = compose(a_.length, ab, bc, false);
+        assertArrayEquals(d, decode(a_, compose(a_.length, ac, cd, false)));
+
+        byte[] bd = compose(b_.length, bc, cd, false);
+        assertArrayEquals(d, decode(a_, compose(a_.length, ab, bd, false)));
+    }
+
+    @Test
+    public void ComposeVcdTargetWindows() throws Exception {
+        byte[] expected = decode(new byte[0], kVcdTargetDelta);
+
+        // A delta file with a VCD_TARGET window, first and second
+        byte[] composed = compose(0, kVcdTargetDelta, encode(expected, c_, false, true), false);
+        assertArrayEquals(c_, decode(new byte[0], composed));
+
+        byte[] empty = encode(a_, new byte[0], false, false);
+        composed = compose(a_.length, empty, kVcdTargetDelta, false);
+        assertArrayEquals(expected, decode(a_, composed));
+    }
+
+    @Test
+    public void ComposeLongOverlappingCopy() throws Exception {
+        // B repeats the first 64 bytes of A, which the first delta file encodes as a
+        // COPY from A and a COPY that overlaps itself.  Each window of the second delta
+        // file copies a long stretch of it, which should stay a few instructions, not
+        // one per period.
+        byte[] b = new byte[100000];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = a_[i % 64];
+        }
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(a_)
+                .withTargetMatches(true)
+                .buildStreaming();
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        encoder.startEncoding(first);
+        encoder.encodeChunk(b, 0, b.length, first);
+        encoder.finishEncoding(first);
+
+        byte[] c = Arrays.copyOfRange(b, 3, b.length);
+        byte[] second = encode(b, c, false, false);
+        byte[] composed = compose(a_.length, first.toByteArray(), second, false);
+
+        VCDiffDecoderStatistics statistics = new VCDiffDecoderStatistics();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().withListener(statistics).buildSimple().decode(a_, composed, out);
+        assertArrayEquals(c, out.toByteArray());
+
+        final long windows = (c.length + kChunkSize - 1) / kChunkSize;
+        assertEquals(windows, statistics.getWindows());
+        assertTrue(statistics.getAddCount() + statistics.getRunCount() + statistics.getCopyCount() <= 4 * windows);
+    }
+
+    @Test(expected = IOException.class)
+    public void ComposeMismatchedDeltas() throws Exception {
+        // The second delta file copies from past the end of the first's target
+        compose(a_.length, encode(a_, Arrays.copyOf(b_, 100), false, false), encode(b_, c_, false, false), false);
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffDictionaryIndexTest {
+
+    private static final int kBlockSize = 1000;
+    private static final int kBlockCount = 100;
+
+    private final Random random = new Random(19);
+    private final byte[] target_ = new byte[kBlockSize * kBlockCount];
+
+    public VCDiffDictionaryIndexTest() {
+        random.nextBytes(target_);
+    }
+
+    // A dictionary that contains the given percentage of the target's blocks, shuffled
+    // among random blocks
+    private byte[] dictionary(int percentShared) {
+        byte[] dictionary = new byte[target_.length];
+        random.nextBytes(dictionary);
+        List<Integer> slots = new ArrayList<Integer>();
+        for (int block = 0; block < kBlockCount; block++) {
+            slots.add(block);
+        }
+        Collections.shuffle(slots, random);
+        for (int block = 0; block * 100 < percentShared * kBlockCount; block++) {
+            System.arraycopy(target_, block * kBlockSize, dictionary, slots.get(block) * kBlockSize, kBlockSize);
+        }
+        return dictionary;
+    }
+
+    private int deltaSize(byte[] dictionary) throws Exception {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary)
+                .withTargetMatches(false)
+                .buildSimple()
+                .encode(target_, delta);
+        return delta.size();
+    }
+
+    @Test
+    public void RankByCoverage() throws Exception {
+        int[] shares = {10, 70, 0, 40, 95};
+        byte[][] dictionaries = new byte[shares.length][];
+        VCDiffDictionaryIndex<Integer> index = new VCDiffDictionaryIndex<Integer>();
+        for (int i = 0; i < shares.length; i++) {
+            dictionaries[i] = dictionary(shares[i]);
+            index.add(i, ByteBuffer.wrap(dictionaries[i]));
+        }
+        assertEquals(shares.length, index.size());
+
+        List<VCDiffDictionaryIndex.Candidate<Integer>> ranking = index.rank(ByteBuffer.wrap(target_));
+        int[] expectedOrder = {4, 1, 3, 0, 2};
+        for (int i = 0; i < expectedOrder.length; i++) {
+            assertEquals(expectedOrder[i], (int) ranking.get(i).key());
+        }
+
+        for (VCDiffDictionaryIndex.Candidate<Integer> candidate : ranking) {
+            double expected = shares[candidate.key()] / 100.0;
+            assertEquals(candidate.toString(), expected, candidate.coverage(), 0.1);
+        }
+
+        // The best dictionary really does give the smallest delta
+        int best = index.best(ByteBuffer.wrap(target_));
+        for (int i = 0; i < dictionaries.length; i++) {
+            assertTrue(deltaSize(dictionaries[best]) <= deltaSize(dictionaries[i]));
+        }
+    }
+
+    @Test
+    public void BoundedSketches() {
+        byte[] dictionary = dictionary(50);
+        VCDiffSketch full = VCDiffSketch.compute(ByteBuffer.wrap(dictionary), 5, Integer.MAX_VALUE);
+        VCDiffSketch bounded = VCDiffSketch.compute(ByteBuffer.wrap(dictionary), 5, 256);
+        assertTrue(full.size() > 1000);
+        assertEquals(256, bounded.size());
+
+        VCDiffSketch target = VCDiffSketch.compute(ByteBuffer.wrap(target_), 5, Integer.MAX_VALUE);
+        assertEquals(target.coverageBy(full), target.coverageBy(bounded), 0.15);
+    }
+
+    @Test
+    public void SamplingDoesNotDependOnByteSum() {
+        // Every 32-byte window has one odd byte and 31 multiples of 32, so every window's
+        // byte sum is 1 mod 32
+        Random random = new Random(1);
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % VCDiffSketch.kWindowSize == 0 ? 1 : random.nextInt(8) << 5);
+        }
+
+        int size = VCDiffSketch.compute(ByteBuffer.wrap(data), 5, Integer.MAX_VALUE).size();
+        int expected = data.length >> 5;
+        assertTrue(size > expected / 2 && size < expected * 2);
+    }
+
+    @Test
+    public void EdgeCases() {
+        VCDiffDictionaryIndex<String> index = new VCDiffDictionaryIndex<String>();
+        assertNull(index.best(ByteBuffer.wrap(target_)));
+
+        index.add("empty", ByteBuffer.allocate(0));
+        index.add("self", ByteBuffer.wrap(target_));
+        assertEquals("self", index.best(ByteBuffer.wrap(target_)));
+        assertEquals(1.0, index.rank(ByteBuffer.wrap(target_)).get(0).coverage(), 0.0);
+
+        // Too short to sample
+        assertEquals(0.0, index.rank(ByteBuffer.allocate(10)).get(0).coverage(), 0.0);
+
+        assertTrue(index.remove("self"));
+        assertFalse(index.remove("self"));
+        assertEquals("empty", index.best(ByteBuffer.wrap(target_)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void MismatchedSampleRates() {
+        new VCDiffDictionaryIndex<String>(4, 100).add("a", VCDiffSketch.compute(ByteBuffer.wrap(target_)));
+    }
+}
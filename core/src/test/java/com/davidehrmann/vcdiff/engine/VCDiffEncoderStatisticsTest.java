@@ -0,0 +1,135 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffEncoderStatisticsTest {
+
+    private final Random random = new Random(41);
+    private final byte[] dictionary_ = new byte[16 * 1024];
+    private final byte[] target_;
+
+    // The target is the first half of the dictionary, some new data, and the new data again,
+    // which can only be matched against the target itself
+    public VCDiffEncoderStatisticsTest() {
+        random.nextBytes(dictionary_);
+        byte[] extra = new byte[2048];
+        random.nextBytes(extra);
+        target_ = new byte[dictionary_.length / 2 + 2 * extra.length];
+        System.arraycopy(dictionary_, 0, target_, 0, dictionary_.length / 2);
+        System.arraycopy(extra, 0, target_, dictionary_.length / 2, extra.length);
+        System.arraycopy(extra, 0, target_, dictionary_.length / 2 + extra.length, extra.length);
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private byte[] encode(byte[] target, int chunkSize, VCDiffEncoderStatistics statistics) throws Exception {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withStatistics(statistics)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target.length; i += chunkSize) {
+            encoder.encodeChunk(target, i, Math.min(chunkSize, target.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    @Test
+    public void DoesNotChangeOutput() throws Exception {
+        assertArrayEquals(encode(target_, 4096, null), encode(target_, 4096, new VCDiffEncoderStatistics()));
+    }
+
+    @Test
+    public void CountsAddUpToTarget() throws Exception {
+        VCDiffEncoderStatistics statistics = new VCDiffEncoderStatistics();
+        encode(target_, target_.length, statistics);
+
+        assertEquals(1, statistics.getWindows());
+        assertEquals(target_.length, statistics.getTargetBytes());
+        assertEquals(target_.length, statistics.getAddBytes() + statistics.getRunBytes()
+                + statistics.getDictionaryCopyBytes() + statistics.getTargetCopyBytes());
+        assertTrue(statistics.getDictionaryCopyBytes() >= dictionary_.length / 2 - 32);
+        assertTrue(statistics.getTargetCopyBytes() >= 2048 - 32);
+
+        assertEquals(statistics.getAddCount(), sum(statistics.getAddSizeHistogram()));
+        assertEquals(statistics.getRunCount(), sum(statistics.getRunSizeHistogram()));
+        assertEquals(statistics.getCopyCount(), sum(statistics.getCopySizeHistogram()));
+        assertEquals(statistics.getCopyCount(), sum(statistics.getAddressModeCounts()));
+
+        assertTrue(statistics.getMatchAttempts() > 0);
+        assertTrue(statistics.getHashProbes() > 0);
+        assertTrue(statistics.getMatchingNanos() > 0);
+        assertTrue(statistics.getWritingNanos() > 0);
+        assertTrue(statistics.getHashingNanos() > 0);
+    }
+
+    @Test
+    public void SmallTarget() throws Exception {
+        VCDiffEncoderStatistics statistics = new VCDiffEncoderStatistics();
+        encode(new byte[5], 5, statistics);
+
+        assertEquals(1, statistics.getAddCount());
+        assertEquals(5, statistics.getAddBytes());
+        // 5 takes 3 bits
+        assertEquals(1, statistics.getAddSizeHistogram()[3]);
+        assertEquals(0, statistics.getCopyCount());
+        assertEquals(0, statistics.getAddressModeCounts().length);
+    }
+
+    @Test
+    public void ResetsWhenEncodingStarts() throws Exception {
+        VCDiffEncoderStatistics statistics = new VCDiffEncoderStatistics();
+        encode(target_, 1000, statistics);
+        assertEquals((target_.length + 999) / 1000, statistics.getWindows());
+
+        encode(target_, target_.length, statistics);
+        assertEquals(1, statistics.getWindows());
+        assertEquals(target_.length, statistics.getTargetBytes());
+
+        statistics.reset();
+        assertEquals(0, statistics.getWindows());
+        assertEquals(0, statistics.getCopyCount());
+        assertEquals(0, sum(statistics.getCopySizeHistogram()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void PoolsDoNotSupportStatistics() {
+        VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withStatistics(new VCDiffEncoderStatistics())
+                .buildPool(1);
+    }
+}
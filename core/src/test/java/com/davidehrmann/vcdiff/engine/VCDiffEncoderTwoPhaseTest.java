@@ -0,0 +1,12 @@
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+
+// Runs the VCDiffEncoderTest round trips through decoders that decode each
+// standard-format window in two passes.
+public class VCDiffEncoderTwoPhaseTest extends VCDiffEncoderTest {
+    public VCDiffEncoderTwoPhaseTest() {
+        decoder_ = VCDiffDecoderBuilder.builder().withTwoPhaseDecoding(true).buildStreaming();
+        simple_decoder_ = VCDiffDecoderBuilder.builder().withTwoPhaseDecoding(true).buildSimple();
+    }
+}
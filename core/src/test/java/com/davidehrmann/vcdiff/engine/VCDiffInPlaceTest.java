@@ -0,0 +1,140 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertArrayEquals;
+
+public class VCDiffInPlaceTest {
+
+    private static final int kBlockSize = 1024;
+    private static final int kBlockCount = 64;
+    private static final int kChunkSize = 4096;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Random random = new Random(5);
+    private final byte[] dictionary_;
+
+    public VCDiffInPlaceTest() {
+        dictionary_ = new byte[kBlockSize * kBlockCount];
+        random.nextBytes(dictionary_);
+    }
+
+    // The dictionary's blocks in reverse order, so most of the target
+    // is copied from parts of the dictionary that have been overwritten
+    private byte[] reversedBlocks(int blockCount) {
+        byte[] target = new byte[blockCount * kBlockSize];
+        for (int i = 0; i < blockCount; i++) {
+            System.arraycopy(dictionary_, (kBlockCount - 1 - i) * kBlockSize, target, i * kBlockSize, kBlockSize);
+        }
+        for (int i = 0; i < target.length; i += 100 + random.nextInt(1000)) {
+            target[i] = (byte) random.nextInt();
+        }
+        return target;
+    }
+
+    private byte[] encode(byte[] target, boolean inPlace, boolean interleaved) throws IOException {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withInPlacePatching(inPlace)
+                .withInterleaving(interleaved)
+                .withChecksum(true)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target.length; i += kChunkSize) {
+            encoder.encodeChunk(target, i, Math.min(kChunkSize, target.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    private byte[] patch(byte[] delta) throws IOException {
+        Path file = temporaryFolder.newFile().toPath();
+        Files.write(file, dictionary_);
+        VCDiffDecoderBuilder.builder().buildInPlace().decode(file, ByteBuffer.wrap(delta));
+        return Files.readAllBytes(file);
+    }
+
+    @Test
+    public void PatchSameSize() throws Exception {
+        byte[] target = reversedBlocks(kBlockCount);
+        assertArrayEquals(target, patch(encode(target, true, false)));
+        assertArrayEquals(target, patch(encode(target, true, true)));
+    }
+
+    @Test
+    public void PatchShrinks() throws Exception {
+        byte[] target = reversedBlocks(kBlockCount / 3);
+        assertArrayEquals(target, patch(encode(target, true, false)));
+    }
+
+    @Test
+    public void PatchGrows() throws Exception {
+        byte[] target = Arrays.copyOf(reversedBlocks(kBlockCount), (kBlockCount + 10) * kBlockSize);
+        System.arraycopy(dictionary_, 0, target, kBlockCount * kBlockSize, 10 * kBlockSize);
+        assertArrayEquals(target, patch(encode(target, true, false)));
+    }
+
+    @Test
+    public void PatchEmptyFile() throws Exception {
+        byte[] target = "Hello, world".getBytes(US_ASCII);
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(new byte[0])
+                .withInPlacePatching(true)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        encoder.encodeChunk(target, delta);
+        encoder.finishEncoding(delta);
+
+        Path file = temporaryFolder.newFile().toPath();
+        VCDiffDecoderBuilder.builder().buildInPlace().decode(file, ByteBuffer.wrap(delta.toByteArray()));
+        assertArrayEquals(target, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void InPlaceDeltaIsStandardDelta() throws Exception {
+        byte[] target = reversedBlocks(kBlockCount);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().buildSimple().decode(dictionary_, encode(target, true, false), out);
+        assertArrayEquals(target, out.toByteArray());
+    }
+
+    // Applying an ordinary delta in place reads overwritten data, which the checksum catches
+    @Test(expected = IOException.class)
+    public void OrdinaryDeltaFailsChecksum() throws Exception {
+        patch(encode(reversedBlocks(kBlockCount), false, false));
+    }
+}
@@ -0,0 +1,150 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffMultiDictionaryTest {
+
+    private static final int kChunkSize = 8192;
+
+    private final Random random = new Random(3);
+    private final byte[] library_ = new byte[30000];
+    private final byte[] previous_ = new byte[50000];
+    private final byte[] target_;
+
+    public VCDiffMultiDictionaryTest() {
+        random.nextBytes(library_);
+        random.nextBytes(previous_);
+
+        // Alternates between blocks of the two dictionaries and new data
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        while (target.size() < 60000) {
+            byte[] source = random.nextBoolean() ? library_ : previous_;
+            int length = 100 + random.nextInt(2000);
+            target.write(source, random.nextInt(source.length - length), length);
+            byte[] inserted = new byte[random.nextInt(50)];
+            random.nextBytes(inserted);
+            target.write(inserted, 0, inserted.length);
+        }
+        target_ = target.toByteArray();
+    }
+
+    // The dictionaries in different kinds of buffers, none of which start at 0
+    private List<ByteBuffer> dictionaries() {
+        ByteBuffer library = ByteBuffer.allocateDirect(library_.length + 10);
+        library.position(10);
+        library.put(library_);
+        library.position(10);
+
+        ByteBuffer previous = ByteBuffer.allocate(previous_.length + 20);
+        previous.position(5);
+        previous.put(previous_);
+        previous.position(5);
+        previous.limit(5 + previous_.length);
+
+        return Arrays.asList(library, ByteBuffer.allocate(0), previous.asReadOnlyBuffer());
+    }
+
+    private byte[] encode(List<ByteBuffer> dictionaries, boolean interleaved) throws IOException {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionaries(dictionaries)
+                .withInterleaving(interleaved)
+                .withChecksum(true)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target_.length; i += kChunkSize) {
+            encoder.encodeChunk(target_, i, Math.min(kChunkSize, target_.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    @Test
+    public void EncodeAndDecode() throws Exception {
+        for (boolean interleaved : new boolean[] {false, true}) {
+            for (boolean twoPhase : new boolean[] {false, true}) {
+                byte[] delta = encode(dictionaries(), interleaved);
+                assertTrue(delta.length < target_.length / 10);
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                VCDiffDecoderBuilder.builder()
+                        .withTwoPhaseDecoding(twoPhase)
+                        .buildSimple()
+                        .decode(dictionaries(), ByteBuffer.wrap(delta), out);
+                assertArrayEquals(target_, out.toByteArray());
+            }
+        }
+    }
+
+    // Delta files address the dictionaries as though they were concatenated
+    @Test
+    public void DecodeWithConcatenatedDictionary() throws Exception {
+        byte[] concatenated = Arrays.copyOf(library_, library_.length + previous_.length);
+        System.arraycopy(previous_, 0, concatenated, library_.length, previous_.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().buildSimple().decode(concatenated, encode(dictionaries(), false), out);
+        assertArrayEquals(target_, out.toByteArray());
+
+        // And a delta file encoded against the concatenation can be decoded with the parts
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        VCDiffEncoderBuilder.builder().withDictionary(concatenated).buildSimple().encode(target_, delta);
+        out.reset();
+        VCDiffDecoderBuilder.builder().buildSimple()
+                .decode(dictionaries(), ByteBuffer.wrap(delta.toByteArray()), out);
+        assertArrayEquals(target_, out.toByteArray());
+    }
+
+    @Test
+    public void DictionarySegmentsSpanParts() {
+        DictionarySegments segments = DictionarySegments.of(dictionaries());
+        assertEquals(library_.length + previous_.length, segments.size());
+        assertEquals(library_[0], segments.at(0).get());
+        assertEquals(previous_[0], segments.at(library_.length).get());
+        assertEquals(previous_.length - 1, segments.at(library_.length + 1).remaining());
+
+        byte[] spanning = new byte[100];
+        segments.get(library_.length - 50, spanning, 0, spanning.length);
+        assertArrayEquals(Arrays.copyOfRange(library_, library_.length - 50, library_.length),
+                Arrays.copyOf(spanning, 50));
+        assertArrayEquals(Arrays.copyOf(previous_, 50), Arrays.copyOfRange(spanning, 50, 100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void DictionaryAndDictionaries() {
+        VCDiffEncoderBuilder.builder()
+                .withDictionary(library_)
+                .withDictionaries(dictionaries())
+                .buildStreaming();
+    }
+}
@@ -0,0 +1,196 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoder;
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_TARGET;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffParallelDecoderTest {
+
+    private static final int kChunkSize = 4096;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private final byte[] dictionary_;
+    private final byte[] target_;
+
+    public VCDiffParallelDecoderTest() {
+        Random random = new Random(42);
+        dictionary_ = new byte[64 * 1024];
+        random.nextBytes(dictionary_);
+
+        // The target is the dictionary with small edits every few hundred bytes
+        target_ = dictionary_.clone();
+        for (int i = 0; i < target_.length; i += 100 + random.nextInt(400)) {
+            target_[i] = (byte) random.nextInt();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private byte[] encode(boolean interleaved, boolean checksum) throws IOException {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withInterleaving(interleaved)
+                .withChecksum(checksum)
+                .buildStreaming();
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target_.length; i += kChunkSize) {
+            encoder.encodeChunk(target_, i, Math.min(kChunkSize, target_.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    private byte[] decodeParallel(byte[] dictionary, byte[] delta, int maxWindowsInFlight) throws IOException {
+        VCDiffDecoder decoder = VCDiffDecoderBuilder.builder().buildParallel(executor, maxWindowsInFlight);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decoder.decode(dictionary, delta, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void DecodeStandardFormat() throws Exception {
+        byte[] delta = encode(false, false);
+        assertTrue(VCDiffWindowIndex.build(ByteBuffer.wrap(delta), dictionary_.length).windows().size() > 1);
+        assertArrayEquals(target_, decodeParallel(dictionary_, delta, 8));
+    }
+
+    @Test
+    public void DecodeInterleavedWithChecksum() throws Exception {
+        assertArrayEquals(target_, decodeParallel(dictionary_, encode(true, true), 8));
+    }
+
+    @Test
+    public void DecodeOneWindowInFlight() throws Exception {
+        assertArrayEquals(target_, decodeParallel(dictionary_, encode(false, true), 1));
+    }
+
+    @Test
+    public void AppliesBuilderSettingsToParallelWindows() throws Exception {
+        byte[] delta = encode(false, true);
+        final VCDiffDecoderStatistics statistics = new VCDiffDecoderStatistics();
+        // The statistics aren't threadsafe, and windows are decoded on several threads
+        VCDiffDecoderListener listener = new VCDiffDecoderListener() {
+            @Override
+            public void windowDecoded(VCDiffWindowStatistics window) {
+                synchronized (statistics) {
+                    statistics.windowDecoded(window);
+                }
+            }
+        };
+        VCDiffDecoder decoder = VCDiffDecoderBuilder.builder()
+                .withTwoPhaseDecoding(true)
+                .withListener(listener)
+                .buildParallel(executor, 8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decoder.decode(dictionary_, delta, out);
+
+        assertArrayEquals(target_, out.toByteArray());
+        assertEquals(VCDiffWindowIndex.build(ByteBuffer.wrap(delta), dictionary_.length).windows().size(),
+                statistics.getWindows());
+        assertEquals(target_.length, statistics.getTargetBytes());
+    }
+
+    @Test
+    public void DecodeEmptyDelta() throws Exception {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .buildSimple()
+                .encode(new byte[0], delta);
+        assertArrayEquals(new byte[0], decodeParallel(dictionary_, delta.toByteArray(), 8));
+    }
+
+    @Test
+    public void FallsBackForVcdTarget() throws Exception {
+        byte[] delta = {
+                (byte) 0xD6, (byte) 0xC3, (byte) 0xC4, 0x00, 0x00,
+                // Window 1: ADD "wxyz"
+                0x00,  // Win_Indicator: no source segment
+                0x0A,  // Length of the delta encoding
+                0x04,  // Size of the target window
+                0x00,  // Delta_indicator
+                0x04,  // length of data for ADDs and RUNs
+                0x01,  // length of instructions section
+                0x00,  // length of addresses for COPYs
+                'w', 'x', 'y', 'z',
+                0x05,  // VCD_ADD size 4
+                // Window 2: COPY the first window
+                VCD_TARGET,
+                0x04,  // Source segment size
+                0x00,  // Source segment position
+                0x07,  // Length of the delta encoding
+                0x04,  // Size of the target window
+                0x00,  // Delta_indicator
+                0x00,  // length of data for ADDs and RUNs
+                0x01,  // length of instructions section
+                0x01,  // length of addresses for COPYs
+                0x14,  // VCD_COPY mode VCD_SELF, size 4
+                0x00   // Address 0
+        };
+        assertArrayEquals("wxyzwxyz".getBytes(US_ASCII), decodeParallel(new byte[0], delta, 8));
+    }
+
+    @Test(expected = IOException.class)
+    public void ChecksumMismatchIsReported() throws Exception {
+        byte[] wrongDictionary = dictionary_.clone();
+        for (int i = 0; i < wrongDictionary.length; i += 1000) {
+            wrongDictionary[i]++;
+        }
+        decodeParallel(wrongDictionary, encode(false, true), 8);
+    }
+
+    @Test(expected = IOException.class)
+    public void DictionaryIsReadFromItsPosition() throws Exception {
+        // Only the dictionary's remaining bytes are usable, so source segments that
+        // reach past them are rejected
+        ByteBuffer dictionary = ByteBuffer.wrap(dictionary_);
+        dictionary.position(1000);
+        VCDiffDecoderBuilder.builder().buildParallel(executor, 8)
+                .decode(dictionary, ByteBuffer.wrap(encode(false, false)), new ByteArrayOutputStream());
+    }
+
+    @Test(expected = IOException.class)
+    public void TruncatedDeltaIsReported() throws Exception {
+        byte[] delta = encode(false, false);
+        decodeParallel(dictionary_, Arrays.copyOf(delta, delta.length - 1), 8);
+    }
+}
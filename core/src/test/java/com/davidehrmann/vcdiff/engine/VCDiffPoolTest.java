@@ -0,0 +1,274 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingDecoder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VCDiffPoolTest {
+
+    private static final int kMaxRetainedCapacity = 64 * 1024;
+
+    private final Random random = new Random(31);
+    private final byte[] dictionary_ = new byte[16 * 1024];
+
+    public VCDiffPoolTest() {
+        random.nextBytes(dictionary_);
+    }
+
+    // A target that shares most of its content with the dictionary, followed by
+    // extraSize random bytes
+    private byte[] target(int extraSize) {
+        byte[] target = Arrays.copyOf(dictionary_, dictionary_.length + extraSize);
+        for (int i = 0; i < 20; i++) {
+            target[random.nextInt(dictionary_.length)] = (byte) random.nextInt();
+        }
+        byte[] extra = new byte[extraSize];
+        random.nextBytes(extra);
+        System.arraycopy(extra, 0, target, dictionary_.length, extraSize);
+        return target;
+    }
+
+    private VCDiffEncoderBuilder encoderBuilder() {
+        return VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withChecksum(true);
+    }
+
+    private byte[] encode(byte[] target) throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoderBuilder().buildSimple().encode(target, delta);
+        return delta.toByteArray();
+    }
+
+    @Test
+    public void EncoderPoolReusesEncoders() throws Exception {
+        VCDiffEncoderPool pool = encoderBuilder().buildPool(2, kMaxRetainedCapacity);
+        VCDiffStreamingEncoder<OutputStream> first = pool.borrow();
+        pool.release(first);
+        assertEquals(1, pool.idleCount());
+        assertSame(first, pool.borrow());
+        assertEquals(0, pool.idleCount());
+
+        // Only maxIdle encoders are kept
+        VCDiffStreamingEncoder<OutputStream> second = pool.borrow();
+        VCDiffStreamingEncoder<OutputStream> third = pool.borrow();
+        assertNotSame(first, second);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2, pool.idleCount());
+
+        pool.clear();
+        assertEquals(0, pool.idleCount());
+    }
+
+    @Test
+    public void EncoderPoolOutputMatchesSimpleEncoder() throws Exception {
+        VCDiffEncoderPool pool = encoderBuilder().buildPool(1);
+        for (int i = 0; i < 10; i++) {
+            byte[] target = target(random.nextInt(4096));
+            ByteArrayOutputStream delta = new ByteArrayOutputStream();
+            pool.encode(target, delta);
+            assertArrayEquals(encode(target), delta.toByteArray());
+            assertEquals(1, pool.idleCount());
+        }
+    }
+
+    @Test
+    public void EncoderPoolAbandonsPartialDeltaFiles() throws Exception {
+        VCDiffEncoderPool pool = encoderBuilder().buildPool(1);
+        VCDiffStreamingEncoder<OutputStream> encoder = pool.borrow();
+        encoder.startEncoding(new ByteArrayOutputStream());
+        encoder.encodeChunk(target(1000), new ByteArrayOutputStream());
+        pool.release(encoder);
+
+        byte[] target = target(100);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        pool.encode(target, delta);
+        assertArrayEquals(encode(target), delta.toByteArray());
+    }
+
+    @Test
+    public void EncoderPoolTrimsLargeBuffers() throws Exception {
+        VCDiffEncoderPool pool = encoderBuilder().buildPool(1, kMaxRetainedCapacity);
+        VCDiffCodeTableWriterImpl writer = new VCDiffCodeTableWriterImpl(false);
+        writer.init(dictionary_.length);
+        int initialCapacity = writer.retainedCapacity();
+
+        byte[] large = target(4 * kMaxRetainedCapacity);
+        writer.add(large, 0, large.length);
+        assertTrue(writer.retainedCapacity() > kMaxRetainedCapacity);
+        writer.trim(kMaxRetainedCapacity);
+        assertEquals(initialCapacity, writer.retainedCapacity());
+
+        // A trimmed writer still works
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        pool.encode(large, delta);
+        pool.encode(large, new ByteArrayOutputStream());
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().buildSimple().decode(dictionary_, delta.toByteArray(), decoded);
+        assertArrayEquals(large, decoded.toByteArray());
+    }
+
+    @Test
+    public void DecoderPoolDecodes() throws Exception {
+        VCDiffDecoderPool pool = VCDiffDecoderBuilder.builder().buildPool(1);
+        for (int i = 0; i < 10; i++) {
+            byte[] target = target(random.nextInt(4096));
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            pool.decode(dictionary_, encode(target), decoded);
+            assertArrayEquals(target, decoded.toByteArray());
+            assertEquals(1, pool.idleCount());
+        }
+    }
+
+    @Test
+    public void DecoderPoolAbandonsPartialDeltaFiles() throws Exception {
+        VCDiffDecoderPool pool = VCDiffDecoderBuilder.builder().buildPool(1);
+        VCDiffStreamingDecoder decoder = pool.borrow();
+        byte[] delta = encode(target(1000));
+        decoder.startDecoding(dictionary_);
+        decoder.decodeChunk(delta, 0, delta.length / 2, new ByteArrayOutputStream());
+        pool.release(decoder);
+
+        byte[] target = target(100);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        pool.decode(dictionary_, encode(target), decoded);
+        assertArrayEquals(target, decoded.toByteArray());
+    }
+
+    @Test
+    public void DecoderPoolTrimsLargeBuffers() throws Exception {
+        VCDiffDecoderPool pool = VCDiffDecoderBuilder.builder().buildPool(1, kMaxRetainedCapacity);
+        byte[] large = target(4 * kMaxRetainedCapacity);
+        byte[] small = target(100);
+
+        VCDiffStreamingDecoderImpl decoder = (VCDiffStreamingDecoderImpl) pool.borrow();
+        decoder.startDecoding(dictionary_);
+        decoder.decodeChunk(encode(large), new ByteArrayOutputStream());
+        decoder.finishDecoding();
+        assertTrue(decoder.retainedCapacity() > kMaxRetainedCapacity);
+        pool.release(decoder);
+        assertTrue(decoder.retainedCapacity() <= kMaxRetainedCapacity);
+
+        // Buffers under the limit are kept
+        decoder = (VCDiffStreamingDecoderImpl) pool.borrow();
+        decoder.startDecoding(dictionary_);
+        decoder.decodeChunk(encode(small), new ByteArrayOutputStream());
+        decoder.finishDecoding();
+        int capacity = decoder.retainedCapacity();
+        pool.release(decoder);
+        assertEquals(capacity, decoder.retainedCapacity());
+    }
+
+    @Test
+    public void DecoderPoolAppliesBuilderSettings() throws Exception {
+        VCDiffDecoderPool pool = VCDiffDecoderBuilder.builder().withMaxTargetFileSize(1000).buildPool(1);
+        try {
+            pool.decode(dictionary_, encode(target(0)), new ByteArrayOutputStream());
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, pool.idleCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ReleaseForeignEncoder() {
+        encoderBuilder().buildPool(1).release(encoderBuilder().buildPool(1).borrow());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ReleaseForeignDecoder() {
+        VCDiffDecoderBuilder.builder().buildPool(1).release(VCDiffDecoderBuilder.builder().buildStreaming());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void ReleaseTwice() {
+        VCDiffDecoderPool pool = VCDiffDecoderBuilder.builder().buildPool(1);
+        VCDiffStreamingDecoder decoder = pool.borrow();
+        pool.release(decoder);
+        pool.release(decoder);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void ReleaseEncoderTwice() {
+        VCDiffEncoderPool pool = encoderBuilder().buildPool(1);
+        VCDiffStreamingEncoder<OutputStream> encoder = pool.borrow();
+        pool.release(encoder);
+        pool.release(encoder);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void ReleaseDroppedDecoderTwice() {
+        // The pool is full, so the first release drops the decoder
+        VCDiffDecoderPool pool = VCDiffDecoderBuilder.builder().buildPool(0);
+        VCDiffStreamingDecoder decoder = pool.borrow();
+        pool.release(decoder);
+        pool.release(decoder);
+    }
+
+    @Test
+    public void ConcurrentReleasesAddOnce() throws Exception {
+        final VCDiffEncoderPool pool = encoderBuilder().buildPool(2);
+        for (int i = 0; i < 200; i++) {
+            final VCDiffStreamingEncoder<OutputStream> encoder = pool.borrow();
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[2];
+            for (int j = 0; j < threads.length; j++) {
+                threads[j] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            pool.release(encoder);
+                        } catch (InterruptedException | IllegalStateException e) {
+                            // One of the two releases fails
+                        }
+                    }
+                });
+                threads[j].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(1, pool.idleCount());
+            assertSame(encoder, pool.borrow());
+            assertNotSame(encoder, pool.borrow());
+            pool.clear();
+        }
+    }
+}
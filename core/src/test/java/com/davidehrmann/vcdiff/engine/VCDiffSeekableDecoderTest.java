@@ -0,0 +1,297 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import com.davidehrmann.vcdiff.io.VCDiffSeekableInputStream;
+import com.davidehrmann.vcdiff.util.VarInt;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.davidehrmann.vcdiff.engine.VCDiffCodeTableWriterImpl.VCD_TARGET;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VCDiffSeekableDecoderTest {
+
+    private static final int kChunkSize = 1000;
+
+    // Two windows: an ADD of "wxyz", then a VCD_TARGET window that copies it
+    private static final byte[] kVcdTargetDelta = {
+            (byte) 0xD6, (byte) 0xC3, (byte) 0xC4, 0x00, 0x00,
+            0x00, 0x0A, 0x04, 0x00, 0x04, 0x01, 0x00, 'w', 'x', 'y', 'z', 0x05,
+            VCD_TARGET, 0x04, 0x00, 0x07, 0x04, 0x00, 0x00, 0x01, 0x01, 0x14, 0x00
+    };
+
+    private final byte[] dictionary_;
+    private final byte[] target_;
+    private final byte[] delta_;
+
+    public VCDiffSeekableDecoderTest() throws IOException {
+        Random random = new Random(7);
+        dictionary_ = new byte[20000];
+        random.nextBytes(dictionary_);
+
+        target_ = Arrays.copyOf(dictionary_, 25500);
+        for (int i = 0; i < target_.length; i += 50 + random.nextInt(200)) {
+            target_[i] = (byte) random.nextInt();
+        }
+
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withChecksum(true)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target_.length; i += kChunkSize) {
+            encoder.encodeChunk(target_, i, Math.min(kChunkSize, target_.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        delta_ = delta.toByteArray();
+    }
+
+    private VCDiffSeekableDecoder buildDecoder() throws IOException {
+        return VCDiffDecoderBuilder.builder().buildSeekable(ByteBuffer.wrap(dictionary_), ByteBuffer.wrap(delta_));
+    }
+
+    @Test
+    public void IndexDescribesWindows() throws Exception {
+        VCDiffWindowIndex index = VCDiffWindowIndex.build(ByteBuffer.wrap(delta_), dictionary_.length);
+        assertEquals(target_.length, index.targetLength());
+        assertEquals((target_.length + kChunkSize - 1) / kChunkSize, index.windows().size());
+
+        long targetOffset = 0;
+        int deltaOffset = DeltaFileHeader.SERIALIZED_SIZE;
+        for (VCDiffWindowIndex.Window window : index.windows()) {
+            assertEquals(targetOffset, window.targetOffset);
+            assertEquals(deltaOffset, window.deltaOffset);
+            targetOffset += window.targetLength;
+            deltaOffset += window.deltaLength;
+        }
+        assertEquals(delta_.length, deltaOffset);
+
+        assertEquals(-1, index.findWindow(-1));
+        assertEquals(0, index.findWindow(0));
+        assertEquals(0, index.findWindow(kChunkSize - 1));
+        assertEquals(1, index.findWindow(kChunkSize));
+        assertEquals(index.windows().size() - 1, index.findWindow(target_.length - 1));
+        assertEquals(-1, index.findWindow(target_.length));
+    }
+
+    @Test
+    public void IndexSurvivesSerialization() throws Exception {
+        VCDiffWindowIndex index = VCDiffWindowIndex.build(ByteBuffer.wrap(delta_), dictionary_.length);
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        index.write(serialized);
+
+        VCDiffWindowIndex read = VCDiffWindowIndex.read(ByteBuffer.wrap(serialized.toByteArray()));
+        assertEquals(index.targetLength(), read.targetLength());
+        assertEquals(index.fileHeader(), read.fileHeader());
+        assertEquals(index.windows().size(), read.windows().size());
+        for (int i = 0; i < index.windows().size(); i++) {
+            VCDiffWindowIndex.Window expected = index.windows().get(i);
+            VCDiffWindowIndex.Window actual = read.windows().get(i);
+            assertEquals(expected.deltaOffset, actual.deltaOffset);
+            assertEquals(expected.deltaLength, actual.deltaLength);
+            assertEquals(expected.targetOffset, actual.targetOffset);
+            assertEquals(expected.targetLength, actual.targetLength);
+            assertEquals(expected.winIndicator, actual.winIndicator);
+            assertEquals(expected.sourceSegmentLength, actual.sourceSegmentLength);
+            assertEquals(expected.sourceSegmentPosition, actual.sourceSegmentPosition);
+        }
+        assertTrue(read.describes(ByteBuffer.wrap(delta_)));
+    }
+
+    // A serialized index of a delta file of deltaLength bytes with the given windows, each
+    // {deltaLength, targetLength, winIndicator, sourceSegmentLength, sourceSegmentPosition}
+    private static ByteBuffer serializedIndex(int deltaLength, int windowCount, int[]... windows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {'V', 'C', 'I', 'X', 2});
+        out.write(new byte[] {(byte) 0xD6, (byte) 0xC3, (byte) 0xC4, 0x00, 0x00});
+        VarInt.writeInt(out, deltaLength);
+        out.write(new byte[4]);
+        VarInt.writeInt(out, windowCount);
+        for (int[] window : windows) {
+            VarInt.writeInt(out, window[0]);
+            VarInt.writeInt(out, window[1]);
+            out.write(window[2]);
+            VarInt.writeInt(out, window[3]);
+            VarInt.writeInt(out, window[4]);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    @Test
+    public void ReadRejectsInconsistentIndex() throws Exception {
+        ByteBuffer[] corrupt = {
+                // Offsets that overflow an int
+                serializedIndex(Integer.MAX_VALUE, 2,
+                        new int[] {Integer.MAX_VALUE - 10, 0, 0, 0, 0}, new int[] {Integer.MAX_VALUE - 10, 0, 0, 0, 0}),
+                // More windows than there's data for
+                serializedIndex(105, 1000000, new int[] {100, 10, 0, 0, 0}),
+                // An empty window
+                serializedIndex(105, 2, new int[] {100, 10, 0, 0, 0}, new int[] {0, 10, 0, 0, 0}),
+                // Windows that don't reach the end of the delta file
+                serializedIndex(200, 1, new int[] {100, 10, 0, 0, 0}),
+                // A VCD_TARGET source segment past the target decoded so far
+                serializedIndex(205, 2, new int[] {100, 10, 0, 0, 0}, new int[] {100, 10, VCD_TARGET, 5, 6}),
+        };
+        for (ByteBuffer index : corrupt) {
+            try {
+                VCDiffWindowIndex.read(index);
+                fail("Expected an IOException");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+
+        assertEquals(20, VCDiffWindowIndex.read(serializedIndex(205, 2,
+                new int[] {100, 10, 0, 0, 0}, new int[] {100, 10, VCD_TARGET, 5, 5})).targetLength());
+    }
+
+    @Test(expected = IOException.class)
+    public void DecoderRejectsIndexOfSameLengthDelta() throws Exception {
+        VCDiffWindowIndex index = VCDiffWindowIndex.build(ByteBuffer.wrap(delta_), dictionary_.length);
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        index.write(serialized);
+
+        byte[] other = delta_.clone();
+        other[other.length / 2] ^= 0x01;
+        VCDiffDecoderBuilder.builder().buildSeekable(ByteBuffer.wrap(dictionary_), ByteBuffer.wrap(other),
+                VCDiffWindowIndex.read(ByteBuffer.wrap(serialized.toByteArray())));
+    }
+
+    @Test(expected = IOException.class)
+    public void IndexRejectsTruncatedDelta() throws Exception {
+        VCDiffWindowIndex.build(ByteBuffer.wrap(delta_, 0, delta_.length - 1), dictionary_.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void DecoderRejectsMismatchedIndex() throws Exception {
+        VCDiffWindowIndex index = VCDiffWindowIndex.build(ByteBuffer.wrap(kVcdTargetDelta), 0);
+        VCDiffDecoderBuilder.builder().buildSeekable(ByteBuffer.wrap(dictionary_), ByteBuffer.wrap(delta_), index);
+    }
+
+    @Test(expected = IOException.class)
+    public void IndexUsesDictionaryFromItsPosition() throws Exception {
+        ByteBuffer dictionary = ByteBuffer.wrap(dictionary_);
+        dictionary.position(1000);
+        VCDiffDecoderBuilder.builder().buildSeekable(dictionary, ByteBuffer.wrap(delta_));
+    }
+
+    @Test
+    public void DecodeRanges() throws Exception {
+        VCDiffSeekableDecoder decoder = buildDecoder();
+        Random random = new Random(11);
+        for (int i = 0; i < 50; i++) {
+            int offset = random.nextInt(target_.length);
+            int length = random.nextInt(target_.length - offset + 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            decoder.decode(offset, length, out);
+            assertArrayEquals(Arrays.copyOfRange(target_, offset, offset + length), out.toByteArray());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decoder.decode(0, target_.length, out);
+        assertArrayEquals(target_, out.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void DecodePastEnd() throws Exception {
+        buildDecoder().decode(target_.length - 1, 2, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void DecodeVcdTargetWindow() throws Exception {
+        VCDiffSeekableDecoder decoder = VCDiffDecoderBuilder.builder()
+                .buildSeekable(ByteBuffer.allocate(0), ByteBuffer.wrap(kVcdTargetDelta));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decoder.decode(5, 3, out);
+        assertArrayEquals("xyz".getBytes(US_ASCII), out.toByteArray());
+    }
+
+    @Test
+    public void DecodeChainedVcdTargetWindows() throws Exception {
+        // Window k copies window k - 2 out of a source segment covering windows k - 2 and
+        // k - 1, so decoding any window depends on every window before it
+        final int windows = 5000;
+        ByteBuffer delta = ByteBuffer.allocate(windows * 16);
+        delta.put(kVcdTargetDelta, 0, 17);
+        delta.put(new byte[] { 0x00, 0x0A, 0x04, 0x00, 0x04, 0x01, 0x00, 'a', 'b', 'c', 'd', 0x05 });
+        for (int k = 2; k < windows; k++) {
+            delta.put((byte) VCD_TARGET);
+            VarInt.putInt(delta, 8);
+            VarInt.putInt(delta, 4 * (k - 2));
+            delta.put(new byte[] { 0x07, 0x04, 0x00, 0x00, 0x01, 0x01, 0x14, 0x00 });
+        }
+        delta.flip();
+
+        byte[] expected = new byte[4 * windows];
+        for (int k = 0; k < windows; k++) {
+            System.arraycopy((k % 2 == 0 ? "wxyz" : "abcd").getBytes(US_ASCII), 0, expected, 4 * k, 4);
+        }
+
+        VCDiffSeekableDecoder decoder = VCDiffDecoderBuilder.builder().buildSeekable(ByteBuffer.allocate(0), delta);
+        assertEquals(windows, decoder.index().windows().size());
+
+        ByteBuffer last = decoder.decodeWindow(windows - 1);
+        assertEquals(ByteBuffer.wrap("abcd".getBytes(US_ASCII)), last);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decoder.decode(9998, 7, out);
+        assertArrayEquals(Arrays.copyOfRange(expected, 9998, 10005), out.toByteArray());
+
+        out.reset();
+        decoder.decode(0, expected.length, out);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void SeekableInputStreamSkipsWithoutDecoding() throws Exception {
+        VCDiffSeekableInputStream in = VCDiffDecoderBuilder.builder()
+                .buildSeekableInputStream(ByteBuffer.wrap(dictionary_), ByteBuffer.wrap(delta_));
+
+        assertEquals(target_.length, in.length());
+        assertEquals(12345, in.skip(12345));
+        assertEquals(0, in.available());
+
+        byte[] buffer = new byte[3000];
+        int read = 0;
+        while (read < buffer.length) {
+            read += in.read(buffer, read, buffer.length - read);
+        }
+        assertArrayEquals(Arrays.copyOfRange(target_, 12345, 15345), buffer);
+
+        in.seek(10);
+        assertEquals(target_[10] & 0xff, in.read());
+        assertTrue(in.available() > 0);
+
+        assertEquals(target_.length - 11, in.skip(Long.MAX_VALUE));
+        assertEquals(-1, in.read());
+        in.close();
+    }
+}
@@ -0,0 +1,222 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import com.davidehrmann.vcdiff.util.VarInt;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffSignatureTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VCDiffSignatureTest.class);
+
+    private static final int kChunkSize = 256 * 1024;
+
+    private final Random random = new Random(11);
+
+    // A copy of original with a few blocks inserted, deleted, and changed
+    private byte[] edit(byte[] original, int edits) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int position = 0;
+        for (int i = 0; i < edits && position < original.length; i++) {
+            int unchanged = Math.min(original.length - position, random.nextInt(2 * original.length / edits));
+            out.write(original, position, unchanged);
+            position += unchanged;
+            switch (random.nextInt(3)) {
+                case 0: {
+                    byte[] inserted = new byte[1 + random.nextInt(200)];
+                    random.nextBytes(inserted);
+                    out.write(inserted, 0, inserted.length);
+                    break;
+                }
+                case 1:
+                    position = Math.min(original.length, position + 1 + random.nextInt(200));
+                    break;
+                default:
+                    if (position < original.length) {
+                        out.write(original[position++] ^ 0x55);
+                    }
+                    break;
+            }
+        }
+        out.write(original, position, original.length - position);
+        return out.toByteArray();
+    }
+
+    private static byte[] encode(VCDiffSignature signature, byte[] target) throws IOException {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withSignature(signature)
+                .withChecksum(true)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target.length; i += kChunkSize) {
+            encoder.encodeChunk(target, i, Math.min(kChunkSize, target.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    private static byte[] decode(byte[] dictionary, byte[] delta) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VCDiffDecoderBuilder.builder().buildSimple().decode(dictionary, delta, out);
+        return out.toByteArray();
+    }
+
+    private static VCDiffSignature roundTrip(VCDiffSignature signature) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        signature.writeTo(out);
+        assertEquals(signature.serializedLength(), out.size());
+        return VCDiffSignature.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    // The client sends the signature of its copy and gets back a delta file, instead of
+    // sending its copy so that the server can encode against it
+    @Test
+    public void Loopback() throws Exception {
+        byte[] clientCopy = new byte[4 * 1024 * 1024 + 123];
+        random.nextBytes(clientCopy);
+        byte[] serverCopy = edit(clientCopy, 100);
+
+        VCDiffSignature signature = roundTrip(VCDiffSignature.compute(ByteBuffer.wrap(clientCopy)));
+        byte[] delta = encode(signature, serverCopy);
+        assertArrayEquals(serverCopy, decode(clientCopy, delta));
+
+        ByteArrayOutputStream dictionaryDelta = new ByteArrayOutputStream();
+        VCDiffEncoderBuilder.builder().withDictionary(clientCopy).withChecksum(true).buildSimple()
+                .encode(serverCopy, dictionaryDelta);
+
+        final long saved = clientCopy.length - signature.serializedLength();
+        LOGGER.info("Signature: {} bytes, delta: {} bytes, delta with the dictionary: {} bytes, " +
+                        "{} bytes of upload saved",
+                signature.serializedLength(), delta.length, dictionaryDelta.size(), saved);
+        assertTrue(signature.serializedLength() < clientCopy.length / 50);
+        assertTrue(delta.length < serverCopy.length / 20);
+    }
+
+    @Test
+    public void ComputeFromStream() throws Exception {
+        for (int length : new int[] {0, 1, 1000, 1024, 4096, 5000}) {
+            byte[] source = Arrays.copyOf(new byte[5000], length);
+            random.nextBytes(source);
+            VCDiffSignature fromBuffer = VCDiffSignature.compute(ByteBuffer.wrap(source), 1024, 4);
+            VCDiffSignature fromStream = VCDiffSignature.compute(new ByteArrayInputStream(source), 1024, 4);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            fromBuffer.writeTo(expected);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            fromStream.writeTo(actual);
+            assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+            assertEquals(length, fromStream.sourceLength());
+            assertEquals((length + 1023) / 1024, fromStream.blockCount());
+        }
+    }
+
+    @Test
+    public void ShortLastBlock() throws Exception {
+        byte[] clientCopy = new byte[10 * 64 + 30];
+        random.nextBytes(clientCopy);
+        VCDiffSignature signature = VCDiffSignature.compute(ByteBuffer.wrap(clientCopy), 64, 8);
+
+        // Unchanged, the whole file is one COPY
+        byte[] delta = encode(signature, clientCopy);
+        assertArrayEquals(clientCopy, decode(clientCopy, delta));
+        assertTrue(delta.length < 64);
+
+        // The last block still matches after a change at the start
+        byte[] target = clientCopy.clone();
+        target[0] ^= 0x55;
+        assertArrayEquals(target, decode(clientCopy, encode(signature, target)));
+
+        // A target shorter than a block, and an empty target
+        byte[] tail = Arrays.copyOfRange(clientCopy, clientCopy.length - 30, clientCopy.length);
+        assertArrayEquals(tail, decode(clientCopy, encode(signature, tail)));
+        assertArrayEquals(new byte[0], decode(clientCopy, encode(signature, new byte[0])));
+    }
+
+    @Test
+    public void EmptySource() throws Exception {
+        byte[] target = new byte[5000];
+        random.nextBytes(target);
+        VCDiffSignature signature = roundTrip(VCDiffSignature.compute(ByteBuffer.allocate(0)));
+        assertEquals(0, signature.blockCount());
+        assertArrayEquals(target, decode(new byte[0], encode(signature, target)));
+    }
+
+    @Test
+    public void RepeatedBlocks() throws Exception {
+        byte[] clientCopy = new byte[64 * 100];
+        byte[] target = new byte[64 * 150 + 7];
+        assertArrayEquals(target, decode(clientCopy, encode(VCDiffSignature.compute(ByteBuffer.wrap(clientCopy), 64, 2), target)));
+    }
+
+    @Test(expected = IOException.class)
+    public void TruncatedSignature() throws Exception {
+        byte[] source = new byte[10000];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VCDiffSignature.compute(ByteBuffer.wrap(source)).writeTo(out);
+        VCDiffSignature.readFrom(new ByteArrayInputStream(out.toByteArray(), 0, out.size() - 1));
+    }
+
+    @Test(expected = EOFException.class)
+    public void SignatureClaimingHugeSource() throws Exception {
+        // Only one block follows the header, so this has to fail without allocating
+        // room for all 2^27 blocks the header claims
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 'V', 'C', 'S', 0x01 });
+        VarInt.writeInt(out, 16);
+        VarInt.writeInt(out, 8);
+        VarInt.writeInt(out, Integer.MAX_VALUE);
+        out.write(new byte[3 + 8]);
+        VCDiffSignature.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void SignatureWithOverflowingHashes() throws Exception {
+        // 2^27 blocks of 16-byte strong hashes don't fit in an array
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 'V', 'C', 'S', 0x01 });
+        VarInt.writeInt(out, 16);
+        VarInt.writeInt(out, 16);
+        VarInt.writeInt(out, Integer.MAX_VALUE);
+        VCDiffSignature.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void SignatureAndDictionary() {
+        VCDiffEncoderBuilder.builder()
+                .withDictionary(new byte[10])
+                .withSignature(VCDiffSignature.compute(ByteBuffer.allocate(10)))
+                .buildStreaming();
+    }
+}
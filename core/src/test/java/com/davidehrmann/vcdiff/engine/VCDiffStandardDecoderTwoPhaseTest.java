@@ -0,0 +1,11 @@
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+
+// Runs the VCDiffStandardDecoderTest cases against a decoder that decodes each
+// standard-format window in two passes.
+public class VCDiffStandardDecoderTwoPhaseTest extends VCDiffStandardDecoderTest {
+    public VCDiffStandardDecoderTwoPhaseTest() {
+        decoder_ = VCDiffDecoderBuilder.builder().withTwoPhaseDecoding(true).buildStreaming();
+    }
+}
@@ -0,0 +1,11 @@
+package com.davidehrmann.vcdiff.engine;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+
+// Runs the VCDiffStandardWindowDecoderTest cases against a decoder that decodes each
+// standard-format window in two passes.
+public class VCDiffStandardWindowDecoderTwoPhaseTest extends VCDiffStandardWindowDecoderTest {
+    public VCDiffStandardWindowDecoderTwoPhaseTest() {
+        decoder_ = VCDiffDecoderBuilder.builder().withTwoPhaseDecoding(true).buildStreaming();
+    }
+}
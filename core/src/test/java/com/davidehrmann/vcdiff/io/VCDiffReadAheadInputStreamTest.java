@@ -0,0 +1,305 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.io;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VCDiffReadAheadInputStreamTest {
+
+    private static final int kChunkSize = 1000;
+
+    // Size of the delta file header that precedes the first window
+    private static final int kDeltaFileHeaderSize = 5;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final byte[] dictionary_;
+    private final byte[] target_;
+    private final byte[] delta_;
+
+    public VCDiffReadAheadInputStreamTest() throws IOException {
+        Random random = new Random(3);
+        dictionary_ = new byte[20000];
+        random.nextBytes(dictionary_);
+
+        target_ = Arrays.copyOf(dictionary_, 60000);
+        for (int i = 0; i < target_.length; i += 50 + random.nextInt(200)) {
+            target_[i] = (byte) random.nextInt();
+        }
+
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary_)
+                .withChecksum(true)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < target_.length; i += kChunkSize) {
+            encoder.encodeChunk(target_, i, Math.min(kChunkSize, target_.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        delta_ = delta.toByteArray();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private VCDiffReadAheadInputStream buildStream(InputStream in, int maxBufferedChunks) {
+        return VCDiffDecoderBuilder.builder()
+                .buildReadAheadInputStream(in, ByteBuffer.wrap(dictionary_), executor, maxBufferedChunks);
+    }
+
+    private static byte[] readFully(InputStream in, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void DecodeWithReadAhead() throws Exception {
+        for (int maxBufferedChunks : new int[] {1, 2, 16}) {
+            VCDiffReadAheadInputStream in = buildStream(new ByteArrayInputStream(delta_), maxBufferedChunks);
+            assertArrayEquals(target_, readFully(in, 333));
+            assertEquals(-1, in.read());
+            in.close();
+        }
+    }
+
+    @Test
+    public void DecodeWithDefaultThread() throws Exception {
+        InputStream in = VCDiffDecoderBuilder.builder()
+                .buildReadAheadInputStream(new ByteArrayInputStream(delta_), ByteBuffer.wrap(dictionary_));
+        assertArrayEquals(target_, readFully(in, 4096));
+        in.close();
+    }
+
+    @Test
+    public void DecodeErrorIsRethrownAfterDecodedData() throws Exception {
+        byte[] corrupt = delta_.clone();
+        // Breaks the checksum of the last window
+        corrupt[corrupt.length - 1] ^= 0x01;
+
+        VCDiffReadAheadInputStream in = buildStream(new ByteArrayInputStream(corrupt), 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        try {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Everything decoded before the corrupt window was delivered
+            assertTrue(out.size() > 0);
+            assertArrayEquals(Arrays.copyOf(target_, out.size()), out.toByteArray());
+        }
+
+        // The failure sticks
+        try {
+            in.read();
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+        in.close();
+    }
+
+    @Test
+    public void ReadErrorIsRethrown() throws Exception {
+        final IOException expected = new EOFException("Unexpected end of delta file");
+        InputStream failing = new InputStream() {
+            private final InputStream delegate = new ByteArrayInputStream(delta_, 0, delta_.length / 2);
+
+            @Override
+            public int read() throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = delegate.read(b, off, len);
+                if (read < 0) {
+                    throw expected;
+                }
+                return read;
+            }
+        };
+
+        VCDiffReadAheadInputStream in = buildStream(failing, 2);
+        try {
+            readFully(in, 1000);
+            fail("Expected an IOException");
+        } catch (EOFException e) {
+            assertSame(expected, e);
+            assertEquals(1, e.getSuppressed().length);
+        }
+        in.close();
+    }
+
+    @Test
+    public void CloseStopsDecodingThread() throws Exception {
+        final boolean[] closed = {false};
+        InputStream endless = new InputStream() {
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                // Repeats the windows of the delta file forever
+                if (position == delta_.length) {
+                    position = kDeltaFileHeaderSize;
+                }
+                int read = Math.min(len, delta_.length - position);
+                System.arraycopy(delta_, position, b, off, read);
+                position += read;
+                return read;
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        VCDiffReadAheadInputStream in = buildStream(endless, 1);
+        byte[] buffer = new byte[target_.length];
+        int read = 0;
+        while (read < buffer.length) {
+            read += in.read(buffer, read, buffer.length - read);
+        }
+        assertArrayEquals(target_, buffer);
+        in.close();
+        assertTrue(closed[0]);
+
+        try {
+            in.read();
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The decoding loop exits without anything reading from the stream
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void CloseUnblocksDecodingThreadBlockedInRead() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        InputStream blocking = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                // Blocks without responding to interrupts until closed, like a read from a socket
+                reading.countDown();
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        closed.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Socket closed");
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        };
+
+        final VCDiffReadAheadInputStream in = buildStream(blocking, 1);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    in.read();
+                } catch (IOException e) {
+                    // Expected once the stream is closed
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        closer.setDaemon(true);
+        closer.start();
+        closer.join(10000);
+        assertFalse(closer.isAlive());
+        assertEquals(0, closed.getCount());
+        reader.interrupt();
+
+        // The decoding loop exits once its read fails
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,108 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertArrayEquals;
+
+public class BlockingChannelsTest {
+
+    // A gathering channel that accepts at most maxWrite bytes per write, like a socket
+    private static final class ShortWriteChannel implements GatheringByteChannel {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final int maxWrite;
+
+        ShortWriteChannel(int maxWrite) {
+            this.maxWrite = maxWrite;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = Math.min(maxWrite, src.remaining());
+            for (int i = 0; i < length; i++) {
+                written.write(src.get());
+            }
+            return length;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (srcs[i].hasRemaining()) {
+                    return write(srcs[i]);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static ByteBuffer[] buffers() {
+        return new ByteBuffer[] {
+                ByteBuffer.wrap("header".getBytes(US_ASCII)),
+                ByteBuffer.allocate(0),
+                ByteBuffer.wrap("data".getBytes(US_ASCII)),
+        };
+    }
+
+    @Test
+    public void GatheringWritesEverything() throws IOException {
+        ShortWriteChannel channel = new ShortWriteChannel(3);
+        BlockingChannels.writeFully(channel, buffers());
+        assertArrayEquals("headerdata".getBytes(US_ASCII), channel.written.toByteArray());
+    }
+
+    @Test
+    public void PlainChannelWritesEverything() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        BlockingChannels.writeFully(channel, buffers());
+        BlockingChannels.writeFully(channel, ByteBuffer.wrap("!".getBytes(US_ASCII)));
+        assertArrayEquals("headerdata!".getBytes(US_ASCII), out.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void NonBlockingChannelIsRejected() throws IOException {
+        BlockingChannels.writeFully(new ShortWriteChannel(0), ByteBuffer.wrap(new byte[1]));
+    }
+
+    @Test(expected = IOException.class)
+    public void NonBlockingGatheringChannelIsRejected() throws IOException {
+        BlockingChannels.writeFully(new ShortWriteChannel(0), buffers());
+    }
+}
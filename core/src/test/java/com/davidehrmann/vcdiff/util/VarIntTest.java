@@ -2,7 +2,9 @@ package com.davidehrmann.vcdiff.util;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Random;
@@ -120,6 +122,59 @@ public class VarIntTest {
         }, data);
     }
 
+    @Test
+    public void lengthBoundariesTest() throws VarInt.VarIntParseException, VarInt.VarIntEndOfBufferException {
+        int[] values = {0, 1, 0x7f, 0x80, 0x3fff, 0x4000, 0x1fffff, 0x200000, 0xfffffff, 0x10000000, Integer.MAX_VALUE};
+        int[] lengths = {1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5};
+        for (int i = 0; i < values.length; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            VarInt.putInt(buffer, values[i]);
+            assertEquals(lengths[i], buffer.position());
+            assertEquals(lengths[i], VarInt.calculateIntLength(values[i]));
+            assertEquals(lengths[i], VarInt.calculateLongLength(values[i]));
+
+            buffer.flip();
+            assertEquals(values[i], VarInt.tryGetInt(buffer));
+            assertEquals(lengths[i], buffer.position());
+        }
+        assertEquals(9, VarInt.calculateLongLength(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void tryGetIntEndOfBufferTest() {
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        VarInt.putInt(buffer, Integer.MAX_VALUE);
+        for (int limit = 0; limit < 5; limit++) {
+            buffer.position(0).limit(limit);
+            assertEquals(VarInt.END_OF_BUFFER, VarInt.tryGetInt(buffer));
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void tryGetIntInvalidTest() {
+        // Too long, and too large for an int
+        byte[][] invalid = {
+                {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01},
+                {(byte) 0x88, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00},
+        };
+        for (byte[] data : invalid) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            assertEquals(VarInt.INVALID, VarInt.tryGetInt(buffer));
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test(expected = VarInt.VarIntEndOfBufferException.class)
+    public void getIntEndOfBufferTest() throws VarInt.VarIntParseException, VarInt.VarIntEndOfBufferException {
+        VarInt.getInt(ByteBuffer.wrap(new byte[] {(byte) 0x81, (byte) 0x81}));
+    }
+
+    @Test(expected = VarInt.VarIntParseException.class)
+    public void getIntInvalidTest() throws VarInt.VarIntParseException, VarInt.VarIntEndOfBufferException {
+        VarInt.getInt(ByteBuffer.wrap(new byte[] {(byte) 0x88, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00}));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testNegativeInt1() {
         ByteBuffer buffer = ByteBuffer.allocate(32);
@@ -143,4 +198,32 @@ public class VarIntTest {
         ByteBuffer buffer = ByteBuffer.allocate(32);
         VarInt.putLong(buffer, -1);
     }
+
+    @Test
+    public void testReadInt() throws IOException {
+        Random random = new Random(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] values = new int[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(Integer.MAX_VALUE) >>> random.nextInt(31);
+            VarInt.writeInt(out, values[i]);
+        }
+        VarInt.writeInt(out, Integer.MAX_VALUE);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int value : values) {
+            assertEquals(value, VarInt.readInt(in));
+        }
+        assertEquals(Integer.MAX_VALUE, VarInt.readInt(in));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testReadIntTruncated() throws IOException {
+        VarInt.readInt(new ByteArrayInputStream(new byte[] { (byte) 0x81, (byte) 0x80 }));
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadIntTooLarge() throws IOException {
+        VarInt.readInt(new ByteArrayInputStream(new byte[] { (byte) 0x88, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00 }));
+    }
 }
@@ -0,0 +1,543 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.store;
+
+import com.davidehrmann.vcdiff.VCDiffDecoder;
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Stores every version of a set of named blobs.  Each version is stored as a VCDIFF
+ * delta against the version before it, except that a full snapshot is stored once the
+ * chain of deltas back to the last snapshot would exceed the maximum chain depth, or
+ * when a delta wouldn't be smaller than the version itself.  Reading a version decodes
+ * the chain from the nearest snapshot, so it never decodes more than the maximum chain
+ * depth worth of deltas.
+ *
+ * A store is a directory holding three files:
+ * <ul>
+ *     <li>data, the snapshots and deltas, appended to as versions are added</li>
+ *     <li>index, a fixed-size record for every stored version</li>
+ *     <li>keys, the blob names, in the order they were first stored</li>
+ * </ul>
+ * The index and keys are loaded when the store is opened.  Snapshots and deltas are read
+ * from a memory mapping of the data file, so decoding reads them without copying.  The
+ * mapping is only replaced once the file has doubled in size; records appended since
+ * then are mapped one at a time.  New records are appended through a FileChannel, then
+ * the index record that makes them visible is appended.  Records left incomplete by a
+ * crash are ignored when the store is next opened.
+ *
+ * The content of the most recently stored version is kept in memory, so storing a run of
+ * versions of one blob encodes each against the last without decoding it again.
+ *
+ * Threadsafe.
+ */
+public class VCDiffBlobStore implements Closeable {
+
+    static final String DATA_FILE = "data";
+    static final String INDEX_FILE = "index";
+    static final String KEYS_FILE = "keys";
+
+    private static final byte[] INDEX_MAGIC = {'V', 'C', 'B', 'I'};
+    private static final byte[] KEYS_MAGIC = {'V', 'C', 'B', 'K'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    // offset (8), length (4), key (4), version (4), base version (4), target length (4), CRC32 (4)
+    static final int INDEX_RECORD_SIZE = 32;
+    private static final int SNAPSHOT = -1;
+
+    private static final int ENCODE_CHUNK_SIZE = 1 << 20;
+
+    private final int maxChainDepth;
+    private final boolean sync;
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private final FileChannel keys;
+
+    private final Map<String, Blob> blobs = new LinkedHashMap<String, Blob>();
+    private Blob[] blobsById = new Blob[16];
+
+    private long dataSize;
+    private ByteBuffer dataMapping = ByteBuffer.allocate(0);
+
+    // The blob most recently stored, and a copy of the content of its latest version
+    private Blob lastPut;
+    private byte[] lastPutContent;
+
+    private final VCDiffDecoder decoder = VCDiffDecoderBuilder.builder()
+            .withMaxTargetFileSize(Integer.MAX_VALUE)
+            .buildSimple();
+
+    private boolean closed = false;
+
+    VCDiffBlobStore(Path directory, int maxChainDepth, boolean sync) throws IOException {
+        if (maxChainDepth < 0) {
+            throw new IllegalArgumentException("maxChainDepth can't be negative");
+        }
+        this.maxChainDepth = maxChainDepth;
+        this.sync = sync;
+
+        FileChannel data = null;
+        FileChannel index = null;
+        FileChannel keys = null;
+        try {
+            data = open(directory.resolve(DATA_FILE));
+            index = open(directory.resolve(INDEX_FILE));
+            keys = open(directory.resolve(KEYS_FILE));
+            this.data = data;
+            this.index = index;
+            this.keys = keys;
+            load();
+        } catch (IOException | RuntimeException e) {
+            closeAll(data, index, keys);
+            throw e;
+        }
+    }
+
+    /**
+     * Stores a new version of a blob.
+     *
+     * @param key name of the blob
+     * @param content content of the new version
+     * @return the number of the new version; the first version of a blob is 0
+     * @throws IOException if there was an exception writing to the store
+     */
+    public synchronized int put(String key, byte[] content) throws IOException {
+        Objects.requireNonNull(key, "key was null");
+        Objects.requireNonNull(content, "content was null");
+        ensureOpen();
+
+        Blob blob = blobs.get(key);
+        if (blob == null) {
+            blob = addKey(key);
+        }
+
+        final int version = blob.count;
+        int baseVersion = SNAPSHOT;
+        byte[] record = content;
+        if (version > 0 && blob.depths[version - 1] < maxChainDepth) {
+            final byte[] previous = blob == lastPut ? lastPutContent : get(blob, version - 1);
+            byte[] delta = encode(previous, content);
+            if (delta.length < content.length) {
+                baseVersion = version - 1;
+                record = delta;
+            }
+        }
+
+        final long offset = dataSize;
+        writeFully(data, ByteBuffer.wrap(record), offset);
+
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+
+        ByteBuffer indexRecord = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+        indexRecord.putLong(offset);
+        indexRecord.putInt(record.length);
+        indexRecord.putInt(blob.id);
+        indexRecord.putInt(version);
+        indexRecord.putInt(baseVersion);
+        indexRecord.putInt(content.length);
+        indexRecord.putInt((int) crc.getValue());
+        indexRecord.flip();
+
+        if (sync) {
+            data.force(false);
+        }
+        writeFully(index, indexRecord, index.size());
+        if (sync) {
+            index.force(false);
+        }
+
+        dataSize = offset + record.length;
+        blob.add(offset, record.length, baseVersion, content.length, (int) crc.getValue());
+        lastPut = blob;
+        lastPutContent = content.clone();
+        return version;
+    }
+
+    /**
+     * @param key name of the blob
+     * @param version version number
+     * @return the content of that version
+     * @throws IOException if there was an exception reading the store, or it's corrupt
+     */
+    public synchronized byte[] get(String key, int version) throws IOException {
+        ensureOpen();
+        return get(blob(key, version), version);
+    }
+
+    /**
+     * @param key name of the blob
+     * @return the content of the latest version, or null if no version of the blob has been stored
+     * @throws IOException if there was an exception reading the store, or it's corrupt
+     */
+    public synchronized byte[] get(String key) throws IOException {
+        ensureOpen();
+        Blob blob = blobs.get(Objects.requireNonNull(key, "key was null"));
+        return blob != null && blob.count > 0 ? get(blob, blob.count - 1) : null;
+    }
+
+    /**
+     * @param key name of the blob
+     * @return the number of versions of the blob that have been stored
+     */
+    public synchronized int versions(String key) {
+        Blob blob = blobs.get(Objects.requireNonNull(key, "key was null"));
+        return blob != null ? blob.count : 0;
+    }
+
+    /**
+     * @return names of all stored blobs, in the order they were first stored
+     */
+    public synchronized Set<String> keys() {
+        return Collections.unmodifiableSet(new LinkedHashSet<String>(blobs.keySet()));
+    }
+
+    /**
+     * @param key name of the blob
+     * @param version version number
+     * @return the number of deltas that are decoded to read the version
+     */
+    public synchronized int chainDepth(String key, int version) {
+        return blob(key, version).depths[version];
+    }
+
+    /**
+     * Forces everything written so far to disk.
+     *
+     * @throws IOException if there was an exception writing to the store
+     */
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        data.force(false);
+        index.force(false);
+        keys.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            dataMapping = null;
+            lastPut = null;
+            lastPutContent = null;
+            closeAll(data, index, keys);
+        }
+    }
+
+    private byte[] get(Blob blob, int version) throws IOException {
+        if (blob == lastPut && version == blob.count - 1) {
+            return lastPutContent.clone();
+        }
+
+        // Find the snapshot at the start of the chain, then apply the deltas after it
+        int start = version;
+        while (blob.bases[start] != SNAPSHOT) {
+            start = blob.bases[start];
+        }
+
+        ByteBuffer content = record(blob, start);
+        byte[] decoded = new byte[0];
+        if (start == version) {
+            decoded = new byte[content.remaining()];
+            content.get(decoded);
+            return decoded;
+        }
+
+        // Each delta is decoded straight from the mapping, against the previous version
+        for (int v = start + 1; v <= version; v++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(blob.targetLengths[v]);
+            decoder.decode(content, record(blob, v), out);
+            if (out.size() != blob.targetLengths[v]) {
+                throw new IOException(String.format(
+                        "Version %d decoded to %d bytes instead of %d", v, out.size(), blob.targetLengths[v]
+                ));
+            }
+            decoded = out.toByteArray();
+            content = ByteBuffer.wrap(decoded);
+        }
+        return decoded;
+    }
+
+    // The stored snapshot or delta for version, read from the mapped data file
+    private ByteBuffer record(Blob blob, int version) throws IOException {
+        final long offset = blob.offsets[version];
+        final int length = blob.lengths[version];
+
+        // Remapping the whole file only once it's doubled keeps the cost of remapping
+        // proportional to the data written, however reads and writes are interleaved
+        ByteBuffer record;
+        if (offset + length <= dataMapping.capacity()) {
+            record = dataMapping.duplicate();
+        } else if (dataSize <= Integer.MAX_VALUE && dataSize >= 2L * dataMapping.capacity()) {
+            dataMapping = data.map(FileChannel.MapMode.READ_ONLY, 0, dataSize);
+            record = dataMapping.duplicate();
+        } else {
+            record = data.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            record.limit(length);
+            return check(blob, version, record);
+        }
+        record.position((int) offset);
+        record.limit((int) offset + length);
+        return check(blob, version, record.slice());
+    }
+
+    private static ByteBuffer check(Blob blob, int version, ByteBuffer record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate());
+        if ((int) crc.getValue() != blob.crcs[version]) {
+            throw new IOException(String.format("Version %d of %s is corrupt", version, blob.key));
+        }
+        return record;
+    }
+
+    private static byte[] encode(byte[] dictionary, byte[] content) throws IOException {
+        VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder()
+                .withDictionary(dictionary)
+                .withChecksum(true)
+                .buildStreaming();
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.startEncoding(delta);
+        for (int i = 0; i < content.length; i += ENCODE_CHUNK_SIZE) {
+            encoder.encodeChunk(content, i, Math.min(ENCODE_CHUNK_SIZE, content.length - i), delta);
+        }
+        encoder.finishEncoding(delta);
+        return delta.toByteArray();
+    }
+
+    private Blob blob(String key, int version) {
+        Blob blob = blobs.get(Objects.requireNonNull(key, "key was null"));
+        if (blob == null || version < 0 || version >= blob.count) {
+            throw new IllegalArgumentException(String.format("No version %d of %s", version, key));
+        }
+        return blob;
+    }
+
+    private Blob addKey(String key) throws IOException {
+        byte[] encodedKey = key.getBytes(UTF_8);
+        ByteBuffer keyRecord = ByteBuffer.allocate(4 + encodedKey.length);
+        keyRecord.putInt(encodedKey.length);
+        keyRecord.put(encodedKey);
+        keyRecord.flip();
+        writeFully(keys, keyRecord, keys.size());
+        if (sync) {
+            keys.force(false);
+        }
+        return register(key);
+    }
+
+    private Blob register(String key) {
+        Blob blob = new Blob(key, blobs.size());
+        blobs.put(key, blob);
+        if (blob.id == blobsById.length) {
+            blobsById = Arrays.copyOf(blobsById, blobsById.length * 2);
+        }
+        blobsById[blob.id] = blob;
+        return blob;
+    }
+
+    private void load() throws IOException {
+        checkHeader(keys, KEYS_MAGIC);
+        checkHeader(index, INDEX_MAGIC);
+
+        // Keys
+        ByteBuffer keyData = read(keys);
+        keyData.position(FILE_HEADER_SIZE);
+        while (keyData.remaining() >= 4) {
+            final int length = keyData.getInt();
+            if (length < 0 || length > keyData.remaining()) {
+                keyData.position(keyData.position() - 4);
+                break;
+            }
+            byte[] encodedKey = new byte[length];
+            keyData.get(encodedKey);
+            register(new String(encodedKey, UTF_8));
+        }
+        // Drop a key whose write was interrupted
+        keys.truncate(keyData.position());
+
+        // Index records that refer past the end of the data file were written after
+        // data that never made it to disk.  Since records are only ever appended, the
+        // index is cut off at the first one.
+        dataSize = data.size();
+        long validDataSize = 0;
+        ByteBuffer indexData = read(index);
+        indexData.position(FILE_HEADER_SIZE);
+        while (indexData.remaining() >= INDEX_RECORD_SIZE) {
+            final long offset = indexData.getLong();
+            final int length = indexData.getInt();
+            final int keyId = indexData.getInt();
+            final int version = indexData.getInt();
+            final int baseVersion = indexData.getInt();
+            final int targetLength = indexData.getInt();
+            final int crc = indexData.getInt();
+
+            if (offset < 0 || length < 0 || offset + length > dataSize || keyId < 0 || keyId >= blobs.size()) {
+                indexData.position(indexData.position() - INDEX_RECORD_SIZE);
+                break;
+            }
+            Blob blob = blobsById[keyId];
+            if (version != blob.count || baseVersion < SNAPSHOT || baseVersion >= version) {
+                throw new IOException("Index record for version " + version + " of " + blob.key + " is corrupt");
+            }
+            blob.add(offset, length, baseVersion, targetLength, crc);
+            validDataSize = Math.max(validDataSize, offset + length);
+        }
+        index.truncate(indexData.position());
+        data.truncate(validDataSize);
+        dataSize = validDataSize;
+    }
+
+    private static void checkHeader(FileChannel channel, byte[] magic) throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.put(magic);
+            header.putInt(FORMAT_VERSION);
+            header.flip();
+            writeFully(channel, header, 0);
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Store file is truncated");
+            }
+        }
+        header.flip();
+        for (byte b : magic) {
+            if (header.get() != b) {
+                throw new IOException("Did not find store header bytes");
+            }
+        }
+        if (header.getInt() != FORMAT_VERSION) {
+            throw new IOException("Unrecognized store format version");
+        }
+    }
+
+    // Reads a whole file into memory.  The index and keys files are read rather than
+    // mapped, since they may be truncated right afterwards.
+    private static ByteBuffer read(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Store file is too large");
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) size);
+        while (contents.hasRemaining()) {
+            if (channel.read(contents, contents.position()) < 0) {
+                break;
+            }
+        }
+        contents.flip();
+        return contents;
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    private static void closeAll(Closeable... closeables) throws IOException {
+        IOException exception = null;
+        for (Closeable closeable : closeables) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    if (exception == null) {
+                        exception = e;
+                    } else {
+                        exception.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Store is closed");
+        }
+    }
+
+    // The stored versions of one blob
+    private static final class Blob {
+        final String key;
+        final int id;
+
+        int count = 0;
+        long[] offsets = new long[4];
+        int[] lengths = new int[4];
+        int[] bases = new int[4];
+        int[] depths = new int[4];
+        int[] targetLengths = new int[4];
+        int[] crcs = new int[4];
+
+        Blob(String key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+
+        void add(long offset, int length, int baseVersion, int targetLength, int crc) {
+            if (count == offsets.length) {
+                final int newLength = count * 2;
+                offsets = Arrays.copyOf(offsets, newLength);
+                lengths = Arrays.copyOf(lengths, newLength);
+                bases = Arrays.copyOf(bases, newLength);
+                depths = Arrays.copyOf(depths, newLength);
+                targetLengths = Arrays.copyOf(targetLengths, newLength);
+                crcs = Arrays.copyOf(crcs, newLength);
+            }
+            offsets[count] = offset;
+            lengths[count] = length;
+            bases[count] = baseVersion;
+            depths[count] = baseVersion == SNAPSHOT ? 0 : depths[baseVersion] + 1;
+            targetLengths[count] = targetLength;
+            crcs[count] = crc;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+public class VCDiffBlobStoreBuilder {
+
+    public static final int DEFAULT_MAX_CHAIN_DEPTH = 16;
+
+    protected int maxChainDepth = DEFAULT_MAX_CHAIN_DEPTH;
+    protected boolean sync = false;
+
+    protected VCDiffBlobStoreBuilder() {
+
+    }
+
+    /**
+     * @param maxChainDepth maximum number of deltas between a version and the snapshot
+     *                      it's rebuilt from.  0 stores every version as a snapshot.
+     * @return this builder
+     */
+    public synchronized VCDiffBlobStoreBuilder withMaxChainDepth(int maxChainDepth) {
+        if (maxChainDepth < 0) {
+            throw new IllegalArgumentException("maxChainDepth can't be negative");
+        }
+        this.maxChainDepth = maxChainDepth;
+        return this;
+    }
+
+    /**
+     * @param sync whether to force every new version to disk before put returns
+     * @return this builder
+     */
+    public synchronized VCDiffBlobStoreBuilder withSync(boolean sync) {
+        this.sync = sync;
+        return this;
+    }
+
+    /**
+     * Opens the store in directory, creating it if it doesn't exist.
+     *
+     * @param directory directory holding the store's files
+     * @return the opened store
+     * @throws IOException if the store couldn't be opened or created
+     */
+    public synchronized VCDiffBlobStore open(Path directory) throws IOException {
+        Files.createDirectories(Objects.requireNonNull(directory, "directory was null"));
+        return new VCDiffBlobStore(directory, maxChainDepth, sync);
+    }
+
+    public static VCDiffBlobStoreBuilder builder() {
+        return new VCDiffBlobStoreBuilder();
+    }
+}
@@ -0,0 +1,257 @@
+// Copyright 2016 David Ehrmann
+// Author: David Ehrmann
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.davidehrmann.vcdiff.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VCDiffBlobStoreTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VCDiffBlobStoreTest.class);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Random random = new Random(23);
+
+    private List<byte[]> versions(int count, int size) {
+        List<byte[]> versions = new ArrayList<byte[]>();
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+        versions.add(content);
+        for (int i = 1; i < count; i++) {
+            content = content.clone();
+            for (int j = 0; j < 10; j++) {
+                content[random.nextInt(content.length)] = (byte) random.nextInt();
+            }
+            if (random.nextBoolean()) {
+                content = Arrays.copyOf(content, content.length + random.nextInt(100));
+            }
+            versions.add(content);
+        }
+        return versions;
+    }
+
+    private VCDiffBlobStore open(Path directory, int maxChainDepth) throws IOException {
+        return VCDiffBlobStoreBuilder.builder().withMaxChainDepth(maxChainDepth).open(directory);
+    }
+
+    @Test
+    public void PutAndGet() throws Exception {
+        List<byte[]> versions = versions(40, 10000);
+        try (VCDiffBlobStore store = open(temporaryFolder.getRoot().toPath(), 8)) {
+            assertNull(store.get("doc"));
+            for (int i = 0; i < versions.size(); i++) {
+                assertEquals(i, store.put("doc", versions.get(i)));
+            }
+            assertEquals(versions.size(), store.versions("doc"));
+            for (int i = 0; i < versions.size(); i++) {
+                assertArrayEquals(versions.get(i), store.get("doc", i));
+            }
+            assertArrayEquals(versions.get(versions.size() - 1), store.get("doc"));
+        }
+    }
+
+    @Test
+    public void SnapshotsLimitChainDepth() throws Exception {
+        List<byte[]> versions = versions(20, 10000);
+        try (VCDiffBlobStore store = open(temporaryFolder.getRoot().toPath(), 4)) {
+            for (byte[] version : versions) {
+                store.put("doc", version);
+            }
+            for (int i = 0; i < versions.size(); i++) {
+                assertEquals(i % 5, store.chainDepth("doc", i));
+            }
+        }
+
+        // Unrelated versions are stored as snapshots, since deltas wouldn't save anything
+        try (VCDiffBlobStore store = open(temporaryFolder.newFolder().toPath(), 4)) {
+            store.put("random", versions(1, 1000).get(0));
+            store.put("random", versions(1, 1000).get(0));
+            assertEquals(0, store.chainDepth("random", 1));
+        }
+    }
+
+    @Test
+    public void MultipleKeys() throws Exception {
+        List<byte[]> a = versions(10, 5000);
+        List<byte[]> b = versions(10, 7000);
+        try (VCDiffBlobStore store = open(temporaryFolder.getRoot().toPath(), 3)) {
+            for (int i = 0; i < 10; i++) {
+                store.put("a", a.get(i));
+                store.put("b", b.get(i));
+            }
+            assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(store.keys()));
+            for (int i = 0; i < 10; i++) {
+                assertArrayEquals(a.get(i), store.get("a", i));
+                assertArrayEquals(b.get(i), store.get("b", i));
+            }
+        }
+    }
+
+    @Test
+    public void PutKeepsItsOwnCopy() throws Exception {
+        // The latest version is kept to encode the next one against, so changing the
+        // array after put() must not change what's stored, or what the next delta is
+        // encoded against
+        List<byte[]> versions = versions(10, 10000);
+        try (VCDiffBlobStore store = open(temporaryFolder.getRoot().toPath(), 16)) {
+            for (byte[] version : versions) {
+                byte[] content = version.clone();
+                store.put("doc", content);
+                Arrays.fill(content, (byte) 0);
+
+                byte[] latest = store.get("doc");
+                assertArrayEquals(version, latest);
+                latest[0] ^= 1;
+            }
+            for (int i = 0; i < versions.size(); i++) {
+                assertArrayEquals(versions.get(i), store.get("doc", i));
+                assertEquals(i, store.chainDepth("doc", i));
+            }
+        }
+    }
+
+    @Test
+    public void InterleavedPutsAndGets() throws Exception {
+        // Reads of records written since the data file was last mapped
+        List<byte[]> a = versions(30, 3000);
+        List<byte[]> b = versions(30, 5000);
+        try (VCDiffBlobStore store = open(temporaryFolder.getRoot().toPath(), 4)) {
+            for (int i = 0; i < a.size(); i++) {
+                store.put("a", a.get(i));
+                store.put("b", b.get(i));
+                assertArrayEquals(a.get(i), store.get("a"));
+                assertArrayEquals(b.get(i), store.get("b"));
+                assertArrayEquals(a.get(i / 2), store.get("a", i / 2));
+            }
+        }
+    }
+
+    @Test
+    public void Reopen() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        List<byte[]> versions = versions(12, 10000);
+        try (VCDiffBlobStore store = open(directory, 4)) {
+            for (int i = 0; i < 6; i++) {
+                store.put("doc", versions.get(i));
+            }
+        }
+        try (VCDiffBlobStore store = open(directory, 4)) {
+            assertEquals(6, store.versions("doc"));
+            for (int i = 6; i < versions.size(); i++) {
+                store.put("doc", versions.get(i));
+            }
+        }
+        try (VCDiffBlobStore store = open(directory, 4)) {
+            for (int i = 0; i < versions.size(); i++) {
+                assertArrayEquals(versions.get(i), store.get("doc", i));
+            }
+        }
+    }
+
+    @Test
+    public void IncompleteWritesAreIgnored() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        List<byte[]> versions = versions(5, 10000);
+        try (VCDiffBlobStore store = open(directory, 4)) {
+            for (byte[] version : versions) {
+                store.put("doc", version);
+            }
+        }
+
+        // An index record whose data never made it to disk, followed by part of another
+        try (FileChannel index = FileChannel.open(directory.resolve(VCDiffBlobStore.INDEX_FILE), StandardOpenOption.WRITE)) {
+            ByteBuffer record = ByteBuffer.allocate(VCDiffBlobStore.INDEX_RECORD_SIZE + 10);
+            record.putLong(Long.MAX_VALUE / 2);
+            record.putInt(100);
+            record.rewind();
+            index.write(record, index.size());
+        }
+
+        try (VCDiffBlobStore store = open(directory, 4)) {
+            assertEquals(versions.size(), store.versions("doc"));
+            store.put("doc", versions.get(0));
+            assertArrayEquals(versions.get(0), store.get("doc"));
+            assertArrayEquals(versions.get(versions.size() - 1), store.get("doc", versions.size() - 1));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void CorruptDataIsDetected() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        try (VCDiffBlobStore store = open(directory, 4)) {
+            store.put("doc", versions(1, 1000).get(0));
+        }
+        try (FileChannel data = FileChannel.open(directory.resolve(VCDiffBlobStore.DATA_FILE), StandardOpenOption.WRITE)) {
+            data.write(ByteBuffer.wrap(new byte[] {0x55}), 500);
+        }
+        try (VCDiffBlobStore store = open(directory, 4)) {
+            store.get("doc", 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void MissingVersion() throws Exception {
+        try (VCDiffBlobStore store = open(temporaryFolder.getRoot().toPath(), 4)) {
+            store.put("doc", new byte[10]);
+            store.get("doc", 1);
+        }
+    }
+
+    // Read latency grows with chain depth, since every delta in the chain is decoded
+    @Test
+    public void ReadLatencyAtDepth() throws Exception {
+        final int maxChainDepth = 32;
+        List<byte[]> versions = versions(maxChainDepth + 1, 256 * 1024);
+        try (VCDiffBlobStore store = open(temporaryFolder.getRoot().toPath(), maxChainDepth)) {
+            for (byte[] version : versions) {
+                store.put("doc", version);
+            }
+
+            for (int depth : new int[] {0, 1, 8, maxChainDepth}) {
+                assertEquals(depth, store.chainDepth("doc", depth));
+                final int reads = 20;
+                long start = System.nanoTime();
+                for (int i = 0; i < reads; i++) {
+                    assertArrayEquals(versions.get(depth), store.get("doc", depth));
+                }
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / reads;
+                LOGGER.info("Read at chain depth {}: {} us", depth, micros);
+                assertTrue("Read at depth " + depth + " took " + micros + " us", micros < TimeUnit.SECONDS.toMicros(5));
+            }
+        }
+    }
+}